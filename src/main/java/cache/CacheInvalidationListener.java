@@ -0,0 +1,195 @@
+package cache;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.BitSet;
+
+/**
+ * Сброс кэша сущностей по уведомлениям PostgreSQL.
+ * Триггеры из миграции V5 отправляют в канал entity_changes сообщение о каждом изменении строки,
+ * в том числе сделанном другим узлом. Слушатель держит своё соединение вне пула, ждёт уведомления
+ * в фоновом потоке и вытесняет затронутые сущности, как это делает сервис после своей записи.
+ * Пока соединения нет, уведомления теряются, поэтому после каждого подключения кэш сбрасывается целиком.
+ * По тем же уведомлениям пополняются фильтры существующих идентификаторов: после подключения они строятся
+ * заново по базе данных, а без соединения отключаются.
+ */
+public class CacheInvalidationListener implements AutoCloseable {
+
+    public CacheInvalidationListener(EntityCache cache) {
+        this.cache = cache;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "cache-invalidation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Подписан ли слушатель на канал в данный момент.
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(POLL_TIMEOUT_MS * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Применить одно уведомление вида "таблица:id:id_родителя" к кэшу.
+     * Непонятное уведомление сбрасывает кэш целиком: лишний промах лучше устаревших данных.
+     */
+    static void apply(EntityCache cache, String payload) {
+        String[] parts;
+        int id;
+        Integer parentId;
+
+        parts = payload.split(":");
+        try {
+            id = Integer.parseInt(parts[1]);
+            parentId = parts.length > 2 ? Integer.valueOf(parts[2]) : null;
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            cache.clear();
+            return;
+        }
+        // Уведомление не различает вставку и удаление, поэтому идентификатор только добавляется:
+        // удалённая строка даст ложное срабатывание фильтра, но не ложный 404
+        switch (parts[0]) {
+            case "universities":
+                cache.getUniversityIds().add(id);
+                cache.evictUniversity(id);
+                break;
+            case "departments":
+                cache.getDepartmentIds().add(id);
+                if (parentId != null) {
+                    cache.evictDepartment(id, parentId);
+                } else {
+                    cache.evictDepartment(id);
+                }
+                break;
+            case "professors":
+                cache.getProfessorIds().add(id);
+                if (parentId != null) {
+                    cache.evictProfessor(id, parentId);
+                } else {
+                    cache.evictProfessor(id);
+                }
+                break;
+            default:
+                cache.clear();
+        }
+    }
+
+    private void run() {
+        long delay;
+
+        delay = MIN_RECONNECT_DELAY_MS;
+        while (running) {
+            Connection connection;
+
+            connection = null;
+            try {
+                connection = DriverManager.getConnection(DatabaseSettings.URL, DatabaseSettings.USERNAME, DatabaseSettings.PASSWORD);
+                listen(connection);
+            } catch (SQLException e) {
+                // Потеря установленного соединения - переподключаемся сразу, иначе реже и реже
+                delay = listening ? MIN_RECONNECT_DELAY_MS : Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+            } finally {
+                listening = false;
+                cache.getUniversityIds().disable();
+                cache.getDepartmentIds().disable();
+                cache.getProfessorIds().disable();
+                closeQuietly(connection);
+            }
+            if (running && !sleep(delay)) {
+                return;
+            }
+        }
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        PGConnection pgConnection;
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        pgConnection = connection.unwrap(PGConnection.class);
+        cache.clear();
+        // Строки, вставленные во время чтения, придут уведомлениями после него: подписка уже есть
+        cache.getUniversityIds().rebuild(readIds(connection, "universities"));
+        cache.getDepartmentIds().rebuild(readIds(connection, "departments"));
+        cache.getProfessorIds().rebuild(readIds(connection, "professors"));
+        listening = true;
+        while (running) {
+            PGNotification[] notifications;
+
+            notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    apply(cache, notification.getParameter());
+                }
+            }
+        }
+    }
+
+    private static BitSet readIds(Connection connection, String table) throws SQLException {
+        BitSet ids;
+
+        ids = new BitSet();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id FROM " + table)) {
+            while (resultSet.next()) {
+                ids.set(resultSet.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // Соединение уже потеряно
+            }
+        }
+    }
+
+    private static final String CHANNEL = "entity_changes";
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long MIN_RECONNECT_DELAY_MS = 100;
+    private static final long MAX_RECONNECT_DELAY_MS = 10_000;
+
+    private final EntityCache cache;
+    private volatile boolean running;
+    private volatile boolean listening;
+    private Thread thread;
+}
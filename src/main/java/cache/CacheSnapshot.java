@@ -0,0 +1,452 @@
+package cache;
+
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.UniversityFull;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Снимок кэша сущностей в файле, чтобы узел после перезапуска начинал работу с прогретым кэшем.
+ * Периодически самые востребованные сущности первого уровня каждого вида записываются в отображаемый в память
+ * файл вместе с версиями, в том виде, что и ETag (см. {@link repositories.UniversityRepository#getVersion(int)}):
+ * в версию входят и вложенные сущности, поэтому изменение кафедры делает устаревшим и снимок её университета.
+ * Файл пишется во временный и атомарно подменяет прежний, целостность проверяется контрольной суммой.
+ * При запуске снимок читается, текущие версии всех его сущностей запрашиваются из базы данных одним
+ * запросом на вид сущностей, и в кэш попадают только совпавшие.
+ * Снимок пишется и восстанавливается только пока {@link CacheInvalidationListener} подписан на изменения:
+ * иначе изменения других узлов, сделанные в это время, не отследить.
+ */
+public class CacheSnapshot implements AutoCloseable {
+
+    /**
+     * Запрос текущих версий многих сущностей одного вида.
+     */
+    @FunctionalInterface
+    public interface VersionLoader {
+        Map<Integer, String> load(int[] ids) throws SQLException;
+    }
+
+    /**
+     * @param maxEntries сколько самых востребованных сущностей каждого вида сохранять
+     */
+    @SuppressWarnings("java:S107") // Загрузчики версий по одному на вид сущностей
+    public CacheSnapshot(EntityCache cache, CacheInvalidationListener listener, Path file, int maxEntries,
+                         VersionLoader universityVersions, VersionLoader departmentVersions, VersionLoader professorVersions) {
+        this.cache = cache;
+        this.listener = listener;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        sections = Arrays.asList(
+                new Section<UniversityFull>(cache::getHottestUniversities, EntityCodec::encode, EntityCodec::decodeUniversity,
+                        cache::restoreUniversity, UniversityFull::getVersion, universityVersions),
+                new Section<DepartmentFull>(cache::getHottestDepartments, EntityCodec::encode, EntityCodec::decodeDepartment,
+                        cache::restoreDepartment, DepartmentFull::getVersion, departmentVersions),
+                new Section<Professor>(cache::getHottestProfessors, EntityCodec::encode, EntityCodec::decodeProfessor,
+                        cache::restoreProfessor, Professor::getVersion, professorVersions));
+    }
+
+    /**
+     * Восстановить кэш из снимка в фоновом потоке, как только слушатель подпишется на изменения,
+     * а затем сохранять снимок раз в intervalSeconds.
+     */
+    public void start(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread;
+
+            thread = new Thread(runnable, "cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::restoreWhenListening);
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Закончена ли попытка восстановления после запуска, в том числе неудачная.
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Сколько сущностей восстановлено из снимка.
+     */
+    public int getRestoredEntries() {
+        return restoredEntries;
+    }
+
+    /**
+     * Остановить сохранение по расписанию и сохранить снимок напоследок, пока слушатель ещё подписан.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(GRACE_MS * 2, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        saveQuietly();
+    }
+
+    /**
+     * Записать снимок. Версии запрашиваются после того, как сущности взяты из кэша, поэтому сущность,
+     * изменённую в промежутке, сохранить с более новой версией нельзя: такой снимок отбрасывается, если за время
+     * записи и ещё {@value #GRACE_MS} мс на доставку уведомлений из кэша что-либо вытеснялось.
+     *
+     * @return записан ли снимок
+     */
+    boolean save() throws IOException, SQLException {
+        ArrayList<List<Entry>> entries;
+        long startEpoch;
+
+        if (!listener.isListening()) {
+            return false;
+        }
+        startEpoch = cache.getEpoch();
+        entries = new ArrayList<>(sections.size());
+        for (Section<?> section : sections) {
+            entries.add(section.collect(maxEntries));
+        }
+        if (!sleep(GRACE_MS) || cache.getEpoch() != startEpoch || !listener.isListening()) {
+            return false;
+        }
+        write(entries);
+        return true;
+    }
+
+    /**
+     * Положить в кэш сущности из снимка, версии которых совпадают с текущими.
+     *
+     * @return сколько сущностей восстановлено
+     */
+    int restore() throws IOException, SQLException {
+        ByteBuffer snapshot;
+        ArrayList<List<Entry>> entries;
+        long startEpoch;
+        int count;
+
+        snapshot = read();
+        if (snapshot == null) {
+            return 0;
+        }
+        entries = new ArrayList<>(sections.size());
+        try {
+            for (int i = 0; i < sections.size(); i++) {
+                entries.add(readEntries(snapshot));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Контрольная сумма сошлась, а формат нет - снимок записан другой версией приложения
+            return 0;
+        }
+        startEpoch = cache.getEpoch();
+        count = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            count += sections.get(i).restore(entries.get(i), startEpoch);
+        }
+        return count;
+    }
+
+    private void restoreWhenListening() {
+        long deadline;
+
+        deadline = System.currentTimeMillis() + LISTEN_WAIT_MS;
+        try {
+            while (!listener.isListening() && System.currentTimeMillis() < deadline) {
+                if (!sleep(LISTEN_POLL_MS)) {
+                    return;
+                }
+            }
+            if (listener.isListening()) {
+                restoredEntries = restore();
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            // Без снимка кэш прогреется обычными запросами
+        } finally {
+            restored = true;
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | SQLException | RuntimeException e) {
+            // Сохранится в следующий раз, прежний снимок остаётся на месте
+        }
+    }
+
+    /**
+     * Формат: заголовок, затем для каждого вида сущностей число записей и записи
+     * [id][длина версии][версия][длина сущности][сущность], в конце CRC32 всего предыдущего.
+     */
+    private void write(List<List<Entry>> entries) throws IOException {
+        Path temporary;
+        long size;
+        CRC32 checksum;
+
+        size = HEADER_BYTES + CHECKSUM_BYTES;
+        for (List<Entry> section : entries) {
+            size += Integer.BYTES;
+            for (Entry entry : section) {
+                size += Integer.BYTES * 3L + entry.version.length + entry.data.length;
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Cache snapshot is too large: " + size + " bytes");
+        }
+        temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer;
+            ByteBuffer content;
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            for (List<Entry> section : entries) {
+                buffer.putInt(section.size());
+                for (Entry entry : section) {
+                    buffer.putInt(entry.id);
+                    buffer.putInt(entry.version.length);
+                    buffer.put(entry.version);
+                    buffer.putInt(entry.data.length);
+                    buffer.put(entry.data);
+                }
+            }
+            content = buffer.duplicate();
+            content.flip();
+            checksum = new CRC32();
+            checksum.update(content);
+            buffer.putLong(checksum.getValue());
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Отобразить файл снимка в память и проверить его.
+     *
+     * @return снимок, спозиционированный после заголовка, или null, если снимка нет или он испорчен
+     */
+    private ByteBuffer read() throws IOException {
+        MappedByteBuffer buffer;
+        ByteBuffer content;
+        CRC32 checksum;
+        long size;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size < HEADER_BYTES + CHECKSUM_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        content = buffer.duplicate();
+        content.limit((int) size - CHECKSUM_BYTES);
+        checksum = new CRC32();
+        checksum.update(content);
+        if (checksum.getValue() != buffer.getLong((int) size - CHECKSUM_BYTES)
+                || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        buffer.limit((int) size - CHECKSUM_BYTES);
+        return buffer;
+    }
+
+    private static List<Entry> readEntries(ByteBuffer snapshot) {
+        ArrayList<Entry> entries;
+        int count;
+
+        count = snapshot.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative entry count");
+        }
+        entries = new ArrayList<>(Math.min(count, snapshot.remaining() / (Integer.BYTES * 3)));
+        for (int i = 0; i < count; i++) {
+            int id;
+            byte[] version;
+            byte[] data;
+
+            id = snapshot.getInt();
+            version = new byte[snapshot.getInt()];
+            snapshot.get(version);
+            data = new byte[snapshot.getInt()];
+            snapshot.get(data);
+            entries.add(new Entry(id, version, data));
+        }
+        return entries;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Закодированная сущность с версией.
+     */
+    private static final class Entry {
+
+        Entry(int id, byte[] version, byte[] data) {
+            this.id = id;
+            this.version = version;
+            this.data = data;
+        }
+
+        private final int id;
+        private final byte[] version;
+        private final byte[] data;
+    }
+
+    /**
+     * Кладёт сущность в кэш, см. {@link EntityCache#restoreUniversity(int, UniversityFull, long)}.
+     */
+    @FunctionalInterface
+    private interface Restorer<T> {
+        boolean restore(int id, T value, long startEpoch);
+    }
+
+    /**
+     * Запись и восстановление сущностей одного вида.
+     */
+    private static final class Section<T> {
+
+        Section(IntFunction<Map<Integer, T>> hottest, Function<T, byte[]> encoder, Function<ByteBuffer, T> decoder,
+                Restorer<T> restorer, Function<T, String> ownVersion, VersionLoader versions) {
+            this.hottest = hottest;
+            this.encoder = encoder;
+            this.decoder = decoder;
+            this.restorer = restorer;
+            this.ownVersion = ownVersion;
+            this.versions = versions;
+        }
+
+        /**
+         * Взять самые востребованные сущности из кэша и их текущие версии.
+         * Сущности, которых уже нет в базе данных или которые изменились после загрузки в кэш
+         * (их собственная версия отличается от текущей), пропускаются.
+         */
+        List<Entry> collect(int limit) throws SQLException {
+            Map<Integer, T> values;
+            Map<Integer, String> current;
+            ArrayList<Entry> entries;
+
+            values = hottest.apply(limit);
+            current = versions.load(ids(values.keySet()));
+            entries = new ArrayList<>(values.size());
+            for (Map.Entry<Integer, T> value : values.entrySet()) {
+                String version;
+
+                version = current.get(value.getKey());
+                if (version != null && version.equals(ownVersion.apply(value.getValue()))) {
+                    entries.add(new Entry(value.getKey(), version.getBytes(StandardCharsets.US_ASCII), encoder.apply(value.getValue())));
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * @return сколько сущностей положено в кэш
+         */
+        int restore(List<Entry> entries, long startEpoch) throws SQLException {
+            Map<Integer, String> current;
+            ArrayList<Integer> ids;
+            int count;
+
+            if (entries.isEmpty()) {
+                return 0;
+            }
+            ids = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                ids.add(entry.id);
+            }
+            current = versions.load(ids(ids));
+            count = 0;
+            for (Entry entry : entries) {
+                String version;
+
+                version = current.get(entry.id);
+                if (version != null && version.equals(new String(entry.version, StandardCharsets.US_ASCII))) {
+                    if (!restorer.restore(entry.id, decoder.apply(ByteBuffer.wrap(entry.data)), startEpoch)) {
+                        // Данные изменились после сверки версий, остальные сущности тоже могли устареть
+                        break;
+                    }
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int[] ids(Iterable<Integer> ids) {
+            ArrayList<Integer> list;
+            int[] array;
+
+            list = new ArrayList<>();
+            ids.forEach(list::add);
+            array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        private final IntFunction<Map<Integer, T>> hottest;
+        private final Function<T, byte[]> encoder;
+        private final Function<ByteBuffer, T> decoder;
+        private final Restorer<T> restorer;
+        private final Function<T, String> ownVersion;
+        private final VersionLoader versions;
+    }
+
+    // "UCSN" - снимок кэша сущностей
+    private static final int MAGIC = 0x5543534E;
+    // 2 - сущности хранят свою версию
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int CHECKSUM_BYTES = Long.BYTES;
+    // Время на доставку уведомлений об изменениях, сделанных во время записи снимка
+    static final long GRACE_MS = 1000;
+    private static final long LISTEN_WAIT_MS = 30_000;
+    private static final long LISTEN_POLL_MS = 100;
+
+    private final EntityCache cache;
+    private final CacheInvalidationListener listener;
+    private final Path file;
+    private final int maxEntries;
+    private final List<Section<?>> sections;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean restored;
+    private volatile int restoredEntries;
+}
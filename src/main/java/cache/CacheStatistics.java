@@ -0,0 +1,69 @@
+package cache;
+
+/**
+ * Снимок статистики одного кэша.
+ */
+public class CacheStatistics {
+
+    public CacheStatistics(String name, long size, long weight, long maximumWeight, long hits, long misses, long evictions) {
+        this.name = name;
+        this.size = size;
+        this.weight = weight;
+        this.maximumWeight = maximumWeight;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Оценка занимаемой памяти в байтах.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Текущий предел памяти в байтах, уменьшенный при нехватке памяти.
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Доля попаданий среди всех обращений, 1.0 если обращений не было.
+     */
+    public double getHitRate() {
+        long requests;
+
+        requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    private final String name;
+    private final long size;
+    private final long weight;
+    private final long maximumWeight;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+}
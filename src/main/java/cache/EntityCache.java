@@ -0,0 +1,452 @@
+package cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.UniversityFull;
+import utils.CacheSettings;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Кэш сущностей, загружаемых по идентификатору.
+ * Общий для всех сервисов, потому что сущности вложены друг в друга: кафедра содержит
+ * свой университет, университет - список кафедр, профессор - кафедру с университетом.
+ * Поэтому изменение любой сущности вытесняет и все закэшированные сущности, в которые она входит.
+ * Вытеснение по размеру выполняет Caffeine (W-TinyLFU), по времени - истечение TTL после загрузки.
+ * Размер ограничен не числом записей, а оценкой занимаемой памяти (см. {@link EntitySizes}), потому что
+ * кафедра с тысячами профессоров весит как тысячи профессоров. Бюджет в байтах делится поровну между
+ * видами сущностей и уменьшается при нехватке памяти (см. {@link HeapBudget}).
+ * Самые запрашиваемые сущности (см. {@link HotKeys}) закреплены: они не вытесняются по размеру
+ * и не учитываются в нём, поэтому проход по множеству редких сущностей не вытеснит популярные.
+ * Под закреплённые отводится половина доли вида сущностей, сущность крупнее своей части этой половины не закрепляется.
+ * Вытесненные по размеру сущности остаются во втором уровне вне кучи (см. {@link OffHeapTier}): при промахе
+ * первого уровня сущность раскодируется оттуда и снова попадает в первый, в базу данных запрос не идёт.
+ * Закэшированные объекты отдаются вызывающему коду как есть, изменять их нельзя.
+ * Одновременные промахи по одному ключу, а также одинаковые запросы списков объединяются в одну
+ * загрузку (см. {@link SingleFlight}), поэтому и общие результаты изменять нельзя.
+ */
+public class EntityCache {
+
+    /**
+     * Загрузка сущности из базы данных при промахе кэша.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load(int id) throws SQLException;
+    }
+
+    /**
+     * @param maximumBytes бюджет памяти на все виды сущностей
+     */
+    public EntityCache(long maximumBytes, Duration timeToLive) {
+        this(maximumBytes, timeToLive, CacheSettings.HOT_KEYS);
+    }
+
+    /**
+     * @param maximumBytes бюджет памяти на все виды сущностей
+     * @param hotKeys      сколько самых запрашиваемых сущностей каждого вида закреплять в кэше
+     */
+    public EntityCache(long maximumBytes, Duration timeToLive, int hotKeys) {
+        this(maximumBytes, timeToLive, hotKeys, CacheSettings.OFF_HEAP_CACHE_MAX_BYTES);
+    }
+
+    /**
+     * @param maximumBytes бюджет памяти на все виды сущностей
+     * @param hotKeys      сколько самых запрашиваемых сущностей каждого вида закреплять в кэше
+     * @param offHeapBytes память вне кучи под второй уровень, 0 - без второго уровня
+     */
+    public EntityCache(long maximumBytes, Duration timeToLive, int hotKeys, long offHeapBytes) {
+        long share;
+        long pinLimit;
+        int sketchWidth;
+
+        share = maximumBytes / 3;
+        pinLimit = hotKeys > 0 ? share / 2 / hotKeys : 0;
+        sketchWidth = (int) Math.min(Math.max(maximumBytes / AVERAGE_ENTRY_BYTES, MIN_SKETCH_WIDTH), MAX_SKETCH_WIDTH);
+        universityKeys = new HotKeys("universities", sketchWidth, hotKeys, this::repinUniversity);
+        departmentKeys = new HotKeys("departments", sketchWidth, hotKeys, this::repinDepartment);
+        professorKeys = new HotKeys("professors", sketchWidth, hotKeys, this::repinProfessor);
+        universities = build(timeToLive, universityKeys, pinLimit, EntitySizes::of);
+        departments = build(timeToLive, departmentKeys, pinLimit, EntitySizes::of);
+        professors = build(timeToLive, professorKeys, pinLimit, EntitySizes::of);
+        budget = new HeapBudget();
+        budget.add(universities, share - pinLimit * hotKeys);
+        budget.add(departments, share - pinLimit * hotKeys);
+        budget.add(professors, share - pinLimit * hotKeys);
+        offHeap = new OffHeapTier(offHeapBytes, timeToLive);
+        universityLoads = new SingleFlight<>();
+        departmentLoads = new SingleFlight<>();
+        professorLoads = new SingleFlight<>();
+        queries = new SingleFlight<>();
+        universityIds = new IdFilter("universities");
+        departmentIds = new IdFilter("departments");
+        professorIds = new IdFilter("professors");
+        epoch = new AtomicLong();
+    }
+
+    public UniversityFull getUniversity(int id, Loader<UniversityFull> loader) throws SQLException {
+        return get(universities, universityLoads, offHeap.getUniversities(), id, loader);
+    }
+
+    public DepartmentFull getDepartment(int id, Loader<DepartmentFull> loader) throws SQLException {
+        return get(departments, departmentLoads, offHeap.getDepartments(), id, loader);
+    }
+
+    public Professor getProfessor(int id, Loader<Professor> loader) throws SQLException {
+        return get(professors, professorLoads, offHeap.getProfessors(), id, loader);
+    }
+
+    /**
+     * Положить университет из снимка кэша, версия которого уже сверена с базой данных.
+     * Сущность не кладётся, если с момента startEpoch (взятого до сверки) что-то вытеснялось:
+     * она могла измениться после сверки.
+     *
+     * @return положена ли сущность
+     */
+    public boolean restoreUniversity(int id, UniversityFull university, long startEpoch) {
+        return restore(universities, offHeap.getUniversities(), id, university, startEpoch);
+    }
+
+    public boolean restoreDepartment(int id, DepartmentFull department, long startEpoch) {
+        return restore(departments, offHeap.getDepartments(), id, department, startEpoch);
+    }
+
+    public boolean restoreProfessor(int id, Professor professor, long startEpoch) {
+        return restore(professors, offHeap.getProfessors(), id, professor, startEpoch);
+    }
+
+    /**
+     * Самые востребованные университеты первого уровня по оценке Caffeine, начиная с самых частых.
+     */
+    public Map<Integer, UniversityFull> getHottestUniversities(int limit) {
+        return hottest(universities, limit);
+    }
+
+    public Map<Integer, DepartmentFull> getHottestDepartments(int limit) {
+        return hottest(departments, limit);
+    }
+
+    public Map<Integer, Professor> getHottestProfessors(int limit) {
+        return hottest(professors, limit);
+    }
+
+    /**
+     * Счётчик вытеснений, увеличивается при каждом изменении данных.
+     * По нему {@link CacheSnapshot} проверяет, что за время записи или восстановления снимка ничего не менялось.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Множество существующих университетов. Строится и поддерживается {@link CacheInvalidationListener}.
+     */
+    public IdFilter getUniversityIds() {
+        return universityIds;
+    }
+
+    public IdFilter getDepartmentIds() {
+        return departmentIds;
+    }
+
+    public IdFilter getProfessorIds() {
+        return professorIds;
+    }
+
+    /**
+     * Частоты обращений к университетам. Обращения учитывают контроллеры, в том числе
+     * завершившиеся 304 Not Modified или ответом из кэша ответов, которые до этого кэша не доходят.
+     */
+    public HotKeys getUniversityKeys() {
+        return universityKeys;
+    }
+
+    public HotKeys getDepartmentKeys() {
+        return departmentKeys;
+    }
+
+    public HotKeys getProfessorKeys() {
+        return professorKeys;
+    }
+
+    /**
+     * Выполнить запрос, не кэшируя результат, но объединив его с таким же одновременным запросом.
+     * Используется для списков: их кэширует кэш ответов по версии таблицы.
+     *
+     * @param key строка, однозначно задающая запрос и его параметры
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T coalesce(String key, SingleFlight.Loader<T> loader) throws SQLException {
+        return (T) queries.run(key, loader::load);
+    }
+
+    /**
+     * Вытеснить университет, а также его кафедры и их профессоров.
+     * Вызывается после изменения и удаления университета (удаление каскадное).
+     */
+    public void evictUniversity(int id) {
+        advanceEpoch();
+        universities.invalidate(id);
+        offHeap.evictUniversity(id, departments::invalidate, professors::invalidate);
+    }
+
+    /**
+     * Вытеснить кафедру, её профессоров и университеты, в списке которых она есть.
+     * Вызывается после изменения и удаления кафедры.
+     */
+    public void evictDepartment(int id) {
+        advanceEpoch();
+        departments.invalidate(id);
+        offHeap.evictDepartment(id, universities::invalidate, professors::invalidate);
+    }
+
+    /**
+     * Вытеснить кафедру и университет, в который она добавлена или перенесена.
+     */
+    public void evictDepartment(int id, int universityId) {
+        evictDepartment(id);
+        universities.invalidate(universityId);
+        offHeap.getUniversities().remove(universityId);
+    }
+
+    /**
+     * Вытеснить профессора и кафедры, в списке которых он есть.
+     * Вызывается после изменения и удаления профессора.
+     */
+    public void evictProfessor(int id) {
+        advanceEpoch();
+        professors.invalidate(id);
+        offHeap.evictProfessor(id, departments::invalidate);
+    }
+
+    /**
+     * Вытеснить профессора и кафедру, в которую он добавлен или перенесён.
+     */
+    public void evictProfessor(int id, int departmentId) {
+        evictProfessor(id);
+        departments.invalidate(departmentId);
+        offHeap.getDepartments().remove(departmentId);
+    }
+
+    /**
+     * Вытеснить все сущности. Используется, когда изменения могли быть пропущены.
+     */
+    public void clear() {
+        advanceEpoch();
+        universities.invalidateAll();
+        departments.invalidateAll();
+        professors.invalidateAll();
+        offHeap.clear();
+    }
+
+    /**
+     * Статистика попаданий, промахов и вытеснений по каждому виду сущностей, сначала в куче, затем вне её.
+     */
+    public Collection<CacheStatistics> getStatistics() {
+        ArrayList<CacheStatistics> statistics;
+
+        statistics = new ArrayList<>(6);
+        statistics.add(statistics("universities", universities));
+        statistics.add(statistics("departments", departments));
+        statistics.add(statistics("professors", professors));
+        statistics.addAll(offHeap.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * Статистика фильтров существующих идентификаторов по каждому виду сущностей.
+     */
+    public Collection<IdFilterStatistics> getIdFilterStatistics() {
+        ArrayList<IdFilterStatistics> statistics;
+
+        statistics = new ArrayList<>(3);
+        statistics.add(universityIds.getStatistics());
+        statistics.add(departmentIds.getStatistics());
+        statistics.add(professorIds.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * Бюджет памяти кэша, уменьшаемый при нехватке памяти.
+     */
+    public HeapBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Самые запрашиваемые сущности каждого вида.
+     */
+    public Collection<HotKeys> getHotKeys() {
+        ArrayList<HotKeys> hotKeys;
+
+        hotKeys = new ArrayList<>(3);
+        hotKeys.add(universityKeys);
+        hotKeys.add(departmentKeys);
+        hotKeys.add(professorKeys);
+        return hotKeys;
+    }
+
+    /**
+     * Найти сущность в кэше или загрузить её, объединив одновременные промахи по одному ключу.
+     */
+    private <T> T get(Cache<Integer, T> cache, SingleFlight<Integer, T> loads, OffHeapTier.Store<T> offHeapStore,
+                      int id, Loader<T> loader) throws SQLException {
+        T value;
+
+        value = cache.getIfPresent(id);
+        if (value != null) {
+            return value;
+        }
+        return loads.run(id, () -> load(cache, offHeapStore, id, loader));
+    }
+
+    /**
+     * Взять сущность из второго уровня или загрузить её из базы данных и положить в кэш.
+     * Загрузка идёт без блокировок, поэтому вытеснение может произойти, пока запрос к базе данных
+     * ещё выполняется, и загруженная сущность окажется устаревшей. Счётчик вытеснений это отслеживает:
+     * если он изменился за время загрузки, сущность отдаётся вызывающему коду, но в кэше не остаётся.
+     * Во второй уровень сущность кладётся после первого: вместе с ней запоминаются её связи, и вытеснение,
+     * забывшее связи раньше, уже видит сущность в первом уровне, а позже - видит связи.
+     */
+    private <T> T load(Cache<Integer, T> cache, OffHeapTier.Store<T> offHeapStore, int id, Loader<T> loader) throws SQLException {
+        T value;
+        long loadEpoch;
+
+        loadEpoch = epoch.get();
+        value = offHeapStore.get(id);
+        if (value != null) {
+            cache.put(id, value);
+        } else {
+            value = loader.load(id);
+            if (value != null) {
+                cache.put(id, value);
+                offHeapStore.put(id, value);
+            }
+        }
+        if (value != null) {
+            if (epoch.get() != loadEpoch) {
+                cache.asMap().remove(id, value);
+                offHeapStore.remove(id);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Положить сущность в оба уровня так же, как после загрузки, если с startEpoch ничего не вытеснялось.
+     */
+    private <T> boolean restore(Cache<Integer, T> cache, OffHeapTier.Store<T> offHeapStore, int id, T value, long startEpoch) {
+        if (epoch.get() != startEpoch) {
+            return false;
+        }
+        cache.put(id, value);
+        offHeapStore.put(id, value);
+        if (epoch.get() != startEpoch) {
+            cache.asMap().remove(id, value);
+            offHeapStore.remove(id);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Отметить изменение данных: загрузки, начатые раньше, больше не переиспользуются.
+     */
+    private void advanceEpoch() {
+        epoch.incrementAndGet();
+        universityLoads.forgetAll();
+        departmentLoads.forgetAll();
+        professorLoads.forgetAll();
+        queries.forgetAll();
+    }
+
+    private void repinUniversity(int id) {
+        repin(universities, id);
+    }
+
+    private void repinDepartment(int id) {
+        repin(departments, id);
+    }
+
+    private void repinProfessor(int id) {
+        repin(professors, id);
+    }
+
+    /**
+     * Пересчитать вес закэшированной сущности после того, как она стала популярной или перестала ей быть.
+     */
+    private static <T> void repin(Cache<Integer, T> cache, int id) {
+        cache.asMap().computeIfPresent(id, (key, value) -> value);
+    }
+
+    /**
+     * Вес записи - оценка памяти сущности в байтах. Популярные сущности не крупнее pinLimit весят 0:
+     * Caffeine не выбирает их для вытеснения по размеру. Вес вычисляется при записи, поэтому при входе
+     * в набор популярных и выходе из него запись обновляется. Предел веса задаёт {@link HeapBudget}.
+     */
+    private static <T> Cache<Integer, T> build(Duration timeToLive, HotKeys hotKeys, long pinLimit, ToLongFunction<T> sizeOf) {
+        return Caffeine.newBuilder()
+                .maximumWeight(Long.MAX_VALUE)
+                .<Integer, T>weigher((id, value) -> {
+                    long size;
+
+                    size = sizeOf.applyAsLong(value);
+                    if (size <= pinLimit && hotKeys.isHot(id)) {
+                        return 0;
+                    }
+                    return (int) Math.min(size, Integer.MAX_VALUE);
+                })
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    private static <T> Map<Integer, T> hottest(Cache<Integer, T> cache, int limit) {
+        return cache.policy().eviction().orElseThrow(IllegalStateException::new).hottest(limit);
+    }
+
+    private static <T> CacheStatistics statistics(String name, Cache<Integer, T> cache) {
+        CacheStats stats;
+        Policy.Eviction<Integer, T> eviction;
+
+        // Учёт веса и вытеснение Caffeine выполняет отложенно, перед снимком они доводятся до конца
+        cache.cleanUp();
+        stats = cache.stats();
+        eviction = cache.policy().eviction().orElseThrow(IllegalStateException::new);
+        return new CacheStatistics(name, cache.estimatedSize(), eviction.weightedSize().orElse(0), eviction.getMaximum(),
+                stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    // Для оценки числа различных идентификаторов в кэше, по которому выбирается ширина оценщика частоты
+    private static final long AVERAGE_ENTRY_BYTES = 1024;
+    private static final long MIN_SKETCH_WIDTH = 64;
+    private static final long MAX_SKETCH_WIDTH = 1 << 16;
+
+    private final Cache<Integer, UniversityFull> universities;
+    private final Cache<Integer, DepartmentFull> departments;
+    private final Cache<Integer, Professor> professors;
+    private final SingleFlight<Integer, UniversityFull> universityLoads;
+    private final SingleFlight<Integer, DepartmentFull> departmentLoads;
+    private final SingleFlight<Integer, Professor> professorLoads;
+    private final SingleFlight<String, Object> queries;
+    private final IdFilter universityIds;
+    private final IdFilter departmentIds;
+    private final IdFilter professorIds;
+    private final HotKeys universityKeys;
+    private final HotKeys departmentKeys;
+    private final HotKeys professorKeys;
+    private final HeapBudget budget;
+    private final OffHeapTier offHeap;
+    // Увеличивается при каждом вытеснении, см. load()
+    private final AtomicLong epoch;
+}
@@ -0,0 +1,281 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.University;
+import entities.UniversityFull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Компактное двоичное представление сущностей для внекучевого кэша.
+ * Идентификаторы - int, строки - длина в байтах (-1 для null) и UTF-8, даты рождения - номер дня
+ * от 1970-01-01 в часовом поясе сервера, как и в JSON. Списки - число элементов (-1 для null) и элементы.
+ * Вложенная сущность, которой может не быть, предваряется байтом 0 или 1.
+ * Обратные ссылки (кафедры на университет, профессора на кафедру) не записываются,
+ * а восстанавливаются при чтении так же, как их заполняет репозиторий.
+ * Версия сущности записывается строкой в конце.
+ */
+final class EntityCodec {
+
+    static byte[] encode(UniversityFull university) {
+        Output out;
+
+        out = new Output();
+        out.university(university);
+        out.collection(university.getDepartments());
+        if (university.getDepartments() != null) {
+            for (Department department : university.getDepartments()) {
+                out.writeInt(department.getId());
+                out.string(department.getName());
+            }
+        }
+        out.string(university.getVersion());
+        return out.toByteArray();
+    }
+
+    static byte[] encode(DepartmentFull department) {
+        Output out;
+
+        out = new Output();
+        out.writeInt(department.getId());
+        out.string(department.getName());
+        out.optionalUniversity(department.getUniversity());
+        out.collection(department.getProfessors());
+        if (department.getProfessors() != null) {
+            for (Professor professor : department.getProfessors()) {
+                out.professor(professor);
+            }
+        }
+        out.string(department.getVersion());
+        return out.toByteArray();
+    }
+
+    static byte[] encode(Professor professor) {
+        Output out;
+        Department department;
+
+        out = new Output();
+        out.professor(professor);
+        department = professor.getDepartment();
+        out.writeBoolean(department != null);
+        if (department != null) {
+            out.writeInt(department.getId());
+            out.string(department.getName());
+            out.optionalUniversity(department.getUniversity());
+        }
+        out.string(professor.getVersion());
+        return out.toByteArray();
+    }
+
+    static UniversityFull decodeUniversity(ByteBuffer in) {
+        UniversityFull university;
+        int count;
+
+        university = new UniversityFull();
+        readUniversity(in, university);
+        count = in.getInt();
+        if (count >= 0) {
+            ArrayList<Department> departments;
+
+            departments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Department department;
+
+                department = new Department();
+                department.setId(in.getInt());
+                department.setName(readString(in));
+                department.setUniversity(university);
+                departments.add(department);
+            }
+            university.setDepartments(departments);
+        }
+        university.setVersion(readString(in));
+        return university;
+    }
+
+    static DepartmentFull decodeDepartment(ByteBuffer in) {
+        DepartmentFull department;
+        int count;
+
+        department = new DepartmentFull();
+        department.setId(in.getInt());
+        department.setName(readString(in));
+        department.setUniversity(readOptionalUniversity(in));
+        count = in.getInt();
+        if (count >= 0) {
+            ArrayList<Professor> professors;
+
+            professors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Professor professor;
+
+                professor = readProfessor(in);
+                professor.setDepartment(department);
+                professors.add(professor);
+            }
+            department.setProfessors(professors);
+        }
+        department.setVersion(readString(in));
+        return department;
+    }
+
+    static Professor decodeProfessor(ByteBuffer in) {
+        Professor professor;
+
+        professor = readProfessor(in);
+        if (in.get() != 0) {
+            Department department;
+
+            department = new Department();
+            department.setId(in.getInt());
+            department.setName(readString(in));
+            department.setUniversity(readOptionalUniversity(in));
+            professor.setDepartment(department);
+        }
+        professor.setVersion(readString(in));
+        return professor;
+    }
+
+    private static void readUniversity(ByteBuffer in, University university) {
+        university.setId(in.getInt());
+        university.setName(readString(in));
+        university.setCity(readString(in));
+    }
+
+    private static University readOptionalUniversity(ByteBuffer in) {
+        University university;
+
+        if (in.get() == 0) {
+            return null;
+        }
+        university = new University();
+        readUniversity(in, university);
+        return university;
+    }
+
+    private static Professor readProfessor(ByteBuffer in) {
+        Professor professor;
+        int birthday;
+
+        professor = new Professor();
+        professor.setId(in.getInt());
+        professor.setName(readString(in));
+        professor.setPhoneNumber(readString(in));
+        professor.setDegree(readString(in));
+        birthday = in.getInt();
+        if (birthday != NO_DATE) {
+            professor.setBirthday(java.sql.Date.valueOf(LocalDate.ofEpochDay(birthday)));
+        }
+        return professor;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length;
+        byte[] bytes;
+
+        length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Запись в растущий буфер в куче.
+     */
+    private static final class Output {
+        Output() {
+            buffer = ByteBuffer.allocate(INITIAL_SIZE);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        void writeInt(int value) {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void writeBoolean(boolean value) {
+            ensure(1);
+            buffer.put((byte) (value ? 1 : 0));
+        }
+
+        void string(String value) {
+            byte[] bytes;
+
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void collection(Collection<?> items) {
+            writeInt(items != null ? items.size() : -1);
+        }
+
+        void university(University university) {
+            writeInt(university.getId());
+            string(university.getName());
+            string(university.getCity());
+        }
+
+        void optionalUniversity(University university) {
+            writeBoolean(university != null);
+            if (university != null) {
+                university(university);
+            }
+        }
+
+        void professor(Professor professor) {
+            Date birthday;
+
+            writeInt(professor.getId());
+            string(professor.getName());
+            string(professor.getPhoneNumber());
+            string(professor.getDegree());
+            birthday = professor.getBirthday();
+            writeInt(birthday != null ? epochDay(birthday) : NO_DATE);
+        }
+
+        private void ensure(int bytes) {
+            ByteBuffer grown;
+
+            if (buffer.remaining() < bytes) {
+                grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        private static int epochDay(Date date) {
+            return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        }
+
+        private ByteBuffer buffer;
+    }
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int INITIAL_SIZE = 128;
+
+    private EntityCodec() {
+    }
+}
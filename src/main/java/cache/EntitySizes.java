@@ -0,0 +1,91 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.University;
+import entities.UniversityFull;
+
+import java.util.Collection;
+
+/**
+ * Оценка памяти, занимаемой закэшированной сущностью вместе со вложенными объектами.
+ * Размеры взяты для 64-битной JVM со сжатыми ссылками, строки считаются по два байта на символ.
+ * Оценка грубая, но растёт вместе с числом вложенных сущностей: кафедра с тысячами профессоров
+ * весит соответственно, а не как одна запись.
+ */
+final class EntitySizes {
+
+    static long of(UniversityFull university) {
+        long size;
+
+        size = ENTRY + UNIVERSITY_FULL + string(university.getName()) + string(university.getCity())
+                + string(university.getVersion());
+        size += collection(university.getDepartments());
+        if (university.getDepartments() != null) {
+            for (Department department : university.getDepartments()) {
+                size += DEPARTMENT + string(department.getName());
+            }
+        }
+        return size;
+    }
+
+    static long of(DepartmentFull department) {
+        long size;
+
+        size = ENTRY + DEPARTMENT_FULL + string(department.getName()) + university(department.getUniversity())
+                + string(department.getVersion());
+        size += collection(department.getProfessors());
+        if (department.getProfessors() != null) {
+            // Профессора в списке ссылаются на саму кафедру, поэтому она не считается повторно
+            for (Professor professor : department.getProfessors()) {
+                size += professor(professor);
+            }
+        }
+        return size;
+    }
+
+    static long of(Professor professor) {
+        long size;
+
+        size = ENTRY + professor(professor) + string(professor.getVersion());
+        if (professor.getDepartment() != null) {
+            size += DEPARTMENT + string(professor.getDepartment().getName()) + university(professor.getDepartment().getUniversity());
+        }
+        return size;
+    }
+
+    private static long professor(Professor professor) {
+        return PROFESSOR + string(professor.getName()) + string(professor.getPhoneNumber()) + string(professor.getDegree())
+                + (professor.getBirthday() != null ? DATE : 0);
+    }
+
+    private static long university(University university) {
+        return university != null ? UNIVERSITY + string(university.getName()) + string(university.getCity()) : 0;
+    }
+
+    private static long string(String value) {
+        return value != null ? STRING + 2L * value.length() : 0;
+    }
+
+    private static long collection(Collection<?> items) {
+        return items != null ? COLLECTION + REFERENCE * (long) items.size() : 0;
+    }
+
+    // Узел Caffeine вместе с ключом Integer
+    private static final long ENTRY = 80;
+    private static final long REFERENCE = 4;
+    private static final long UNIVERSITY = 24;
+    private static final long UNIVERSITY_FULL = 32;
+    private static final long DEPARTMENT = 24;
+    private static final long DEPARTMENT_FULL = 32;
+    private static final long PROFESSOR = 40;
+    private static final long DATE = 24;
+    // Объект String и заголовок массива байтов
+    private static final long STRING = 40;
+    // ArrayList и заголовок массива ссылок
+    private static final long COLLECTION = 40;
+
+    private EntitySizes() {
+    }
+}
@@ -0,0 +1,79 @@
+package cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Приблизительный счётчик частоты обращений к идентификаторам (count-min sketch).
+ * Каждый идентификатор увеличивает по одному счётчику в каждой из строк таблицы,
+ * оценкой частоты служит минимум из них. Память не зависит от числа идентификаторов,
+ * а оценка может быть только завышена за счёт коллизий, но не занижена.
+ */
+class FrequencySketch {
+
+    /**
+     * @param width число счётчиков в строке, округляется вверх до степени двойки
+     */
+    FrequencySketch(int width) {
+        int size;
+
+        size = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        mask = size - 1;
+        this.width = size;
+        table = new AtomicIntegerArray(DEPTH * size);
+    }
+
+    /**
+     * Учесть обращение.
+     *
+     * @return оценка частоты с учётом этого обращения
+     */
+    int increment(int key) {
+        int frequency;
+
+        frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, table.incrementAndGet(index(row, key)));
+        }
+        return frequency;
+    }
+
+    int frequency(int key) {
+        int frequency;
+
+        frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, table.get(index(row, key)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Уменьшить все счётчики вдвое, чтобы давние обращения весили меньше новых.
+     */
+    void halve() {
+        for (int i = 0; i < table.length(); i++) {
+            table.updateAndGet(i, value -> value >>> 1);
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    private int index(int row, int key) {
+        int hash;
+
+        hash = key * SEEDS[row];
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return row * width + (hash & mask);
+    }
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x97cb3127, 0xb7e15163, 0x9e3779b9, 0xc2b2ae35};
+
+    private final AtomicIntegerArray table;
+    private final int width;
+    private final int mask;
+}
@@ -0,0 +1,70 @@
+package cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ограничение памяти под кэши, которое можно временно уменьшать.
+ * Каждый кэш получает свою долю в байтах. При нехватке памяти {@link MemoryPressureMonitor} вызывает
+ * {@link #shrink()}, и доли уменьшаются вдвое за шаг, но не более чем в 16 раз;
+ * Caffeine сразу вытесняет лишнее. Когда давление спадает, {@link #restore()} возвращает их по шагу.
+ */
+public class HeapBudget {
+
+    public HeapBudget() {
+        shares = new CopyOnWriteArrayList<>();
+    }
+
+    public synchronized void shrink() {
+        if (level < MAX_LEVEL) {
+            level++;
+            apply();
+        }
+    }
+
+    public synchronized void restore() {
+        if (level > 0) {
+            level--;
+            apply();
+        }
+    }
+
+    /**
+     * @return во сколько раз (степень двойки) доли сейчас уменьшены
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Подчинить кэш, ограниченный весом в байтах, этому бюджету.
+     */
+    synchronized void add(Cache<?, ?> cache, long maximumBytes) {
+        shares.add(new Share(cache.policy().eviction().orElseThrow(IllegalArgumentException::new), maximumBytes));
+        apply();
+    }
+
+    private void apply() {
+        for (Share share : shares) {
+            share.eviction.setMaximum(share.maximumBytes >> level);
+        }
+    }
+
+    private static final class Share {
+        Share(Policy.Eviction<?, ?> eviction, long maximumBytes) {
+            this.eviction = eviction;
+            this.maximumBytes = maximumBytes;
+        }
+
+        final Policy.Eviction<?, ?> eviction;
+        final long maximumBytes;
+    }
+
+    static final int MAX_LEVEL = 4;
+
+    private final List<Share> shares;
+    private volatile int level;
+}
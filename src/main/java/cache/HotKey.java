@@ -0,0 +1,23 @@
+package cache;
+
+/**
+ * Идентификатор из числа самых запрашиваемых и оценка частоты обращений к нему.
+ */
+public class HotKey {
+
+    public HotKey(int id, int frequency) {
+        this.id = id;
+        this.frequency = frequency;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    private final int id;
+    private final int frequency;
+}
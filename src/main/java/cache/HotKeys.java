@@ -0,0 +1,153 @@
+package cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Самые запрашиваемые идентификаторы одного вида сущностей.
+ * Частоты оцениваются {@link FrequencySketch}, а набор из заданного числа самых частых идентификаторов
+ * поддерживается по мере обращений: новый идентификатор вытесняет самый редкий, если обращались к нему чаще.
+ * Когда число обращений в десять раз превышает ширину оценщика, частоты делятся пополам, поэтому набор следует за сменой интересов,
+ * а разовый проход по множеству идентификаторов не набирает частоты, чтобы в него попасть.
+ * Об изменении набора сообщается обработчику: кэш закрепляет вошедшие сущности и открепляет вышедшие.
+ */
+public class HotKeys {
+
+    /**
+     * @param width    число счётчиков в строке оценщика частоты, порядка числа различных идентификаторов
+     * @param capacity сколько самых частых идентификаторов держать
+     * @param onChange вызывается с идентификатором, который вошёл в набор или вышел из него
+     */
+    public HotKeys(String name, int width, int capacity, IntConsumer onChange) {
+        this.name = name;
+        this.capacity = capacity;
+        this.onChange = onChange;
+        sketch = new FrequencySketch(width);
+        sampleSize = 10 * sketch.getWidth();
+        keys = ConcurrentHashMap.newKeySet();
+        records = new AtomicInteger();
+        lock = new Object();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Учесть обращение к сущности.
+     */
+    public void record(int id) {
+        int frequency;
+        int admitted;
+        int dropped;
+
+        frequency = sketch.increment(id);
+        if (records.incrementAndGet() >= sampleSize) {
+            age();
+        }
+        if (capacity <= 0 || keys.contains(id) || (keys.size() >= capacity && frequency <= minimum)) {
+            return;
+        }
+        admitted = NONE;
+        dropped = NONE;
+        synchronized (lock) {
+            if (keys.contains(id)) {
+                return;
+            }
+            if (keys.size() < capacity) {
+                keys.add(id);
+                admitted = id;
+            } else {
+                int coldest;
+
+                coldest = coldest();
+                if (frequency > sketch.frequency(coldest)) {
+                    keys.remove(coldest);
+                    keys.add(id);
+                    admitted = id;
+                    dropped = coldest;
+                }
+            }
+            minimum = keys.size() < capacity ? 0 : sketch.frequency(coldest());
+        }
+        // Обработчик обращается к кэшу, поэтому вызывается вне блокировки
+        if (dropped != NONE) {
+            onChange.accept(dropped);
+        }
+        if (admitted != NONE) {
+            onChange.accept(admitted);
+        }
+    }
+
+    /**
+     * @return true, если идентификатор входит в число самых запрашиваемых
+     */
+    public boolean isHot(int id) {
+        return keys.contains(id);
+    }
+
+    /**
+     * Самые запрашиваемые идентификаторы по убыванию оценки частоты.
+     */
+    public List<HotKey> top() {
+        ArrayList<HotKey> top;
+
+        top = new ArrayList<>(capacity);
+        for (int id : keys) {
+            top.add(new HotKey(id, sketch.frequency(id)));
+        }
+        top.sort(Comparator.comparingInt(HotKey::getFrequency).reversed().thenComparingInt(HotKey::getId));
+        return top;
+    }
+
+    /**
+     * Уполовинить частоты. Набор при этом не меняется: порядок частот внутри него сохраняется.
+     */
+    private void age() {
+        synchronized (lock) {
+            if (records.get() < sampleSize) {
+                return;
+            }
+            sketch.halve();
+            records.set(0);
+            minimum >>>= 1;
+        }
+    }
+
+    private int coldest() {
+        int coldest;
+        int coldestFrequency;
+
+        coldest = NONE;
+        coldestFrequency = Integer.MAX_VALUE;
+        for (int id : keys) {
+            int frequency;
+
+            frequency = sketch.frequency(id);
+            if (frequency < coldestFrequency) {
+                coldest = id;
+                coldestFrequency = frequency;
+            }
+        }
+        return coldest;
+    }
+
+    // Идентификаторы выдаются последовательностью и положительны
+    private static final int NONE = -1;
+
+    private final String name;
+    private final int capacity;
+    private final IntConsumer onChange;
+    private final FrequencySketch sketch;
+    private final int sampleSize;
+    private final Set<Integer> keys;
+    private final AtomicInteger records;
+    private final Object lock;
+    // Оценка частоты самого редкого идентификатора в полном наборе: более редкие не берут блокировку
+    private volatile int minimum;
+}
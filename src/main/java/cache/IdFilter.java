@@ -0,0 +1,150 @@
+package cache;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Множество существующих идентификаторов одного вида сущностей для отсечения запросов к несуществующим.
+ * Идентификаторы выдаются последовательностью и плотно заполняют диапазон, поэтому вместо фильтра Блума
+ * хватает битовой карты: бит на идентификатор, без ложных отрицаний и с поддержкой удаления.
+ * Ложные срабатывания возможны для строк, удалённых другим узлом или каскадно, их доля видна в статистике.
+ * <p>
+ * Отсутствие в карте достоверно только для идентификаторов не больше наибольшего известного - прочитанного
+ * при построении или добавленного после него: новые строки получают от последовательности большие идентификаторы,
+ * и строка, вставленная другим узлом, попадает в карту лишь с приходом уведомления. Поэтому фильтр пропускает
+ * {@link #NEWER_IDS} идентификаторов сразу за наибольшим известным, запрос к базе данных проверяет существование
+ * строки, а найденная строка добавляется в карту через {@link #confirm(int)}. Идентификаторы дальше
+ * отсекаются: столько вставок, уведомления о которых ещё не пришли, не бывает.
+ * Пока карта не построена или соединение для уведомлений потеряно, фильтр пропускает все идентификаторы.
+ */
+public class IdFilter {
+
+    public IdFilter(String name) {
+        this.name = name;
+        ids = new BitSet();
+        lock = new ReentrantReadWriteLock();
+        lookups = new LongAdder();
+        negatives = new LongAdder();
+        falsePositives = new LongAdder();
+    }
+
+    /**
+     * @return false, если сущности с таким идентификатором точно нет
+     */
+    public boolean mightContain(int id) {
+        boolean contains;
+
+        if (!ready) {
+            return true;
+        }
+        lock.readLock().lock();
+        try {
+            contains = id >= 0 && (ids.get(id) || id > knownUpTo && id - knownUpTo <= NEWER_IDS);
+        } finally {
+            lock.readLock().unlock();
+        }
+        lookups.increment();
+        if (!contains) {
+            negatives.increment();
+        }
+        return contains;
+    }
+
+    public void add(int id) {
+        lock.writeLock().lock();
+        try {
+            ids.set(id);
+            knownUpTo = Math.max(knownUpTo, id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Отметить, что сущность с идентификатором, пропущенным фильтром, нашлась в базе данных.
+     * Идентификатор добавляется в карту, если её ещё нет: строка могла быть вставлена другим узлом,
+     * уведомление о которой ещё не пришло.
+     */
+    public void confirm(int id) {
+        boolean contains;
+
+        if (!ready) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            contains = ids.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!contains) {
+            add(id);
+        }
+    }
+
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            ids.clear(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Отметить, что фильтр пропустил идентификатор, которого в базе данных не оказалось.
+     */
+    public void recordFalsePositive() {
+        if (ready) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Заменить карту построенной заново по базе данных и начать отсекать запросы.
+     */
+    public void rebuild(BitSet existing) {
+        lock.writeLock().lock();
+        try {
+            ids = existing;
+            knownUpTo = existing.length() - 1;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Перестать отсекать запросы до следующего построения: изменения могли быть пропущены.
+     */
+    public void disable() {
+        ready = false;
+    }
+
+    public IdFilterStatistics getStatistics() {
+        int size;
+
+        lock.readLock().lock();
+        try {
+            size = ids.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new IdFilterStatistics(name, ready, size, lookups.sum(), negatives.sum(), falsePositives.sum());
+    }
+
+    // Сколько идентификаторов за наибольшим известным пропускается до прихода уведомлений о вставке
+    static final int NEWER_IDS = 1024;
+
+    private final String name;
+    private final ReadWriteLock lock;
+    private final LongAdder lookups;
+    private final LongAdder negatives;
+    private final LongAdder falsePositives;
+    private BitSet ids;
+    // Наибольший идентификатор, прочитанный при построении карты или добавленный после него
+    private int knownUpTo;
+    private volatile boolean ready;
+}
@@ -0,0 +1,57 @@
+package cache;
+
+/**
+ * Снимок статистики фильтра идентификаторов.
+ */
+public class IdFilterStatistics {
+
+    public IdFilterStatistics(String name, boolean ready, int size, long lookups, long negatives, long falsePositives) {
+        this.name = name;
+        this.ready = ready;
+        this.size = size;
+        this.lookups = lookups;
+        this.negatives = negatives;
+        this.falsePositives = falsePositives;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    public long getNegatives() {
+        return negatives;
+    }
+
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Доля запросов к несуществующим сущностям, которые фильтр не отсёк.
+     */
+    public double getFalsePositiveRate() {
+        long absent;
+
+        absent = negatives + falsePositives;
+        return absent == 0 ? 0.0 : (double) falsePositives / absent;
+    }
+
+    private final String name;
+    private final boolean ready;
+    private final int size;
+    private final long lookups;
+    private final long negatives;
+    private final long falsePositives;
+}
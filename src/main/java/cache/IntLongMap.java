@@ -0,0 +1,155 @@
+package cache;
+
+import java.util.Arrays;
+
+/**
+ * Отображение неотрицательных int в long с открытой адресацией, без упаковки ключей и значений.
+ * Занимает память по числу записей, а не по наибольшему ключу: идентификаторы в индексах кэша могут быть
+ * любыми до 2^31, а хранится их не больше, чем сущностей в кэше. Таблица растёт при заполнении наполовину
+ * и сжимается, когда заполнена меньше чем на восьмую часть. Не потокобезопасно.
+ */
+final class IntLongMap {
+
+    /**
+     * @param missing значение, которое возвращается для отсутствующих ключей
+     */
+    IntLongMap(long missing) {
+        this.missing = missing;
+        allocate(MIN_CAPACITY);
+    }
+
+    long get(int key) {
+        int slot;
+
+        slot = find(key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    void put(int key, long value) {
+        int slot;
+
+        slot = find(key);
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * @return прежнее значение или значение для отсутствующих ключей
+     */
+    long remove(int key) {
+        int slot;
+        long value;
+
+        slot = find(key);
+        if (keys[slot] != key) {
+            return missing;
+        }
+        value = values[slot];
+        shiftBack(slot);
+        size--;
+        if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+            resize(keys.length / 2);
+        }
+        return value;
+    }
+
+    void clear() {
+        size = 0;
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Ячейка ключа или первая свободная ячейка на пути к ней.
+     */
+    private int find(int key) {
+        int mask;
+        int slot;
+
+        mask = keys.length - 1;
+        slot = home(key, mask);
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Освободить ячейку, сдвинув назад следующие за ней ключи, чтобы поиск не прерывался на пустой ячейке.
+     */
+    private void shiftBack(int slot) {
+        int mask;
+        int free;
+        int next;
+
+        mask = keys.length - 1;
+        free = slot;
+        next = slot;
+        while (true) {
+            int home;
+
+            next = (next + 1) & mask;
+            if (keys[next] == FREE) {
+                break;
+            }
+            home = home(keys[next], mask);
+            // Ключ остаётся на месте, если его исходная ячейка лежит по кругу между свободной и его текущей
+            if (free <= next ? free < home && home <= next : free < home || home <= next) {
+                continue;
+            }
+            keys[free] = keys[next];
+            values[free] = values[next];
+            free = next;
+        }
+        keys[free] = FREE;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys;
+        long[] oldValues;
+
+        oldKeys = keys;
+        oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot;
+
+                slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new long[capacity];
+    }
+
+    private static int home(int key, int mask) {
+        int hash;
+
+        // Идентификаторы идут подряд, перемешивание разносит соседние по таблице
+        hash = key * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    private static final int FREE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final long missing;
+    private int[] keys;
+    private long[] values;
+    private int size;
+}
@@ -0,0 +1,115 @@
+package cache;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Уменьшение кэшей при нехватке памяти.
+ * Для пулов старого поколения кучи задаётся порог заполнения после сборки мусора (collection usage threshold):
+ * заполнение после сборки - это то, что действительно удерживается, а не ещё не собранный мусор.
+ * Когда JVM сообщает о превышении порога, бюджеты кэшей уменьшаются на шаг, но не чаще раза
+ * в {@value #SHRINK_INTERVAL_MS} мс, чтобы вытесненное успело освободиться следующей сборкой.
+ * Раз в {@value #RELIEF_CHECK_SECONDS} с проверяется, что после последней сборки все пулы ниже порога,
+ * и тогда бюджеты восстанавливаются на шаг.
+ */
+public class MemoryPressureMonitor implements AutoCloseable, NotificationListener {
+
+    /**
+     * @param threshold доля максимального размера пула, после которой начинается уменьшение кэшей
+     */
+    public MemoryPressureMonitor(double threshold, HeapBudget... budgets) {
+        this.threshold = threshold;
+        this.budgets = budgets;
+        pools = new ArrayList<>();
+    }
+
+    public void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // Порог заполнения без сборки поддерживают только пулы старого поколения,
+            // у молодого поколения заполнение после сборки не показательно
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+                pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * threshold));
+                pools.add(pool);
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread;
+
+            thread = new Thread(runnable, "memory-pressure");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkRelief, RELIEF_CHECK_SECONDS, RELIEF_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        long now;
+
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            return;
+        }
+        now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - lastShrink < SHRINK_INTERVAL_MS) {
+                return;
+            }
+            lastShrink = now;
+        }
+        for (HeapBudget budget : budgets) {
+            budget.shrink();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException ignored) {
+            // Монитор не был запущен
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (MemoryPoolMXBean pool : pools) {
+            pool.setCollectionUsageThreshold(0);
+        }
+        pools.clear();
+    }
+
+    /**
+     * Восстановить бюджеты на шаг, если после последней сборки ни один пул не превышает порог.
+     */
+    void checkRelief() {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.isCollectionUsageThresholdExceeded()) {
+                return;
+            }
+        }
+        for (HeapBudget budget : budgets) {
+            budget.restore();
+        }
+    }
+
+    private static final long SHRINK_INTERVAL_MS = 10_000;
+    private static final long RELIEF_CHECK_SECONDS = 30;
+
+    private final double threshold;
+    private final HeapBudget[] budgets;
+    private final List<MemoryPoolMXBean> pools;
+    private ScheduledExecutorService scheduler;
+    private long lastShrink;
+}
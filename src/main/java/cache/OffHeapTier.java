@@ -0,0 +1,209 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.UniversityFull;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Второй уровень кэша сущностей, вне кучи.
+ * Сущности хранятся в компактном двоичном виде (см. {@link EntityCodec}) в {@link SlabStore} и раскодируются
+ * при каждом чтении, поэтому в куче остаются только индексы. Это позволяет держать, например, всех профессоров,
+ * не увеличивая старое поколение и паузы сборщика мусора, а в {@link EntityCache} - только часто читаемые.
+ * Вытеснение каскадное, как и в первом уровне, но закодированные сущности не разбираются: связи кафедр
+ * с университетами и профессоров с кафедрами запоминаются в {@link Relations} при записи любой содержащей
+ * их сущности, и вытесняются только связанные записи, без перебора хранилища. Связи вытесненных сущностей
+ * забываются и запоминаются заново при следующей записи. По этим же связям вытесняет первый уровень:
+ * в него попадает только то, что записано и сюда, а о вытесненных связанных сущностях он узнаёт
+ * от методов вытеснения.
+ * Сущность, связь которой неизвестна, не входит ни в одну сохранённую запись, и вытеснять из-за неё нечего.
+ */
+public class OffHeapTier {
+
+    /**
+     * Хранилище одного вида сущностей.
+     */
+    public interface Store<T> {
+        T get(int id);
+
+        void put(int id, T value);
+
+        void remove(int id);
+    }
+
+    public OffHeapTier(long capacityBytes, Duration timeToLive) {
+        long share;
+
+        share = capacityBytes / 3;
+        universityRecords = new SlabStore("universities-off-heap", share, SLAB_BYTES, timeToLive);
+        departmentRecords = new SlabStore("departments-off-heap", share, SLAB_BYTES, timeToLive);
+        professorRecords = new SlabStore("professors-off-heap", share, SLAB_BYTES, timeToLive);
+        departmentUniversities = new Relations();
+        professorDepartments = new Relations();
+        universities = new RecordStore<UniversityFull>(universityRecords, EntityCodec::decodeUniversity) {
+            @Override
+            public void put(int id, UniversityFull university) {
+                if (university.getDepartments() != null) {
+                    for (Department department : university.getDepartments()) {
+                        relate(departmentUniversities, department.getId(), id);
+                    }
+                }
+                records.put(id, EntityCodec.encode(university));
+            }
+        };
+        departments = new RecordStore<DepartmentFull>(departmentRecords, EntityCodec::decodeDepartment) {
+            @Override
+            public void put(int id, DepartmentFull department) {
+                if (department.getUniversity() != null) {
+                    relate(departmentUniversities, id, department.getUniversity().getId());
+                }
+                if (department.getProfessors() != null) {
+                    for (Professor professor : department.getProfessors()) {
+                        relate(professorDepartments, professor.getId(), id);
+                    }
+                }
+                records.put(id, EntityCodec.encode(department));
+            }
+        };
+        professors = new RecordStore<Professor>(professorRecords, EntityCodec::decodeProfessor) {
+            @Override
+            public void put(int id, Professor professor) {
+                Department department;
+
+                department = professor.getDepartment();
+                if (department != null) {
+                    relate(professorDepartments, id, department.getId());
+                    if (department.getUniversity() != null) {
+                        relate(departmentUniversities, department.getId(), department.getUniversity().getId());
+                    }
+                }
+                records.put(id, EntityCodec.encode(professor));
+            }
+        };
+    }
+
+    public Store<UniversityFull> getUniversities() {
+        return universities;
+    }
+
+    public Store<DepartmentFull> getDepartments() {
+        return departments;
+    }
+
+    public Store<Professor> getProfessors() {
+        return professors;
+    }
+
+    /**
+     * Вытеснить университет, его кафедры и их профессоров.
+     *
+     * @param departments получает вытесненные кафедры
+     * @param professors  получает вытесненных профессоров
+     */
+    public synchronized void evictUniversity(int id, IntConsumer departments, IntConsumer professors) {
+        universityRecords.remove(id);
+        for (int department : departmentUniversities.removeParent(id)) {
+            departmentRecords.remove(department);
+            departments.accept(department);
+            for (int professor : professorDepartments.removeParent(department)) {
+                professorRecords.remove(professor);
+                professors.accept(professor);
+            }
+        }
+    }
+
+    /**
+     * Вытеснить кафедру, её профессоров и университет, в списке которого она есть.
+     *
+     * @param universities получает вытесненный университет
+     * @param professors   получает вытесненных профессоров
+     */
+    public synchronized void evictDepartment(int id, IntConsumer universities, IntConsumer professors) {
+        departmentRecords.remove(id);
+        removeRelated(universityRecords, departmentUniversities.removeChild(id), universities);
+        for (int professor : professorDepartments.removeParent(id)) {
+            professorRecords.remove(professor);
+            professors.accept(professor);
+        }
+    }
+
+    /**
+     * Вытеснить профессора и кафедру, в списке которой он есть.
+     *
+     * @param departments получает вытесненную кафедру
+     */
+    public synchronized void evictProfessor(int id, IntConsumer departments) {
+        professorRecords.remove(id);
+        removeRelated(departmentRecords, professorDepartments.removeChild(id), departments);
+    }
+
+    public synchronized void clear() {
+        universityRecords.clear();
+        departmentRecords.clear();
+        professorRecords.clear();
+        departmentUniversities.clear();
+        professorDepartments.clear();
+    }
+
+    public Collection<CacheStatistics> getStatistics() {
+        ArrayList<CacheStatistics> statistics;
+
+        statistics = new ArrayList<>(3);
+        statistics.add(universityRecords.getStatistics());
+        statistics.add(departmentRecords.getStatistics());
+        statistics.add(professorRecords.getStatistics());
+        return statistics;
+    }
+
+    private synchronized void relate(Relations relations, int child, int parent) {
+        relations.relate(child, parent);
+    }
+
+    private static void removeRelated(SlabStore records, int id, IntConsumer evicted) {
+        if (id != Relations.NONE) {
+            records.remove(id);
+            evicted.accept(id);
+        }
+    }
+
+    /**
+     * Чтение и удаление общие для всех видов, запись дополнительно запоминает связи.
+     */
+    private abstract static class RecordStore<T> implements Store<T> {
+        RecordStore(SlabStore records, Function<ByteBuffer, T> decoder) {
+            this.records = records;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public T get(int id) {
+            return records.get(id, decoder);
+        }
+
+        @Override
+        public void remove(int id) {
+            records.remove(id);
+        }
+
+        protected final SlabStore records;
+        private final Function<ByteBuffer, T> decoder;
+    }
+
+    private static final int SLAB_BYTES = 4 * 1024 * 1024;
+
+    private final SlabStore universityRecords;
+    private final SlabStore departmentRecords;
+    private final SlabStore professorRecords;
+    private final Store<UniversityFull> universities;
+    private final Store<DepartmentFull> departments;
+    private final Store<Professor> professors;
+    private final Relations departmentUniversities;
+    private final Relations professorDepartments;
+}
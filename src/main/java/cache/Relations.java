@@ -0,0 +1,120 @@
+package cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Связи дочерних сущностей с родительскими одного вида (кафедр с университетами или профессоров с кафедрами)
+ * для каскадного вытеснения без перебора кэша: родитель каждой дочерней сущности и массив дочерних
+ * у каждой родительской. Связи хранятся по числу известных сущностей, а не по наибольшему идентификатору,
+ * и удаляются вместе с вытесняемыми сущностями.
+ * Запись уже известной связи ничего не стоит, перенос к другому родителю просматривает только список прежнего.
+ * Не потокобезопасен, синхронизацию обеспечивает {@link OffHeapTier}.
+ */
+final class Relations {
+
+    Relations() {
+        parents = new IntLongMap(NONE);
+        children = new HashMap<>();
+    }
+
+    void relate(int child, int parent) {
+        int previous;
+        int[] list;
+
+        if (child <= NONE || parent <= NONE) {
+            return;
+        }
+        previous = parentOf(child);
+        if (previous == parent) {
+            return;
+        }
+        if (previous != NONE) {
+            detach(child, previous);
+        }
+        parents.put(child, parent);
+        // Первый элемент списка - число дочерних
+        list = children.get(parent);
+        if (list == null) {
+            list = new int[INITIAL_CHILDREN + 1];
+        } else if (list[0] == list.length - 1) {
+            list = Arrays.copyOf(list, list.length * 2 - 1);
+        }
+        list[++list[0]] = child;
+        children.put(parent, list);
+    }
+
+    /**
+     * @return родитель или {@link #NONE}, если связь неизвестна
+     */
+    int parentOf(int child) {
+        return child > NONE ? (int) parents.get(child) : NONE;
+    }
+
+    /**
+     * Забыть связь дочерней сущности с родителем.
+     *
+     * @return прежний родитель или {@link #NONE}, если связь неизвестна
+     */
+    int removeChild(int child) {
+        int parent;
+
+        if (child <= NONE) {
+            return NONE;
+        }
+        parent = (int) parents.remove(child);
+        if (parent != NONE) {
+            detach(child, parent);
+        }
+        return parent;
+    }
+
+    /**
+     * Забыть связи всех дочерних сущностей родителя.
+     *
+     * @return дочерние сущности, которые были с ним связаны
+     */
+    int[] removeParent(int parent) {
+        int[] list;
+
+        list = children.remove(parent);
+        if (list == null) {
+            return NO_CHILDREN;
+        }
+        list = Arrays.copyOfRange(list, 1, list[0] + 1);
+        for (int child : list) {
+            parents.remove(child);
+        }
+        return list;
+    }
+
+    void clear() {
+        parents.clear();
+        children.clear();
+    }
+
+    private void detach(int child, int parent) {
+        int[] list;
+
+        list = children.get(parent);
+        for (int i = 1; i <= list[0]; i++) {
+            if (list[i] == child) {
+                list[i] = list[list[0]];
+                list[0]--;
+                break;
+            }
+        }
+        if (list[0] == 0) {
+            children.remove(parent);
+        }
+    }
+
+    // Идентификаторы выдаются последовательностью с единицы
+    static final int NONE = 0;
+    private static final int INITIAL_CHILDREN = 4;
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private final IntLongMap parents;
+    private final Map<Integer, int[]> children;
+}
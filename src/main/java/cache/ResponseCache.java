@@ -0,0 +1,109 @@
+package cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import jakarta.servlet.http.HttpServletResponse;
+import utils.MimeTypes;
+
+import java.io.IOException;
+
+/**
+ * Кэш готовых тел ответов GET в кодировке UTF-8.
+ * Для каждого ресурса хранится одно тело вместе с версией, из которой оно получено (та же, что в ETag).
+ * Тело отдаётся, только если версия совпадает с текущей, поэтому вытеснять его при изменениях не нужно:
+ * устаревшее тело просто заменяется новым при следующем запросе. Размер кэша ограничен суммарным
+ * объёмом тел в байтах и уменьшается при нехватке памяти (см. {@link HeapBudget}).
+ */
+public class ResponseCache {
+
+    public ResponseCache(long maximumBytes) {
+        statsCounter = new ConcurrentStatsCounter();
+        responses = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .<String, Entry>weigher((resource, entry) -> entry.body.length + ENTRY_OVERHEAD)
+                .recordStats(() -> statsCounter)
+                .build();
+        budget = new HeapBudget();
+        budget.add(responses, maximumBytes);
+    }
+
+    /**
+     * Записать в ответ закэшированное тело ресурса, если оно получено из той же версии.
+     * Ресурс без версии не кэшируется.
+     *
+     * @return false, если подходящего тела в кэше нет и ответ не тронут
+     */
+    public boolean writeCached(HttpServletResponse resp, String resource, String version) throws IOException {
+        Entry entry;
+
+        if (version == null) {
+            return false;
+        }
+        // Тело другой версии для вызывающего кода - такой же промах, поэтому статистика ведётся здесь
+        entry = responses.asMap().get(resource);
+        if (entry == null || !version.equals(entry.version)) {
+            statsCounter.recordMisses(1);
+            return false;
+        }
+        statsCounter.recordHits(1);
+        write(resp, entry.body);
+        return true;
+    }
+
+    /**
+     * Сохранить тело ресурса для указанной версии и записать его в ответ.
+     */
+    public void writeAndCache(HttpServletResponse resp, String resource, String version, byte[] body) throws IOException {
+        if (version != null) {
+            responses.put(resource, new Entry(version, body));
+        }
+        write(resp, body);
+    }
+
+    public CacheStatistics getStatistics() {
+        CacheStats stats;
+        Policy.Eviction<String, Entry> eviction;
+
+        responses.cleanUp();
+        stats = statsCounter.snapshot();
+        eviction = responses.policy().eviction().orElseThrow(IllegalStateException::new);
+        return new CacheStatistics("responses", responses.estimatedSize(), eviction.weightedSize().orElse(0), eviction.getMaximum(),
+                stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    /**
+     * Предел объёма кэша, уменьшаемый при нехватке памяти.
+     */
+    public HeapBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Записать тело как есть, без промежуточного Writer и перекодирования.
+     */
+    private static void write(HttpServletResponse resp, byte[] body) throws IOException {
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    private static final class Entry {
+        Entry(String version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+
+        final String version;
+        final byte[] body;
+    }
+
+    // Примерный размер ключа, версии и служебных объектов записи в байтах
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final ConcurrentStatsCounter statsCounter;
+    private final Cache<String, Entry> responses;
+    private final HeapBudget budget;
+}
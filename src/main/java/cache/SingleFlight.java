@@ -0,0 +1,83 @@
+package cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Объединение одновременных одинаковых загрузок.
+ * Первый вызов с данным ключом выполняет загрузку, а вызовы с тем же ключом, пришедшие до её окончания,
+ * ждут и получают тот же результат или ту же ошибку. Поэтому при промахе кэша по популярному ключу
+ * в базу данных уходит один запрос, а не по запросу на каждый поток.
+ * Результат после окончания загрузки не хранится, это делает кэш.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Загрузка из базы данных.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws SQLException;
+    }
+
+    public SingleFlight() {
+        inFlight = new ConcurrentHashMap<>();
+    }
+
+    @SuppressWarnings("java:S112") // Ошибка загрузки передаётся всем ожидающим без изменений
+    public V run(K key, Loader<V> loader) throws SQLException {
+        CompletableFuture<V> flight;
+        CompletableFuture<V> existing;
+        V value;
+
+        flight = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (SQLException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Не давать новым вызовам присоединяться к уже идущим загрузкам.
+     * Вызывается после изменения данных: загрузка, начатая до изменения, могла прочитать старые данные.
+     * Уже присоединившиеся вызовы получат её результат, новые начнут свою загрузку.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    @SuppressWarnings("java:S112") // Ошибка загрузки передаётся всем ожидающим без изменений
+    private static <V> V await(CompletableFuture<V> flight) throws SQLException {
+        Throwable cause;
+
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+}
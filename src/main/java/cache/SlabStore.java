@@ -0,0 +1,209 @@
+package cache;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Хранилище закодированных записей вне кучи, по идентификатору.
+ * Память выделяется прямыми буферами (ByteBuffer.allocateDirect) фиксированного размера - слэбами,
+ * записи дописываются в текущий слэб подряд. Когда он заполнен, запись переходит в следующий по кругу,
+ * а всё, что было в нём раньше, вытесняется (FIFO по слэбам). Перезапись и удаление лишь убирают
+ * запись из индекса, её место освобождается при следующем проходе по кругу. Тогда просматриваются
+ * только записи самого слэба, а не весь индекс.
+ * Индекс - таблица позиций по идентификатору из примитивов ({@link IntLongMap}): в куче на запись
+ * приходится несколько десятков байт независимо от величины идентификаторов, и сборщику мусора нечего обходить.
+ * Формат записи в слэбе: длина данных (int), идентификатор (int), срок годности в мс от эпохи (long), данные.
+ */
+final class SlabStore {
+
+    SlabStore(String name, long capacityBytes, int slabBytes, Duration timeToLive) {
+        int slabCount;
+
+        this.name = name;
+        this.slabBytes = (int) Math.min(slabBytes, capacityBytes);
+        this.timeToLiveMillis = timeToLive.toMillis();
+        slabCount = this.slabBytes > 0 ? (int) Math.min(capacityBytes / this.slabBytes, MAX_SLABS) : 0;
+        slabs = new ByteBuffer[slabCount];
+        ends = new int[slabCount];
+        index = new IntLongMap(EMPTY);
+        lock = new ReentrantReadWriteLock();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    /**
+     * Прочитать запись и раскодировать её, пока слэб не может быть перезаписан.
+     *
+     * @return null, если записи нет или её срок годности истёк
+     */
+    <T> T get(int id, Function<ByteBuffer, T> decoder) {
+        long location;
+        ByteBuffer slab;
+        int offset;
+        int length;
+        ByteBuffer data;
+
+        lock.readLock().lock();
+        try {
+            location = id >= 0 ? index.get(id) : EMPTY;
+            if (location == EMPTY) {
+                misses.increment();
+                return null;
+            }
+            slab = slabs[slab(location)];
+            offset = offset(location);
+            if (slab.getLong(offset + 8) < System.currentTimeMillis()) {
+                misses.increment();
+                return null;
+            }
+            length = slab.getInt(offset);
+            data = slab.duplicate();
+            data.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+            hits.increment();
+            return decoder.apply(data.slice());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сохранить запись, заменив прежнюю. Запись больше слэба не сохраняется.
+     */
+    void put(int id, byte[] record) {
+        int length;
+        ByteBuffer slab;
+
+        length = HEADER_BYTES + record.length;
+        lock.writeLock().lock();
+        try {
+            remove(id, false);
+            if (id < 0 || slabs.length == 0 || length > slabBytes) {
+                return;
+            }
+            if (slabs[current] == null) {
+                slabs[current] = ByteBuffer.allocateDirect(slabBytes);
+            }
+            if (position + length > slabBytes) {
+                current = (current + 1) % slabs.length;
+                position = 0;
+                if (slabs[current] == null) {
+                    slabs[current] = ByteBuffer.allocateDirect(slabBytes);
+                } else {
+                    recycle(current);
+                }
+            }
+            slab = slabs[current].duplicate();
+            slab.position(position);
+            slab.putInt(record.length).putInt(id).putLong(System.currentTimeMillis() + timeToLiveMillis).put(record);
+            index.put(id, ((long) current << 32) | position);
+            position += length;
+            ends[current] = position;
+            size++;
+            usedBytes += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            remove(id, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            size = 0;
+            usedBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    CacheStatistics getStatistics() {
+        lock.readLock().lock();
+        try {
+            return new CacheStatistics(name, size, usedBytes, (long) slabs.length * slabBytes,
+                    hits.sum(), misses.sum(), evictions.sum());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Убрать из индекса записи слэба, который начинает перезаписываться.
+     */
+    private void recycle(int slab) {
+        ByteBuffer buffer;
+        int offset;
+        int id;
+
+        buffer = slabs[slab];
+        offset = 0;
+        while (offset < ends[slab]) {
+            id = buffer.getInt(offset + 4);
+            // Перезаписанная или удалённая запись уже не в индексе, либо индекс указывает на её новое место
+            if (index.get(id) == (((long) slab << 32) | offset)) {
+                remove(id, true);
+            }
+            offset += HEADER_BYTES + buffer.getInt(offset);
+        }
+        ends[slab] = 0;
+    }
+
+    private void remove(int id, boolean evicted) {
+        long location;
+
+        if (id < 0) {
+            return;
+        }
+        location = index.remove(id);
+        if (location == EMPTY) {
+            return;
+        }
+        size--;
+        usedBytes -= HEADER_BYTES + slabs[slab(location)].getInt(offset(location));
+        if (evicted) {
+            evictions.increment();
+        }
+    }
+
+    private static int slab(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static final long EMPTY = -1;
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_SLABS = 1 << 16;
+
+    private final String name;
+    private final int slabBytes;
+    private final long timeToLiveMillis;
+    private final ByteBuffer[] slabs;
+    // Конец записанных данных в каждом слэбе
+    private final int[] ends;
+    private final ReadWriteLock lock;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final IntLongMap index;
+    // Текущий слэб и место в нём, куда пойдёт следующая запись
+    private int current;
+    private int position;
+    private long size;
+    private long usedBytes;
+}
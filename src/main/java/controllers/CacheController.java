@@ -0,0 +1,158 @@
+package controllers;
+
+import cache.CacheStatistics;
+import cache.EntityCache;
+import cache.HotKey;
+import cache.HotKeys;
+import cache.IdFilterStatistics;
+import cache.ResponseCache;
+import com.google.gson.Gson;
+import dto.CacheStatsDto;
+import dto.HotKeyDto;
+import dto.IdFilterStatsDto;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import utils.MimeTypes;
+import utils.ParseUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+@WebServlet({"/cache", "/cache/*"})
+public class CacheController extends HttpServlet {
+
+    @Override
+    public void init() {
+        ServletContext context;
+
+        context = getServletContext();
+        cache = (EntityCache) context.getAttribute(EntityCache.class.getName());
+        parser = (Gson) context.getAttribute(Gson.class.getName());
+        responseCache = (ResponseCache) context.getAttribute(ResponseCache.class.getName());
+    }
+
+    /**
+     * @GET/cache
+     * Получить статистику кэшей: размер, занимаемую память и её предел, попадания, промахи и вытеснения
+     * для университетов, кафедр, профессоров и сериализованных ответов.
+     * @GET/cache/id-filters
+     * Получить статистику фильтров существующих идентификаторов: готовность, число идентификаторов,
+     * число проверок, отсечённых запросов и ложных срабатываний.
+     * @GET/cache/hot-keys
+     * Получить самые запрашиваемые университеты, кафедры и профессоров с оценкой частоты обращений.
+     * Эти сущности закреплены в кэше.
+     * @param req запрос на получение статистики.
+     * @param resp ответ, в который будет отдан список статистик в формате JSON.
+     */
+    @Override
+    @SuppressWarnings("java:S1989") // Все необрабатываемые исключения являются Server Internal Error (500)
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String pathInfo;
+
+        pathInfo = req.getPathInfo();
+        if (pathInfo == null) {
+            writeCacheStatistics(resp);
+        } else if (pathInfo.equals("/id-filters")) {
+            writeIdFilterStatistics(resp);
+        } else if (pathInfo.equals("/hot-keys")) {
+            writeHotKeys(resp);
+        } else {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    EntityCache getEntityCache() {
+        return cache;
+    }
+
+    Gson getParser() {
+        return parser;
+    }
+
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    private void writeCacheStatistics(HttpServletResponse resp) throws IOException {
+        Collection<CacheStatistics> statistics;
+        ArrayList<CacheStatsDto> dtos;
+
+        statistics = getEntityCache().getStatistics();
+        dtos = new ArrayList<>(statistics.size() + 1);
+        for (CacheStatistics item : statistics) {
+            dtos.add(toDto(item));
+        }
+        dtos.add(toDto(getResponseCache().getStatistics()));
+        getParser().toJson(dtos, ParseUtils.CACHE_STATS_LIST, resp.getWriter());
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    private void writeIdFilterStatistics(HttpServletResponse resp) throws IOException {
+        Collection<IdFilterStatistics> statistics;
+        ArrayList<IdFilterStatsDto> dtos;
+
+        statistics = getEntityCache().getIdFilterStatistics();
+        dtos = new ArrayList<>(statistics.size());
+        for (IdFilterStatistics item : statistics) {
+            dtos.add(toDto(item));
+        }
+        getParser().toJson(dtos, ParseUtils.ID_FILTER_STATS_LIST, resp.getWriter());
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    private void writeHotKeys(HttpServletResponse resp) throws IOException {
+        ArrayList<HotKeyDto> dtos;
+
+        dtos = new ArrayList<>();
+        for (HotKeys hotKeys : getEntityCache().getHotKeys()) {
+            for (HotKey hotKey : hotKeys.top()) {
+                HotKeyDto dto;
+
+                dto = new HotKeyDto();
+                dto.name = hotKeys.getName();
+                dto.id = hotKey.getId();
+                dto.frequency = hotKey.getFrequency();
+                dtos.add(dto);
+            }
+        }
+        getParser().toJson(dtos, ParseUtils.HOT_KEY_LIST, resp.getWriter());
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    private static CacheStatsDto toDto(CacheStatistics statistics) {
+        CacheStatsDto dto;
+
+        dto = new CacheStatsDto();
+        dto.name = statistics.getName();
+        dto.size = statistics.getSize();
+        dto.weight = statistics.getWeight();
+        dto.maxWeight = statistics.getMaximumWeight();
+        dto.hits = statistics.getHits();
+        dto.misses = statistics.getMisses();
+        dto.hitRate = statistics.getHitRate();
+        dto.evictions = statistics.getEvictions();
+        return dto;
+    }
+
+    private static IdFilterStatsDto toDto(IdFilterStatistics statistics) {
+        IdFilterStatsDto dto;
+
+        dto = new IdFilterStatsDto();
+        dto.name = statistics.getName();
+        dto.ready = statistics.isReady();
+        dto.size = statistics.getSize();
+        dto.lookups = statistics.getLookups();
+        dto.negatives = statistics.getNegatives();
+        dto.falsePositives = statistics.getFalsePositives();
+        dto.falsePositiveRate = statistics.getFalsePositiveRate();
+        return dto;
+    }
+
+    private EntityCache cache;
+    private Gson parser;
+    private ResponseCache responseCache;
+}
@@ -1,41 +1,96 @@
 package controllers;
 
+import cache.ResponseCache;
 import com.google.gson.Gson;
 import dto.*;
 import entities.Department;
 import entities.DepartmentFull;
+import entities.DepartmentPatch;
 import entities.Professor;
 import entities.University;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import repositories.DepartmentRepository;
-import repositories.UniversityRepository;
+import json.JsonArrayWriter;
+import listeners.Warmup;
 import services.DepartmentService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
 import utils.ParseUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 
 @WebServlet({"/departments", "/departments/*"})
 public class DepartmentController extends HttpServlet {
+    @Override
+    public void init() {
+        ServletContext context;
+
+        context = getServletContext();
+        service = (DepartmentService) context.getAttribute(DepartmentService.class.getName());
+        parser = (Gson) context.getAttribute(Gson.class.getName());
+        responseCache = (ResponseCache) context.getAttribute(ResponseCache.class.getName());
+    }
+
     @Override
     @SuppressWarnings("java:S1989") // Все необрабатываемые исключения являются Server Internal Error (500)
     public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Gson parser;
-        Object body;
+        Versioned<?> body;
+        Type bodyType;
         String pathInfo;
-        PrintWriter respWriter;
+        String resource;
+        String version;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
-            body = getDepartments();
+            String limitStr;
+            String afterStr;
+
+            limitStr = req.getParameter(Pagination.LIMIT_PARAMETER);
+            afterStr = req.getParameter(Pagination.AFTER_PARAMETER);
+            if (limitStr == null && afterStr == null) {
+                version = getDepartmentService().getVersion();
+                if (!ETags.notModified(req, resp, version)) {
+                    writeDepartments(resp, version);
+                }
+                return;
+            } else {
+                int limit;
+                int afterId;
+
+                try {
+                    limit = Pagination.parseLimit(limitStr);
+                    afterId = Pagination.decodeToken(afterStr);
+                } catch (IllegalArgumentException iae) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                version = getDepartmentService().getVersion();
+                if (ETags.notModified(req, resp, version)) {
+                    return;
+                }
+                resource = "departments?after=" + afterId + "&limit=" + limit;
+                if (getResponseCache().writeCached(resp, resource, version)) {
+                    return;
+                }
+                body = getDepartmentPage(afterId, limit);
+                bodyType = ParseUtils.DEPARTMENT_PAGE;
+            }
         } else {
             String departmentIdStr;
             int departmentId;
@@ -48,17 +103,34 @@ public class DepartmentController extends HttpServlet {
                 return;
             }
 
-            body = getDepartment(departmentId);
+            version = getDepartmentService().getVersion(departmentId);
+            if (version == null) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (!Warmup.isSynthetic(req)) {
+                getDepartmentService().recordAccess(departmentId);
+            }
+            if (ETags.notModified(req, resp, version)) {
+                return;
+            }
+            resource = "departments/" + departmentId;
+            if (getResponseCache().writeCached(resp, resource, version)) {
+                return;
+            }
+            body = getDepartment(departmentId, version);
             if (body == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
+            bodyType = DepartmentFullDto.class;
         }
 
-        parser = ParseUtils.createParser();
-        respWriter = resp.getWriter();
-        parser.toJson(body, respWriter);
-        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        // ETag и кэш ответов - по версии, из которой собрано тело
+        version = ETags.correct(resp, version, body.getVersion());
+        parser = getParser();
+        getResponseCache().writeAndCache(resp, resource, version,
+                parser.toJson(body.getValue(), bodyType).getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -75,7 +147,7 @@ public class DepartmentController extends HttpServlet {
             return;
         }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -106,6 +178,7 @@ public class DepartmentController extends HttpServlet {
         String pathInfo;
         String departmentIdStr;
         int departmentId;
+        ExpectedVersions expectedVersions;
         DepartmentUpdateDto updateDto;
         DepartmentFullDto departmentDto;
         Gson parser;
@@ -125,8 +198,14 @@ public class DepartmentController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -138,12 +217,17 @@ public class DepartmentController extends HttpServlet {
             return;
         }
         try {
-            departmentDto = updateDepartment(departmentId, updateDto);
+            departmentDto = updateDepartment(departmentId, updateDto, expectedVersions);
         } catch (ValidationException ve) {
             respWriter.write(ve.getMessage());
             resp.setContentType(MimeTypes.TEXT_PLAIN);
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
+        } catch (VersionConflictException vce) {
+            respWriter.write(vce.getMessage());
+            resp.setContentType(MimeTypes.TEXT_PLAIN);
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
         }
 
         if (departmentDto == null) {
@@ -160,6 +244,7 @@ public class DepartmentController extends HttpServlet {
         String pathInfo;
         String departmentIdStr;
         int departmentId;
+        ExpectedVersions expectedVersions;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
@@ -174,54 +259,84 @@ public class DepartmentController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
-        if (!deleteDepartment(departmentId)) {
-            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
+        try {
+            if (!deleteDepartment(departmentId, expectedVersions)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
         }
     }
 
-    @SuppressWarnings("java:S112") // Все необрабатываемые исключения являются Server Internal Error (500)
-    DepartmentService createDepartmentService() {
-        DepartmentRepository repository;
-        UniversityRepository universityRepository;
-        DepartmentService service;
+    DepartmentService getDepartmentService() {
+        return service;
+    }
+
+    Gson getParser() {
+        return parser;
+    }
+
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
 
+    /**
+     * Записать в ответ полный список без постраничного разбиения.
+     * Строки читаются из базы данных порциями и сразу пишутся в ответ, не накапливаясь в памяти.
+     */
+    private void writeDepartments(HttpServletResponse resp, String version) throws IOException {
+        Gson parser;
+        JsonArrayWriter<DepartmentDto> arrayWriter;
+
+        parser = getParser();
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        arrayWriter = new JsonArrayWriter<>(parser.newJsonWriter(resp.getWriter()), parser.getAdapter(DepartmentDto.class));
+        arrayWriter.begin();
         try {
-            repository = new DepartmentRepository();
-            universityRepository = new UniversityRepository();
-            service = new DepartmentService(repository, universityRepository);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            getDepartmentService().forEach(listVersion -> ETags.correct(resp, version, listVersion),
+                    department -> arrayWriter.accept(toDto(department)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return service;
+        arrayWriter.end();
     }
 
-    private Collection<DepartmentDto> getDepartments() {
-        Collection<Department> departments;
-        ArrayList<DepartmentDto> result;
+    private Versioned<PageDto<DepartmentDto>> getDepartmentPage(int afterId, int limit) {
+        Versioned<Collection<Department>> departments;
+        ArrayList<DepartmentDto> items;
+        PageDto<DepartmentDto> page;
         DepartmentService service;
 
-        service = createDepartmentService();
-        departments = service.get();
-        result = new ArrayList<>(departments.size());
-        for (Department department : departments) {
-            DepartmentDto dto;
-
-            dto = toDto(department);
-            result.add(dto);
+        service = getDepartmentService();
+        // Запрашиваем на один элемент больше, чтобы узнать, есть ли следующая страница
+        departments = service.get(afterId, limit + 1);
+        items = new ArrayList<>(Math.min(departments.getValue().size(), limit));
+        page = new PageDto<>();
+        for (Department department : departments.getValue()) {
+            if (items.size() == limit) {
+                page.next = Pagination.encodeToken(items.get(limit - 1).id);
+                break;
+            }
+            items.add(toDto(department));
         }
-        return result;
+        page.items = items;
+        return new Versioned<>(departments.getVersion(), page);
     }
 
-    private DepartmentFullDto getDepartment(int id) {
-        DepartmentFullDto result;
+    private Versioned<DepartmentFullDto> getDepartment(int id, String version) {
         DepartmentFull department;
-        DepartmentService service;
-
-        service = createDepartmentService();
-        department = service.getById(id);
-        result = toFullDto(department);
 
-        return result;
+        department = getDepartmentService().getById(id, version);
+        if (department == null) {
+            return null;
+        }
+        return new Versioned<>(department.getVersion(), toFullDto(department));
     }
 
     private DepartmentFullDto createDepartment(DepartmentCreationDto creationDto) {
@@ -236,45 +351,27 @@ public class DepartmentController extends HttpServlet {
         university.setId(creationDto.universityId);
         department.setUniversity(university);
         department.setName(creationDto.name);
-        service = createDepartmentService();
+        service = getDepartmentService();
         departmentFull = service.add(department);
         result = toFullDto(departmentFull);
         return result;
     }
 
     @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
-    private DepartmentFullDto updateDepartment(int id, DepartmentUpdateDto updateDto) {
-        DepartmentFull department;
-        DepartmentFullDto result;
-        DepartmentService service;
+    private DepartmentFullDto updateDepartment(int id, DepartmentUpdateDto updateDto, ExpectedVersions expectedVersions) {
+        DepartmentPatch patch;
 
-        result = null;
-        service = createDepartmentService();
-        department = service.getById(id);
-        if (department != null) {
-            if (updateDto.universityId != null) {
-                University university;
-
-                university = new University();
-                university.setId(updateDto.universityId.orElse(0));
-                department.setUniversity(university);
-            }
-            if (updateDto.name != null) {
-                department.setName(updateDto.name.orElse(null));
-            }
-            if (service.update(department)) {
-                result = toFullDto(department);
-            }
-        }
-
-        return result;
+        patch = new DepartmentPatch();
+        patch.setUniversityId(updateDto.universityId);
+        patch.setName(updateDto.name);
+        return toFullDto(getDepartmentService().update(id, patch, expectedVersions));
     }
 
-    private boolean deleteDepartment(int id) {
+    private boolean deleteDepartment(int id, ExpectedVersions expectedVersions) {
         DepartmentService service;
 
-        service = createDepartmentService();
-        return service.delete(id);
+        service = getDepartmentService();
+        return service.delete(id, expectedVersions);
     }
 
     static DepartmentDto toDto(Department department) {
@@ -328,4 +425,7 @@ public class DepartmentController extends HttpServlet {
         return dto;
     }
 
-}
\ No newline at end of file
+    private DepartmentService service;
+    private Gson parser;
+    private ResponseCache responseCache;
+}
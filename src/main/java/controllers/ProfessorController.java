@@ -1,41 +1,97 @@
 package controllers;
 
+import cache.ResponseCache;
 import com.google.gson.Gson;
+import dto.PageDto;
 import dto.ProfessorCreationDto;
 import dto.ProfessorDto;
 import dto.ProfessorUpdateDto;
 import entities.Department;
 import entities.Professor;
+import entities.ProfessorPatch;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import repositories.DepartmentRepository;
-import repositories.ProfessorRepository;
+import json.JsonArrayWriter;
+import listeners.Warmup;
 import services.ProfessorService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
 import utils.ParseUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 
 @WebServlet({"/professors", "/professors/*"})
 public class ProfessorController extends HttpServlet {
+    @Override
+    public void init() {
+        ServletContext context;
+
+        context = getServletContext();
+        service = (ProfessorService) context.getAttribute(ProfessorService.class.getName());
+        parser = (Gson) context.getAttribute(Gson.class.getName());
+        responseCache = (ResponseCache) context.getAttribute(ResponseCache.class.getName());
+    }
+
     @Override
     @SuppressWarnings("java:S1989") // Все необрабатываемые исключения являются Server Internal Error (500)
     public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Gson parser;
-        Object body;
+        Versioned<?> body;
+        Type bodyType;
         String pathInfo;
-        PrintWriter respWriter;
+        String resource;
+        String version;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
-            body = getProfessors();
+            String limitStr;
+            String afterStr;
+
+            limitStr = req.getParameter(Pagination.LIMIT_PARAMETER);
+            afterStr = req.getParameter(Pagination.AFTER_PARAMETER);
+            if (limitStr == null && afterStr == null) {
+                version = getProfessorService().getVersion();
+                if (!ETags.notModified(req, resp, version)) {
+                    writeProfessors(resp, version);
+                }
+                return;
+            } else {
+                int limit;
+                int afterId;
+
+                try {
+                    limit = Pagination.parseLimit(limitStr);
+                    afterId = Pagination.decodeToken(afterStr);
+                } catch (IllegalArgumentException iae) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                version = getProfessorService().getVersion();
+                if (ETags.notModified(req, resp, version)) {
+                    return;
+                }
+                resource = "professors?after=" + afterId + "&limit=" + limit;
+                if (getResponseCache().writeCached(resp, resource, version)) {
+                    return;
+                }
+                body = getProfessorPage(afterId, limit);
+                bodyType = ParseUtils.PROFESSOR_PAGE;
+            }
         } else {
             String professorIdStr;
             int professorId;
@@ -48,17 +104,34 @@ public class ProfessorController extends HttpServlet {
                 return;
             }
 
-            body = getProfessor(professorId);
+            version = getProfessorService().getVersion(professorId);
+            if (version == null) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (!Warmup.isSynthetic(req)) {
+                getProfessorService().recordAccess(professorId);
+            }
+            if (ETags.notModified(req, resp, version)) {
+                return;
+            }
+            resource = "professors/" + professorId;
+            if (getResponseCache().writeCached(resp, resource, version)) {
+                return;
+            }
+            body = getProfessor(professorId, version);
             if (body == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
+            bodyType = ProfessorDto.class;
         }
 
-        parser = ParseUtils.createParser();
-        respWriter = resp.getWriter();
-        parser.toJson(body, respWriter);
-        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        // ETag и кэш ответов - по версии, из которой собрано тело
+        version = ETags.correct(resp, version, body.getVersion());
+        parser = getParser();
+        getResponseCache().writeAndCache(resp, resource, version,
+                parser.toJson(body.getValue(), bodyType).getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -75,7 +148,7 @@ public class ProfessorController extends HttpServlet {
             return;
         }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -106,6 +179,7 @@ public class ProfessorController extends HttpServlet {
         String pathInfo;
         String professorIdStr;
         int professorId;
+        ExpectedVersions expectedVersions;
         ProfessorUpdateDto updateDto;
         ProfessorDto professorDto;
         Gson parser;
@@ -125,8 +199,14 @@ public class ProfessorController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -138,12 +218,17 @@ public class ProfessorController extends HttpServlet {
             return;
         }
         try {
-            professorDto = updateProfessor(professorId, updateDto);
+            professorDto = updateProfessor(professorId, updateDto, expectedVersions);
         } catch (ValidationException ve) {
             respWriter.write(ve.getMessage());
             resp.setContentType(MimeTypes.TEXT_PLAIN);
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
+        } catch (VersionConflictException vce) {
+            respWriter.write(vce.getMessage());
+            resp.setContentType(MimeTypes.TEXT_PLAIN);
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
         }
 
         if (professorDto == null) {
@@ -160,6 +245,7 @@ public class ProfessorController extends HttpServlet {
         String pathInfo;
         String professorIdStr;
         int professorId;
+        ExpectedVersions expectedVersions;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
@@ -174,39 +260,72 @@ public class ProfessorController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
-        if (!deleteProfessor(professorId)) {
-            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
+        try {
+            if (!deleteProfessor(professorId, expectedVersions)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
         }
     }
 
-    private Collection<ProfessorDto> getProfessors() {
-        Collection<Professor> professors;
-        ArrayList<ProfessorDto> result;
-        ProfessorService service;
-
-        result = new ArrayList<>();
-        service = createProfessorService();
-        professors = service.get();
-        for (Professor professor : professors) {
-            ProfessorDto dto;
+    /**
+     * Записать в ответ полный список без постраничного разбиения.
+     * Строки читаются из базы данных порциями и сразу пишутся в ответ, не накапливаясь в памяти.
+     */
+    private void writeProfessors(HttpServletResponse resp, String version) throws IOException {
+        Gson parser;
+        JsonArrayWriter<ProfessorDto> arrayWriter;
 
-            dto = toDto(professor);
-            result.add(dto);
+        parser = getParser();
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        arrayWriter = new JsonArrayWriter<>(parser.newJsonWriter(resp.getWriter()), parser.getAdapter(ProfessorDto.class));
+        arrayWriter.begin();
+        try {
+            getProfessorService().forEach(listVersion -> ETags.correct(resp, version, listVersion),
+                    professor -> arrayWriter.accept(toDto(professor)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-
-        return result;
+        arrayWriter.end();
     }
 
-    private ProfessorDto getProfessor(int id) {
-        ProfessorDto result;
-        Professor professor;
+    private Versioned<PageDto<ProfessorDto>> getProfessorPage(int afterId, int limit) {
+        Versioned<Collection<Professor>> professors;
+        ArrayList<ProfessorDto> items;
+        PageDto<ProfessorDto> page;
         ProfessorService service;
 
-        service = createProfessorService();
-        professor = service.getById(id);
-        result = toDto(professor);
+        service = getProfessorService();
+        // Запрашиваем на один элемент больше, чтобы узнать, есть ли следующая страница
+        professors = service.get(afterId, limit + 1);
+        items = new ArrayList<>(Math.min(professors.getValue().size(), limit));
+        page = new PageDto<>();
+        for (Professor professor : professors.getValue()) {
+            if (items.size() == limit) {
+                page.next = Pagination.encodeToken(items.get(limit - 1).id);
+                break;
+            }
+            items.add(toDto(professor));
+        }
+        page.items = items;
+        return new Versioned<>(professors.getVersion(), page);
+    }
 
-        return result;
+    private Versioned<ProfessorDto> getProfessor(int id, String version) {
+        Professor professor;
+
+        professor = getProfessorService().getById(id, version);
+        if (professor == null) {
+            return null;
+        }
+        return new Versioned<>(professor.getVersion(), toDto(professor));
     }
 
     private ProfessorDto createProfessor(ProfessorCreationDto creationDto) {
@@ -223,54 +342,30 @@ public class ProfessorController extends HttpServlet {
         professor.setPhoneNumber(creationDto.phoneNumber);
         professor.setDegree(creationDto.degree);
         professor.setBirthday(creationDto.birthday);
-        service = createProfessorService();
+        service = getProfessorService();
         professor = service.add(professor);
         result = toDto(professor);
         return result;
     }
 
     @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
-    private ProfessorDto updateProfessor(int id, ProfessorUpdateDto updateDto) {
-        Professor professor;
-        ProfessorDto result;
-        ProfessorService service;
-
-        result = null;
-        service = createProfessorService();
-        professor = service.getById(id);
-        if (professor != null) {
-            if (updateDto.departmentId != null) {
-                Department department;
-
-                department = new Department();
-                department.setId(updateDto.departmentId.orElse(0));
-                professor.setDepartment(department);
-            }
-            if (updateDto.name != null) {
-                professor.setName(updateDto.name.orElse(null));
-            }
-            if (updateDto.phoneNumber != null) {
-                professor.setPhoneNumber(updateDto.phoneNumber.orElse(null));
-            }
-            if (updateDto.degree != null) {
-                professor.setDegree(updateDto.degree.orElse(null));
-            }
-            if (updateDto.birthday != null) {
-                professor.setBirthday(updateDto.birthday.orElse(null));
-            }
-            if (service.update(professor)) {
-                result = toDto(professor);
-            }
-        }
-
-        return result;
+    private ProfessorDto updateProfessor(int id, ProfessorUpdateDto updateDto, ExpectedVersions expectedVersions) {
+        ProfessorPatch patch;
+
+        patch = new ProfessorPatch();
+        patch.setDepartmentId(updateDto.departmentId);
+        patch.setName(updateDto.name);
+        patch.setPhoneNumber(updateDto.phoneNumber);
+        patch.setDegree(updateDto.degree);
+        patch.setBirthday(updateDto.birthday);
+        return toDto(getProfessorService().update(id, patch, expectedVersions));
     }
 
-    private boolean deleteProfessor(int id) {
+    private boolean deleteProfessor(int id, ExpectedVersions expectedVersions) {
         ProfessorService service;
 
-        service = createProfessorService();
-        return service.delete(id);
+        service = getProfessorService();
+        return service.delete(id, expectedVersions);
     }
 
     static ProfessorDto toDto(Professor professor) {
@@ -294,19 +389,19 @@ public class ProfessorController extends HttpServlet {
         return dto;
     }
 
-    @SuppressWarnings("java:S112") // Все необрабатываемые ошибки считаем Server Internal Error (500)
-    ProfessorService createProfessorService() {
-        ProfessorRepository repository;
-        DepartmentRepository departmentRepository;
-        ProfessorService service;
-
-        try {
-            repository = new ProfessorRepository();
-            departmentRepository = new DepartmentRepository();
-            service = new ProfessorService(repository, departmentRepository);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    ProfessorService getProfessorService() {
         return service;
     }
+
+    Gson getParser() {
+        return parser;
+    }
+
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    private ProfessorService service;
+    private Gson parser;
+    private ResponseCache responseCache;
 }
@@ -0,0 +1,82 @@
+package controllers;
+
+import database.RoutingDataSource;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Сеанс клиента для чтения своих записей с реплик (см. {@link RoutingDataSource#openSession}).
+ * Позиция WAL после последней записи клиента хранится у него в cookie: её получает любой узел,
+ * на который придёт следующий запрос, и чтение клиента идёт только на реплики, применившие журнал до неё.
+ * Без реплик фильтр ничего не делает.
+ */
+@WebFilter("/*")
+public class ReadYourWritesFilter extends HttpFilter {
+
+    @Override
+    public void init() {
+        routing = (RoutingDataSource) getServletContext().getAttribute(RoutingDataSource.class.getName());
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        RoutingDataSource routingDataSource;
+
+        routingDataSource = getRouting();
+        if (routingDataSource == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+        // Cookie выставляется сразу после записи, пока ответ ещё не начал отправляться
+        routingDataSource.openSession(requiredLsn(req), lsn -> res.addCookie(cookie(req, lsn)));
+        try {
+            chain.doFilter(req, res);
+        } finally {
+            routingDataSource.closeSession();
+        }
+    }
+
+    RoutingDataSource getRouting() {
+        return routing;
+    }
+
+    /**
+     * Позиция WAL из cookie клиента или 0, если её нет или она испорчена.
+     */
+    static long requiredLsn(HttpServletRequest req) {
+        if (req.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : req.getCookies()) {
+            if (cookie.getName().equals(COOKIE_NAME)) {
+                try {
+                    return Math.max(Long.parseLong(cookie.getValue()), 0);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static Cookie cookie(HttpServletRequest req, long lsn) {
+        Cookie cookie;
+
+        cookie = new Cookie(COOKIE_NAME, Long.toString(lsn));
+        cookie.setPath(req.getContextPath().isEmpty() ? "/" : req.getContextPath());
+        cookie.setHttpOnly(true);
+        return cookie;
+    }
+
+    static final String COOKIE_NAME = "wal-lsn";
+
+    private RoutingDataSource routing;
+}
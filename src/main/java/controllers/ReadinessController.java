@@ -0,0 +1,45 @@
+package controllers;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import listeners.Warmup;
+
+@WebServlet("/ready")
+public class ReadinessController extends HttpServlet {
+
+    @Override
+    public void init() {
+        warmup = (Warmup) getServletContext().getAttribute(Warmup.class.getName());
+    }
+
+    /**
+     * @GET/ready
+     * Проверка готовности узла принимать запросы.
+     * Отвечает 200 OK после прогрева кэша и JIT (см. {@link Warmup}), до этого - 503 Service Unavailable
+     * с заголовком Retry-After. Прогрев начинается при запуске приложения, проверка только сообщает его состояние.
+     * @param req запрос проверки готовности.
+     * @param resp ответ без тела.
+     */
+    @Override
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) {
+        Warmup warmup;
+
+        warmup = getWarmup();
+        if (warmup.isReady()) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+    }
+
+    Warmup getWarmup() {
+        return warmup;
+    }
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private Warmup warmup;
+}
@@ -1,29 +1,51 @@
 package controllers;
 
+import cache.ResponseCache;
 import com.google.gson.Gson;
 import dto.*;
 import entities.Department;
 import entities.University;
 import entities.UniversityFull;
+import entities.UniversityPatch;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import repositories.UniversityRepository;
+import json.JsonArrayWriter;
+import listeners.Warmup;
 import services.UniversityService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
 import utils.ParseUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 
 @WebServlet({"/universities", "/universities/*"})
 public class UniversityController extends HttpServlet {
 
+    @Override
+    public void init() {
+        ServletContext context;
+
+        context = getServletContext();
+        service = (UniversityService) context.getAttribute(UniversityService.class.getName());
+        parser = (Gson) context.getAttribute(Gson.class.getName());
+        responseCache = (ResponseCache) context.getAttribute(ResponseCache.class.getName());
+    }
+
     /**
      * @GET/universities
      * Получить список университетов.
@@ -38,18 +60,56 @@ public class UniversityController extends HttpServlet {
      * @param resp ответ, в который будет отдан dto-университет с указанным id.
      * Возможные ошибки: 400 Bad Request - ошибка в запросе
      *                   404 Not Found - запрашиваемый ресурс не найден
+     *
+     * Ответ содержит заголовок ETag с версией ресурса. Если он совпадает с If-None-Match
+     * запроса, отдаётся 304 Not Modified без тела. Готовое тело ответа кэшируется вместе с этой версией
+     * и, пока версия не изменилась, отдаётся байтами без обращения к сервису и сериализации.
      */
     @Override
     @SuppressWarnings("java:S1989") // Все необрабатываемые исключения являются Server Internal Error (500)
     public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Gson parser;
-        Object body;
+        Versioned<?> body;
+        Type bodyType;
         String pathInfo;
-        PrintWriter respWriter;
+        String resource;
+        String version;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
-            body = getUniversities();
+            String limitStr;
+            String afterStr;
+
+            limitStr = req.getParameter(Pagination.LIMIT_PARAMETER);
+            afterStr = req.getParameter(Pagination.AFTER_PARAMETER);
+            if (limitStr == null && afterStr == null) {
+                version = getUniversityService().getVersion();
+                if (!ETags.notModified(req, resp, version)) {
+                    writeUniversities(resp, version);
+                }
+                return;
+            } else {
+                int limit;
+                int afterId;
+
+                try {
+                    limit = Pagination.parseLimit(limitStr);
+                    afterId = Pagination.decodeToken(afterStr);
+                } catch (IllegalArgumentException iae) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+                version = getUniversityService().getVersion();
+                if (ETags.notModified(req, resp, version)) {
+                    return;
+                }
+                resource = "universities?after=" + afterId + "&limit=" + limit;
+                if (getResponseCache().writeCached(resp, resource, version)) {
+                    return;
+                }
+                body = getUniversityPage(afterId, limit);
+                bodyType = ParseUtils.UNIVERSITY_PAGE;
+            }
         } else {
             String universityIdStr;
             int universityId;
@@ -62,17 +122,33 @@ public class UniversityController extends HttpServlet {
                 return;
             }
 
-            body = getUniversity(universityId);
+            version = getUniversityService().getVersion(universityId);
+            if (version == null) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (!Warmup.isSynthetic(req)) {
+                getUniversityService().recordAccess(universityId);
+            }
+            if (ETags.notModified(req, resp, version)) {
+                return;
+            }
+            resource = "universities/" + universityId;
+            if (getResponseCache().writeCached(resp, resource, version)) {
+                return;
+            }
+            body = getUniversity(universityId, version);
             if (body == null) {
                 resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 return;
             }
+            bodyType = UniversityFullDto.class;
         }
-        parser = ParseUtils.createParser();
-        respWriter = resp.getWriter();
-        parser.toJson(body, respWriter);
-        resp.setContentType(MimeTypes.APPLICATION_JSON);
-
+        // ETag и кэш ответов - по версии, из которой собрано тело
+        version = ETags.correct(resp, version, body.getVersion());
+        parser = getParser();
+        getResponseCache().writeAndCache(resp, resource, version,
+                parser.toJson(body.getValue(), bodyType).getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -97,7 +173,7 @@ public class UniversityController extends HttpServlet {
             return;
         }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -128,6 +204,7 @@ public class UniversityController extends HttpServlet {
         String pathInfo;
         String universityIdStr;
         int universityId;
+        ExpectedVersions expectedVersions;
         UniversityUpdateDto updateDto;
         UniversityFullDto universityDto;
         Gson parser;
@@ -147,8 +224,14 @@ public class UniversityController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
 
-        parser = ParseUtils.createParser();
+        parser = getParser();
         reqReader = req.getReader();
         respWriter = resp.getWriter();
         try {
@@ -160,12 +243,17 @@ public class UniversityController extends HttpServlet {
             return;
         }
         try {
-            universityDto = updateUniversity(universityId, updateDto);
+            universityDto = updateUniversity(universityId, updateDto, expectedVersions);
         } catch (ValidationException ve) {
             respWriter.write(ve.getMessage());
             resp.setContentType(MimeTypes.TEXT_PLAIN);
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
+        } catch (VersionConflictException vce) {
+            respWriter.write(vce.getMessage());
+            resp.setContentType(MimeTypes.TEXT_PLAIN);
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
         }
 
         if (universityDto == null) {
@@ -183,6 +271,7 @@ public class UniversityController extends HttpServlet {
         String pathInfo;
         String universityIdStr;
         int universityId;
+        ExpectedVersions expectedVersions;
 
         pathInfo = req.getPathInfo();
         if (pathInfo == null) {
@@ -197,51 +286,84 @@ public class UniversityController extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
-        if (!deleteUniversity(universityId)) {
-            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        try {
+            expectedVersions = ETags.parseIfMatch(req.getHeader(ETags.IF_MATCH_HEADER));
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return;
+        }
+        try {
+            if (!deleteUniversity(universityId, expectedVersions)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (VersionConflictException vce) {
+            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
         }
     }
 
-    @SuppressWarnings("java:S112") // Все необрабатываемые ошибки считаем Server Internal Error (500)
-    UniversityService createUniversityService() {
-        UniversityRepository repository;
-        UniversityService service;
+    UniversityService getUniversityService() {
+        return service;
+    }
+
+    Gson getParser() {
+        return parser;
+    }
+
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
 
+    /**
+     * Записать в ответ полный список без постраничного разбиения.
+     * Строки читаются из базы данных порциями и сразу пишутся в ответ, не накапливаясь в памяти.
+     */
+    private void writeUniversities(HttpServletResponse resp, String version) throws IOException {
+        Gson parser;
+        JsonArrayWriter<UniversityDto> arrayWriter;
+
+        parser = getParser();
+        resp.setContentType(MimeTypes.APPLICATION_JSON);
+        arrayWriter = new JsonArrayWriter<>(parser.newJsonWriter(resp.getWriter()), parser.getAdapter(UniversityDto.class));
+        arrayWriter.begin();
         try {
-            repository = new UniversityRepository();
-            service = new UniversityService(repository);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            getUniversityService().forEach(listVersion -> ETags.correct(resp, version, listVersion),
+                    university -> arrayWriter.accept(toDto(university)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return service;
+        arrayWriter.end();
     }
 
-    private Collection<UniversityDto> getUniversities() {
-        Collection<University> universities;
-        ArrayList<UniversityDto> result;
+    private Versioned<PageDto<UniversityDto>> getUniversityPage(int afterId, int limit) {
+        Versioned<Collection<University>> universities;
+        ArrayList<UniversityDto> items;
+        PageDto<UniversityDto> page;
         UniversityService service;
 
-        service = createUniversityService();
-        universities = service.get();
-        result = new ArrayList<>(universities.size());
-        for (University university : universities) {
-            UniversityDto dto;
-
-            dto = toDto(university);
-            result.add(dto);
+        service = getUniversityService();
+        // Запрашиваем на один элемент больше, чтобы узнать, есть ли следующая страница
+        universities = service.get(afterId, limit + 1);
+        items = new ArrayList<>(Math.min(universities.getValue().size(), limit));
+        page = new PageDto<>();
+        for (University university : universities.getValue()) {
+            if (items.size() == limit) {
+                page.next = Pagination.encodeToken(items.get(limit - 1).id);
+                break;
+            }
+            items.add(toDto(university));
         }
-        return result;
+        page.items = items;
+        return new Versioned<>(universities.getVersion(), page);
     }
 
-    private UniversityFullDto getUniversity(int id) {
+    private Versioned<UniversityFullDto> getUniversity(int id, String version) {
         UniversityFull university;
-        UniversityFullDto result;
-        UniversityService service;
 
-        service = createUniversityService();
-        university = service.getById(id);
-        result = toFullDto(university);
-        return result;
+        university = getUniversityService().getById(id, version);
+        if (university == null) {
+            return null;
+        }
+        return new Versioned<>(university.getVersion(), toFullDto(university));
     }
 
     private UniversityFullDto createUniversity(UniversityCreationDto creationDto) {
@@ -253,41 +375,27 @@ public class UniversityController extends HttpServlet {
         university = new University();
         university.setName(creationDto.name);
         university.setCity(creationDto.city);
-        service = createUniversityService();
+        service = getUniversityService();
         universityFull = service.add(university);
         result = toFullDto(universityFull);
         return result;
     }
 
     @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
-    private UniversityFullDto updateUniversity(int id, UniversityUpdateDto updateDto) {
-        UniversityFull university;
-        UniversityFullDto result;
-        UniversityService service;
+    private UniversityFullDto updateUniversity(int id, UniversityUpdateDto updateDto, ExpectedVersions expectedVersions) {
+        UniversityPatch patch;
 
-        result = null;
-        service = createUniversityService();
-        university = service.getById(id);
-        if (university != null) {
-            if (updateDto.name != null) {
-                university.setName(updateDto.name.orElse(null));
-            }
-            if (updateDto.city != null) {
-                university.setCity(updateDto.city.orElse(null));
-            }
-            if (service.update(university)) {
-                result = toFullDto(university);
-            }
-        }
-
-        return result;
+        patch = new UniversityPatch();
+        patch.setName(updateDto.name);
+        patch.setCity(updateDto.city);
+        return toFullDto(getUniversityService().update(id, patch, expectedVersions));
     }
 
-    private boolean deleteUniversity(int id) {
+    private boolean deleteUniversity(int id, ExpectedVersions expectedVersions) {
         UniversityService service;
 
-        service = createUniversityService();
-        return service.delete(id);
+        service = getUniversityService();
+        return service.delete(id, expectedVersions);
     }
 
     static UniversityDto toDto(University university) {
@@ -336,4 +444,8 @@ public class UniversityController extends HttpServlet {
         }
         return fullDto;
     }
-}
\ No newline at end of file
+
+    private UniversityService service;
+    private Gson parser;
+    private ResponseCache responseCache;
+}
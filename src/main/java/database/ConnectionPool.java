@@ -0,0 +1,124 @@
+package database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import repositories.Repository;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Пул соединений с базой данных.
+ * Физические соединения открываются один раз и переиспользуются, поэтому репозитории
+ * получают соединение из пула без TCP-рукопожатия и аутентификации на каждый запрос.
+ * Вызов close() у полученного соединения возвращает его в пул.
+ */
+public class ConnectionPool {
+
+    /**
+     * Создать новый пул по текущим настройкам {@link DatabaseSettings}.
+     * Пул проверяет соединение при выдаче, закрывает простаивающие сверх минимума
+     * и пересоздаёт соединения по истечении максимального времени жизни.
+     * Драйвер кэширует подготовленные запросы на каждом соединении: закрытие PreparedStatement не удаляет
+     * серверный запрос, и тот же текст запроса на том же соединении выполняется без разбора, а после нескольких
+     * выполнений - и без планирования, по общему плану сервера. Поэтому тексты запросов в репозиториях постоянны,
+     * а параметры передаются через "?". Столбцы с числами и датами передаются в двоичном виде.
+     */
+    public static HikariDataSource create() {
+        return create(DatabaseSettings.URL, POOL_NAME);
+    }
+
+    /**
+     * Создать пулы соединений с репликами из {@link DatabaseSettings#REPLICA_URLS} и источник данных,
+     * разделяющий между ними и основным сервером чтение и запись.
+     *
+     * @return источник данных или null, если реплики не заданы
+     */
+    public static RoutingDataSource createRouting(HikariDataSource primary) {
+        ArrayList<HikariDataSource> replicas;
+        String[] urls;
+
+        if (DatabaseSettings.REPLICA_URLS.trim().isEmpty()) {
+            return null;
+        }
+        urls = DatabaseSettings.REPLICA_URLS.split(",");
+        replicas = new ArrayList<>(urls.length);
+        for (int i = 0; i < urls.length; i++) {
+            HikariConfig config;
+
+            config = configure(urls[i].trim(), POOL_NAME + "-replica-" + (i + 1));
+            // Недоступная при запуске реплика не мешает запуску, соединения с ней откроются позже.
+            // Недоступную реплику чтение пропускает, поэтому долго ждать её соединения незачем
+            config.setInitializationFailTimeout(-1);
+            config.setConnectionTimeout(DatabaseSettings.REPLICA_CONNECTION_TIMEOUT_MS);
+            replicas.add(new HikariDataSource(config));
+        }
+        return new RoutingDataSource(primary, replicas, DatabaseSettings.REPLICA_BALANCING,
+                DatabaseSettings.REPLICA_MAX_LAG_BYTES);
+    }
+
+    /**
+     * Создать пул соединений с сервером по адресу url с остальными настройками из {@link DatabaseSettings}.
+     * Имя пула передаётся серверу как имя приложения и видно в pg_stat_activity.
+     */
+    public static HikariDataSource create(String url, String poolName) {
+        return new HikariDataSource(configure(url, poolName));
+    }
+
+    private static HikariConfig configure(String url, String poolName) {
+        HikariConfig config;
+
+        config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setDriverClassName("org.postgresql.Driver");
+        config.setJdbcUrl(url);
+        config.setUsername(DatabaseSettings.USERNAME);
+        config.setPassword(DatabaseSettings.PASSWORD);
+        config.setMinimumIdle(DatabaseSettings.POOL_MIN_IDLE);
+        config.setMaximumPoolSize(DatabaseSettings.POOL_MAX_SIZE);
+        config.setIdleTimeout(DatabaseSettings.POOL_IDLE_TIMEOUT_MS);
+        config.setMaxLifetime(DatabaseSettings.POOL_MAX_LIFETIME_MS);
+        config.setConnectionTimeout(DatabaseSettings.POOL_CONNECTION_TIMEOUT_MS);
+        config.setValidationTimeout(DatabaseSettings.POOL_VALIDATION_TIMEOUT_MS);
+        config.addDataSourceProperty("prepareThreshold", DatabaseSettings.PREPARE_THRESHOLD);
+        config.addDataSourceProperty("preparedStatementCacheQueries", DatabaseSettings.PREPARED_STATEMENT_CACHE_QUERIES);
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", DatabaseSettings.PREPARED_STATEMENT_CACHE_SIZE_MIB);
+        config.addDataSourceProperty("binaryTransfer", true);
+        config.addDataSourceProperty("binaryTransferEnable", DatabaseSettings.BINARY_TRANSFER_TYPES);
+        config.addDataSourceProperty("ApplicationName", poolName);
+        return config;
+    }
+
+    /**
+     * Открыть сразу минимальное число соединений пула и подготовить на каждом запросы репозиториев.
+     * Сам пул добирает соединения до минимума в фоне, и первые запросы после запуска ждали бы открытия
+     * соединения и разбора своих запросов. Соединения берутся одновременно, иначе пул выдавал бы одно и то же.
+     */
+    public static void warmUp(HikariDataSource dataSource, Repository... repositories) throws SQLException {
+        ArrayList<Connection> connections;
+
+        connections = new ArrayList<>(dataSource.getMinimumIdle());
+        try {
+            for (int i = 0; i < dataSource.getMinimumIdle(); i++) {
+                Connection connection;
+
+                connection = dataSource.getConnection();
+                connections.add(connection);
+                for (Repository repository : repositories) {
+                    repository.prepareStatements(connection);
+                }
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private ConnectionPool() {
+    }
+
+    private static final String POOL_NAME = "University";
+}
@@ -0,0 +1,108 @@
+package database;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+/**
+ * Применяет версионные скрипты схемы базы данных.
+ * Скрипты лежат в ресурсах по пути db/migration/V{номер}.sql и нумеруются подряд начиная с 1.
+ * Первая строка скрипта вида "-- описание" сохраняется как описание версии.
+ * Номер последней применённой версии хранится в таблице schema_version, поэтому каждый скрипт
+ * выполняется ровно один раз. Одновременный запуск на нескольких узлах сериализуется advisory-блокировкой.
+ */
+public class MigrationRunner {
+
+    /**
+     * Применить все ещё не применённые скрипты в одной транзакции.
+     *
+     * @return номер версии схемы после применения
+     */
+    public static int migrate(DataSource dataSource) throws SQLException {
+        Connection connection;
+        int version;
+
+        connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+                statement.execute("CREATE TABLE IF NOT EXISTS public.schema_version" +
+                        "(" +
+                        "    version integer NOT NULL," +
+                        "    description character varying NOT NULL," +
+                        "    applied_at timestamp with time zone NOT NULL DEFAULT now()," +
+                        "    CONSTRAINT schema_version_pkey PRIMARY KEY (version)" +
+                        ")");
+            }
+            version = currentVersion(connection);
+            for (String script = loadScript(version + 1); script != null; script = loadScript(version + 1)) {
+                version++;
+                apply(connection, version, script);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            connection.close();
+        }
+        return version;
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        int version;
+
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet;
+
+            resultSet = statement.executeQuery("SELECT coalesce(max(version), 0) FROM schema_version");
+            resultSet.next();
+            version = resultSet.getInt(1);
+        }
+        return version;
+    }
+
+    private static void apply(Connection connection, int version, String script) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(script);
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO schema_version (version, description) " +
+                "VALUES (?, ?)")) {
+            preparedStatement.setInt(1, version);
+            preparedStatement.setString(2, describe(script));
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static String describe(String script) {
+        String firstLine;
+        int end;
+
+        end = script.indexOf('\n');
+        firstLine = end < 0 ? script : script.substring(0, end);
+        return firstLine.startsWith("--") ? firstLine.substring(2).trim() : "";
+    }
+
+    @SuppressWarnings("java:S112") // Ошибка чтения ресурсов приложения считается Internal Server Error (500)
+    private static String loadScript(int version) {
+        String script;
+
+        try (InputStream inputStream = MigrationRunner.class.getClassLoader()
+                .getResourceAsStream(SCRIPTS_PATH + "V" + version + ".sql")) {
+            script = inputStream == null ? null : new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return script;
+    }
+
+    private MigrationRunner() {
+    }
+
+    private static final String SCRIPTS_PATH = "db/migration/";
+    private static final long LOCK_KEY = 20240001L;
+}
@@ -0,0 +1,17 @@
+package database;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Источник данных, который может выдавать для чтения другие соединения, чем для изменения данных,
+ * например соединения с репликами (см. {@link RoutingDataSource}).
+ */
+public interface ReadDataSource extends DataSource {
+
+    /**
+     * Соединение для запросов, которые только читают данные. Закрытие возвращает его в пул.
+     */
+    Connection getReadConnection() throws SQLException;
+}
@@ -0,0 +1,352 @@
+package database;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * Разделение чтения и записи между основным сервером и репликами потоковой репликации.
+ * {@link #getConnection()} выдаёт соединение с основным сервером, {@link #getReadConnection()} - с одной
+ * из реплик, выбранной по кругу или по наименьшему числу занятых соединений.
+ * <p>
+ * Фоновая проверка запоминает позицию, до которой каждая реплика применила журнал, и сравнивает её
+ * с позицией WAL основного сервера. Реплика, отставшая больше допустимого или недоступная, исключается
+ * из выбора до следующей проверки.
+ * <p>
+ * Чтение своих записей выполняется для каждого клиента отдельно, в пределах сеанса (см. {@link #openSession}):
+ * после фиксации транзакции на основном сервере сеанс запоминает позицию WAL, прочитанную сразу после фиксации,
+ * и его чтение идёт только на реплики, применившие журнал до неё, а пока таких нет - на основной сервер.
+ * Эта позиция передаётся клиенту и возвращается им в следующем запросе, на этот или другой узел.
+ * Чтение других клиентов и фоновых потоков вне сеанса записи не ждёт. Кэш сущностей, загруженный с реплики,
+ * ещё не получившей изменение с другого узла, исправляется сам: версия сущности в кэше не совпадёт
+ * с версией, прочитанной после того, как реплика её догонит.
+ * <p>
+ * Если ни одна реплика не подходит, чтение идёт на основной сервер.
+ */
+public class RoutingDataSource implements ReadDataSource, AutoCloseable {
+
+    /**
+     * Выбор реплики для чтения.
+     */
+    public enum Balancing {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    /**
+     * @param primary      пул соединений с основным сервером, закрывает его владелец
+     * @param replicas     пулы соединений с репликами, закрываются вместе с этим источником
+     * @param maxLagBytes  на сколько байт WAL реплика может отставать от основного сервера
+     */
+    public RoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, Balancing balancing,
+                             long maxLagBytes) {
+        this.primary = primary;
+        this.replicas = new ArrayList<>(replicas.size());
+        for (HikariDataSource replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.balancing = balancing;
+        this.maxLagBytes = maxLagBytes;
+        next = new AtomicInteger();
+        session = new ThreadLocal<>();
+    }
+
+    /**
+     * Начать проверять отставание реплик в фоновом потоке.
+     */
+    public void start(long intervalMs) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread;
+
+            thread = new Thread(runnable, "replica-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Пулы соединений с репликами, например для их прогрева.
+     */
+    public List<HikariDataSource> getReplicas() {
+        List<HikariDataSource> result;
+
+        result = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            result.add(replica.dataSource);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Начать в текущем потоке сеанс клиента, например на время обработки его запроса.
+     *
+     * @param requiredLsn позиция WAL, до которой реплика должна применить журнал, чтобы клиент мог с неё читать;
+     *                    0, если клиент ещё ничего не записывал
+     * @param onWrite     получает новую позицию после каждой записи сеанса, чтобы передать её клиенту
+     */
+    public void openSession(long requiredLsn, LongConsumer onWrite) {
+        session.set(new Session(requiredLsn, onWrite));
+    }
+
+    /**
+     * Закончить сеанс текущего потока.
+     */
+    public void closeSession() {
+        session.remove();
+    }
+
+    /**
+     * Проверить отставание всех реплик. Выполняется фоновым потоком, запущенным {@link #start(long)}.
+     */
+    void check() {
+        long primaryLsn;
+
+        try {
+            primaryLsn = queryLsn(primary, CURRENT_LSN);
+        } catch (SQLException e) {
+            // Без позиции основного сервера отставание неизвестно: оставляем прежнее состояние реплик
+            return;
+        }
+        for (Replica replica : replicas) {
+            long replayedLsn;
+
+            try {
+                replayedLsn = queryLsn(replica.dataSource, REPLAYED_LSN);
+            } catch (SQLException e) {
+                replica.healthy = false;
+                continue;
+            }
+            replica.replayedLsn = replayedLsn;
+            replica.healthy = primaryLsn - replayedLsn <= maxLagBytes;
+        }
+    }
+
+    /**
+     * Соединение с основным сервером. Фиксация транзакции на нём считается записью сеанса.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return tracked(primary.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return tracked(primary.getConnection(username, password));
+    }
+
+    /**
+     * Соединение с подходящей репликой или, если такой нет, с основным сервером.
+     */
+    @Override
+    public Connection getReadConnection() throws SQLException {
+        Replica replica;
+
+        replica = choose();
+        if (replica != null) {
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.healthy = false;
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    private Replica choose() {
+        Session current;
+        Replica chosen;
+        long required;
+        int start;
+
+        current = session.get();
+        required = current != null ? current.requiredLsn : 0;
+        chosen = null;
+        start = Math.floorMod(next.getAndIncrement(), Math.max(replicas.size(), 1));
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica;
+
+            replica = replicas.get((start + i) % replicas.size());
+            if (!replica.isReadable(required)) {
+                continue;
+            }
+            if (balancing == Balancing.ROUND_ROBIN) {
+                return replica;
+            }
+            if (chosen == null || replica.activeConnections() < chosen.activeConnections()) {
+                chosen = replica;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Обёртка над соединением с основным сервером, которая после фиксации транзакции в сеансе
+     * запоминает позицию WAL основного сервера. Она прочитана после фиксации, поэтому не меньше
+     * позиции записи о ней, и реплика, применившая журнал до этой позиции, видит записанное.
+     */
+    private Connection tracked(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    Object result;
+
+                    try {
+                        result = method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (method.getName().equals("commit") && session.get() != null) {
+                        written(connection);
+                    }
+                    return result;
+                });
+    }
+
+    private void written(Connection connection) {
+        Session current;
+        long lsn;
+
+        current = session.get();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(CURRENT_LSN)) {
+            resultSet.next();
+            lsn = resultSet.getLong(1);
+        } catch (SQLException e) {
+            // Транзакция уже зафиксирована, и ошибка запроса не должна её отменять.
+            // Позиция неизвестна: до конца сеанса чтение идёт на основной сервер, клиенту позиция не передаётся
+            current.requiredLsn = Long.MAX_VALUE;
+            return;
+        }
+        if (lsn > current.requiredLsn) {
+            current.requiredLsn = lsn;
+            current.onWrite.accept(lsn);
+        }
+    }
+
+    private static long queryLsn(HikariDataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static final class Replica {
+
+        Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+            // До первой проверки состояние реплики неизвестно, поэтому она не используется
+            replayedLsn = -1;
+        }
+
+        /**
+         * Можно ли читать с реплики сеансу, которому нужна позиция WAL required.
+         */
+        boolean isReadable(long required) {
+            return healthy && replayedLsn >= required;
+        }
+
+        int activeConnections() {
+            HikariPoolMXBean pool;
+
+            pool = dataSource.getHikariPoolMXBean();
+            return pool != null ? pool.getActiveConnections() : 0;
+        }
+
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy;
+        private volatile long replayedLsn;
+    }
+
+    /**
+     * Сеанс клиента в потоке, который обрабатывает его запрос.
+     */
+    private static final class Session {
+
+        Session(long requiredLsn, LongConsumer onWrite) {
+            this.requiredLsn = requiredLsn;
+            this.onWrite = onWrite;
+        }
+
+        private final LongConsumer onWrite;
+        private long requiredLsn;
+    }
+
+    // Позиция записи WAL не меньше позиции записи о фиксации любой завершённой транзакции
+    private static final String CURRENT_LSN = "SELECT pg_current_wal_lsn() - '0/0'::pg_lsn";
+    // Сервер не в режиме восстановления (например, реплика после переключения) журнал не применяет,
+    // он сам пишет его, и его данные не отстают
+    private static final String REPLAYED_LSN = "SELECT CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn()"
+            + " ELSE pg_current_wal_lsn() END - '0/0'::pg_lsn";
+
+    private final HikariDataSource primary;
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final long maxLagBytes;
+    private final AtomicInteger next;
+    private final ThreadLocal<Session> session;
+    private ScheduledExecutorService scheduler;
+}
@@ -0,0 +1,240 @@
+package database;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Транзакции уровня сервиса.
+ * Сервис открывает транзакцию на операцию, а репозитории, получающие соединения через этот источник данных,
+ * присоединяются к ней: пока в потоке идёт транзакция, {@link #getConnection()} отдаёт её соединение,
+ * закрытие которого ничего не делает. Поэтому многошаговая операция занимает одно соединение пула и
+ * завершается одной фиксацией, а вне транзакции соединения выдаются пулом как обычно.
+ * Вложенная транзакция присоединяется к внешней, её уровень изоляции не применяется.
+ * Транзакция только для чтения выполняется драйвером как BEGIN READ ONLY, без лишних обращений к серверу.
+ * Если источник данных выдаёт отдельные соединения для чтения (см. {@link ReadDataSource}), транзакция
+ * только для чтения берёт такое соединение, а вне транзакций они выдаются через {@link #getReadConnection()}.
+ */
+public class TransactionManager implements ReadDataSource {
+
+    /**
+     * Работа внутри транзакции.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Уровень изоляции транзакции.
+     */
+    public enum Isolation {
+        READ_COMMITTED(null),
+        REPEATABLE_READ("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ"),
+        SERIALIZABLE("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE");
+
+        Isolation(String sql) {
+            this.sql = sql;
+        }
+
+        // Уровень задаётся только для текущей транзакции, поэтому возвращать соединению прежний не нужно.
+        // READ COMMITTED - уровень PostgreSQL по умолчанию, его задавать не нужно
+        private final String sql;
+    }
+
+    public TransactionManager(DataSource dataSource) {
+        this.dataSource = dataSource;
+        current = new ThreadLocal<>();
+    }
+
+    /**
+     * Выполнить изменяющую операцию в транзакции READ COMMITTED.
+     */
+    public <T> T write(Work<T> work) throws SQLException {
+        return execute(Isolation.READ_COMMITTED, false, work);
+    }
+
+    /**
+     * Выполнить чтение из нескольких запросов в транзакции только для чтения на одном снимке данных.
+     */
+    public <T> T read(Work<T> work) throws SQLException {
+        return execute(Isolation.REPEATABLE_READ, true, work);
+    }
+
+    /**
+     * Выполнить работу в транзакции: зафиксировать её, если работа завершилась без исключения, иначе откатить.
+     * Если в потоке уже идёт транзакция, работа выполняется в ней.
+     *
+     * @throws IllegalStateException при попытке изменять данные внутри транзакции только для чтения
+     */
+    @SuppressWarnings("java:S1141") // Откат не должен скрывать исключение, из-за которого он выполняется
+    public <T> T execute(Isolation isolation, boolean readOnly, Work<T> work) throws SQLException {
+        Transaction transaction;
+        Connection connection;
+        T result;
+
+        transaction = current.get();
+        if (transaction != null) {
+            if (transaction.readOnly && !readOnly) {
+                throw new IllegalStateException("Cannot join a read-only transaction to write");
+            }
+            return work.run();
+        }
+        connection = readOnly ? openReadConnection() : dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(readOnly);
+            if (isolation.sql != null) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(isolation.sql);
+                }
+            }
+            current.set(new Transaction(connection, readOnly));
+            try {
+                result = work.run();
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException | Error e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                current.remove();
+            }
+        } finally {
+            reset(connection);
+            connection.close();
+        }
+    }
+
+    /**
+     * Идёт ли в текущем потоке транзакция.
+     */
+    public boolean inTransaction() {
+        return current.get() != null;
+    }
+
+    /**
+     * Соединение текущей транзакции или, вне транзакции, соединение из пула.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        Transaction transaction;
+
+        transaction = current.get();
+        return transaction != null ? transaction.handle : dataSource.getConnection();
+    }
+
+    /**
+     * Соединение текущей транзакции или, вне транзакции, соединение для чтения.
+     */
+    @Override
+    public Connection getReadConnection() throws SQLException {
+        Transaction transaction;
+
+        transaction = current.get();
+        return transaction != null ? transaction.handle : openReadConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (current.get() != null) {
+            throw new SQLFeatureNotSupportedException("Cannot join a transaction as another user");
+        }
+        return dataSource.getConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    private Connection openReadConnection() throws SQLException {
+        return dataSource instanceof ReadDataSource
+                ? ((ReadDataSource) dataSource).getReadConnection()
+                : dataSource.getConnection();
+    }
+
+    /**
+     * Вернуть соединению режим автокоммита перед возвратом в пул.
+     */
+    private static void reset(Connection connection) {
+        try {
+            connection.setReadOnly(false);
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            // Соединение сломано: пул проверит его при следующей выдаче, а исключение работы важнее
+        }
+    }
+
+    /**
+     * Обёртка над соединением транзакции для репозиториев: закрытие не возвращает соединение в пул,
+     * это сделает {@link #execute} после фиксации или отката.
+     */
+    private static Connection joined(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(TransactionManager.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static final class Transaction {
+
+        Transaction(Connection connection, boolean readOnly) {
+            this.handle = joined(connection);
+            this.readOnly = readOnly;
+        }
+
+        private final Connection handle;
+        private final boolean readOnly;
+    }
+
+    private final DataSource dataSource;
+    private final ThreadLocal<Transaction> current;
+}
@@ -0,0 +1,13 @@
+package dto;
+
+@java.lang.SuppressWarnings("java:S1104") // Поля намеренно делаем публичными
+public class CacheStatsDto {
+    public String name;
+    public long size;
+    public long weight;
+    public long maxWeight;
+    public long hits;
+    public long misses;
+    public double hitRate;
+    public long evictions;
+}
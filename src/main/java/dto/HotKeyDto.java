@@ -0,0 +1,8 @@
+package dto;
+
+@java.lang.SuppressWarnings("java:S1104") // Поля намеренно делаем публичными
+public class HotKeyDto {
+    public String name;
+    public int id;
+    public int frequency;
+}
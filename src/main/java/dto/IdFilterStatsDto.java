@@ -0,0 +1,12 @@
+package dto;
+
+@java.lang.SuppressWarnings("java:S1104") // Поля намеренно делаем публичными
+public class IdFilterStatsDto {
+    public String name;
+    public boolean ready;
+    public int size;
+    public long lookups;
+    public long negatives;
+    public long falsePositives;
+    public double falsePositiveRate;
+}
@@ -0,0 +1,13 @@
+package dto;
+
+import java.util.Collection;
+
+@SuppressWarnings("java:S1104") // Поля намеренно делаем публичными
+public class PageDto<T> {
+    public Collection<T> items;
+    /**
+     * Непрозрачный токен следующей страницы, передаётся в параметре after.
+     * Равен null на последней странице.
+     */
+    public String next;
+}
@@ -12,5 +12,18 @@ public class DepartmentFull extends Department {
         this.professors = professors;
     }
 
+    /**
+     * Версия ресурса в том же виде, что и ETag, собранная из загруженных строк.
+     * Null, если сущность загружена без версии (например, в составе списка).
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
     private Collection<Professor> professors;
+    private String version;
 }
@@ -0,0 +1,31 @@
+package entities;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Частичное изменение кафедры.
+ * null в поле означает, что поле не меняется, пустой Optional - что поле явно сбрасывается.
+ */
+@java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+public class DepartmentPatch {
+
+    public OptionalInt getUniversityId() {
+        return universityId;
+    }
+
+    public void setUniversityId(OptionalInt universityId) {
+        this.universityId = universityId;
+    }
+
+    public Optional<String> getName() {
+        return name;
+    }
+
+    public void setName(Optional<String> name) {
+        this.name = name;
+    }
+
+    private OptionalInt universityId;
+    private Optional<String> name;
+}
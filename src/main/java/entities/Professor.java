@@ -52,10 +52,23 @@ public class Professor {
         this.department = department;
     }
 
+    /**
+     * Версия ресурса в том же виде, что и ETag, собранная из загруженных строк.
+     * Null, если сущность загружена без версии (например, в составе списка).
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
     private int id;
     private String name;
     private String phoneNumber;
     private String degree;
     private Date birthday;
     private Department department;
+    private String version;
 }
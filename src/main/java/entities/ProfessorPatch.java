@@ -0,0 +1,59 @@
+package entities;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Частичное изменение профессора.
+ * null в поле означает, что поле не меняется, пустой Optional - что поле явно сбрасывается.
+ */
+@java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+public class ProfessorPatch {
+
+    public OptionalInt getDepartmentId() {
+        return departmentId;
+    }
+
+    public void setDepartmentId(OptionalInt departmentId) {
+        this.departmentId = departmentId;
+    }
+
+    public Optional<String> getName() {
+        return name;
+    }
+
+    public void setName(Optional<String> name) {
+        this.name = name;
+    }
+
+    public Optional<String> getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public void setPhoneNumber(Optional<String> phoneNumber) {
+        this.phoneNumber = phoneNumber;
+    }
+
+    public Optional<String> getDegree() {
+        return degree;
+    }
+
+    public void setDegree(Optional<String> degree) {
+        this.degree = degree;
+    }
+
+    public Optional<Date> getBirthday() {
+        return birthday;
+    }
+
+    public void setBirthday(Optional<Date> birthday) {
+        this.birthday = birthday;
+    }
+
+    private OptionalInt departmentId;
+    private Optional<String> name;
+    private Optional<String> phoneNumber;
+    private Optional<String> degree;
+    private Optional<Date> birthday;
+}
@@ -21,5 +21,18 @@ public class UniversityFull extends University {
         this.departments = departments;
     }
 
+    /**
+     * Версия ресурса в том же виде, что и ETag, собранная из загруженных строк.
+     * Null, если сущность загружена без версии (например, в составе списка).
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
     private Collection<Department> departments;
+    private String version;
 }
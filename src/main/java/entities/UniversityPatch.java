@@ -0,0 +1,30 @@
+package entities;
+
+import java.util.Optional;
+
+/**
+ * Частичное изменение университета.
+ * null в поле означает, что поле не меняется, пустой Optional - что поле явно сбрасывается.
+ */
+@java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+public class UniversityPatch {
+
+    public Optional<String> getName() {
+        return name;
+    }
+
+    public void setName(Optional<String> name) {
+        this.name = name;
+    }
+
+    public Optional<String> getCity() {
+        return city;
+    }
+
+    public void setCity(Optional<String> city) {
+        this.city = city;
+    }
+
+    private Optional<String> name;
+    private Optional<String> city;
+}
@@ -0,0 +1,12 @@
+package exceptions;
+
+/**
+ * Условие If-Match не выполнено: ресурс изменён другим запросом после того,
+ * как клиент получил его версию.
+ */
+public class VersionConflictException extends RuntimeException {
+
+    public VersionConflictException(String s) {
+        super(s);
+    }
+}
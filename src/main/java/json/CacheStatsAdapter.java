@@ -0,0 +1,77 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.CacheStatsDto;
+
+import java.io.IOException;
+
+/**
+ * Потоковый JSON-адаптер статистики кэша.
+ */
+public class CacheStatsAdapter extends TypeAdapter<CacheStatsDto> {
+
+    @Override
+    public void write(JsonWriter out, CacheStatsDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(dto.name);
+        out.name("size").value(dto.size);
+        out.name("weight").value(dto.weight);
+        out.name("max_weight").value(dto.maxWeight);
+        out.name("hits").value(dto.hits);
+        out.name("misses").value(dto.misses);
+        out.name("hit_rate").value(dto.hitRate);
+        out.name("evictions").value(dto.evictions);
+        out.endObject();
+    }
+
+    @Override
+    public CacheStatsDto read(JsonReader in) throws IOException {
+        CacheStatsDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new CacheStatsDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    dto.name = JsonValues.readString(in);
+                    break;
+                case "size":
+                    dto.size = in.nextLong();
+                    break;
+                case "weight":
+                    dto.weight = in.nextLong();
+                    break;
+                case "max_weight":
+                    dto.maxWeight = in.nextLong();
+                    break;
+                case "hits":
+                    dto.hits = in.nextLong();
+                    break;
+                case "misses":
+                    dto.misses = in.nextLong();
+                    break;
+                case "hit_rate":
+                    dto.hitRate = in.nextDouble();
+                    break;
+                case "evictions":
+                    dto.evictions = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+}
@@ -0,0 +1,229 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Потоковые JSON-адаптеры DTO кафедр.
+ */
+public class DepartmentAdapters {
+
+    public static class Dto extends TypeAdapter<DepartmentDto> {
+        @Override
+        public void write(JsonWriter out, DepartmentDto dto) throws IOException {
+            DepartmentAdapters.write(out, dto);
+        }
+
+        @Override
+        public DepartmentDto read(JsonReader in) throws IOException {
+            return DepartmentAdapters.read(in);
+        }
+    }
+
+    public static class FullDto extends TypeAdapter<DepartmentFullDto> {
+        @Override
+        public void write(JsonWriter out, DepartmentFullDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (dto.professors != null) {
+                out.name("professors");
+                out.beginArray();
+                for (ProfessorDto professor : dto.professors) {
+                    ProfessorAdapters.write(out, professor);
+                }
+                out.endArray();
+            }
+            writeFields(out, dto);
+            out.endObject();
+        }
+
+        @Override
+        public DepartmentFullDto read(JsonReader in) throws IOException {
+            DepartmentFullDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new DepartmentFullDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name;
+
+                name = in.nextName();
+                if (name.equals("professors") && in.peek() != JsonToken.NULL) {
+                    ArrayList<ProfessorDto> professors;
+
+                    professors = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        professors.add(ProfessorAdapters.read(in));
+                    }
+                    in.endArray();
+                    dto.professors = professors;
+                } else if (!readField(in, name, dto)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    public static class CreationDto extends TypeAdapter<DepartmentCreationDto> {
+        @Override
+        public void write(JsonWriter out, DepartmentCreationDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("university_id").value(dto.universityId);
+            out.name("name").value(dto.name);
+            out.endObject();
+        }
+
+        @Override
+        public DepartmentCreationDto read(JsonReader in) throws IOException {
+            DepartmentCreationDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new DepartmentCreationDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "university_id":
+                        dto.universityId = JsonValues.readInt(in, dto.universityId);
+                        break;
+                    case "name":
+                        dto.name = JsonValues.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+    public static class UpdateDto extends TypeAdapter<DepartmentUpdateDto> {
+        @Override
+        public void write(JsonWriter out, DepartmentUpdateDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (dto.universityId != null) {
+                out.name("university_id");
+                if (dto.universityId.isPresent()) {
+                    out.value(dto.universityId.getAsInt());
+                } else {
+                    out.nullValue();
+                }
+            }
+            if (dto.name != null) {
+                out.name("name").value(dto.name.orElse(null));
+            }
+            out.endObject();
+        }
+
+        @Override
+        public DepartmentUpdateDto read(JsonReader in) throws IOException {
+            DepartmentUpdateDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new DepartmentUpdateDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "university_id":
+                        dto.universityId = JsonValues.readOptionalInt(in);
+                        break;
+                    case "name":
+                        dto.name = JsonValues.readOptionalString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    static void write(JsonWriter out, DepartmentDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeFields(out, dto);
+        out.endObject();
+    }
+
+    static DepartmentDto read(JsonReader in) throws IOException {
+        DepartmentDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new DepartmentDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!readField(in, in.nextName(), dto)) {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+
+    private static void writeFields(JsonWriter out, DepartmentDto dto) throws IOException {
+        out.name("id").value(dto.id);
+        out.name("university");
+        UniversityAdapters.write(out, dto.university);
+        out.name("name").value(dto.name);
+    }
+
+    private static boolean readField(JsonReader in, String name, DepartmentDto dto) throws IOException {
+        boolean known;
+
+        known = true;
+        switch (name) {
+            case "id":
+                dto.id = JsonValues.readInt(in, dto.id);
+                break;
+            case "university":
+                dto.university = UniversityAdapters.read(in);
+                break;
+            case "name":
+                dto.name = JsonValues.readString(in);
+                break;
+            default:
+                known = false;
+        }
+        return known;
+    }
+
+    private DepartmentAdapters() {
+    }
+}
@@ -0,0 +1,57 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.HotKeyDto;
+
+import java.io.IOException;
+
+/**
+ * Потоковый JSON-адаптер записи отчёта о самых запрашиваемых сущностях.
+ */
+public class HotKeyAdapter extends TypeAdapter<HotKeyDto> {
+
+    @Override
+    public void write(JsonWriter out, HotKeyDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(dto.name);
+        out.name("id").value(dto.id);
+        out.name("frequency").value(dto.frequency);
+        out.endObject();
+    }
+
+    @Override
+    public HotKeyDto read(JsonReader in) throws IOException {
+        HotKeyDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new HotKeyDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    dto.name = JsonValues.readString(in);
+                    break;
+                case "id":
+                    dto.id = in.nextInt();
+                    break;
+                case "frequency":
+                    dto.frequency = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+}
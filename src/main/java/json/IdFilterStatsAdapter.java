@@ -0,0 +1,73 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.IdFilterStatsDto;
+
+import java.io.IOException;
+
+/**
+ * Потоковый JSON-адаптер статистики фильтра идентификаторов.
+ */
+public class IdFilterStatsAdapter extends TypeAdapter<IdFilterStatsDto> {
+
+    @Override
+    public void write(JsonWriter out, IdFilterStatsDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(dto.name);
+        out.name("ready").value(dto.ready);
+        out.name("size").value(dto.size);
+        out.name("lookups").value(dto.lookups);
+        out.name("negatives").value(dto.negatives);
+        out.name("false_positives").value(dto.falsePositives);
+        out.name("false_positive_rate").value(dto.falsePositiveRate);
+        out.endObject();
+    }
+
+    @Override
+    public IdFilterStatsDto read(JsonReader in) throws IOException {
+        IdFilterStatsDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new IdFilterStatsDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":
+                    dto.name = JsonValues.readString(in);
+                    break;
+                case "ready":
+                    dto.ready = in.nextBoolean();
+                    break;
+                case "size":
+                    dto.size = in.nextInt();
+                    break;
+                case "lookups":
+                    dto.lookups = in.nextLong();
+                    break;
+                case "negatives":
+                    dto.negatives = in.nextLong();
+                    break;
+                case "false_positives":
+                    dto.falsePositives = in.nextLong();
+                    break;
+                case "false_positive_rate":
+                    dto.falsePositiveRate = in.nextDouble();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+}
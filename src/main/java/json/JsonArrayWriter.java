@@ -0,0 +1,51 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Пишет элементы JSON-массива по мере их поступления.
+ * Записанное периодически сбрасывается клиенту, поэтому время до первого байта
+ * и занимаемая память не зависят от количества элементов.
+ * Ошибки записи передаются как {@link UncheckedIOException}, чтобы писатель можно было
+ * использовать в качестве {@link Consumer}.
+ */
+public class JsonArrayWriter<T> implements Consumer<T> {
+
+    public JsonArrayWriter(JsonWriter writer, TypeAdapter<T> adapter) {
+        this.writer = writer;
+        this.adapter = adapter;
+    }
+
+    public void begin() throws IOException {
+        writer.beginArray();
+    }
+
+    @Override
+    public void accept(T item) {
+        try {
+            adapter.write(writer, item);
+            count++;
+            if (count % FLUSH_INTERVAL == 0) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void end() throws IOException {
+        writer.endArray();
+        writer.flush();
+    }
+
+    private static final int FLUSH_INTERVAL = 256;
+
+    private final JsonWriter writer;
+    private final TypeAdapter<T> adapter;
+    private long count;
+}
@@ -0,0 +1,50 @@
+package json;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Чтение и запись дат в формате yyyy-MM-dd в часовом поясе сервера.
+ * В отличие от SimpleDateFormat, используемые классы java.time потокобезопасны.
+ */
+class JsonDates {
+
+    static void write(JsonWriter out, Date date) throws IOException {
+        if (date == null) {
+            out.nullValue();
+        } else {
+            out.value(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toString());
+        }
+    }
+
+    static Date read(JsonReader in) throws IOException {
+        Date date;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            date = null;
+        } else {
+            String value;
+
+            value = in.nextString();
+            try {
+                date = Date.from(LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            } catch (DateTimeParseException e) {
+                throw new JsonSyntaxException("Invalid date " + value + " at " + in.getPreviousPath(), e);
+            }
+        }
+        return date;
+    }
+
+    private JsonDates() {
+    }
+}
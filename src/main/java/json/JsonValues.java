@@ -0,0 +1,66 @@
+package json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Чтение значений полей DTO.
+ * Для полей Optional отсутствие поля в JSON оставляет null, а явный null даёт пустой Optional.
+ */
+class JsonValues {
+
+    static String readString(JsonReader in) throws IOException {
+        String value;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            value = null;
+        } else {
+            value = in.nextString();
+        }
+        return value;
+    }
+
+    /**
+     * Прочитать целое число. Null оставляет значение по умолчанию, как у примитивного поля.
+     */
+    static int readInt(JsonReader in, int defaultValue) throws IOException {
+        int value;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            value = defaultValue;
+        } else {
+            value = in.nextInt();
+        }
+        return value;
+    }
+
+    static Optional<String> readOptionalString(JsonReader in) throws IOException {
+        return Optional.ofNullable(readString(in));
+    }
+
+    static OptionalInt readOptionalInt(JsonReader in) throws IOException {
+        OptionalInt value;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            value = OptionalInt.empty();
+        } else {
+            value = OptionalInt.of(in.nextInt());
+        }
+        return value;
+    }
+
+    static Optional<Date> readOptionalDate(JsonReader in) throws IOException {
+        return Optional.ofNullable(JsonDates.read(in));
+    }
+
+    private JsonValues() {
+    }
+}
@@ -0,0 +1,99 @@
+package json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.PageDto;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+
+/**
+ * Фабрика адаптеров страниц {@link PageDto}.
+ * Адаптер элементов определяется один раз по параметру типа страницы.
+ */
+public class PageAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Type itemType;
+
+        if (type.getRawType() != PageDto.class) {
+            return null;
+        }
+        if (type.getType() instanceof ParameterizedType) {
+            itemType = ((ParameterizedType) type.getType()).getActualTypeArguments()[0];
+        } else {
+            itemType = Object.class;
+        }
+        return (TypeAdapter<T>) new PageAdapter<>(gson.getAdapter(TypeToken.get(itemType)));
+    }
+
+    private static class PageAdapter<E> extends TypeAdapter<PageDto<E>> {
+        PageAdapter(TypeAdapter<E> itemAdapter) {
+            this.itemAdapter = itemAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, PageDto<E> page) throws IOException {
+            if (page == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (page.items != null) {
+                out.name("items");
+                out.beginArray();
+                for (E item : page.items) {
+                    itemAdapter.write(out, item);
+                }
+                out.endArray();
+            }
+            out.name("next").value(page.next);
+            out.endObject();
+        }
+
+        @Override
+        public PageDto<E> read(JsonReader in) throws IOException {
+            PageDto<E> page;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            page = new PageDto<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name;
+
+                name = in.nextName();
+                if (name.equals("items") && in.peek() != JsonToken.NULL) {
+                    ArrayList<E> items;
+
+                    items = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        items.add(itemAdapter.read(in));
+                    }
+                    in.endArray();
+                    page.items = items;
+                } else if (name.equals("next")) {
+                    page.next = JsonValues.readString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return page;
+        }
+
+        private final TypeAdapter<E> itemAdapter;
+    }
+}
@@ -0,0 +1,209 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.ProfessorCreationDto;
+import dto.ProfessorDto;
+import dto.ProfessorUpdateDto;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Потоковые JSON-адаптеры DTO профессоров.
+ */
+public class ProfessorAdapters {
+
+    public static class Dto extends TypeAdapter<ProfessorDto> {
+        @Override
+        public void write(JsonWriter out, ProfessorDto dto) throws IOException {
+            ProfessorAdapters.write(out, dto);
+        }
+
+        @Override
+        public ProfessorDto read(JsonReader in) throws IOException {
+            return ProfessorAdapters.read(in);
+        }
+    }
+
+    public static class CreationDto extends TypeAdapter<ProfessorCreationDto> {
+        @Override
+        public void write(JsonWriter out, ProfessorCreationDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("department_id").value(dto.departmentId);
+            out.name("name").value(dto.name);
+            out.name("phone_number").value(dto.phoneNumber);
+            out.name("degree").value(dto.degree);
+            out.name("birthday");
+            JsonDates.write(out, dto.birthday);
+            out.endObject();
+        }
+
+        @Override
+        public ProfessorCreationDto read(JsonReader in) throws IOException {
+            ProfessorCreationDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new ProfessorCreationDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "department_id":
+                        dto.departmentId = JsonValues.readInt(in, dto.departmentId);
+                        break;
+                    case "name":
+                        dto.name = JsonValues.readString(in);
+                        break;
+                    case "phone_number":
+                        dto.phoneNumber = JsonValues.readString(in);
+                        break;
+                    case "degree":
+                        dto.degree = JsonValues.readString(in);
+                        break;
+                    case "birthday":
+                        dto.birthday = JsonDates.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+    public static class UpdateDto extends TypeAdapter<ProfessorUpdateDto> {
+        @Override
+        public void write(JsonWriter out, ProfessorUpdateDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (dto.departmentId != null) {
+                out.name("department_id");
+                if (dto.departmentId.isPresent()) {
+                    out.value(dto.departmentId.getAsInt());
+                } else {
+                    out.nullValue();
+                }
+            }
+            writeOptional(out, "name", dto.name);
+            writeOptional(out, "phone_number", dto.phoneNumber);
+            writeOptional(out, "degree", dto.degree);
+            if (dto.birthday != null) {
+                out.name("birthday");
+                JsonDates.write(out, dto.birthday.orElse(null));
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ProfessorUpdateDto read(JsonReader in) throws IOException {
+            ProfessorUpdateDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new ProfessorUpdateDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "department_id":
+                        dto.departmentId = JsonValues.readOptionalInt(in);
+                        break;
+                    case "name":
+                        dto.name = JsonValues.readOptionalString(in);
+                        break;
+                    case "phone_number":
+                        dto.phoneNumber = JsonValues.readOptionalString(in);
+                        break;
+                    case "degree":
+                        dto.degree = JsonValues.readOptionalString(in);
+                        break;
+                    case "birthday":
+                        dto.birthday = JsonValues.readOptionalDate(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+
+        private static void writeOptional(JsonWriter out, String name, Optional<String> value) throws IOException {
+            if (value != null) {
+                out.name(name).value(value.orElse(null));
+            }
+        }
+    }
+
+    static void write(JsonWriter out, ProfessorDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(dto.id);
+        out.name("department");
+        DepartmentAdapters.write(out, dto.department);
+        out.name("name").value(dto.name);
+        out.name("phone_number").value(dto.phoneNumber);
+        out.name("degree").value(dto.degree);
+        out.name("birthday");
+        JsonDates.write(out, dto.birthday);
+        out.endObject();
+    }
+
+    static ProfessorDto read(JsonReader in) throws IOException {
+        ProfessorDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new ProfessorDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    dto.id = JsonValues.readInt(in, dto.id);
+                    break;
+                case "department":
+                    dto.department = DepartmentAdapters.read(in);
+                    break;
+                case "name":
+                    dto.name = JsonValues.readString(in);
+                    break;
+                case "phone_number":
+                    dto.phoneNumber = JsonValues.readString(in);
+                    break;
+                case "degree":
+                    dto.degree = JsonValues.readString(in);
+                    break;
+                case "birthday":
+                    dto.birthday = JsonDates.read(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+
+    private ProfessorAdapters() {
+    }
+}
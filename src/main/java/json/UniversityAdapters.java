@@ -0,0 +1,225 @@
+package json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dto.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Потоковые JSON-адаптеры DTO университетов.
+ * Поля пишутся и читаются явно, без рефлексии. Порядок полей совпадает с тем,
+ * который давала сериализация Gson по умолчанию.
+ */
+public class UniversityAdapters {
+
+    public static class Dto extends TypeAdapter<UniversityDto> {
+        @Override
+        public void write(JsonWriter out, UniversityDto dto) throws IOException {
+            UniversityAdapters.write(out, dto);
+        }
+
+        @Override
+        public UniversityDto read(JsonReader in) throws IOException {
+            return UniversityAdapters.read(in);
+        }
+    }
+
+    public static class FullDto extends TypeAdapter<UniversityFullDto> {
+        @Override
+        public void write(JsonWriter out, UniversityFullDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (dto.departments != null) {
+                out.name("departments");
+                out.beginArray();
+                for (DepartmentDto department : dto.departments) {
+                    DepartmentAdapters.write(out, department);
+                }
+                out.endArray();
+            }
+            writeFields(out, dto);
+            out.endObject();
+        }
+
+        @Override
+        public UniversityFullDto read(JsonReader in) throws IOException {
+            UniversityFullDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new UniversityFullDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name;
+
+                name = in.nextName();
+                if (name.equals("departments") && in.peek() != JsonToken.NULL) {
+                    ArrayList<DepartmentDto> departments;
+
+                    departments = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        departments.add(DepartmentAdapters.read(in));
+                    }
+                    in.endArray();
+                    dto.departments = departments;
+                } else if (!readField(in, name, dto)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    public static class CreationDto extends TypeAdapter<UniversityCreationDto> {
+        @Override
+        public void write(JsonWriter out, UniversityCreationDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(dto.name);
+            out.name("city").value(dto.city);
+            out.endObject();
+        }
+
+        @Override
+        public UniversityCreationDto read(JsonReader in) throws IOException {
+            UniversityCreationDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new UniversityCreationDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        dto.name = JsonValues.readString(in);
+                        break;
+                    case "city":
+                        dto.city = JsonValues.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    @java.lang.SuppressWarnings("squid:S2789") // Optional может быть null намеренно
+    public static class UpdateDto extends TypeAdapter<UniversityUpdateDto> {
+        @Override
+        public void write(JsonWriter out, UniversityUpdateDto dto) throws IOException {
+            if (dto == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (dto.name != null) {
+                out.name("name").value(dto.name.orElse(null));
+            }
+            if (dto.city != null) {
+                out.name("city").value(dto.city.orElse(null));
+            }
+            out.endObject();
+        }
+
+        @Override
+        public UniversityUpdateDto read(JsonReader in) throws IOException {
+            UniversityUpdateDto dto;
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            dto = new UniversityUpdateDto();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name":
+                        dto.name = JsonValues.readOptionalString(in);
+                        break;
+                    case "city":
+                        dto.city = JsonValues.readOptionalString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return dto;
+        }
+    }
+
+    static void write(JsonWriter out, UniversityDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeFields(out, dto);
+        out.endObject();
+    }
+
+    static UniversityDto read(JsonReader in) throws IOException {
+        UniversityDto dto;
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        dto = new UniversityDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!readField(in, in.nextName(), dto)) {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+
+    private static void writeFields(JsonWriter out, UniversityDto dto) throws IOException {
+        out.name("id").value(dto.id);
+        out.name("name").value(dto.name);
+        out.name("city").value(dto.city);
+    }
+
+    private static boolean readField(JsonReader in, String name, UniversityDto dto) throws IOException {
+        boolean known;
+
+        known = true;
+        switch (name) {
+            case "id":
+                dto.id = JsonValues.readInt(in, dto.id);
+                break;
+            case "name":
+                dto.name = JsonValues.readString(in);
+                break;
+            case "city":
+                dto.city = JsonValues.readString(in);
+                break;
+            default:
+                known = false;
+        }
+        return known;
+    }
+
+    private UniversityAdapters() {
+    }
+}
@@ -0,0 +1,153 @@
+package listeners;
+
+import cache.CacheInvalidationListener;
+import cache.CacheSnapshot;
+import cache.EntityCache;
+import cache.MemoryPressureMonitor;
+import cache.ResponseCache;
+import com.google.gson.Gson;
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import database.RoutingDataSource;
+import database.TransactionManager;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import repositories.DepartmentRepository;
+import repositories.ProfessorRepository;
+import repositories.UniversityRepository;
+import services.DepartmentService;
+import services.ProfessorService;
+import services.UniversityService;
+import utils.CacheSettings;
+import utils.DatabaseSettings;
+import utils.ParseUtils;
+import utils.WarmupSettings;
+
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Точка сборки приложения.
+ * При запуске создаёт пул соединений, приводит схему базы данных к актуальной версии
+ * и один раз собирает репозитории, общий кэш сущностей, сервисы и JSON-парсер. Все они потокобезопасны и
+ * кладутся в атрибуты контекста под именами своих классов, откуда их забирают сервлеты.
+ * Кэш сбрасывается также по уведомлениям базы данных, поэтому записи других узлов видны и здесь.
+ * При нехватке памяти кэши уменьшаются.
+ * Снимок кэша сущностей сохраняется в файл и после перезапуска восстанавливается.
+ * Соединения пула открываются и запросы готовятся до приёма запросов, а кэш и JIT прогреваются
+ * в фоне, и пока прогрев не закончен, проверка готовности /ready отвечает 503.
+ */
+@WebListener
+public class ApplicationListener implements ServletContextListener {
+
+    @Override
+    @SuppressWarnings("java:S112") // Без актуальной схемы приложение запускать нельзя
+    public void contextInitialized(ServletContextEvent sce) {
+        ServletContext context;
+        UniversityRepository universityRepository;
+        DepartmentRepository departmentRepository;
+        ProfessorRepository professorRepository;
+        EntityCache cache;
+        ResponseCache responseCache;
+        UniversityService universityService;
+        DepartmentService departmentService;
+        TransactionManager transactions;
+        int version;
+
+        context = sce.getServletContext();
+        dataSource = ConnectionPool.create();
+        try {
+            version = MigrationRunner.migrate(dataSource);
+        } catch (SQLException e) {
+            dataSource.close();
+            throw new RuntimeException(e);
+        }
+        context.log("Database schema version: " + version);
+
+        // Репозитории получают соединения через транзакции сервисов, чтобы присоединяться к ним,
+        // а если заданы реплики, то читают с них
+        routing = ConnectionPool.createRouting(dataSource);
+        transactions = new TransactionManager(routing != null ? routing : dataSource);
+        universityRepository = new UniversityRepository(transactions);
+        departmentRepository = new DepartmentRepository(transactions);
+        professorRepository = new ProfessorRepository(transactions);
+        try {
+            ConnectionPool.warmUp(dataSource, universityRepository, departmentRepository, professorRepository);
+        } catch (SQLException e) {
+            if (routing != null) {
+                routing.close();
+            }
+            dataSource.close();
+            throw new RuntimeException(e);
+        }
+        if (routing != null) {
+            for (HikariDataSource replica : routing.getReplicas()) {
+                try {
+                    ConnectionPool.warmUp(replica, universityRepository, departmentRepository, professorRepository);
+                } catch (SQLException e) {
+                    // Недоступная реплика не мешает запуску: проверка отставания исключит её из чтения
+                    context.log("Replica warm-up failed: " + replica.getPoolName(), e);
+                }
+            }
+            routing.start(DatabaseSettings.REPLICA_CHECK_INTERVAL_MS);
+            context.setAttribute(RoutingDataSource.class.getName(), routing);
+        }
+        cache = new EntityCache(CacheSettings.ENTITY_CACHE_MAX_BYTES, Duration.ofSeconds(CacheSettings.ENTITY_CACHE_TTL_SECONDS));
+        context.setAttribute(EntityCache.class.getName(), cache);
+        responseCache = new ResponseCache(CacheSettings.RESPONSE_CACHE_MAX_BYTES);
+        context.setAttribute(ResponseCache.class.getName(), responseCache);
+        memoryPressureMonitor = new MemoryPressureMonitor(CacheSettings.MEMORY_PRESSURE_THRESHOLD, cache.getBudget(), responseCache.getBudget());
+        memoryPressureMonitor.start();
+        invalidationListener = new CacheInvalidationListener(cache);
+        invalidationListener.start();
+        if (!CacheSettings.SNAPSHOT_FILE.isEmpty()) {
+            snapshot = new CacheSnapshot(cache, invalidationListener, Paths.get(CacheSettings.SNAPSHOT_FILE),
+                    CacheSettings.SNAPSHOT_MAX_ENTRIES, universityRepository::getVersions,
+                    departmentRepository::getVersions, professorRepository::getVersions);
+            snapshot.start(CacheSettings.SNAPSHOT_INTERVAL_SECONDS);
+        }
+        universityService = new UniversityService(universityRepository, cache, transactions);
+        departmentService = new DepartmentService(departmentRepository, cache, transactions);
+        context.setAttribute(UniversityService.class.getName(), universityService);
+        context.setAttribute(DepartmentService.class.getName(), departmentService);
+        context.setAttribute(ProfessorService.class.getName(), new ProfessorService(professorRepository, cache, transactions));
+        context.setAttribute(Gson.class.getName(), ParseUtils.createParser());
+        warmup = new Warmup(snapshot, cache, universityService, departmentService);
+        context.setAttribute(Warmup.class.getName(), warmup);
+        warmup.start(WarmupSettings.BASE_URL + context.getContextPath());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (warmup != null) {
+            warmup.close();
+        }
+        // Снимок сохраняется напоследок, пока слушатель ещё подписан на изменения
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        if (memoryPressureMonitor != null) {
+            memoryPressureMonitor.close();
+        }
+        if (invalidationListener != null) {
+            invalidationListener.close();
+        }
+        if (routing != null) {
+            routing.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    private HikariDataSource dataSource;
+    private RoutingDataSource routing;
+    private CacheInvalidationListener invalidationListener;
+    private MemoryPressureMonitor memoryPressureMonitor;
+    private CacheSnapshot snapshot;
+    private Warmup warmup;
+}
@@ -0,0 +1,232 @@
+package listeners;
+
+import cache.CacheSnapshot;
+import cache.EntityCache;
+import entities.Department;
+import entities.University;
+import jakarta.servlet.http.HttpServletRequest;
+import services.DepartmentService;
+import services.UniversityService;
+import utils.Pagination;
+import utils.WarmupSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Прогрев узла после запуска, до которого узел не считается готовым (см. {@link controllers.ReadinessController}).
+ * Соединения пула открываются и запросы репозиториев готовятся ещё при запуске контекста
+ * (см. {@link database.ConnectionPool#warmUp}), здесь же в фоновом потоке:
+ * <ol>
+ *     <li>дожидаемся восстановления кэша из снимка (см. {@link CacheSnapshot});</li>
+ *     <li>загружаем в кэш самые запрашиваемые университеты и кафедры - восстановленные из снимка,
+ *     а без снимка первые по порядку;</li>
+ *     <li>прогоняем через контроллеры синтетические GET-запросы к этим сущностям и спискам, чтобы JIT
+ *     скомпилировал горячий путь обработки запроса до прихода настоящих запросов.</li>
+ * </ol>
+ * Прогрев начинается при запуске контекста, а запросы идут по HTTP на адрес {@link WarmupSettings#BASE_URL}.
+ * Контейнер начинает принимать соединения позже, чем запускается контекст, поэтому первый запрос повторяется,
+ * пока приложение не ответит. Ошибки синтетических запросов не мешают готовности.
+ * Синтетические запросы помечены заголовком со случайным для каждого запуска значением (см. {@link #isSynthetic}),
+ * и контроллеры не учитывают их в обращениях: иначе прогрев закреплял бы в кэше сущности, которые сам и выбрал.
+ */
+public class Warmup implements AutoCloseable {
+
+    /**
+     * @param snapshot снимок кэша или null, если снимок не используется
+     */
+    public Warmup(CacheSnapshot snapshot, EntityCache cache, UniversityService universityService,
+                  DepartmentService departmentService) {
+        this.snapshot = snapshot;
+        this.cache = cache;
+        this.universityService = universityService;
+        this.departmentService = departmentService;
+    }
+
+    /**
+     * Отправлен ли запрос прогревом этого узла.
+     */
+    public static boolean isSynthetic(HttpServletRequest req) {
+        return TOKEN.equals(req.getHeader(SYNTHETIC_HEADER));
+    }
+
+    /**
+     * Закончен ли прогрев.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Начать прогрев, если он ещё не начат.
+     *
+     * @param baseUrl адрес приложения вместе с путём контекста, без завершающей косой черты
+     */
+    public synchronized void start(String baseUrl) {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(() -> run(baseUrl), "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Выполнить прогрев в текущем потоке.
+     *
+     * @return сколько синтетических запросов выполнено успешно
+     */
+    int run(String baseUrl) {
+        List<String> paths;
+        int succeeded;
+
+        try {
+            if (!awaitSnapshot()) {
+                return 0;
+            }
+            paths = new ArrayList<>();
+            for (int id : preloadUniversities()) {
+                paths.add("/universities/" + id);
+            }
+            for (int id : preloadDepartments()) {
+                paths.add("/departments/" + id);
+            }
+            paths.add("/universities?" + Pagination.LIMIT_PARAMETER + "=" + WarmupSettings.PAGE_LIMIT);
+            paths.add("/departments?" + Pagination.LIMIT_PARAMETER + "=" + WarmupSettings.PAGE_LIMIT);
+            paths.add("/professors?" + Pagination.LIMIT_PARAMETER + "=" + WarmupSettings.PAGE_LIMIT);
+            if (!awaitServer(baseUrl + paths.get(0))) {
+                // Адрес недоступен изнутри, прогрев JIT придётся отдать настоящим запросам
+                return 0;
+            }
+            succeeded = 1;
+            for (int i = 1; i < WarmupSettings.SYNTHETIC_REQUESTS && !Thread.currentThread().isInterrupted(); i++) {
+                if (request(baseUrl + paths.get(i % paths.size()))) {
+                    succeeded++;
+                }
+            }
+            return succeeded;
+        } catch (RuntimeException e) {
+            // Не удалось загрузить сущности - кэш прогреется настоящими запросами
+            return 0;
+        } finally {
+            ready = true;
+        }
+    }
+
+    private boolean awaitSnapshot() {
+        while (snapshot != null && !snapshot.isRestored()) {
+            try {
+                Thread.sleep(SNAPSHOT_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Повторять запрос, пока приложение не ответит, но не дольше {@link WarmupSettings#SERVER_START_TIMEOUT_MS}.
+     */
+    private static boolean awaitServer(String url) {
+        long deadline;
+
+        deadline = System.currentTimeMillis() + WarmupSettings.SERVER_START_TIMEOUT_MS;
+        while (!request(url)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(SERVER_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Collection<Integer> preloadUniversities() {
+        ArrayList<Integer> ids;
+
+        ids = new ArrayList<>(cache.getHottestUniversities(WarmupSettings.PRELOAD_ENTITIES).keySet());
+        if (ids.isEmpty()) {
+            for (University university : universityService.get(0, WarmupSettings.PRELOAD_ENTITIES).getValue()) {
+                ids.add(university.getId());
+            }
+        }
+        for (int id : ids) {
+            universityService.getById(id);
+        }
+        return ids;
+    }
+
+    private Collection<Integer> preloadDepartments() {
+        ArrayList<Integer> ids;
+
+        ids = new ArrayList<>(cache.getHottestDepartments(WarmupSettings.PRELOAD_ENTITIES).keySet());
+        if (ids.isEmpty()) {
+            for (Department department : departmentService.get(0, WarmupSettings.PRELOAD_ENTITIES).getValue()) {
+                ids.add(department.getId());
+            }
+        }
+        for (int id : ids) {
+            departmentService.getById(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Выполнить GET-запрос и прочитать ответ целиком.
+     *
+     * @return получен ли ответ, пусть и с ошибкой: запрос всё равно прошёл через контроллер
+     */
+    static boolean request(String url) {
+        HttpURLConnection connection;
+        byte[] buffer;
+
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(WarmupSettings.CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(WarmupSettings.READ_TIMEOUT_MS);
+            connection.setRequestProperty(SYNTHETIC_HEADER, TOKEN);
+            buffer = new byte[BUFFER_SIZE];
+            try (InputStream body = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream()) {
+                while (body != null && body.read(buffer) >= 0) {
+                    // Тело читается до конца, чтобы соединение вернулось в пул keep-alive
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static final String SYNTHETIC_HEADER = "X-Warmup";
+    // Посторонний клиент не может выдать свой запрос за синтетический
+    static final String TOKEN = UUID.randomUUID().toString();
+    private static final long SNAPSHOT_POLL_MS = 100;
+    private static final long SERVER_POLL_MS = 100;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CacheSnapshot snapshot;
+    private final EntityCache cache;
+    private final UniversityService universityService;
+    private final DepartmentService departmentService;
+    private Thread thread;
+    private volatile boolean ready;
+}
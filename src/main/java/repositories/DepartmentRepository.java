@@ -1,44 +1,67 @@
 package repositories;
 
 import entities.*;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class DepartmentRepository extends Repository {
-    public DepartmentRepository() throws SQLException {
-        super();
+    public DepartmentRepository(DataSource dataSource) {
+        super(dataSource);
     }
 
-    public void add(Department department) throws SQLException {
+    /**
+     * Добавить кафедру. Присваивает переданной кафедре id и возвращает созданную запись вместе
+     * с университетом: вставка и соединение выполняются одним запросом.
+     */
+    public DepartmentFull add(Department department) throws SQLException {
         Connection connection;
         ResultSet resultSet;
+        DepartmentFull created;
+        University university;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO departments (university_id, name)" +
-                "VALUES (?, ?) returning id")) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_DEPARTMENT)) {
             preparedStatement.setInt(1, department.getUniversity().getId());
             preparedStatement.setString(2, department.getName());
 
             resultSet = preparedStatement.executeQuery();
             resultSet.next();
-            department.setId(resultSet.getInt(1));
+            created = new DepartmentFull();
+            created.setId(resultSet.getInt(1));
+            created.setName(resultSet.getString(2));
+            university = new University();
+            university.setId(resultSet.getInt(3));
+            university.setName(resultSet.getString(4));
+            university.setCity(resultSet.getString(5));
+            created.setUniversity(university);
+            created.setProfessors(new ArrayList<>());
+            department.setId(created.getId());
         } finally {
             connection.close();
         }
-
+        return created;
     }
 
-    public boolean delete(int id) throws SQLException {
+    /**
+     * Удалить запись. Если переданы допустимые версии, запись удаляется только при совпадении с одной из них.
+     */
+    public boolean delete(int id, ExpectedVersions expectedVersions) throws SQLException {
         Connection connection;
         ResultSet resultSet;
         boolean deleted;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM departments WHERE id = ? returning id")) {
-            preparedStatement.setInt(1, id);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_DEPARTMENT +
+                versionCondition(expectedVersions) + RETURNING_ID)) {
+            bindIdAndVersion(preparedStatement, 1, id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
             deleted = resultSet.next();
         } finally {
@@ -47,115 +70,271 @@ public class DepartmentRepository extends Repository {
         return deleted;
     }
 
-    public boolean update(Department department) throws SQLException {
+    /**
+     * Изменить только переданные поля кафедры одним запросом UPDATE ... RETURNING.
+     * Если переданы допустимые версии, запись изменяется только при совпадении с одной из них.
+     * Возвращает изменённую кафедру вместе с университетом и профессорами или null, если кафедры нет
+     * или версия не совпала.
+     */
+    public DepartmentFull update(int id, DepartmentPatch patch, ExpectedVersions expectedVersions) throws SQLException {
+        Assignments assignments;
         Connection connection;
-        ResultSet resultSet;
-        boolean updated;
+        DepartmentFull department;
 
+        assignments = new Assignments();
+        if (patch.getUniversityId() != null) {
+            assignments.add("university_id", patch.getUniversityId().isPresent() ? patch.getUniversityId().getAsInt() : null);
+        }
+        if (patch.getName() != null) {
+            assignments.add("name", patch.getName().orElse(null));
+        }
+
+        department = null;
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE departments SET university_id = ?, name = ? " +
-                "WHERE id = ? returning id")) {
-            preparedStatement.setInt(1, department.getUniversity().getId());
-            preparedStatement.setString(2, department.getName());
-            preparedStatement.setInt(3, department.getId());
+        try (PreparedStatement preparedStatement = connection.prepareStatement("WITH d AS (" +
+                "UPDATE departments SET " + assignments.sql() + " WHERE id = ?" + versionCondition(expectedVersions) +
+                " returning id, university_id, name) " +
+                "SELECT d.id, d.name, u.id, u.name, u.city, p.id, p.name, p.phone_number, p.degree, p.birthday " +
+                "FROM d INNER JOIN universities u ON d.university_id = u.id " +
+                "LEFT JOIN professors p ON p.department_id = d.id ORDER BY p.id")) {
+            ResultSet resultSet;
+
+            bindIdAndVersion(preparedStatement, assignments.bind(preparedStatement), id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
-            updated = resultSet.next();
+            while (resultSet.next()) {
+                if (department == null) {
+                    University university;
+
+                    department = new DepartmentFull();
+                    department.setId(resultSet.getInt(1));
+                    department.setName(resultSet.getString(2));
+                    university = new University();
+                    university.setId(resultSet.getInt(3));
+                    university.setName(resultSet.getString(4));
+                    university.setCity(resultSet.getString(5));
+                    department.setUniversity(university);
+                    department.setProfessors(new ArrayList<>());
+                }
+                if (resultSet.getObject(6) != null) {
+                    Professor professor;
+
+                    professor = new Professor();
+                    professor.setId(resultSet.getInt(6));
+                    professor.setDepartment(department);
+                    professor.setName(resultSet.getString(7));
+                    professor.setPhoneNumber(resultSet.getString(8));
+                    professor.setDegree(resultSet.getString(9));
+                    professor.setBirthday(resultSet.getDate(10));
+                    department.getProfessors().add(professor);
+                }
+            }
         } finally {
             connection.close();
         }
-        return updated;
+        return department;
     }
 
+    /**
+     * Получить кафедру с университетом и профессорами. Версия кафедры собирается из тех же строк,
+     * что загружены, поэтому тело ответа и его ETag всегда соответствуют друг другу.
+     */
     public DepartmentFull getById(int id) throws SQLException {
         Connection connection;
         DepartmentFull department;
+        long departmentVersion, universityVersion;
 
-        connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT d.name, u.id, u.name, u.city " +
-                "FROM departments d INNER JOIN universities u ON d.university_id = u.id WHERE d.id = ?")) {
-            ResultSet resultSet;
+        connection = openReadConnection();
+        try {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_DEPARTMENT)) {
+                ResultSet resultSet;
 
-            preparedStatement.setInt(1, id);
-            resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                University university;
+                preparedStatement.setInt(1, id);
+                resultSet = preparedStatement.executeQuery();
+                if (resultSet.next()) {
+                    University university;
 
-                department = new DepartmentFull();
-                department.setId(id);
-                department.setName(resultSet.getString(1));
-                university = new University();
-                university.setId(resultSet.getInt(2));
-                university.setName(resultSet.getString(3));
-                university.setCity(resultSet.getString(4));
-                department.setUniversity(university);
-            } else {
-                department = null;
+                    department = new DepartmentFull();
+                    department.setId(id);
+                    department.setName(resultSet.getString(1));
+                    university = new University();
+                    university.setId(resultSet.getInt(2));
+                    university.setName(resultSet.getString(3));
+                    university.setCity(resultSet.getString(4));
+                    department.setUniversity(university);
+                    departmentVersion = resultSet.getLong(5);
+                    universityVersion = resultSet.getLong(6);
+                } else {
+                    department = null;
+                    departmentVersion = 0;
+                    universityVersion = 0;
+                }
             }
-        }
 
-        if (department != null) {
-            try (PreparedStatement statement = connection.prepareStatement("SELECT name, phone_number, degree, birthday, id FROM professors WHERE department_id = ?")) {
-                ResultSet resultSet;
-                ArrayList<Professor> professors;
+            if (department != null) {
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_PROFESSORS)) {
+                    ResultSet resultSet;
+                    ArrayList<Professor> professors;
+                    long maxVersion;
 
-                statement.setInt(1, id);
-                resultSet = statement.executeQuery();
-                professors = new ArrayList<>();
-                while (resultSet.next()) {
-                    Professor professor;
+                    statement.setInt(1, id);
+                    resultSet = statement.executeQuery();
+                    professors = new ArrayList<>();
+                    maxVersion = 0;
+                    while (resultSet.next()) {
+                        Professor professor;
 
-                    professor = new Professor();
-                    professor.setId(resultSet.getInt(5));
-                    professor.setDepartment(department);
-                    professor.setName(resultSet.getString(1));
-                    professor.setPhoneNumber(resultSet.getString(2));
-                    professor.setDegree(resultSet.getString(3));
-                    professor.setBirthday(resultSet.getDate(4));
-                    professors.add(professor);
+                        professor = new Professor();
+                        professor.setId(resultSet.getInt(5));
+                        professor.setDepartment(department);
+                        professor.setName(resultSet.getString(1));
+                        professor.setPhoneNumber(resultSet.getString(2));
+                        professor.setDegree(resultSet.getString(3));
+                        professor.setBirthday(resultSet.getDate(4));
+                        professors.add(professor);
+                        maxVersion = Math.max(maxVersion, resultSet.getLong(6));
+                    }
+                    department.setProfessors(professors);
+                    // Как в SELECT_VERSION: версии кафедры и университета, наибольшая версия профессоров и их число
+                    department.setVersion(version(departmentVersion, universityVersion, maxVersion, professors.size()));
                 }
-                department.setProfessors(professors);
             }
+        } finally {
+            connection.close();
         }
-        connection.close();
         return department;
     }
 
+    /**
+     * Получить версию кафедры вместе с университетом и профессорами без загрузки самих строк.
+     * Возвращает null, если кафедры нет.
+     */
+    public String getVersion(int id) throws SQLException {
+        return queryVersion(SELECT_VERSION, id);
+    }
+
+    /**
+     * Получить версии многих кафедр одним запросом, в том же виде, что {@link #getVersion(int)}.
+     * Используется для проверки сущностей из снимка кэша.
+     */
+    public Map<Integer, String> getVersions(int[] ids) throws SQLException {
+        return queryVersions(SELECT_VERSIONS, ids);
+    }
+
+    /**
+     * Получить версию списка кафедр. Меняется после любого изменения кафедр или университетов.
+     */
+    public String getVersion() throws SQLException {
+        return queryVersion(SELECT_LIST_VERSION);
+    }
+
     public Collection<Department> get() throws SQLException {
         Connection connection;
-        ArrayList<Department> departments;
-        HashMap<Integer, University> universities;
-        ResultSet resultSet;
+        Collection<Department> departments;
 
-        connection = openConnection();
-        departments = new ArrayList<>();
-        universities = new HashMap<>();
+        connection = openReadConnection();
         try (Statement statement = connection.createStatement()) {
-            resultSet = statement.executeQuery("SELECT d.id, d.name, u.id, u.name, u.city " +
-                    "FROM departments d INNER JOIN universities u ON d.university_id = u.id");
-            while (resultSet.next()) {
-                Department department;
-                University university;
-                int universityId;
-
-                department = new Department();
-                department.setId(resultSet.getInt(1));
-                department.setName(resultSet.getString(2));
-                universityId = resultSet.getInt(3);
-                university = universities.get(universityId);
-                if (university == null) {
-                    university = new University();
-                    university.setId(universityId);
-                    university.setName(resultSet.getString(4));
-                    university.setCity(resultSet.getString(5));
-                    universities.put(universityId, university);
-                }
-                department.setUniversity(university);
-                departments.add(department);
-            }
+            departments = readDepartments(statement.executeQuery(SELECT_DEPARTMENTS));
+        } finally {
+            connection.close();
+        }
+        return departments;
+    }
+
+    /**
+     * Получить страницу кафедр, упорядоченных по id, с поиском по первичному ключу (keyset).
+     *
+     * @param afterId id последней кафедры предыдущей страницы, 0 для первой страницы
+     * @param limit максимальное количество кафедр на странице
+     */
+    public Collection<Department> get(int afterId, int limit) throws SQLException {
+        Connection connection;
+        Collection<Department> departments;
+
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PAGE)) {
+            preparedStatement.setInt(1, afterId);
+            preparedStatement.setInt(2, limit);
+            departments = readDepartments(preparedStatement.executeQuery());
         } finally {
             connection.close();
         }
         return departments;
     }
 
+    /**
+     * Передать все кафедры обработчику по одному, не загружая таблицу в память целиком.
+     */
+    public void forEach(Consumer<Department> consumer) throws SQLException {
+        RowReader reader;
+
+        reader = new RowReader();
+        queryCursor(SELECT_DEPARTMENTS, resultSet -> consumer.accept(reader.read(resultSet)));
+    }
+
+    @Override
+    protected Collection<String> getReadStatements() {
+        return Arrays.asList(SELECT_DEPARTMENT, SELECT_PROFESSORS, SELECT_VERSION,
+                SELECT_VERSIONS, SELECT_LIST_VERSION, SELECT_DEPARTMENTS, SELECT_PAGE);
+    }
+
+    private static Collection<Department> readDepartments(ResultSet resultSet) throws SQLException {
+        ArrayList<Department> departments;
+        RowReader reader;
+
+        departments = new ArrayList<>();
+        reader = new RowReader();
+        while (resultSet.next()) {
+            departments.add(reader.read(resultSet));
+        }
+        return departments;
+    }
+
+    /**
+     * Собирает кафедры из строк выборки SELECT_DEPARTMENTS.
+     * Одинаковые университеты разных строк разделяют один объект.
+     */
+    private static class RowReader {
+        Department read(ResultSet resultSet) throws SQLException {
+            Department department;
+            University university;
+            int universityId;
+
+            department = new Department();
+            department.setId(resultSet.getInt(1));
+            department.setName(resultSet.getString(2));
+            universityId = resultSet.getInt(3);
+            university = universities.get(universityId);
+            if (university == null) {
+                university = new University();
+                university.setId(universityId);
+                university.setName(resultSet.getString(4));
+                university.setCity(resultSet.getString(5));
+                universities.put(universityId, university);
+            }
+            department.setUniversity(university);
+            return department;
+        }
+
+        private final HashMap<Integer, University> universities = new HashMap<>();
+    }
+
+    private static final String INSERT_DEPARTMENT = "WITH d AS (" +
+            "INSERT INTO departments (university_id, name) VALUES (?, ?) returning id, university_id, name) " +
+            "SELECT d.id, d.name, u.id, u.name, u.city FROM d INNER JOIN universities u ON d.university_id = u.id";
+    private static final String DELETE_DEPARTMENT = "DELETE FROM departments WHERE id = ?";
+    private static final String SELECT_DEPARTMENT = "SELECT d.name, u.id, u.name, u.city, d.version, u.version " +
+            "FROM departments d INNER JOIN universities u ON d.university_id = u.id WHERE d.id = ?";
+    private static final String SELECT_PROFESSORS = "SELECT name, phone_number, degree, birthday, id, version FROM professors WHERE department_id = ?";
+    private static final String SELECT_VERSION = "SELECT d.version, u.version, coalesce(max(p.version), 0), count(p.id) " +
+            "FROM departments d INNER JOIN universities u ON d.university_id = u.id " +
+            "LEFT JOIN professors p ON p.department_id = d.id " +
+            "WHERE d.id = ? GROUP BY d.version, u.version";
+    private static final String SELECT_VERSIONS = "SELECT d.id, d.version, u.version, coalesce(max(p.version), 0), count(p.id) " +
+            "FROM departments d INNER JOIN universities u ON d.university_id = u.id " +
+            "LEFT JOIN professors p ON p.department_id = d.id " +
+            "WHERE d.id = ANY(?) GROUP BY d.id, d.version, u.version";
+    private static final String SELECT_LIST_VERSION = listVersionQuery("departments", "universities");
+    private static final String SELECT_DEPARTMENTS = "SELECT d.id, d.name, u.id, u.name, u.city " +
+            "FROM departments d INNER JOIN universities u ON d.university_id = u.id";
+    private static final String SELECT_PAGE = SELECT_DEPARTMENTS + " WHERE d.id > ? ORDER BY d.id LIMIT ?";
 }
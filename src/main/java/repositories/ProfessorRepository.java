@@ -2,25 +2,35 @@ package repositories;
 
 import entities.Department;
 import entities.Professor;
+import entities.ProfessorPatch;
 import entities.University;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class ProfessorRepository extends Repository {
-    public ProfessorRepository() throws SQLException {
-        super();
+    public ProfessorRepository(DataSource dataSource) {
+        super(dataSource);
     }
 
-    public void add(Professor professor) throws SQLException {
+    /**
+     * Добавить профессора. Присваивает переданному профессору id и возвращает созданную запись
+     * вместе с кафедрой и университетом: вставка и соединение выполняются одним запросом.
+     */
+    public Professor add(Professor professor) throws SQLException {
         Connection connection;
         ResultSet resultSet;
+        Professor created;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO professors (department_id, name, phone_number, degree, birthday)" +
-                "VALUES (?, ?, ?, ?, ?) returning id")) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_PROFESSOR)) {
             preparedStatement.setInt(1, professor.getDepartment().getId());
             preparedStatement.setString(2, professor.getName());
             preparedStatement.setString(3, professor.getPhoneNumber());
@@ -28,20 +38,26 @@ public class ProfessorRepository extends Repository {
             preparedStatement.setDate(5, new java.sql.Date(professor.getBirthday().getTime()));
             resultSet = preparedStatement.executeQuery();
             resultSet.next();
-            professor.setId(resultSet.getInt(1));
+            created = new RowReader().read(resultSet);
+            professor.setId(created.getId());
         } finally {
             connection.close();
         }
+        return created;
     }
 
-    public boolean delete(int id) throws SQLException {
+    /**
+     * Удалить запись. Если переданы допустимые версии, запись удаляется только при совпадении с одной из них.
+     */
+    public boolean delete(int id, ExpectedVersions expectedVersions) throws SQLException {
         Connection connection;
         ResultSet resultSet;
         boolean deleted;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM professors WHERE id = ? returning id")) {
-            preparedStatement.setInt(1, id);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_PROFESSOR +
+                versionCondition(expectedVersions) + RETURNING_ID)) {
+            bindIdAndVersion(preparedStatement, 1, id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
             deleted = resultSet.next();
         } finally {
@@ -50,38 +66,60 @@ public class ProfessorRepository extends Repository {
         return deleted;
     }
 
-    public boolean update(Professor professor) throws SQLException {
+    /**
+     * Изменить только переданные поля профессора одним запросом UPDATE ... RETURNING.
+     * Если переданы допустимые версии, запись изменяется только при совпадении с одной из них.
+     * Возвращает изменённого профессора вместе с кафедрой и университетом или null, если профессора нет
+     * или версия не совпала.
+     */
+    public Professor update(int id, ProfessorPatch patch, ExpectedVersions expectedVersions) throws SQLException {
+        Assignments assignments;
         Connection connection;
-        ResultSet resultSet;
-        boolean updated;
+        Professor professor;
+
+        assignments = new Assignments();
+        if (patch.getDepartmentId() != null) {
+            assignments.add("department_id", patch.getDepartmentId().isPresent() ? patch.getDepartmentId().getAsInt() : null);
+        }
+        if (patch.getName() != null) {
+            assignments.add("name", patch.getName().orElse(null));
+        }
+        if (patch.getPhoneNumber() != null) {
+            assignments.add("phone_number", patch.getPhoneNumber().orElse(null));
+        }
+        if (patch.getDegree() != null) {
+            assignments.add("degree", patch.getDegree().orElse(null));
+        }
+        if (patch.getBirthday() != null) {
+            assignments.add("birthday", patch.getBirthday().map(birthday -> new java.sql.Date(birthday.getTime())).orElse(null));
+        }
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE professors SET department_id = ?, name = ?, phone_number = ?, degree = ?, birthday = ? " +
-                "WHERE id =? returning id")) {
-            preparedStatement.setInt(1, professor.getDepartment().getId());
-            preparedStatement.setString(2, professor.getName());
-            preparedStatement.setString(3, professor.getPhoneNumber());
-            preparedStatement.setString(4, professor.getDegree());
-            preparedStatement.setDate(5, new java.sql.Date(professor.getBirthday().getTime()));
-            preparedStatement.setInt(6, professor.getId());
+        try (PreparedStatement preparedStatement = connection.prepareStatement("WITH p AS (" +
+                "UPDATE professors SET " + assignments.sql() + " WHERE id = ?" + versionCondition(expectedVersions) +
+                " returning id, department_id, name, phone_number, degree, birthday) " +
+                PROFESSOR_COLUMNS + " FROM p" + JOIN_DEPARTMENT)) {
+            ResultSet resultSet;
+
+            bindIdAndVersion(preparedStatement, assignments.bind(preparedStatement), id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
-            updated = resultSet.next();
+            professor = resultSet.next() ? new RowReader().read(resultSet) : null;
         } finally {
             connection.close();
         }
-        return updated;
+        return professor;
     }
 
+    /**
+     * Получить профессора с кафедрой и университетом вместе с версией, прочитанной из тех же строк.
+     */
     public Professor getById(int id) throws SQLException {
         Connection connection;
         ResultSet resultSet;
         Professor professor;
 
-        connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT p.name, p.phone_number," +
-                " p.degree, p.birthday, d.id, d.name, u.id, u.name, u.city" +
-                " FROM professors p INNER JOIN departments d ON p.department_id = d.id" +
-                " INNER JOIN universities u ON d.university_id = u.id WHERE p.id = ?")) {
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PROFESSOR)) {
             preparedStatement.setInt(1, id);
             resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -104,69 +142,163 @@ public class ProfessorRepository extends Repository {
 
                 department.setUniversity(university);
                 professor.setDepartment(department);
-
+                // Как в SELECT_VERSION
+                professor.setVersion(version(resultSet.getLong(10), resultSet.getLong(11), resultSet.getLong(12)));
             } else {
                 professor = null;
             }
+        } finally {
+            connection.close();
         }
-        connection.close();
         return professor;
     }
 
+    /**
+     * Получить версию профессора вместе с кафедрой и университетом без загрузки самих строк.
+     * Возвращает null, если профессора нет.
+     */
+    public String getVersion(int id) throws SQLException {
+        return queryVersion(SELECT_VERSION, id);
+    }
+
+    /**
+     * Получить версии многих профессоров одним запросом, в том же виде, что {@link #getVersion(int)}.
+     * Используется для проверки сущностей из снимка кэша.
+     */
+    public Map<Integer, String> getVersions(int[] ids) throws SQLException {
+        return queryVersions(SELECT_VERSIONS, ids);
+    }
+
+    /**
+     * Получить версию списка профессоров. Меняется после любого изменения профессоров, кафедр или университетов.
+     */
+    public String getVersion() throws SQLException {
+        return queryVersion(SELECT_LIST_VERSION);
+    }
+
     public Collection<Professor> get() throws SQLException {
         Connection connection;
-        ResultSet resultSet;
-        ArrayList<Professor> professors;
-        HashMap<Integer, Department> departments;
-        HashMap<Integer, University> universities;
+        Collection<Professor> professors;
 
-        connection = openConnection();
-        universities = new HashMap<>();
-        departments = new HashMap<>();
-        professors = new ArrayList<>();
+        connection = openReadConnection();
         try (Statement statement = connection.createStatement()) {
-            resultSet = statement.executeQuery("SELECT p.id, p.name, p.phone_number," +
-                    " p.degree, p.birthday, d.id, d.name, u.id, u.name, u.city" +
-                    " FROM professors p INNER JOIN departments d ON p.department_id = d.id" +
-                    " INNER JOIN universities u ON d.university_id = u.id");
-            while (resultSet.next()) {
-                University university;
-                Department department;
-                Professor professor;
-                int departmentId;
-                int universityId;
+            professors = readProfessors(statement.executeQuery(SELECT_PROFESSORS));
+        } finally {
+            connection.close();
+        }
+        return professors;
+    }
 
-                professor = new Professor();
-                professor.setId(resultSet.getInt(1));
-                professor.setName(resultSet.getString(2));
-                professor.setPhoneNumber(resultSet.getString(3));
-                professor.setDegree(resultSet.getString(4));
-                professor.setBirthday(resultSet.getDate(5));
-                universityId = resultSet.getInt(8);
-                university = universities.get(universityId);
-                if (university == null) {
-                    university = new University();
-                    university.setId(universityId);
-                    university.setName(resultSet.getString(9));
-                    university.setCity(resultSet.getString(10));
-                    universities.put(universityId, university);
-                }
-                departmentId = resultSet.getInt(6);
-                department = departments.get(departmentId);
-                if (department == null) {
-                    department = new Department();
-                    department.setId(departmentId);
-                    department.setName(resultSet.getString(7));
-                    department.setUniversity(university);
-                    departments.put(departmentId, department);
-                }
-                professor.setDepartment(department);
-                professors.add(professor);
+    /**
+     * Получить страницу профессоров, упорядоченных по id, с поиском по первичному ключу (keyset).
+     *
+     * @param afterId id последнего профессора предыдущей страницы, 0 для первой страницы
+     * @param limit максимальное количество профессоров на странице
+     */
+    public Collection<Professor> get(int afterId, int limit) throws SQLException {
+        Connection connection;
+        Collection<Professor> professors;
 
-            }
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PAGE)) {
+            preparedStatement.setInt(1, afterId);
+            preparedStatement.setInt(2, limit);
+            professors = readProfessors(preparedStatement.executeQuery());
         } finally {
             connection.close();
         }
         return professors;
     }
+
+    /**
+     * Передать всех профессоров обработчику по одному, не загружая таблицу в память целиком.
+     */
+    public void forEach(Consumer<Professor> consumer) throws SQLException {
+        RowReader reader;
+
+        reader = new RowReader();
+        queryCursor(SELECT_PROFESSORS, resultSet -> consumer.accept(reader.read(resultSet)));
+    }
+
+    @Override
+    protected Collection<String> getReadStatements() {
+        return Arrays.asList(SELECT_PROFESSOR, SELECT_VERSION,
+                SELECT_VERSIONS, SELECT_LIST_VERSION, SELECT_PROFESSORS, SELECT_PAGE);
+    }
+
+    private static Collection<Professor> readProfessors(ResultSet resultSet) throws SQLException {
+        ArrayList<Professor> professors;
+        RowReader reader;
+
+        professors = new ArrayList<>();
+        reader = new RowReader();
+        while (resultSet.next()) {
+            professors.add(reader.read(resultSet));
+        }
+        return professors;
+    }
+
+    /**
+     * Собирает профессоров из строк выборки SELECT_PROFESSORS.
+     * Одинаковые кафедры и университеты разных строк разделяют один объект.
+     */
+    private static class RowReader {
+        Professor read(ResultSet resultSet) throws SQLException {
+            University university;
+            Department department;
+            Professor professor;
+            int departmentId;
+            int universityId;
+
+            professor = new Professor();
+            professor.setId(resultSet.getInt(1));
+            professor.setName(resultSet.getString(2));
+            professor.setPhoneNumber(resultSet.getString(3));
+            professor.setDegree(resultSet.getString(4));
+            professor.setBirthday(resultSet.getDate(5));
+            universityId = resultSet.getInt(8);
+            university = universities.get(universityId);
+            if (university == null) {
+                university = new University();
+                university.setId(universityId);
+                university.setName(resultSet.getString(9));
+                university.setCity(resultSet.getString(10));
+                universities.put(universityId, university);
+            }
+            departmentId = resultSet.getInt(6);
+            department = departments.get(departmentId);
+            if (department == null) {
+                department = new Department();
+                department.setId(departmentId);
+                department.setName(resultSet.getString(7));
+                department.setUniversity(university);
+                departments.put(departmentId, department);
+            }
+            professor.setDepartment(department);
+            return professor;
+        }
+
+        private final HashMap<Integer, Department> departments = new HashMap<>();
+        private final HashMap<Integer, University> universities = new HashMap<>();
+    }
+
+    private static final String PROFESSOR_COLUMNS = "SELECT p.id, p.name, p.phone_number," +
+            " p.degree, p.birthday, d.id, d.name, u.id, u.name, u.city";
+    private static final String JOIN_DEPARTMENT = " INNER JOIN departments d ON p.department_id = d.id" +
+            " INNER JOIN universities u ON d.university_id = u.id";
+    private static final String SELECT_PROFESSORS = PROFESSOR_COLUMNS + " FROM professors p" + JOIN_DEPARTMENT;
+    private static final String INSERT_PROFESSOR = "WITH p AS (" +
+            "INSERT INTO professors (department_id, name, phone_number, degree, birthday) VALUES (?, ?, ?, ?, ?)" +
+            " returning id, department_id, name, phone_number, degree, birthday) " +
+            PROFESSOR_COLUMNS + " FROM p" + JOIN_DEPARTMENT;
+    private static final String DELETE_PROFESSOR = "DELETE FROM professors WHERE id = ?";
+    private static final String SELECT_PROFESSOR = "SELECT p.name, p.phone_number," +
+            " p.degree, p.birthday, d.id, d.name, u.id, u.name, u.city, p.version, d.version, u.version" +
+            " FROM professors p" + JOIN_DEPARTMENT + " WHERE p.id = ?";
+    private static final String SELECT_VERSION = "SELECT p.version, d.version, u.version" +
+            " FROM professors p" + JOIN_DEPARTMENT + " WHERE p.id = ?";
+    private static final String SELECT_VERSIONS = "SELECT p.id, p.version, d.version, u.version" +
+            " FROM professors p" + JOIN_DEPARTMENT + " WHERE p.id = ANY(?)";
+    private static final String SELECT_LIST_VERSION = listVersionQuery("professors", "departments", "universities");
+    private static final String SELECT_PAGE = SELECT_PROFESSORS + " WHERE p.id > ? ORDER BY p.id LIMIT ?";
 }
@@ -1,69 +1,355 @@
 package repositories;
 
+import database.ReadDataSource;
+import org.postgresql.PGConnection;
 import utils.DatabaseSettings;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 public abstract class Repository {
 
-    protected Repository() throws SQLException {
+    protected Repository(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Взять соединение из пула. Закрытие соединения возвращает его обратно в пул.
+     */
+    protected Connection openConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Взять соединение для запросов, которые только читают данные: если источник данных это позволяет,
+     * соединение с репликой (см. {@link ReadDataSource}). Внутри транзакции сервиса это её соединение.
+     */
+    protected Connection openReadConnection() throws SQLException {
+        return dataSource instanceof ReadDataSource
+                ? ((ReadDataSource) dataSource).getReadConnection()
+                : dataSource.getConnection();
+    }
+
+    /**
+     * Сделать запросы чтения репозитория серверными на этом соединении. Драйвер готовит запрос
+     * на сервере только после prepareThreshold выполнений на соединении (см. {@link DatabaseSettings#PREPARE_THRESHOLD}),
+     * поэтому каждый запрос выполняется столько раз с id 0 и пустым массивом id: таких строк нет,
+     * а из запросов без параметров читается не больше одной строки. Выполнение идёт в транзакции
+     * только для чтения, которая затем откатывается. После этого первые настоящие запросы после запуска
+     * не тратят время на разбор и планирование. Изменяющие запросы так не выполнить, они становятся
+     * серверными при первом выполнении, если порог равен единице.
+     */
+    @SuppressWarnings("java:S1141") // Откат не должен скрывать исключение, из-за которого он выполняется
+    public void prepareStatements(Connection connection) throws SQLException {
+        int threshold;
+        boolean autoCommit;
+
+        threshold = connection.unwrap(PGConnection.class).getPrepareThreshold();
+        if (threshold <= 0) {
+            return;
+        }
+        autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        connection.setReadOnly(true);
+        try {
+            for (String sql : getReadStatements()) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    bindNothing(connection, preparedStatement);
+                    preparedStatement.setMaxRows(1);
+                    for (int i = 0; i < threshold; i++) {
+                        preparedStatement.executeQuery().close();
+                    }
+                }
+            }
+        } finally {
+            connection.rollback();
+            connection.setReadOnly(false);
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Тексты запросов репозитория, которые только читают данные и не зависят от аргументов вызова.
+     * Параметры запросов - id, число строк или массив id.
+     */
+    protected abstract Collection<String> getReadStatements();
+
+    /**
+     * Выполнить запрос через серверный курсор и передать обработчику каждую строку.
+     * Драйвер PostgreSQL читает строки порциями только вне режима автокоммита, поэтому
+     * запрос выполняется в отдельной транзакции только для чтения, а если соединение уже в транзакции
+     * (см. {@link database.TransactionManager}), то в ней. В памяти одновременно находится
+     * не больше {@link DatabaseSettings#STREAM_FETCH_SIZE} строк.
+     * Если запрос или обработчик завершились исключением, своя транзакция откатывается до того,
+     * как соединению возвращается режим автокоммита: менять режим только для чтения посреди транзакции нельзя.
+     */
+    @SuppressWarnings("java:S1141") // Откат не должен скрывать исключение, из-за которого он выполняется
+    protected void queryCursor(String sql, RowHandler handler) throws SQLException {
+        Connection connection;
+        boolean ownTransaction;
+
+        connection = openReadConnection();
+        try {
+            ownTransaction = connection.getAutoCommit();
+            if (ownTransaction) {
+                connection.setAutoCommit(false);
+                connection.setReadOnly(true);
+            }
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    ResultSet resultSet;
+
+                    statement.setFetchSize(DatabaseSettings.STREAM_FETCH_SIZE);
+                    resultSet = statement.executeQuery(sql);
+                    while (resultSet.next()) {
+                        handler.handle(resultSet);
+                    }
+                }
+                if (ownTransaction) {
+                    connection.commit();
+                }
+            } catch (SQLException | RuntimeException | Error e) {
+                if (ownTransaction) {
+                    try {
+                        connection.rollback();
+                    } catch (SQLException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    connection.setReadOnly(false);
+                    connection.setAutoCommit(true);
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Выполнить запрос версии и собрать числа из единственной строки результата в версию вида "12-40-3".
+     * Возвращает null, если запрос не вернул строк.
+     *
+     * @param parameters целочисленные параметры запроса по порядку
+     */
+    protected String queryVersion(String sql, int... parameters) throws SQLException {
         Connection connection;
+        String version;
 
-        connection = openConnection();
-        try (Statement statement = connection.createStatement()) {
-            statement.execute("CREATE TABLE IF NOT EXISTS public.universities" +
-                    "(" +
-                    "    id integer NOT NULL GENERATED ALWAYS AS IDENTITY ( INCREMENT 1 START 1 MINVALUE 1 MAXVALUE 2147483647 CACHE 1 )," +
-                    "    name character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    city character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    CONSTRAINT universities_pkey PRIMARY KEY (id)" +
-                    ")");
-            statement.execute("CREATE TABLE IF NOT EXISTS public.departments" +
-                    "(" +
-                    "    id integer NOT NULL GENERATED ALWAYS AS IDENTITY ( INCREMENT 1 START 1 MINVALUE 1 MAXVALUE 2147483647 CACHE 1 )," +
-                    "    university_id integer NOT NULL," +
-                    "    name character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    CONSTRAINT departments_pkey PRIMARY KEY (id)," +
-                    "    CONSTRAINT university_department_fkey FOREIGN KEY (university_id)" +
-                    "        REFERENCES public.universities (id) MATCH SIMPLE" +
-                    "        ON UPDATE NO ACTION" +
-                    "        ON DELETE CASCADE" +
-                    "        NOT VALID" +
-                    ")");
-            statement.execute("CREATE TABLE IF NOT EXISTS public.professors" +
-                    "(" +
-                    "    department_id integer NOT NULL," +
-                    "    name character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    phone_number character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    degree character varying COLLATE pg_catalog.\"default\" NOT NULL," +
-                    "    birthday date NOT NULL," +
-                    "    id integer NOT NULL GENERATED ALWAYS AS IDENTITY ( INCREMENT 1 START 1 MINVALUE 1 MAXVALUE 2147483647 CACHE 1 ),\n" +
-                    "    CONSTRAINT professors_pkey PRIMARY KEY (id)," +
-                    "    CONSTRAINT department_professor_fkey FOREIGN KEY (department_id)" +
-                    "        REFERENCES public.departments (id) MATCH SIMPLE" +
-                    "        ON UPDATE NO ACTION" +
-                    "        ON DELETE CASCADE" +
-                    "        NOT VALID" +
-                    ")");
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            ResultSet resultSet;
+
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setInt(i + 1, parameters[i]);
+            }
+            resultSet = preparedStatement.executeQuery();
+            version = resultSet.next() ? readVersion(resultSet, 1) : null;
         } finally {
             connection.close();
         }
+        return version;
     }
 
-    @SuppressWarnings("java:S112")
-    protected Connection openConnection() throws SQLException {
+    /**
+     * Выполнить запрос версий сразу многих строк. Первый столбец результата - id,
+     * остальные собираются в версию так же, как в {@link #queryVersion(String, int...)}.
+     * Единственный параметр запроса - массив id (используется как "id = ANY(?)").
+     *
+     * @return версии по id; id, которых нет в базе данных, в результат не попадают
+     */
+    protected Map<Integer, String> queryVersions(String sql, int[] ids) throws SQLException {
         Connection connection;
+        HashMap<Integer, String> versions;
+        Integer[] boxedIds;
 
-        try {
-            Class.forName("org.postgresql.Driver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+        versions = new HashMap<>(ids.length * 2);
+        boxedIds = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            boxedIds[i] = ids[i];
+        }
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            ResultSet resultSet;
+
+            preparedStatement.setArray(1, connection.createArrayOf("integer", boxedIds));
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                versions.put(resultSet.getInt(1), readVersion(resultSet, 2));
+            }
+        } finally {
+            connection.close();
+        }
+        return versions;
+    }
+
+    /**
+     * Запрос версии списка, собранного из таблиц tables: наибольшая версия среди их строк и отметок
+     * об удалении из них (см. миграцию V6) и число изменений каждой таблицы (см. миграцию V7).
+     * Наибольшей версии одной мало: транзакция, взявшая меньшую версию, может зафиксироваться позже той,
+     * что взяла большую, и список изменится без изменения наибольшей версии. Число изменений растёт
+     * с каждой фиксацией. Все части считаются только по таблицам списка, поэтому записи в другие таблицы
+     * версию не меняют.
+     */
+    protected static String listVersionQuery(String... tables) {
+        StringBuilder builder;
+
+        builder = new StringBuilder("SELECT greatest(0");
+        for (String table : tables) {
+            builder.append(", (SELECT max(version) FROM ").append(table).append(')')
+                    .append(", (SELECT max(version) FROM entity_deletions WHERE table_name = '").append(table).append("')");
+        }
+        builder.append(')');
+        for (String table : tables) {
+            builder.append(", (SELECT coalesce(sum(changes), 0) FROM table_changes WHERE table_name = '")
+                    .append(table).append("')");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Подставить во все параметры запроса значения, под которые не подходит ни одна строка:
+     * id 0 (id выдаются с единицы) и пустой массив id. Типы параметров те же, что у настоящих вызовов,
+     * иначе драйвер подготовит запрос заново.
+     */
+    private static void bindNothing(Connection connection, PreparedStatement statement) throws SQLException {
+        ParameterMetaData metaData;
+
+        metaData = statement.getParameterMetaData();
+        for (int i = 1; i <= metaData.getParameterCount(); i++) {
+            if (metaData.getParameterType(i) == Types.ARRAY) {
+                statement.setArray(i, connection.createArrayOf("integer", new Integer[0]));
+            } else {
+                statement.setInt(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Условие на версию строки для оптимистической блокировки или пустая строка, если подходит любая версия.
+     * Допустимые версии передаются одним параметром-массивом, поэтому текст запроса не зависит от их числа.
+     */
+    protected static String versionCondition(ExpectedVersions expectedVersions) {
+        return expectedVersions == null || expectedVersions.isAny() ? "" : " AND version = ANY (?)";
+    }
+
+    /**
+     * Подставить id и, если заданы, допустимые версии, начиная с параметра index.
+     */
+    protected static void bindIdAndVersion(PreparedStatement statement, int index, int id,
+                                           ExpectedVersions expectedVersions) throws SQLException {
+        long[] versions;
+        Long[] boxedVersions;
+
+        statement.setInt(index, id);
+        if (expectedVersions != null && !expectedVersions.isAny()) {
+            versions = expectedVersions.getVersions();
+            boxedVersions = new Long[versions.length];
+            for (int i = 0; i < versions.length; i++) {
+                boxedVersions[i] = versions[i];
+            }
+            statement.setArray(index + 1, statement.getConnection().createArrayOf("bigint", boxedVersions));
+        }
+    }
+
+    /**
+     * Проверить, что запрос отклонён ограничением внешнего ключа (SQLSTATE 23503).
+     * Так сервисы узнают об отсутствии родительской записи без отдельного запроса к базе данных.
+     */
+    public static boolean isForeignKeyViolation(SQLException e) {
+        return FOREIGN_KEY_VIOLATION.equals(e.getSQLState());
+    }
+
+    /**
+     * Список присваиваний SET для запроса UPDATE, собираемый только из изменяемых полей.
+     * Имена столбцов задаются кодом репозитория, значения передаются параметрами запроса.
+     */
+    protected static class Assignments {
+        void add(String column, Object value) {
+            if (!values.isEmpty()) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ?");
+            values.add(value);
         }
 
-        connection = DriverManager.getConnection(DatabaseSettings.URL, DatabaseSettings.USERNAME, DatabaseSettings.PASSWORD);
-        return connection;
+        /**
+         * Пустое изменение записывается как присваивание версии самой себе: значения строки
+         * не меняются, но существование строки и её версия проверяются тем же запросом.
+         */
+        String sql() {
+            return values.isEmpty() ? "version = version" : sql.toString();
+        }
+
+        /**
+         * Подставить значения в запрос начиная с первого параметра.
+         *
+         * @return номер следующего свободного параметра
+         */
+        int bind(PreparedStatement statement) throws SQLException {
+            int index;
+
+            index = 1;
+            for (Object value : values) {
+                statement.setObject(index++, value);
+            }
+            return index;
+        }
+
+        private final StringBuilder sql = new StringBuilder();
+        private final ArrayList<Object> values = new ArrayList<>();
     }
+
+    @FunctionalInterface
+    protected interface RowHandler {
+        void handle(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Собрать версию из чисел в том же виде, что и {@link #queryVersion(String, int...)}.
+     * Нужна, когда версия считается по уже загруженным строкам и должна в точности соответствовать им.
+     */
+    protected static String version(long... parts) {
+        StringBuilder builder;
+
+        builder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                builder.append('-');
+            }
+            builder.append(parts[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Собрать числа из столбцов текущей строки, начиная с firstColumn, в версию вида "12-40-3".
+     */
+    private static String readVersion(ResultSet resultSet, int firstColumn) throws SQLException {
+        long[] parts;
+
+        parts = new long[resultSet.getMetaData().getColumnCount() - firstColumn + 1];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = resultSet.getLong(firstColumn + i);
+        }
+        return version(parts);
+    }
+
+    protected static final String RETURNING_ID = " returning id";
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
+    private final DataSource dataSource;
 }
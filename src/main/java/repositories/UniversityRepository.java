@@ -3,44 +3,64 @@ package repositories;
 import entities.Department;
 import entities.University;
 import entities.UniversityFull;
+import entities.UniversityPatch;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class UniversityRepository extends Repository {
 
 
-    public UniversityRepository() throws SQLException {
-        super();
+    public UniversityRepository(DataSource dataSource) {
+        super(dataSource);
     }
 
-    public void add(University university) throws SQLException {
+    /**
+     * Добавить университет. Присваивает переданному университету id и возвращает созданную запись.
+     * У нового университета кафедр нет, поэтому повторно читать его из базы данных не нужно.
+     */
+    public UniversityFull add(University university) throws SQLException {
         Connection connection;
         ResultSet resultSet;
+        UniversityFull created;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO universities (name, city)" +
-                "VALUES (?, ?) returning id")) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_UNIVERSITY)) {
             preparedStatement.setString(1, university.getName());
             preparedStatement.setString(2, university.getCity());
 
             resultSet = preparedStatement.executeQuery();
             resultSet.next();
-            university.setId(resultSet.getInt(1));
+            created = new UniversityFull();
+            created.setId(resultSet.getInt(1));
+            created.setName(resultSet.getString(2));
+            created.setCity(resultSet.getString(3));
+            created.setDepartments(new ArrayList<>());
+            university.setId(created.getId());
         } finally {
             connection.close();
         }
+        return created;
     }
 
-    public boolean delete(int id) throws SQLException {
+    /**
+     * Удалить запись. Если переданы допустимые версии, запись удаляется только при совпадении с одной из них.
+     */
+    public boolean delete(int id, ExpectedVersions expectedVersions) throws SQLException {
         Connection connection;
         ResultSet resultSet;
         boolean deleted;
 
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM universities WHERE id = ? returning id")) {
-            preparedStatement.setInt(1, id);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_UNIVERSITY +
+                versionCondition(expectedVersions) + RETURNING_ID)) {
+            bindIdAndVersion(preparedStatement, 1, id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
             deleted = resultSet.next();
         } finally {
@@ -49,90 +69,223 @@ public class UniversityRepository extends Repository {
         return deleted;
     }
 
-    public boolean update(University university) throws SQLException {
+    /**
+     * Изменить только переданные поля университета одним запросом UPDATE ... RETURNING.
+     * Если переданы допустимые версии, запись изменяется только при совпадении с одной из них.
+     * Возвращает изменённый университет вместе с кафедрами или null, если университета нет
+     * или версия не совпала.
+     */
+    public UniversityFull update(int id, UniversityPatch patch, ExpectedVersions expectedVersions) throws SQLException {
+        Assignments assignments;
         Connection connection;
-        ResultSet resultSet;
-        boolean updated;
+        UniversityFull university;
+
+        assignments = new Assignments();
+        if (patch.getName() != null) {
+            assignments.add("name", patch.getName().orElse(null));
+        }
+        if (patch.getCity() != null) {
+            assignments.add("city", patch.getCity().orElse(null));
+        }
 
+        university = null;
         connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE universities SET name = ?, city = ? " +
-                "WHERE id = ? returning id")) {
-            preparedStatement.setString(1, university.getName());
-            preparedStatement.setString(2, university.getCity());
-            preparedStatement.setInt(3, university.getId());
+        try (PreparedStatement preparedStatement = connection.prepareStatement("WITH u AS (" +
+                "UPDATE universities SET " + assignments.sql() + " WHERE id = ?" + versionCondition(expectedVersions) +
+                " returning id, name, city) " +
+                "SELECT u.id, u.name, u.city, d.id, d.name FROM u LEFT JOIN departments d ON d.university_id = u.id ORDER BY d.id")) {
+            ResultSet resultSet;
+
+            bindIdAndVersion(preparedStatement, assignments.bind(preparedStatement), id, expectedVersions);
             resultSet = preparedStatement.executeQuery();
-            updated = resultSet.next();
+            while (resultSet.next()) {
+                if (university == null) {
+                    university = new UniversityFull();
+                    university.setId(resultSet.getInt(1));
+                    university.setName(resultSet.getString(2));
+                    university.setCity(resultSet.getString(3));
+                    university.setDepartments(new ArrayList<>());
+                }
+                if (resultSet.getObject(4) != null) {
+                    Department department;
+
+                    department = new Department();
+                    department.setId(resultSet.getInt(4));
+                    department.setUniversity(university);
+                    department.setName(resultSet.getString(5));
+                    university.getDepartments().add(department);
+                }
+            }
         } finally {
             connection.close();
         }
-        return updated;
+        return university;
     }
 
+    /**
+     * Получить университет с кафедрами. Версия университета собирается из тех же строк, что загружены,
+     * поэтому тело ответа и его ETag всегда соответствуют друг другу.
+     */
     public UniversityFull getById(int id) throws SQLException {
         Connection connection;
         UniversityFull university;
+        long universityVersion;
 
-        connection = openConnection();
-        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT name, city FROM universities WHERE id = ?")) {
-            ResultSet resultSet;
-
-            preparedStatement.setInt(1, id);
-            resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                university = new UniversityFull();
-                university.setId(id);
-                university.setName(resultSet.getString(1));
-                university.setCity(resultSet.getString(2));
-            } else {
-                university = null;
-            }
-        }
-
-        if (university != null) {
-            try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT id, name FROM departments WHERE university_id = ?")) {
+        connection = openReadConnection();
+        try {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_UNIVERSITY)) {
                 ResultSet resultSet;
-                ArrayList<Department> departments;
 
-                departments = new ArrayList<>();
                 preparedStatement.setInt(1, id);
                 resultSet = preparedStatement.executeQuery();
-                while (resultSet.next()) {
-                    Department department;
+                if (resultSet.next()) {
+                    university = new UniversityFull();
+                    university.setId(id);
+                    university.setName(resultSet.getString(1));
+                    university.setCity(resultSet.getString(2));
+                    universityVersion = resultSet.getLong(3);
+                } else {
+                    university = null;
+                    universityVersion = 0;
+                }
+            }
 
-                    department = new Department();
-                    department.setId(resultSet.getInt(1));
-                    department.setUniversity(university);
-                    department.setName(resultSet.getString(2));
-                    departments.add(department);
+            if (university != null) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_DEPARTMENTS)) {
+                    ResultSet resultSet;
+                    ArrayList<Department> departments;
+                    long maxVersion;
+
+                    departments = new ArrayList<>();
+                    maxVersion = 0;
+                    preparedStatement.setInt(1, id);
+                    resultSet = preparedStatement.executeQuery();
+                    while (resultSet.next()) {
+                        Department department;
+
+                        department = new Department();
+                        department.setId(resultSet.getInt(1));
+                        department.setUniversity(university);
+                        department.setName(resultSet.getString(2));
+                        departments.add(department);
+                        maxVersion = Math.max(maxVersion, resultSet.getLong(3));
+                    }
+                    university.setDepartments(departments);
+                    // Как в SELECT_VERSION: версия университета, наибольшая версия кафедр и их число
+                    university.setVersion(version(universityVersion, maxVersion, departments.size()));
                 }
-                university.setDepartments(departments);
             }
+        } finally {
+            connection.close();
         }
-        connection.close();
         return university;
     }
 
+    /**
+     * Получить версию университета вместе с его кафедрами без загрузки самих строк.
+     * Версия меняется при изменении университета, добавлении, изменении или удалении его кафедр.
+     * Возвращает null, если университета нет.
+     */
+    public String getVersion(int id) throws SQLException {
+        return queryVersion(SELECT_VERSION, id);
+    }
+
+    /**
+     * Получить версии многих университетов одним запросом, в том же виде, что {@link #getVersion(int)}.
+     * Используется для проверки сущностей из снимка кэша.
+     */
+    public Map<Integer, String> getVersions(int[] ids) throws SQLException {
+        return queryVersions(SELECT_VERSIONS, ids);
+    }
+
+    /**
+     * Получить версию списка университетов. Меняется после любого изменения таблицы.
+     */
+    public String getVersion() throws SQLException {
+        return queryVersion(SELECT_LIST_VERSION);
+    }
+
     public Collection<University> get() throws SQLException {
         Connection connection;
-        ArrayList<University> universities;
-        ResultSet resultSet;
+        Collection<University> universities;
 
-        connection = openConnection();
-        universities = new ArrayList<>();
+        connection = openReadConnection();
         try (Statement statement = connection.createStatement()) {
-            resultSet = statement.executeQuery("SELECT id, name, city FROM universities");
-            while (resultSet.next()) {
-                University university;
+            universities = readUniversities(statement.executeQuery(SELECT_UNIVERSITIES));
+        } finally {
+            connection.close();
+        }
+        return universities;
+    }
 
-                university = new University();
-                university.setId(resultSet.getInt(1));
-                university.setName(resultSet.getString(2));
-                university.setCity(resultSet.getString(3));
-                universities.add(university);
-            }
+    /**
+     * Получить страницу университетов, упорядоченных по id.
+     * Используется поиск по первичному ключу (keyset), поэтому стоимость запроса
+     * не зависит от номера страницы.
+     *
+     * @param afterId id последнего университета предыдущей страницы, 0 для первой страницы
+     * @param limit максимальное количество университетов на странице
+     */
+    public Collection<University> get(int afterId, int limit) throws SQLException {
+        Connection connection;
+        Collection<University> universities;
+
+        connection = openReadConnection();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PAGE)) {
+            preparedStatement.setInt(1, afterId);
+            preparedStatement.setInt(2, limit);
+            universities = readUniversities(preparedStatement.executeQuery());
         } finally {
             connection.close();
         }
         return universities;
     }
+
+    /**
+     * Передать все университеты обработчику по одному, не загружая таблицу в память целиком.
+     */
+    public void forEach(Consumer<University> consumer) throws SQLException {
+        queryCursor(SELECT_UNIVERSITIES, resultSet -> consumer.accept(readUniversity(resultSet)));
+    }
+
+    @Override
+    protected Collection<String> getReadStatements() {
+        return Arrays.asList(SELECT_UNIVERSITY, SELECT_DEPARTMENTS, SELECT_VERSION,
+                SELECT_VERSIONS, SELECT_LIST_VERSION, SELECT_UNIVERSITIES, SELECT_PAGE);
+    }
+
+    private static Collection<University> readUniversities(ResultSet resultSet) throws SQLException {
+        ArrayList<University> universities;
+
+        universities = new ArrayList<>();
+        while (resultSet.next()) {
+            universities.add(readUniversity(resultSet));
+        }
+        return universities;
+    }
+
+    private static University readUniversity(ResultSet resultSet) throws SQLException {
+        University university;
+
+        university = new University();
+        university.setId(resultSet.getInt(1));
+        university.setName(resultSet.getString(2));
+        university.setCity(resultSet.getString(3));
+        return university;
+    }
+
+    private static final String INSERT_UNIVERSITY = "INSERT INTO universities (name, city)" +
+            "VALUES (?, ?) returning id, name, city";
+    private static final String DELETE_UNIVERSITY = "DELETE FROM universities WHERE id = ?";
+    private static final String SELECT_UNIVERSITY = "SELECT name, city, version FROM universities WHERE id = ?";
+    private static final String SELECT_DEPARTMENTS = "SELECT id, name, version FROM departments WHERE university_id = ?";
+    private static final String SELECT_VERSION = "SELECT u.version, coalesce(max(d.version), 0), count(d.id) " +
+            "FROM universities u LEFT JOIN departments d ON d.university_id = u.id " +
+            "WHERE u.id = ? GROUP BY u.version";
+    private static final String SELECT_VERSIONS = "SELECT u.id, u.version, coalesce(max(d.version), 0), count(d.id) " +
+            "FROM universities u LEFT JOIN departments d ON d.university_id = u.id " +
+            "WHERE u.id = ANY(?) GROUP BY u.id, u.version";
+    private static final String SELECT_LIST_VERSION = listVersionQuery("universities");
+    private static final String SELECT_UNIVERSITIES = "SELECT id, name, city FROM universities";
+    private static final String SELECT_PAGE = SELECT_UNIVERSITIES + " WHERE id > ? ORDER BY id LIMIT ?";
 }
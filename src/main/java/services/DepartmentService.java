@@ -1,56 +1,193 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.Department;
 import entities.DepartmentFull;
+import entities.DepartmentPatch;
 import entities.University;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
 import repositories.DepartmentRepository;
-import repositories.UniversityRepository;
+import repositories.Repository;
+import utils.ExpectedVersions;
 
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 public class DepartmentService {
 
-    public DepartmentService(DepartmentRepository repository, UniversityRepository universityRepository) {
+    /**
+     * @param transactions транзакции, к которым присоединяется репозиторий: он должен получать соединения через них
+     */
+    public DepartmentService(DepartmentRepository repository, EntityCache cache, TransactionManager transactions) {
         this.repository = repository;
-        this.universityRepository = universityRepository;
+        this.cache = cache;
+        this.transactions = transactions;
     }
 
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public DepartmentFull add(Department department) {
+        DepartmentFull result;
+
         try {
             validate(department);
-            repository.add(department);
-            return repository.getById(department.getId());
+            result = transactions.write(() -> repository.add(department));
+            cache.getDepartmentIds().add(result.getId());
+            cache.evictDepartment(result.getId(), result.getUniversity().getId());
+            return result;
         } catch (SQLException e) {
+            if (Repository.isForeignKeyViolation(e)) {
+                throw new ValidationException("University of department does not exist");
+            }
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Удалить запись. Если заданы допустимые версии, удаление выполняется только при совпадении с одной из них.
+     *
+     * @return false, если записи нет
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean delete(int id) {
+    public boolean delete(int id, ExpectedVersions expectedVersions) {
+        boolean deleted;
+
         try {
-            return repository.delete(id);
+            deleted = transactions.write(() -> {
+                if (repository.delete(id, expectedVersions)) {
+                    return true;
+                }
+                checkVersionConflict(id, expectedVersions);
+                return false;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        if (deleted) {
+            cache.getDepartmentIds().remove(id);
+            cache.evictDepartment(id);
+        }
+        return deleted;
     }
 
+    /**
+     * Изменить переданные поля кафедры.
+     * Возвращает изменённую кафедру или null, если кафедры нет.
+     * Если заданы допустимые версии, изменение выполняется только при совпадении с одной из них.
+     *
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean update(Department department) {
+    public DepartmentFull update(int id, DepartmentPatch patch, ExpectedVersions expectedVersions) {
+        DepartmentFull result;
+
+        validate(patch);
         try {
-            validate(department);
-            return repository.update(department);
+            result = transactions.write(() -> {
+                DepartmentFull updated;
+
+                updated = repository.update(id, patch, expectedVersions);
+                if (updated == null) {
+                    checkVersionConflict(id, expectedVersions);
+                }
+                return updated;
+            });
         } catch (SQLException e) {
+            if (Repository.isForeignKeyViolation(e)) {
+                throw new ValidationException("University of department does not exist");
+            }
             throw new RuntimeException(e);
         }
+        if (result != null) {
+            cache.evictDepartment(id, result.getUniversity().getId());
+        }
+        return result;
     }
 
+    /**
+     * Получить кафедру по идентификатору из кэша сущностей, при промахе - из базы данных.
+     * Несуществующие идентификаторы отсекаются фильтром без обращения к кэшу и базе данных.
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public DepartmentFull getById(int id) {
+        DepartmentFull result;
+
+        if (!cache.getDepartmentIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = cache.getDepartment(id, this::load);
+            if (result == null) {
+                cache.getDepartmentIds().recordFalsePositive();
+            } else {
+                cache.getDepartmentIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить кафедру, по возможности загруженную из строк указанной версии (версия ресурса, на которую проверен
+     * If-None-Match). Если в кэше лежит сущность другой версии (изменение сделано другим узлом и уведомление
+     * ещё не пришло или вытеснение после фиксации ещё не выполнено), она вытесняется и загружается заново.
+     * Данные могут измениться и между запросами, поэтому ETag ответа берётся из версии возвращённой сущности.
+     */
+    public DepartmentFull getById(int id, String version) {
+        DepartmentFull result;
+
+        result = getById(id);
+        if (result != null && !Objects.equals(result.getVersion(), version)) {
+            cache.evictDepartment(id);
+            result = getById(id);
+        }
+        return result;
+    }
+
+    /**
+     * Учесть обращение к кафедре для выбора самых запрашиваемых сущностей, закрепляемых в кэше.
+     */
+    public void recordAccess(int id) {
+        cache.getDepartmentKeys().record(id);
+    }
+
+    /**
+     * Получить версию кафедры для ETag или null, если кафедры нет.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion(int id) {
+        String result;
+
+        if (!cache.getDepartmentIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = repository.getVersion(id);
+            if (result == null) {
+                cache.getDepartmentIds().recordFalsePositive();
+            } else {
+                cache.getDepartmentIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить версию списка для ETag.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion() {
         try {
-            return repository.getById(id);
+            return repository.getVersion();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -59,13 +196,56 @@ public class DepartmentService {
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public Collection<Department> get() {
         try {
-            return repository.get();
+            return cache.coalesce("departments", repository::get);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Передать все сущности обработчику по одному по мере чтения из базы данных.
+     * Версия списка читается на том же снимке данных, что и сущности, и передаётся onVersion до первой из них.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public void forEach(Consumer<String> onVersion, Consumer<Department> consumer) {
+        try {
+            transactions.read(() -> {
+                onVersion.accept(repository.getVersion());
+                repository.forEach(consumer);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить страницу списка вместе с версией списка, прочитанной на том же снимке данных.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public Versioned<Collection<Department>> get(int afterId, int limit) {
+        try {
+            return cache.coalesce("departments?after=" + afterId + "&limit=" + limit,
+                    () -> transactions.read(() -> new Versioned<>(repository.getVersion(), repository.get(afterId, limit))));
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void validate(Department department) throws SQLException {
+    /**
+     * Загрузить кафедру с профессорами двумя запросами на одном снимке данных.
+     */
+    private DepartmentFull load(int id) throws SQLException {
+        return transactions.read(() -> repository.getById(id));
+    }
+
+    private void checkVersionConflict(int id, ExpectedVersions expectedVersions) throws SQLException {
+        if (expectedVersions != null && (expectedVersions.isAny() || repository.getVersion(id) != null)) {
+            throw new VersionConflictException("Department has been changed by another request");
+        }
+    }
+
+    private void validate(Department department) {
         University university;
 
         if (department.getName() == null) {
@@ -73,11 +253,21 @@ public class DepartmentService {
         }
 
         university = department.getUniversity();
-        if (university == null || universityRepository.getById(university.getId()) == null) {
+        if (university == null) {
+            throw new ValidationException("University of department does not exist");
+        }
+    }
+
+    private void validate(DepartmentPatch patch) {
+        if (patch.getName() != null && patch.getName().isEmpty()) {
+            throw new ValidationException("Name of department cannot be null");
+        }
+        if (patch.getUniversityId() != null && patch.getUniversityId().isEmpty()) {
             throw new ValidationException("University of department does not exist");
         }
     }
 
     private final DepartmentRepository repository;
-    private final UniversityRepository universityRepository;
+    private final EntityCache cache;
+    private final TransactionManager transactions;
 }
@@ -1,55 +1,192 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.Department;
 import entities.Professor;
+import entities.ProfessorPatch;
 import exceptions.ValidationException;
-import repositories.DepartmentRepository;
+import exceptions.VersionConflictException;
 import repositories.ProfessorRepository;
+import repositories.Repository;
+import utils.ExpectedVersions;
 
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 public class ProfessorService {
 
-    public ProfessorService(ProfessorRepository repository, DepartmentRepository departmentRepository) {
+    /**
+     * @param transactions транзакции, к которым присоединяется репозиторий: он должен получать соединения через них
+     */
+    public ProfessorService(ProfessorRepository repository, EntityCache cache, TransactionManager transactions) {
         this.repository = repository;
-        this.departmentRepository = departmentRepository;
+        this.cache = cache;
+        this.transactions = transactions;
     }
 
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public Professor add(Professor professor) {
+        Professor result;
+
         try {
             validate(professor);
-            repository.add(professor);
-            return repository.getById(professor.getId());
+            result = transactions.write(() -> repository.add(professor));
+            cache.getProfessorIds().add(result.getId());
+            cache.evictProfessor(result.getId(), result.getDepartment().getId());
+            return result;
         } catch (SQLException e) {
+            if (Repository.isForeignKeyViolation(e)) {
+                throw new ValidationException("Department does not exist");
+            }
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Удалить запись. Если заданы допустимые версии, удаление выполняется только при совпадении с одной из них.
+     *
+     * @return false, если записи нет
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean delete(int id) {
+    public boolean delete(int id, ExpectedVersions expectedVersions) {
+        boolean deleted;
+
         try {
-            return repository.delete(id);
+            deleted = transactions.write(() -> {
+                if (repository.delete(id, expectedVersions)) {
+                    return true;
+                }
+                checkVersionConflict(id, expectedVersions);
+                return false;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        if (deleted) {
+            cache.getProfessorIds().remove(id);
+            cache.evictProfessor(id);
+        }
+        return deleted;
     }
 
+    /**
+     * Изменить переданные поля профессора.
+     * Возвращает изменённого профессора или null, если профессора нет.
+     * Если заданы допустимые версии, изменение выполняется только при совпадении с одной из них.
+     *
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean update(Professor professor) {
+    public Professor update(int id, ProfessorPatch patch, ExpectedVersions expectedVersions) {
+        Professor result;
+
+        validate(patch);
         try {
-            validate(professor);
-            return repository.update(professor);
+            result = transactions.write(() -> {
+                Professor updated;
+
+                updated = repository.update(id, patch, expectedVersions);
+                if (updated == null) {
+                    checkVersionConflict(id, expectedVersions);
+                }
+                return updated;
+            });
         } catch (SQLException e) {
+            if (Repository.isForeignKeyViolation(e)) {
+                throw new ValidationException("Department does not exist");
+            }
             throw new RuntimeException(e);
         }
+        if (result != null) {
+            cache.evictProfessor(id, result.getDepartment().getId());
+        }
+        return result;
     }
 
+    /**
+     * Получить профессора по идентификатору из кэша сущностей, при промахе - из базы данных.
+     * Несуществующие идентификаторы отсекаются фильтром без обращения к кэшу и базе данных.
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public Professor getById(int id) {
+        Professor result;
+
+        if (!cache.getProfessorIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = cache.getProfessor(id, repository::getById);
+            if (result == null) {
+                cache.getProfessorIds().recordFalsePositive();
+            } else {
+                cache.getProfessorIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить профессора, по возможности загруженного из строк указанной версии (версия ресурса, на которую проверен
+     * If-None-Match). Если в кэше лежит сущность другой версии (изменение сделано другим узлом и уведомление
+     * ещё не пришло или вытеснение после фиксации ещё не выполнено), она вытесняется и загружается заново.
+     * Данные могут измениться и между запросами, поэтому ETag ответа берётся из версии возвращённой сущности.
+     */
+    public Professor getById(int id, String version) {
+        Professor result;
+
+        result = getById(id);
+        if (result != null && !Objects.equals(result.getVersion(), version)) {
+            cache.evictProfessor(id);
+            result = getById(id);
+        }
+        return result;
+    }
+
+    /**
+     * Учесть обращение к профессору для выбора самых запрашиваемых сущностей, закрепляемых в кэше.
+     */
+    public void recordAccess(int id) {
+        cache.getProfessorKeys().record(id);
+    }
+
+    /**
+     * Получить версию профессора для ETag или null, если профессора нет.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion(int id) {
+        String result;
+
+        if (!cache.getProfessorIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = repository.getVersion(id);
+            if (result == null) {
+                cache.getProfessorIds().recordFalsePositive();
+            } else {
+                cache.getProfessorIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить версию списка для ETag.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion() {
         try {
-            return repository.getById(id);
+            return repository.getVersion();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -58,13 +195,49 @@ public class ProfessorService {
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public Collection<Professor> get() {
         try {
-            return repository.get();
+            return cache.coalesce("professors", repository::get);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Передать все сущности обработчику по одному по мере чтения из базы данных.
+     * Версия списка читается на том же снимке данных, что и сущности, и передаётся onVersion до первой из них.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public void forEach(Consumer<String> onVersion, Consumer<Professor> consumer) {
+        try {
+            transactions.read(() -> {
+                onVersion.accept(repository.getVersion());
+                repository.forEach(consumer);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить страницу списка вместе с версией списка, прочитанной на том же снимке данных.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public Versioned<Collection<Professor>> get(int afterId, int limit) {
+        try {
+            return cache.coalesce("professors?after=" + afterId + "&limit=" + limit,
+                    () -> transactions.read(() -> new Versioned<>(repository.getVersion(), repository.get(afterId, limit))));
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void validate(Professor professor) throws SQLException {
+    private void checkVersionConflict(int id, ExpectedVersions expectedVersions) throws SQLException {
+        if (expectedVersions != null && (expectedVersions.isAny() || repository.getVersion(id) != null)) {
+            throw new VersionConflictException("Professor has been changed by another request");
+        }
+    }
+
+    private void validate(Professor professor) {
         Department department;
 
         if (professor.getName() == null) {
@@ -81,11 +254,30 @@ public class ProfessorService {
         }
 
         department = professor.getDepartment();
-        if (department == null || departmentRepository.getById(department.getId()) == null) {
+        if (department == null) {
+            throw new ValidationException("Department does not exist");
+        }
+    }
+
+    private void validate(ProfessorPatch patch) {
+        if (patch.getName() != null && patch.getName().isEmpty()) {
+            throw new ValidationException("Professor's name cannot be null");
+        }
+        if (patch.getPhoneNumber() != null && patch.getPhoneNumber().isEmpty()) {
+            throw new ValidationException("Professor's phone number cannot be null");
+        }
+        if (patch.getDegree() != null && patch.getDegree().isEmpty()) {
+            throw new ValidationException("Professor's degree cannot be null");
+        }
+        if (patch.getBirthday() != null && patch.getBirthday().isEmpty()) {
+            throw new ValidationException("Professor's birthday cannot be null");
+        }
+        if (patch.getDepartmentId() != null && patch.getDepartmentId().isEmpty()) {
             throw new ValidationException("Department does not exist");
         }
     }
 
     private final ProfessorRepository repository;
-    private final DepartmentRepository departmentRepository;
+    private final EntityCache cache;
+    private final TransactionManager transactions;
 }
@@ -1,53 +1,184 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.University;
 import entities.UniversityFull;
+import entities.UniversityPatch;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
 import repositories.UniversityRepository;
+import utils.ExpectedVersions;
 
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 public class UniversityService {
 
-    public UniversityService(UniversityRepository repository) {
+    /**
+     * @param transactions транзакции, к которым присоединяется репозиторий: он должен получать соединения через них
+     */
+    public UniversityService(UniversityRepository repository, EntityCache cache, TransactionManager transactions) {
         this.repository = repository;
+        this.cache = cache;
+        this.transactions = transactions;
     }
 
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public UniversityFull add(University university) {
+        UniversityFull result;
+
         validate(university);
         try {
-            repository.add(university);
-            return repository.getById(university.getId());
+            result = transactions.write(() -> repository.add(university));
+            cache.getUniversityIds().add(result.getId());
+            return result;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Удалить запись. Если заданы допустимые версии, удаление выполняется только при совпадении с одной из них.
+     *
+     * @return false, если записи нет
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean delete(int id) {
+    public boolean delete(int id, ExpectedVersions expectedVersions) {
+        boolean deleted;
+
         try {
-            return repository.delete(id);
+            deleted = transactions.write(() -> {
+                if (repository.delete(id, expectedVersions)) {
+                    return true;
+                }
+                checkVersionConflict(id, expectedVersions);
+                return false;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        if (deleted) {
+            cache.getUniversityIds().remove(id);
+            cache.evictUniversity(id);
+        }
+        return deleted;
     }
 
+    /**
+     * Изменить переданные поля университета.
+     * Возвращает изменённый университет или null, если университета нет.
+     * Если заданы допустимые версии, изменение выполняется только при совпадении с одной из них.
+     *
+     * @throws VersionConflictException если версия записи не подходит под условие
+     *                                  или условие *, а записи нет
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
-    public boolean update(University university) {
-        validate(university);
+    public UniversityFull update(int id, UniversityPatch patch, ExpectedVersions expectedVersions) {
+        UniversityFull result;
+
+        validate(patch);
         try {
-            return repository.update(university);
+            result = transactions.write(() -> {
+                UniversityFull updated;
+
+                updated = repository.update(id, patch, expectedVersions);
+                if (updated == null) {
+                    checkVersionConflict(id, expectedVersions);
+                }
+                return updated;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        if (result != null) {
+            cache.evictUniversity(id);
+        }
+        return result;
     }
 
+    /**
+     * Получить университет по идентификатору из кэша сущностей, при промахе - из базы данных.
+     * Несуществующие идентификаторы отсекаются фильтром без обращения к кэшу и базе данных.
+     */
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public UniversityFull getById(int id) {
+        UniversityFull result;
+
+        if (!cache.getUniversityIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = cache.getUniversity(id, this::load);
+            if (result == null) {
+                cache.getUniversityIds().recordFalsePositive();
+            } else {
+                cache.getUniversityIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить университет, по возможности загруженный из строк указанной версии (версия ресурса, на которую проверен
+     * If-None-Match). Если в кэше лежит сущность другой версии (изменение сделано другим узлом и уведомление
+     * ещё не пришло или вытеснение после фиксации ещё не выполнено), она вытесняется и загружается заново.
+     * Данные могут измениться и между запросами, поэтому ETag ответа берётся из версии возвращённой сущности.
+     */
+    public UniversityFull getById(int id, String version) {
+        UniversityFull result;
+
+        result = getById(id);
+        if (result != null && !Objects.equals(result.getVersion(), version)) {
+            cache.evictUniversity(id);
+            result = getById(id);
+        }
+        return result;
+    }
+
+    /**
+     * Учесть обращение к университету для выбора самых запрашиваемых сущностей, закрепляемых в кэше.
+     */
+    public void recordAccess(int id) {
+        cache.getUniversityKeys().record(id);
+    }
+
+    /**
+     * Получить версию университета для ETag или null, если университета нет.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion(int id) {
+        String result;
+
+        if (!cache.getUniversityIds().mightContain(id)) {
+            return null;
+        }
+        try {
+            result = repository.getVersion(id);
+            if (result == null) {
+                cache.getUniversityIds().recordFalsePositive();
+            } else {
+                cache.getUniversityIds().confirm(id);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить версию списка для ETag.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public String getVersion() {
         try {
-            return repository.getById(id);
+            return repository.getVersion();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -56,12 +187,55 @@ public class UniversityService {
     @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
     public Collection<University> get() {
         try {
-            return repository.get();
+            return cache.coalesce("universities", repository::get);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Передать все сущности обработчику по одному по мере чтения из базы данных.
+     * Версия списка читается на том же снимке данных, что и сущности, и передаётся onVersion до первой из них.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public void forEach(Consumer<String> onVersion, Consumer<University> consumer) {
+        try {
+            transactions.read(() -> {
+                onVersion.accept(repository.getVersion());
+                repository.forEach(consumer);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Получить страницу списка вместе с версией списка, прочитанной на том же снимке данных.
+     */
+    @SuppressWarnings("java:S112") // Все необрабатываемые исключения считаем Internal Server Error (500)
+    public Versioned<Collection<University>> get(int afterId, int limit) {
+        try {
+            return cache.coalesce("universities?after=" + afterId + "&limit=" + limit,
+                    () -> transactions.read(() -> new Versioned<>(repository.getVersion(), repository.get(afterId, limit))));
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Загрузить университет с кафедрами двумя запросами на одном снимке данных.
+     */
+    private UniversityFull load(int id) throws SQLException {
+        return transactions.read(() -> repository.getById(id));
+    }
+
+    private void checkVersionConflict(int id, ExpectedVersions expectedVersions) throws SQLException {
+        if (expectedVersions != null && (expectedVersions.isAny() || repository.getVersion(id) != null)) {
+            throw new VersionConflictException("University has been changed by another request");
+        }
+    }
+
     private static void validate(University university) {
         if (university.getName() == null) {
             throw new ValidationException("Name of university cannot be null");
@@ -71,5 +245,16 @@ public class UniversityService {
         }
     }
 
+    private static void validate(UniversityPatch patch) {
+        if (patch.getName() != null && patch.getName().isEmpty()) {
+            throw new ValidationException("Name of university cannot be null");
+        }
+        if (patch.getCity() != null && patch.getCity().isEmpty()) {
+            throw new ValidationException("City of university cannot be null");
+        }
+    }
+
     private final UniversityRepository repository;
+    private final EntityCache cache;
+    private final TransactionManager transactions;
 }
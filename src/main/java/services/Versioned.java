@@ -0,0 +1,24 @@
+package services;
+
+/**
+ * Результат запроса вместе с версией, прочитанной на том же снимке данных, что и сам результат.
+ * Версия в том же виде, что и ETag.
+ */
+public class Versioned<T> {
+
+    public Versioned(String version, T value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    private final String version;
+    private final T value;
+}
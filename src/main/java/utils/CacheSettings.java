@@ -0,0 +1,28 @@
+package utils;
+
+@SuppressWarnings({"java:S1104", "java:S1444", "java:S3008"}) // Поля намеренно делаем публичными
+public class CacheSettings {
+    // Память под кэш сущностей всех видов, по оценке размера закэшированных объектов
+    public static long ENTITY_CACHE_MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+    // Память вне кучи под второй уровень кэша сущностей, 0 - без второго уровня
+    public static long OFF_HEAP_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    // Время жизни записи после загрузки из базы данных
+    public static long ENTITY_CACHE_TTL_SECONDS = 300;
+    // Сколько самых запрашиваемых сущностей каждого вида закреплять в кэше
+    public static int HOT_KEYS = 32;
+    // Суммарный объём тел ответов в кэше сериализованных ответов
+    public static long RESPONSE_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+
+    // Файл снимка кэша сущностей для прогрева после перезапуска, пустая строка - без снимка
+    public static String SNAPSHOT_FILE = System.getProperty("java.io.tmpdir") + "/entity-cache.snapshot";
+    // Период записи снимка
+    public static long SNAPSHOT_INTERVAL_SECONDS = 60;
+    // Сколько самых востребованных сущностей каждого вида сохранять в снимке
+    public static int SNAPSHOT_MAX_ENTRIES = 10_000;
+
+    // Доля пула старого поколения, занятая после сборки мусора, при которой кэши начинают уменьшаться
+    public static double MEMORY_PRESSURE_THRESHOLD = 0.8;
+
+    private CacheSettings() {
+    }
+}
@@ -1,11 +1,45 @@
 package utils;
 
+import database.RoutingDataSource;
+
 @SuppressWarnings({"java:S1104", "java:S1444", "java:S3008"}) // Поля намеренно делаем публичными
 public class DatabaseSettings {
     public static String URL = "jdbc:postgresql://localhost:5432/myDB";
     public static String USERNAME = "postgres";
     public static String PASSWORD = "q";
 
+    // Адреса реплик через запятую; пустая строка - всё читается с основного сервера
+    public static String REPLICA_URLS = "";
+    // Выбор реплики для чтения: по кругу или по наименьшему числу занятых соединений
+    public static RoutingDataSource.Balancing REPLICA_BALANCING = RoutingDataSource.Balancing.LEAST_LOADED;
+    // Реплика, отставшая от основного сервера больше чем на столько байт WAL, не используется
+    public static long REPLICA_MAX_LAG_BYTES = 16L << 20;
+    // Как часто проверяется отставание реплик. После записи клиента его чтение идёт на основной сервер
+    // до проверки, которая покажет, что реплика применила запись
+    public static long REPLICA_CHECK_INTERVAL_MS = 200;
+    public static long REPLICA_CONNECTION_TIMEOUT_MS = 1_000;
+
+    // Настройки пула соединений
+    public static int POOL_MIN_IDLE = 2;
+    public static int POOL_MAX_SIZE = 10;
+    public static long POOL_IDLE_TIMEOUT_MS = 600_000;
+    public static long POOL_MAX_LIFETIME_MS = 1_800_000;
+    public static long POOL_CONNECTION_TIMEOUT_MS = 30_000;
+    public static long POOL_VALIDATION_TIMEOUT_MS = 5_000;
+
+    // Настройки драйвера PostgreSQL.
+    // После скольких выполнений на соединении запрос становится именованным серверным:
+    // сервер перестаёт разбирать его заново и может переиспользовать план
+    public static int PREPARE_THRESHOLD = 1;
+    // Сколько подготовленных запросов и сколько памяти под них драйвер держит на каждом соединении
+    public static int PREPARED_STATEMENT_CACHE_QUERIES = 256;
+    public static int PREPARED_STATEMENT_CACHE_SIZE_MIB = 5;
+    // Типы столбцов, которые сервер передаёт в двоичном виде, без разбора текста на клиенте
+    public static String BINARY_TRANSFER_TYPES = "INT4,INT8,DATE";
+
+    // Количество строк, которое драйвер читает за один раз при потоковой выборке
+    public static int STREAM_FETCH_SIZE = 500;
+
     private DatabaseSettings() {
     }
 }
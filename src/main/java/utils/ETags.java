@@ -0,0 +1,133 @@
+package utils;
+
+import exceptions.VersionConflictException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.Arrays;
+
+/**
+ * Строгие ETag ресурсов, построенные из версий строк базы данных.
+ * Версия ресурса - числа через дефис, например "12-40-3": первой идёт версия самой строки,
+ * за ней версии связанных строк, которые попадают в представление ресурса.
+ */
+public class ETags {
+    public static final String ETAG_HEADER = "ETag";
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    public static final String IF_MATCH_HEADER = "If-Match";
+
+    public static String fromVersion(String version) {
+        return '"' + version + '"';
+    }
+
+    /**
+     * Выставить ETag ответа по версии ресурса и ответить 304 Not Modified,
+     * если клиент прислал в If-None-Match тот же ETag.
+     *
+     * @param version версия ресурса или null, если версия неизвестна (тогда ETag не выставляется)
+     * @return true, если ответ 304 уже сформирован и тело отдавать не нужно
+     */
+    public static boolean notModified(HttpServletRequest req, HttpServletResponse resp, String version) {
+        String etag;
+
+        if (version == null) {
+            return false;
+        }
+        etag = fromVersion(version);
+        resp.setHeader(ETAG_HEADER, etag);
+        if (matches(req.getHeader(IF_NONE_MATCH_HEADER), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Выставить ETag по версии, из которой собрано тело ответа, если она отличается от версии,
+     * уже выставленной {@link #notModified}. Версия ресурса и тело читаются разными запросами,
+     * и между ними данные могут измениться, а тело может прийти из кэша сущностей.
+     *
+     * @return версия тела ответа
+     */
+    public static String correct(HttpServletResponse resp, String version, String bodyVersion) {
+        if (!bodyVersion.equals(version)) {
+            resp.setHeader(ETAG_HEADER, fromVersion(bodyVersion));
+        }
+        return bodyVersion;
+    }
+
+    /**
+     * Проверить, совпадает ли ETag с одним из перечисленных в заголовке If-None-Match.
+     * Для If-None-Match используется слабое сравнение, поэтому префикс W/ не учитывается.
+     */
+    public static boolean matches(String header, String etag) {
+        if (header == null || etag == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            String tag;
+
+            tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Получить из заголовка If-Match версии строки, которые клиент ожидает изменить.
+     * Версия - первое число ETag ресурса: изменения связанных строк не мешают изменять саму строку.
+     * Заголовок - список ETag через запятую (RFC 9110, раздел 13.1.1), условие выполнено, если совпал любой.
+     * Слабые и чужие ETag при строгом сравнении не совпадают ни с чем и пропускаются.
+     *
+     * @return null, если условия нет, или {@link ExpectedVersions#any()} для *
+     * @throws VersionConflictException если в списке нет ни одного ETag, который мог бы совпасть:
+     *                                  условие заведомо ложно
+     */
+    public static ExpectedVersions parseIfMatch(String header) {
+        long[] versions;
+        int count;
+
+        if (header == null) {
+            return null;
+        }
+        versions = new long[0];
+        count = 0;
+        for (String candidate : header.split(",")) {
+            String tag;
+            int end;
+
+            tag = candidate.trim();
+            if (tag.equals("*")) {
+                return ExpectedVersions.any();
+            }
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+                continue;
+            }
+            end = tag.indexOf('-');
+            if (end < 0) {
+                end = tag.length() - 1;
+            }
+            if (count == versions.length) {
+                versions = Arrays.copyOf(versions, count * 2 + 1);
+            }
+            try {
+                versions[count] = Long.parseLong(tag.substring(1, end));
+                count++;
+            } catch (NumberFormatException e) {
+                // Не выдан этим сервером
+            }
+        }
+        if (count == 0) {
+            throw new VersionConflictException("Resource version does not match");
+        }
+        return ExpectedVersions.of(Arrays.copyOf(versions, count));
+    }
+
+    private ETags() {
+    }
+}
@@ -0,0 +1,62 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Условие If-Match на версию строки: строку можно изменить или удалить, если её версия
+ * равна одной из перечисленных, а для If-Match: * - если строка вообще есть.
+ * Отсутствие условия передаётся как null.
+ */
+public final class ExpectedVersions {
+
+    public static ExpectedVersions any() {
+        return ANY;
+    }
+
+    public static ExpectedVersions of(long... versions) {
+        return new ExpectedVersions(versions.clone());
+    }
+
+    private ExpectedVersions(long[] versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * @return true, если подходит любая версия существующей строки
+     */
+    public boolean isAny() {
+        return versions == null;
+    }
+
+    /**
+     * @return допустимые версии или null, если подходит любая
+     */
+    public long[] getVersions() {
+        return versions == null ? null : versions.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Arrays.equals(versions, ((ExpectedVersions) o).versions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(versions);
+    }
+
+    @Override
+    public String toString() {
+        return versions == null ? "*" : Arrays.toString(versions);
+    }
+
+    private static final ExpectedVersions ANY = new ExpectedVersions(null);
+
+    private final long[] versions;
+}
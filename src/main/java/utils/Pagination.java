@@ -0,0 +1,70 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Параметры постраничной выдачи списков (?limit=&after=).
+ * Токен страницы кодирует id последнего элемента предыдущей страницы,
+ * клиент не должен полагаться на его формат.
+ */
+public class Pagination {
+    public static final String LIMIT_PARAMETER = "limit";
+    public static final String AFTER_PARAMETER = "after";
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 1000;
+
+    /**
+     * Разобрать размер страницы.
+     *
+     * @throws IllegalArgumentException если значение не число или выходит за пределы [1, MAX_LIMIT]
+     */
+    public static int parseLimit(String value) {
+        int limit;
+
+        if (value == null) {
+            limit = DEFAULT_LIMIT;
+        } else {
+            limit = Integer.parseInt(value);
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+            }
+        }
+        return limit;
+    }
+
+    public static String encodeToken(int lastId) {
+        return ENCODER.encodeToString((TOKEN_PREFIX + lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Получить id последнего элемента предыдущей страницы из токена.
+     * Отсутствующий токен означает первую страницу.
+     *
+     * @throws IllegalArgumentException если токен повреждён
+     */
+    public static int decodeToken(String token) {
+        String decoded;
+        int lastId;
+
+        if (token == null) {
+            return 0;
+        }
+        decoded = new String(DECODER.decode(token), StandardCharsets.US_ASCII);
+        if (!decoded.startsWith(TOKEN_PREFIX)) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        lastId = Integer.parseInt(decoded.substring(TOKEN_PREFIX.length()));
+        if (lastId < 0) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+        return lastId;
+    }
+
+    private Pagination() {
+    }
+
+    private static final String TOKEN_PREFIX = "id:";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+}
@@ -1,20 +1,54 @@
 package utils;
 
-import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import net.dongliu.gson.GsonJava8TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import dto.*;
+import json.CacheStatsAdapter;
+import json.DepartmentAdapters;
+import json.HotKeyAdapter;
+import json.IdFilterStatsAdapter;
+import json.PageAdapterFactory;
+import json.ProfessorAdapters;
+import json.UniversityAdapters;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
 
 public class ParseUtils {
 
+    /**
+     * Создать JSON-парсер. Для всех DTO зарегистрированы потоковые адаптеры без рефлексии,
+     * Gson кэширует их при первом обращении. Парсер потокобезопасен, поэтому создаётся
+     * один раз на приложение.
+     */
     public static Gson createParser() {
         return new GsonBuilder()
-                .setDateFormat("yyyy-MM-dd")
-                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-                .registerTypeAdapterFactory(new GsonJava8TypeAdapterFactory())
+                .registerTypeAdapter(UniversityDto.class, new UniversityAdapters.Dto())
+                .registerTypeAdapter(UniversityFullDto.class, new UniversityAdapters.FullDto())
+                .registerTypeAdapter(UniversityCreationDto.class, new UniversityAdapters.CreationDto())
+                .registerTypeAdapter(UniversityUpdateDto.class, new UniversityAdapters.UpdateDto())
+                .registerTypeAdapter(DepartmentDto.class, new DepartmentAdapters.Dto())
+                .registerTypeAdapter(DepartmentFullDto.class, new DepartmentAdapters.FullDto())
+                .registerTypeAdapter(DepartmentCreationDto.class, new DepartmentAdapters.CreationDto())
+                .registerTypeAdapter(DepartmentUpdateDto.class, new DepartmentAdapters.UpdateDto())
+                .registerTypeAdapter(ProfessorDto.class, new ProfessorAdapters.Dto())
+                .registerTypeAdapter(ProfessorCreationDto.class, new ProfessorAdapters.CreationDto())
+                .registerTypeAdapter(ProfessorUpdateDto.class, new ProfessorAdapters.UpdateDto())
+                .registerTypeAdapter(CacheStatsDto.class, new CacheStatsAdapter())
+                .registerTypeAdapter(IdFilterStatsDto.class, new IdFilterStatsAdapter())
+                .registerTypeAdapter(HotKeyDto.class, new HotKeyAdapter())
+                .registerTypeAdapterFactory(new PageAdapterFactory())
                 .create();
     }
 
+    public static final Type UNIVERSITY_PAGE = TypeToken.getParameterized(PageDto.class, UniversityDto.class).getType();
+    public static final Type DEPARTMENT_PAGE = TypeToken.getParameterized(PageDto.class, DepartmentDto.class).getType();
+    public static final Type PROFESSOR_PAGE = TypeToken.getParameterized(PageDto.class, ProfessorDto.class).getType();
+    public static final Type CACHE_STATS_LIST = TypeToken.getParameterized(Collection.class, CacheStatsDto.class).getType();
+    public static final Type ID_FILTER_STATS_LIST = TypeToken.getParameterized(Collection.class, IdFilterStatsDto.class).getType();
+    public static final Type HOT_KEY_LIST = TypeToken.getParameterized(Collection.class, HotKeyDto.class).getType();
+
     private ParseUtils() {
 
     }
@@ -0,0 +1,21 @@
+package utils;
+
+@SuppressWarnings({"java:S1104", "java:S1444", "java:S3008"}) // Поля намеренно делаем публичными
+public class WarmupSettings {
+    // Адрес, на который узел отправляет синтетические запросы самому себе, без пути контекста
+    public static String BASE_URL = "http://localhost:8080";
+    // Сколько ждать, пока контейнер начнёт принимать соединения, прежде чем отказаться от синтетических запросов
+    public static long SERVER_START_TIMEOUT_MS = 30000;
+    // Сколько университетов и кафедр загрузить в кэш при запуске, если снимка кэша нет
+    public static int PRELOAD_ENTITIES = 100;
+    // Сколько синтетических запросов к контроллерам выполнить для прогрева JIT
+    public static int SYNTHETIC_REQUESTS = 2000;
+    // Размер страницы в синтетических запросах списков
+    public static int PAGE_LIMIT = 20;
+    // Таймауты синтетического запроса
+    public static int CONNECT_TIMEOUT_MS = 1000;
+    public static int READ_TIMEOUT_MS = 5000;
+
+    private WarmupSettings() {
+    }
+}
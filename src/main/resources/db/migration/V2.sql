@@ -0,0 +1,7 @@
+-- Индексы по внешним ключам кафедр и профессоров
+-- Без них выборка дочерних записей в getById и каскадное удаление родителя читают всю дочернюю таблицу.
+CREATE INDEX IF NOT EXISTS departments_university_id_idx
+    ON public.departments USING btree (university_id);
+
+CREATE INDEX IF NOT EXISTS professors_department_id_idx
+    ON public.professors USING btree (department_id);
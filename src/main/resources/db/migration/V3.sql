@@ -0,0 +1,43 @@
+-- Версии строк для ETag и условных запросов
+-- Версия берётся из общей возрастающей последовательности: при вставке по умолчанию,
+-- при изменении строки - триггером. Поэтому версии разных таблиц сравнимы между собой,
+-- а максимальная версия набора строк растёт при любой вставке или изменении.
+CREATE SEQUENCE IF NOT EXISTS public.entity_version_seq;
+
+-- Столбец добавляется с постоянным значением по умолчанию: PostgreSQL запоминает его в каталоге и не
+-- переписывает таблицу под эксклюзивной блокировкой, как сделал бы с nextval(). Уже существующие строки
+-- получают версию 0, а новые и изменённые - из последовательности, поэтому версия строки всё равно
+-- меняется при каждом её изменении.
+ALTER TABLE public.universities
+    ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE public.universities
+    ALTER COLUMN version SET DEFAULT nextval('public.entity_version_seq');
+ALTER TABLE public.departments
+    ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE public.departments
+    ALTER COLUMN version SET DEFAULT nextval('public.entity_version_seq');
+ALTER TABLE public.professors
+    ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE public.professors
+    ALTER COLUMN version SET DEFAULT nextval('public.entity_version_seq');
+
+CREATE OR REPLACE FUNCTION public.next_entity_version() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    NEW.version := nextval('public.entity_version_seq');
+    RETURN NEW;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS universities_version ON public.universities;
+CREATE TRIGGER universities_version BEFORE UPDATE ON public.universities
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
+
+DROP TRIGGER IF EXISTS departments_version ON public.departments;
+CREATE TRIGGER departments_version BEFORE UPDATE ON public.departments
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
+
+DROP TRIGGER IF EXISTS professors_version ON public.professors;
+CREATE TRIGGER professors_version BEFORE UPDATE ON public.professors
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
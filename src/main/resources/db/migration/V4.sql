@@ -0,0 +1,12 @@
+-- Версия строки меняется только при фактическом изменении значений
+-- Запрос UPDATE без изменений (например, пустой PATCH с If-Match) проверяет версию, не меняя её.
+CREATE OR REPLACE FUNCTION public.next_entity_version() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    IF ROW(NEW.*) IS DISTINCT FROM ROW(OLD.*) THEN
+        NEW.version := nextval('public.entity_version_seq');
+    END IF;
+    RETURN NEW;
+END;
+$$;
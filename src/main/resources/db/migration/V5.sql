@@ -0,0 +1,66 @@
+-- Уведомления об изменении строк для сброса кэшей на всех узлах
+-- Каждое изменение строки отправляет в канал entity_changes сообщение "таблица:id:id_родителя".
+-- PostgreSQL доставляет уведомления слушателям только после фиксации транзакции,
+-- а одинаковые сообщения в пределах одной транзакции объединяет.
+-- Для TRUNCATE отправляется "таблица:*", по нему кэш сбрасывается целиком.
+CREATE OR REPLACE FUNCTION public.notify_entity_change() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    entity record;
+    parent_id integer;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        entity := OLD;
+    ELSE
+        entity := NEW;
+    END IF;
+    CASE TG_TABLE_NAME
+        WHEN 'departments' THEN parent_id := entity.university_id;
+        WHEN 'professors' THEN parent_id := entity.department_id;
+        ELSE parent_id := NULL;
+    END CASE;
+    PERFORM pg_notify('entity_changes', concat_ws(':', TG_TABLE_NAME, entity.id, parent_id));
+    RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION public.notify_table_truncate() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    PERFORM pg_notify('entity_changes', TG_TABLE_NAME || ':*');
+    RETURN NULL;
+END;
+$$;
+
+-- UPDATE без фактических изменений версию не меняет (V4), уведомление по нему не нужно
+DROP TRIGGER IF EXISTS universities_notify ON public.universities;
+CREATE TRIGGER universities_notify AFTER INSERT OR DELETE ON public.universities
+    FOR EACH ROW EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS universities_notify_update ON public.universities;
+CREATE TRIGGER universities_notify_update AFTER UPDATE ON public.universities
+    FOR EACH ROW WHEN (OLD.version IS DISTINCT FROM NEW.version) EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS universities_notify_truncate ON public.universities;
+CREATE TRIGGER universities_notify_truncate AFTER TRUNCATE ON public.universities
+    FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_truncate();
+
+DROP TRIGGER IF EXISTS departments_notify ON public.departments;
+CREATE TRIGGER departments_notify AFTER INSERT OR DELETE ON public.departments
+    FOR EACH ROW EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS departments_notify_update ON public.departments;
+CREATE TRIGGER departments_notify_update AFTER UPDATE ON public.departments
+    FOR EACH ROW WHEN (OLD.version IS DISTINCT FROM NEW.version) EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS departments_notify_truncate ON public.departments;
+CREATE TRIGGER departments_notify_truncate AFTER TRUNCATE ON public.departments
+    FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_truncate();
+
+DROP TRIGGER IF EXISTS professors_notify ON public.professors;
+CREATE TRIGGER professors_notify AFTER INSERT OR DELETE ON public.professors
+    FOR EACH ROW EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS professors_notify_update ON public.professors;
+CREATE TRIGGER professors_notify_update AFTER UPDATE ON public.professors
+    FOR EACH ROW WHEN (OLD.version IS DISTINCT FROM NEW.version) EXECUTE FUNCTION public.notify_entity_change();
+DROP TRIGGER IF EXISTS professors_notify_truncate ON public.professors;
+CREATE TRIGGER professors_notify_truncate AFTER TRUNCATE ON public.professors
+    FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_truncate();
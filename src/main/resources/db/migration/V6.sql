@@ -0,0 +1,87 @@
+-- Версия списка без общей строки на таблицу
+-- Раньше версию списка хранила одна строка table_versions на таблицу. Её обновлял каждый изменяющий
+-- запрос, и блокировка строки держалась до фиксации, поэтому все писатели таблицы шли друг за другом.
+-- Теперь версия списка - наибольшая версия среди строк таблицы и отметок об удалении из неё:
+-- вставка и изменение строки дают ей новую версию, удаление оставляет отметку с новой версией.
+DROP TRIGGER IF EXISTS universities_table_version ON public.universities;
+DROP TRIGGER IF EXISTS departments_table_version ON public.departments;
+DROP TRIGGER IF EXISTS professors_table_version ON public.professors;
+DROP FUNCTION IF EXISTS public.next_table_version();
+DROP TABLE IF EXISTS public.table_versions;
+
+-- Наибольшая версия читается с конца индекса, без просмотра таблицы
+CREATE INDEX IF NOT EXISTS universities_version_idx ON public.universities (version);
+CREATE INDEX IF NOT EXISTS departments_version_idx ON public.departments (version);
+CREATE INDEX IF NOT EXISTS professors_version_idx ON public.professors (version);
+
+CREATE TABLE IF NOT EXISTS public.entity_deletions
+(
+    table_name character varying COLLATE pg_catalog."default" NOT NULL,
+    version bigint NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS entity_deletions_table_version_idx ON public.entity_deletions (table_name, version);
+
+-- Версия выдаётся после того, как транзакция получила номер. Тогда транзакция, уже взявшая версию,
+-- видна в снимке как незавершённая, и запрос версии списка учитывает её (см. Repository.listVersionQuery).
+-- Версию вставляемой строки тоже задаёт триггер, а не значение по умолчанию.
+CREATE OR REPLACE FUNCTION public.next_entity_version() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' OR ROW(NEW.*) IS DISTINCT FROM ROW(OLD.*) THEN
+        PERFORM pg_current_xact_id();
+        NEW.version := nextval('public.entity_version_seq');
+    END IF;
+    RETURN NEW;
+END;
+$$;
+
+ALTER TABLE public.universities ALTER COLUMN version DROP DEFAULT;
+ALTER TABLE public.departments ALTER COLUMN version DROP DEFAULT;
+ALTER TABLE public.professors ALTER COLUMN version DROP DEFAULT;
+
+DROP TRIGGER IF EXISTS universities_version ON public.universities;
+CREATE TRIGGER universities_version BEFORE INSERT OR UPDATE ON public.universities
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
+
+DROP TRIGGER IF EXISTS departments_version ON public.departments;
+CREATE TRIGGER departments_version BEFORE INSERT OR UPDATE ON public.departments
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
+
+DROP TRIGGER IF EXISTS professors_version ON public.professors;
+CREATE TRIGGER professors_version BEFORE INSERT OR UPDATE ON public.professors
+    FOR EACH ROW EXECUTE FUNCTION public.next_entity_version();
+
+-- Для версии списка нужна только последняя отметка таблицы, поэтому более старые удаляются.
+-- Отметки, заблокированные другими транзакциями, пропускаются: удаления не ждут друг друга.
+CREATE OR REPLACE FUNCTION public.record_deletion() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    deletion_version bigint;
+BEGIN
+    PERFORM pg_current_xact_id();
+    deletion_version := nextval('public.entity_version_seq');
+    INSERT INTO public.entity_deletions (table_name, version) VALUES (TG_TABLE_NAME, deletion_version);
+    DELETE FROM public.entity_deletions
+    WHERE ctid IN (SELECT ctid
+                   FROM public.entity_deletions
+                   WHERE table_name = TG_TABLE_NAME
+                     AND version < deletion_version
+                   FOR UPDATE SKIP LOCKED);
+    RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS universities_deletion ON public.universities;
+CREATE TRIGGER universities_deletion AFTER DELETE OR TRUNCATE ON public.universities
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_deletion();
+
+DROP TRIGGER IF EXISTS departments_deletion ON public.departments;
+CREATE TRIGGER departments_deletion AFTER DELETE OR TRUNCATE ON public.departments
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_deletion();
+
+DROP TRIGGER IF EXISTS professors_deletion ON public.professors;
+CREATE TRIGGER professors_deletion AFTER DELETE OR TRUNCATE ON public.professors
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_deletion();
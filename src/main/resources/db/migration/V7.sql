@@ -0,0 +1,76 @@
+-- Счётчики изменений таблиц для версии списка
+-- Наибольшая версия не меняется, если транзакция с меньшей версией фиксируется позже той, что взяла большую.
+-- Раньше это покрывала граница снимка всего кластера, и версию списка меняла любая незавершённая запись
+-- в любую таблицу. Теперь каждый изменяющий запрос добавляет таблице строку с единицей. Сумма строк таблицы
+-- растёт с каждой фиксацией, в каком бы порядке транзакции ни брали версии, и не зависит от других таблиц.
+CREATE TABLE IF NOT EXISTS public.table_changes
+(
+    table_name character varying COLLATE pg_catalog."default" NOT NULL,
+    changes bigint NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS table_changes_table_name_idx ON public.table_changes (table_name);
+
+-- Чтобы строк не становилось больше, чем одновременных писателей, запрос сворачивает видимые ему строки
+-- таблицы в свою. Строки, заблокированные другими транзакциями, пропускаются, как и при записи отметок
+-- об удалении: писатели не ждут друг друга, а сумма при свёртке не меняется.
+CREATE OR REPLACE FUNCTION public.record_change() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    folded bigint;
+BEGIN
+    WITH folded_rows AS (
+        DELETE FROM public.table_changes
+        WHERE ctid IN (SELECT ctid
+                       FROM public.table_changes
+                       WHERE table_name = TG_TABLE_NAME
+                       FOR UPDATE SKIP LOCKED)
+        RETURNING changes)
+    SELECT coalesce(sum(changes), 0) INTO folded FROM folded_rows;
+    INSERT INTO public.table_changes (table_name, changes) VALUES (TG_TABLE_NAME, folded + 1);
+    RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS universities_changes ON public.universities;
+CREATE TRIGGER universities_changes AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.universities
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_change();
+
+DROP TRIGGER IF EXISTS departments_changes ON public.departments;
+CREATE TRIGGER departments_changes AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.departments
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_change();
+
+DROP TRIGGER IF EXISTS professors_changes ON public.professors;
+CREATE TRIGGER professors_changes AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.professors
+    FOR EACH STATEMENT EXECUTE FUNCTION public.record_change();
+
+-- Номер транзакции нужен был только для границы снимка
+CREATE OR REPLACE FUNCTION public.next_entity_version() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' OR ROW(NEW.*) IS DISTINCT FROM ROW(OLD.*) THEN
+        NEW.version := nextval('public.entity_version_seq');
+    END IF;
+    RETURN NEW;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION public.record_deletion() RETURNS trigger
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    deletion_version bigint;
+BEGIN
+    deletion_version := nextval('public.entity_version_seq');
+    INSERT INTO public.entity_deletions (table_name, version) VALUES (TG_TABLE_NAME, deletion_version);
+    DELETE FROM public.entity_deletions
+    WHERE ctid IN (SELECT ctid
+                   FROM public.entity_deletions
+                   WHERE table_name = TG_TABLE_NAME
+                     AND version < deletion_version
+                   FOR UPDATE SKIP LOCKED);
+    RETURN NULL;
+END;
+$$;
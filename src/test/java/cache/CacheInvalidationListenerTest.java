@@ -0,0 +1,99 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.University;
+import entities.UniversityFull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+
+class CacheInvalidationListenerTest {
+    @BeforeEach
+    void setUp() throws SQLException {
+        University universityRef;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        universityRef = new University();
+        universityRef.setId(1);
+        university = new UniversityFull();
+        university.setId(1);
+        university.setDepartments(new ArrayList<>());
+        department = new DepartmentFull();
+        department.setId(2);
+        department.setUniversity(universityRef);
+        department.setProfessors(Collections.emptyList());
+        otherUniversity = new UniversityFull();
+        otherUniversity.setId(5);
+        otherUniversity.setDepartments(Collections.singletonList(new Department()));
+        cache.getUniversity(1, id -> university);
+        cache.getUniversity(5, id -> otherUniversity);
+        cache.getDepartment(2, id -> department);
+    }
+
+    @Test
+    void testUniversityChange() throws SQLException {
+        CacheInvalidationListener.apply(cache, "universities:1");
+        Assertions.assertFalse(isCached(1));
+        Assertions.assertFalse(isDepartmentCached(2));
+        Assertions.assertTrue(isCached(5));
+    }
+
+    @Test
+    void testDepartmentChange() throws SQLException {
+        CacheInvalidationListener.apply(cache, "departments:3:5");
+        Assertions.assertTrue(isCached(1));
+        Assertions.assertTrue(isDepartmentCached(2));
+        Assertions.assertFalse(isCached(5));
+    }
+
+    @Test
+    void testProfessorChange() throws SQLException {
+        CacheInvalidationListener.apply(cache, "professors:7:2");
+        Assertions.assertTrue(isCached(1));
+        Assertions.assertFalse(isDepartmentCached(2));
+    }
+
+    @Test
+    void testIdFilterUpdated() {
+        BitSet existing;
+
+        existing = new BitSet();
+        existing.set(10);
+        cache.getProfessorIds().rebuild(existing);
+        Assertions.assertFalse(cache.getProfessorIds().mightContain(9));
+        CacheInvalidationListener.apply(cache, "professors:9:2");
+        Assertions.assertTrue(cache.getProfessorIds().mightContain(9));
+    }
+
+    @Test
+    void testTruncateAndUnknown() throws SQLException {
+        String[] payloads;
+
+        payloads = new String[] {"universities:*", "students:1", "departments", "professors:x:1", "professors:1:x"};
+        for (String payload : payloads) {
+            cache.getUniversity(1, id -> university);
+            CacheInvalidationListener.apply(cache, payload);
+            Assertions.assertFalse(isCached(1), payload);
+        }
+    }
+
+    private boolean isCached(int id) throws SQLException {
+        return cache.getUniversity(id, key -> null) != null;
+    }
+
+    private boolean isDepartmentCached(int id) throws SQLException {
+        return cache.getDepartment(id, key -> null) != null;
+    }
+
+    EntityCache cache;
+    UniversityFull university;
+    UniversityFull otherUniversity;
+    DepartmentFull department;
+}
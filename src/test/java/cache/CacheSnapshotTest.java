@@ -0,0 +1,155 @@
+package cache;
+
+import entities.DepartmentFull;
+import entities.University;
+import entities.UniversityFull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+class CacheSnapshotTest {
+    @BeforeEach
+    void setUp() {
+        listener = Mockito.mock(CacheInvalidationListener.class);
+        Mockito.doReturn(true).when(listener).isListening();
+        universityVersions = new HashMap<>();
+        departmentVersions = new HashMap<>();
+        universityVersions.put(1, "10-0-0");
+        departmentVersions.put(2, "11-10-0-0");
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        EntityCache cache, restored;
+        UniversityFull university;
+
+        cache = warmCache();
+        Assertions.assertTrue(snapshot(cache).save());
+
+        restored = newCache();
+        Assertions.assertEquals(2, snapshot(restored).restore());
+        university = restored.getUniversity(1, CacheSnapshotTest::fail);
+        Assertions.assertEquals("PSTU", university.getName());
+        Assertions.assertEquals("ITAS", restored.getDepartment(2, CacheSnapshotTest::fail).getName());
+        Assertions.assertEquals("PSTU", restored.getDepartment(2, CacheSnapshotTest::fail).getUniversity().getName());
+    }
+
+    @Test
+    void testStaleEntriesSkipped() throws Exception {
+        EntityCache restored;
+
+        Assertions.assertTrue(snapshot(warmCache()).save());
+        universityVersions.put(1, "12-0-0");
+        departmentVersions.remove(2);
+
+        restored = newCache();
+        Assertions.assertEquals(0, snapshot(restored).restore());
+        Assertions.assertEquals("Fresh", restored.getUniversity(1, id -> university("Fresh")).getName());
+    }
+
+    @Test
+    void testOutdatedEntriesNotSaved() throws Exception {
+        // Университет изменён после загрузки в кэш, а уведомление ещё не пришло
+        universityVersions.put(1, "12-0-0");
+        Assertions.assertTrue(snapshot(warmCache()).save());
+        Assertions.assertEquals(1, snapshot(newCache()).restore());
+    }
+
+    @Test
+    void testSaveDiscardedOnEviction() throws Exception {
+        EntityCache cache;
+        CacheSnapshot snapshot;
+
+        cache = warmCache();
+        snapshot = new CacheSnapshot(cache, listener, file(), 100, ids -> {
+            // Уведомление об изменении, пришедшее во время записи снимка
+            cache.evictUniversity(1);
+            return universityVersions;
+        }, ids -> departmentVersions, ids -> new HashMap<>());
+        Assertions.assertFalse(snapshot.save());
+        Assertions.assertFalse(Files.exists(file()));
+    }
+
+    @Test
+    void testCorruptSnapshotIgnored() throws Exception {
+        byte[] bytes;
+
+        Assertions.assertTrue(snapshot(warmCache()).save());
+        bytes = Files.readAllBytes(file());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file(), bytes);
+        Assertions.assertEquals(0, snapshot(newCache()).restore());
+    }
+
+    @Test
+    void testNotListening() throws Exception {
+        EntityCache cache;
+
+        cache = warmCache();
+        Mockito.doReturn(false).when(listener).isListening();
+        Assertions.assertFalse(snapshot(cache).save());
+        Assertions.assertEquals(0, snapshot(newCache()).restore());
+    }
+
+    private EntityCache warmCache() throws SQLException {
+        EntityCache cache;
+        DepartmentFull department;
+        University university;
+
+        cache = newCache();
+        cache.getUniversity(1, id -> university("PSTU"));
+        university = new University();
+        university.setId(1);
+        university.setName("PSTU");
+        department = new DepartmentFull();
+        department.setId(2);
+        department.setName("ITAS");
+        department.setUniversity(university);
+        department.setVersion("11-10-0-0");
+        cache.getDepartment(2, id -> department);
+        return cache;
+    }
+
+    private CacheSnapshot snapshot(EntityCache cache) {
+        return new CacheSnapshot(cache, listener, file(), 100,
+                ids -> universityVersions, ids -> departmentVersions, ids -> new HashMap<>());
+    }
+
+    private Path file() {
+        return directory.resolve("entity-cache.snapshot");
+    }
+
+    private static EntityCache newCache() {
+        return new EntityCache(3L << 20, Duration.ofMinutes(5));
+    }
+
+    private static UniversityFull university(String name) {
+        UniversityFull university;
+
+        university = new UniversityFull();
+        university.setId(1);
+        university.setName(name);
+        university.setCity("Perm");
+        university.setVersion("10-0-0");
+        return university;
+    }
+
+    private static <T> T fail(int id) {
+        return Assertions.fail("Entity " + id + " should be restored from the snapshot");
+    }
+
+    @TempDir
+    Path directory;
+    private CacheInvalidationListener listener;
+    private Map<Integer, String> universityVersions;
+    private Map<Integer, String> departmentVersions;
+}
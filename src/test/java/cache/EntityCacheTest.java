@@ -0,0 +1,274 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.University;
+import entities.UniversityFull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class EntityCacheTest {
+    @BeforeEach
+    void setUp() throws SQLException {
+        University universityRef;
+        Department departmentRef;
+        Professor professorInList;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        loads = new AtomicInteger();
+
+        universityRef = new University();
+        universityRef.setId(1);
+        departmentRef = new Department();
+        departmentRef.setId(2);
+        departmentRef.setUniversity(universityRef);
+
+        university = new UniversityFull();
+        university.setId(1);
+        university.setDepartments(Collections.singletonList(departmentRef));
+        professor = new Professor();
+        professor.setId(3);
+        professor.setDepartment(departmentRef);
+        professorInList = new Professor();
+        professorInList.setId(3);
+        professorInList.setDepartment(departmentRef);
+        department = new DepartmentFull();
+        department.setId(2);
+        department.setUniversity(universityRef);
+        department.setProfessors(Collections.singletonList(professorInList));
+
+        cache.getUniversity(1, id -> university);
+        cache.getDepartment(2, id -> department);
+        cache.getProfessor(3, id -> professor);
+    }
+
+    @Test
+    void testHit() throws SQLException {
+        Assertions.assertSame(university, cache.getUniversity(1, this::countLoad));
+        Assertions.assertSame(department, cache.getDepartment(2, this::countLoad));
+        Assertions.assertSame(professor, cache.getProfessor(3, this::countLoad));
+        Assertions.assertEquals(0, loads.get());
+    }
+
+    @Test
+    void testNullNotCached() throws SQLException {
+        Assertions.assertNull(cache.getUniversity(100, this::countLoad));
+        Assertions.assertNull(cache.getUniversity(100, this::countLoad));
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testEvictUniversityCascades() throws SQLException {
+        cache.evictUniversity(1);
+        cache.getUniversity(1, this::countLoad);
+        cache.getDepartment(2, this::countLoad);
+        cache.getProfessor(3, this::countLoad);
+        Assertions.assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testEvictDepartment() throws SQLException {
+        cache.evictDepartment(2);
+        cache.getUniversity(1, this::countLoad);
+        cache.getDepartment(2, this::countLoad);
+        cache.getProfessor(3, this::countLoad);
+        Assertions.assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testEvictProfessor() throws SQLException {
+        cache.evictProfessor(3);
+        Assertions.assertSame(university, cache.getUniversity(1, this::countLoad));
+        cache.getDepartment(2, this::countLoad);
+        cache.getProfessor(3, this::countLoad);
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testEvictIntoNewParent() throws SQLException {
+        UniversityFull otherUniversity;
+        DepartmentFull otherDepartment;
+
+        otherUniversity = new UniversityFull();
+        otherUniversity.setId(10);
+        otherUniversity.setDepartments(new ArrayList<>());
+        otherDepartment = new DepartmentFull();
+        otherDepartment.setId(20);
+        otherDepartment.setUniversity(otherUniversity);
+        otherDepartment.setProfessors(new ArrayList<>());
+        cache.getUniversity(10, id -> otherUniversity);
+        cache.getDepartment(20, id -> otherDepartment);
+
+        cache.evictDepartment(30, 10);
+        cache.evictProfessor(40, 20);
+        cache.getUniversity(10, this::countLoad);
+        cache.getDepartment(20, this::countLoad);
+        Assertions.assertEquals(2, loads.get());
+        Assertions.assertSame(university, cache.getUniversity(1, this::countLoad));
+    }
+
+    @Test
+    void testEvictAfterMove() throws SQLException {
+        University otherUniversity;
+        DepartmentFull moved;
+
+        otherUniversity = new University();
+        otherUniversity.setId(10);
+        moved = new DepartmentFull();
+        moved.setId(2);
+        moved.setUniversity(otherUniversity);
+        moved.setProfessors(new ArrayList<>());
+        cache.evictDepartment(2);
+        cache.getDepartment(2, id -> moved);
+
+        cache.evictUniversity(1);
+        Assertions.assertSame(moved, cache.getDepartment(2, this::countLoad));
+        cache.evictUniversity(10);
+        cache.getDepartment(2, this::countLoad);
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testRelatedAgainAfterEviction() throws SQLException {
+        cache.evictDepartment(2);
+        cache.getProfessor(3, id -> professor);
+        cache.evictUniversity(1);
+        cache.getProfessor(3, this::countLoad);
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testEvictDuringLoad() throws SQLException {
+        cache.evictUniversity(1);
+        Assertions.assertSame(university, cache.getUniversity(1, id -> {
+            cache.evictUniversity(1);
+            return university;
+        }));
+        cache.getUniversity(1, this::countLoad);
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testStatistics() throws SQLException {
+        Collection<CacheStatistics> statistics;
+        CacheStatistics universities;
+
+        cache.getUniversity(1, this::countLoad);
+        cache.getUniversity(1, this::countLoad);
+        statistics = cache.getStatistics();
+        Assertions.assertEquals(6, statistics.size());
+        universities = statistics.iterator().next();
+        Assertions.assertEquals("universities", universities.getName());
+        Assertions.assertEquals(1, universities.getSize());
+        Assertions.assertEquals(2, universities.getHits());
+        Assertions.assertEquals(1, universities.getMisses());
+        Assertions.assertEquals(2.0 / 3, universities.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void testOffHeapTier() throws SQLException {
+        EntityCache small;
+        UniversityFull loaded;
+
+        // Университет не помещается в первый уровень и остаётся только во втором
+        small = new EntityCache(3 * (EntitySizes.of(university) - 1), Duration.ofMinutes(5), 0, 1 << 20);
+        small.getUniversity(1, id -> university);
+        small.getStatistics();
+        loaded = small.getUniversity(1, this::countLoad);
+        Assertions.assertEquals(0, loads.get());
+        Assertions.assertNotSame(university, loaded);
+        Assertions.assertEquals(1, loaded.getId());
+        Assertions.assertEquals(2, loaded.getDepartments().iterator().next().getId());
+        Assertions.assertSame(loaded, loaded.getDepartments().iterator().next().getUniversity());
+
+        small.getDepartment(2, id -> department);
+        small.getProfessor(3, id -> professor);
+        small.clear();
+        small.getDepartment(2, id -> department);
+        small.getProfessor(3, id -> professor);
+        small.evictUniversity(1);
+        small.getUniversity(1, this::countLoad);
+        small.getDepartment(2, this::countLoad);
+        small.getProfessor(3, this::countLoad);
+        Assertions.assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testHotEntityPinned() throws SQLException {
+        EntityCache small;
+
+        // Половина доли университетов - под 10 пустых университетов, вторая половина - под закреплённый
+        small = new EntityCache(6 * 10 * EntitySizes.of(new UniversityFull()), Duration.ofMinutes(5), 1);
+        small.getUniversity(1, id -> university);
+        for (int i = 0; i < 5; i++) {
+            small.getUniversityKeys().record(1);
+        }
+        for (int id = 100; id < 300; id++) {
+            small.getUniversity(id, key -> new UniversityFull());
+            small.getUniversity(id, key -> new UniversityFull());
+        }
+        Assertions.assertTrue(size(small) <= 11);
+        Assertions.assertSame(university, small.getUniversity(1, this::countLoad));
+        Assertions.assertEquals(0, loads.get());
+    }
+
+    private static long size(EntityCache cache) {
+        return cache.getStatistics().iterator().next().getSize();
+    }
+
+    @Test
+    void testWeightedBySize() {
+        DepartmentFull large;
+        ArrayList<Professor> professors;
+
+        professors = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Professor item;
+
+            item = new Professor();
+            item.setName("Professor " + i);
+            professors.add(item);
+        }
+        large = new DepartmentFull();
+        large.setProfessors(professors);
+        Assertions.assertTrue(EntitySizes.of(large) > 1000 * EntitySizes.of(new DepartmentFull()) / 2);
+    }
+
+    @Test
+    void testShrinkEvicts() throws SQLException {
+        long weight;
+
+        for (int id = 100; id < 1100; id++) {
+            cache.getUniversity(id, key -> new UniversityFull());
+        }
+        weight = cache.getStatistics().iterator().next().getWeight();
+        for (int i = 0; i < HeapBudget.MAX_LEVEL; i++) {
+            cache.getBudget().shrink();
+        }
+        Assertions.assertEquals(HeapBudget.MAX_LEVEL, cache.getBudget().getLevel());
+        Assertions.assertTrue(cache.getStatistics().iterator().next().getMaximumWeight() < weight);
+        Assertions.assertTrue(cache.getStatistics().iterator().next().getWeight() < weight);
+        cache.getBudget().restore();
+        Assertions.assertEquals(HeapBudget.MAX_LEVEL - 1, cache.getBudget().getLevel());
+    }
+
+    private <T> T countLoad(int id) {
+        loads.incrementAndGet();
+        return null;
+    }
+
+    EntityCache cache;
+    AtomicInteger loads;
+    UniversityFull university;
+    DepartmentFull department;
+    Professor professor;
+}
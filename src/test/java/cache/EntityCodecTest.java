@@ -0,0 +1,94 @@
+package cache;
+
+import entities.Department;
+import entities.DepartmentFull;
+import entities.Professor;
+import entities.University;
+import entities.UniversityFull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+
+class EntityCodecTest {
+    @Test
+    void testUniversity() {
+        UniversityFull university, decoded;
+        Department department;
+
+        university = new UniversityFull();
+        university.setId(1);
+        university.setName("ПНИПУ");
+        university.setCity("Пермь");
+        department = new Department();
+        department.setId(2);
+        department.setName("ИТАС");
+        university.setDepartments(Collections.singletonList(department));
+        university.setVersion("5-7-1");
+
+        decoded = EntityCodec.decodeUniversity(ByteBuffer.wrap(EntityCodec.encode(university)));
+        Assertions.assertEquals(1, decoded.getId());
+        Assertions.assertEquals("ПНИПУ", decoded.getName());
+        Assertions.assertEquals("Пермь", decoded.getCity());
+        Assertions.assertEquals(1, decoded.getDepartments().size());
+        Assertions.assertEquals("ИТАС", decoded.getDepartments().iterator().next().getName());
+        Assertions.assertSame(decoded, decoded.getDepartments().iterator().next().getUniversity());
+        Assertions.assertEquals("5-7-1", decoded.getVersion());
+
+        decoded = EntityCodec.decodeUniversity(ByteBuffer.wrap(EntityCodec.encode(new UniversityFull())));
+        Assertions.assertNull(decoded.getName());
+        Assertions.assertNull(decoded.getDepartments());
+        Assertions.assertNull(decoded.getVersion());
+    }
+
+    @Test
+    void testDepartmentAndProfessor() {
+        DepartmentFull department, decodedDepartment;
+        University university;
+        Professor professor, decodedProfessor;
+        ArrayList<Professor> professors;
+
+        university = new University();
+        university.setId(1);
+        university.setName("PSTU");
+        university.setCity("Perm");
+        department = new DepartmentFull();
+        department.setId(2);
+        department.setName("ITAS");
+        department.setUniversity(university);
+        professor = new Professor();
+        professor.setId(3);
+        professor.setName("Ivanov");
+        professor.setPhoneNumber("+79001234567");
+        professor.setBirthday(java.sql.Date.valueOf(LocalDate.of(1960, 2, 29)));
+        professor.setDepartment(department);
+        professors = new ArrayList<>();
+        professors.add(professor);
+        department.setProfessors(professors);
+        department.setVersion("8-5-3-1");
+
+        decodedDepartment = EntityCodec.decodeDepartment(ByteBuffer.wrap(EntityCodec.encode(department)));
+        Assertions.assertEquals("ITAS", decodedDepartment.getName());
+        Assertions.assertEquals("Perm", decodedDepartment.getUniversity().getCity());
+        decodedProfessor = decodedDepartment.getProfessors().iterator().next();
+        Assertions.assertEquals("Ivanov", decodedProfessor.getName());
+        Assertions.assertNull(decodedProfessor.getDegree());
+        Assertions.assertEquals(professor.getBirthday(), decodedProfessor.getBirthday());
+        Assertions.assertSame(decodedDepartment, decodedProfessor.getDepartment());
+        Assertions.assertEquals("8-5-3-1", decodedDepartment.getVersion());
+        Assertions.assertNull(decodedProfessor.getVersion());
+
+        decodedProfessor = EntityCodec.decodeProfessor(ByteBuffer.wrap(EntityCodec.encode(professor)));
+        Assertions.assertEquals(3, decodedProfessor.getId());
+        Assertions.assertEquals("+79001234567", decodedProfessor.getPhoneNumber());
+        Assertions.assertEquals(2, decodedProfessor.getDepartment().getId());
+        Assertions.assertEquals(1, decodedProfessor.getDepartment().getUniversity().getId());
+
+        decodedProfessor = EntityCodec.decodeProfessor(ByteBuffer.wrap(EntityCodec.encode(new Professor())));
+        Assertions.assertNull(decodedProfessor.getBirthday());
+        Assertions.assertNull(decodedProfessor.getDepartment());
+    }
+}
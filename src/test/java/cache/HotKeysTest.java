@@ -0,0 +1,75 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class HotKeysTest {
+    @Test
+    void testTopOrder() {
+        HotKeys hotKeys;
+        List<HotKey> top;
+
+        hotKeys = new HotKeys("universities", 1024, 2, id -> { });
+        record(hotKeys, 1, 3);
+        record(hotKeys, 2, 5);
+        record(hotKeys, 3, 1);
+        top = hotKeys.top();
+        Assertions.assertEquals(2, top.size());
+        Assertions.assertEquals(2, top.get(0).getId());
+        Assertions.assertEquals(5, top.get(0).getFrequency());
+        Assertions.assertEquals(1, top.get(1).getId());
+        Assertions.assertEquals(3, top.get(1).getFrequency());
+        Assertions.assertTrue(hotKeys.isHot(1));
+        Assertions.assertFalse(hotKeys.isHot(3));
+    }
+
+    @Test
+    void testScanDoesNotDisplaceHotKeys() {
+        HotKeys hotKeys;
+
+        hotKeys = new HotKeys("departments", 1024, 2, id -> { });
+        record(hotKeys, 1, 10);
+        record(hotKeys, 2, 10);
+        for (int id = 3; id < 1000; id++) {
+            hotKeys.record(id);
+        }
+        Assertions.assertTrue(hotKeys.isHot(1));
+        Assertions.assertTrue(hotKeys.isHot(2));
+    }
+
+    @Test
+    void testChangesReported() {
+        HotKeys hotKeys;
+        ArrayList<Integer> changes;
+
+        changes = new ArrayList<>();
+        hotKeys = new HotKeys("professors", 1024, 1, changes::add);
+        record(hotKeys, 1, 2);
+        record(hotKeys, 2, 3);
+        Assertions.assertEquals(List.of(1, 1, 2), changes);
+        Assertions.assertFalse(hotKeys.isHot(1));
+        Assertions.assertTrue(hotKeys.isHot(2));
+    }
+
+    @Test
+    void testAging() {
+        HotKeys hotKeys;
+
+        hotKeys = new HotKeys("universities", 64, 1, id -> { });
+        record(hotKeys, 1, 100);
+        // 640 обращений при ширине 64 уполовинивают частоты
+        for (int id = 2; id < 542; id++) {
+            hotKeys.record(id);
+        }
+        Assertions.assertTrue(hotKeys.top().get(0).getFrequency() < 100);
+    }
+
+    private static void record(HotKeys hotKeys, int id, int times) {
+        for (int i = 0; i < times; i++) {
+            hotKeys.record(id);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+class IdFilterTest {
+    @Test
+    void testPassesAllUntilBuilt() {
+        IdFilter filter;
+
+        filter = new IdFilter("universities");
+        Assertions.assertTrue(filter.mightContain(1));
+        filter.recordFalsePositive();
+        Assertions.assertFalse(filter.getStatistics().isReady());
+        Assertions.assertEquals(0, filter.getStatistics().getLookups());
+        Assertions.assertEquals(0, filter.getStatistics().getFalsePositives());
+    }
+
+    @Test
+    void testAddRemove() {
+        IdFilter filter;
+        BitSet existing;
+
+        existing = new BitSet();
+        existing.set(1);
+        existing.set(3);
+        filter = new IdFilter("universities");
+        filter.rebuild(existing);
+        Assertions.assertTrue(filter.mightContain(1));
+        Assertions.assertFalse(filter.mightContain(2));
+        Assertions.assertFalse(filter.mightContain(-1));
+        filter.add(2);
+        filter.remove(1);
+        Assertions.assertFalse(filter.mightContain(1));
+        Assertions.assertTrue(filter.mightContain(2));
+        filter.disable();
+        Assertions.assertTrue(filter.mightContain(1));
+    }
+
+    @Test
+    void testNewerIdsConfirmed() {
+        IdFilter filter;
+        BitSet existing;
+
+        existing = new BitSet();
+        existing.set(5);
+        filter = new IdFilter("universities");
+        filter.rebuild(existing);
+        // Строка может быть вставлена другим узлом, уведомление о которой ещё не пришло
+        Assertions.assertTrue(filter.mightContain(6));
+        Assertions.assertTrue(filter.mightContain(5 + IdFilter.NEWER_IDS));
+        Assertions.assertFalse(filter.mightContain(6 + IdFilter.NEWER_IDS));
+        Assertions.assertFalse(filter.mightContain(Integer.MAX_VALUE));
+        filter.confirm(6);
+        Assertions.assertEquals(2, filter.getStatistics().getSize());
+        // Удалённые после построения идентификаторы отсекаются
+        filter.remove(6);
+        Assertions.assertFalse(filter.mightContain(6));
+        Assertions.assertFalse(filter.mightContain(4));
+        filter.add(10);
+        Assertions.assertFalse(filter.mightContain(8));
+        Assertions.assertTrue(filter.mightContain(11));
+    }
+
+    @Test
+    void testStatistics() {
+        IdFilter filter;
+        BitSet existing;
+        IdFilterStatistics statistics;
+
+        existing = new BitSet();
+        existing.set(1);
+        existing.set(2);
+        existing.set(5);
+        filter = new IdFilter("departments");
+        filter.rebuild(existing);
+        filter.mightContain(1);
+        filter.mightContain(3);
+        filter.mightContain(4);
+        filter.mightContain(2);
+        filter.recordFalsePositive();
+        statistics = filter.getStatistics();
+        Assertions.assertEquals("departments", statistics.getName());
+        Assertions.assertTrue(statistics.isReady());
+        Assertions.assertEquals(3, statistics.getSize());
+        Assertions.assertEquals(4, statistics.getLookups());
+        Assertions.assertEquals(2, statistics.getNegatives());
+        Assertions.assertEquals(1, statistics.getFalsePositives());
+        Assertions.assertEquals(1.0 / 3, statistics.getFalsePositiveRate(), 1e-9);
+    }
+}
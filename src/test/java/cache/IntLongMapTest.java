@@ -0,0 +1,60 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+class IntLongMapTest {
+    @Test
+    void testPutGetRemove() {
+        IntLongMap map;
+
+        map = new IntLongMap(-1);
+        map.put(Integer.MAX_VALUE, 7);
+        map.put(0, 3);
+        Assertions.assertEquals(7, map.get(Integer.MAX_VALUE));
+        Assertions.assertEquals(3, map.get(0));
+        Assertions.assertEquals(-1, map.get(5));
+        map.put(0, 4);
+        Assertions.assertEquals(2, map.size());
+        Assertions.assertEquals(4, map.remove(0));
+        Assertions.assertEquals(-1, map.remove(0));
+        Assertions.assertEquals(1, map.size());
+        map.clear();
+        Assertions.assertEquals(-1, map.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testMatchesHashMap() {
+        IntLongMap map;
+        HashMap<Integer, Long> expected;
+        Random random;
+
+        map = new IntLongMap(-1);
+        expected = new HashMap<>();
+        random = new Random(42);
+        // Узкий диапазон ключей даёт много столкновений, удаления сдвигают цепочки
+        for (int i = 0; i < 100_000; i++) {
+            int key;
+
+            key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                Assertions.assertEquals(expected.getOrDefault(key, -1L), map.remove(key));
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+        Assertions.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 2_000; key++) {
+            Assertions.assertEquals(expected.getOrDefault(key, -1L), map.get(key));
+        }
+        for (int key = 0; key < 2_000; key++) {
+            map.remove(key);
+        }
+        Assertions.assertEquals(0, map.size());
+    }
+}
@@ -0,0 +1,39 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.Notification;
+import java.lang.management.MemoryNotificationInfo;
+
+class MemoryPressureMonitorTest {
+    @Test
+    void testShrinkOnThresholdExceeded() {
+        HeapBudget budget;
+
+        budget = new HeapBudget();
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, budget)) {
+            monitor.handleNotification(new Notification(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, this, 1), null);
+            Assertions.assertEquals(0, budget.getLevel());
+            monitor.handleNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, this, 2), null);
+            Assertions.assertEquals(1, budget.getLevel());
+            // Следующая сборка могла ещё не освободить вытесненное
+            monitor.handleNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, this, 3), null);
+            Assertions.assertEquals(1, budget.getLevel());
+            monitor.checkRelief();
+            Assertions.assertEquals(0, budget.getLevel());
+        }
+    }
+
+    @Test
+    void testStartAndClose() {
+        HeapBudget budget;
+
+        budget = new HeapBudget();
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.99, budget)) {
+            monitor.start();
+            monitor.checkRelief();
+            Assertions.assertEquals(0, budget.getLevel());
+        }
+    }
+}
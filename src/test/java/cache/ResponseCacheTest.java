@@ -0,0 +1,76 @@
+package cache;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import utils.MimeTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class ResponseCacheTest {
+    @BeforeEach
+    void setUp() throws IOException {
+        ServletOutputStream outputStream;
+
+        responseBytes = new ByteArrayOutputStream();
+        outputStream = Mockito.mock(ServletOutputStream.class);
+        Mockito.doAnswer(invocation -> {
+            responseBytes.write((byte[]) invocation.getArgument(0));
+            return null;
+        }).when(outputStream).write(Mockito.any(byte[].class));
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.doReturn(outputStream).when(response).getOutputStream();
+        cache = new ResponseCache(1 << 20);
+    }
+
+    @Test
+    void testSameVersion() throws IOException {
+        byte[] body;
+
+        body = "{\"name\":\"ПНИПУ\"}".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertFalse(cache.writeCached(response, "universities/1", "5"));
+        cache.writeAndCache(response, "universities/1", "5", body);
+        responseBytes.reset();
+        Assertions.assertTrue(cache.writeCached(response, "universities/1", "5"));
+
+        Assertions.assertArrayEquals(body, responseBytes.toByteArray());
+        Mockito.verify(response, Mockito.times(2)).setContentLength(body.length);
+        Mockito.verify(response, Mockito.times(2)).setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    @Test
+    void testOtherVersion() throws IOException {
+        CacheStatistics statistics;
+
+        cache.writeAndCache(response, "universities/1", "5", new byte[] {'1'});
+        Assertions.assertFalse(cache.writeCached(response, "universities/1", "6"));
+        Assertions.assertFalse(cache.writeCached(response, "universities/2", "5"));
+        Assertions.assertFalse(cache.writeCached(response, "universities/1", null));
+        cache.writeAndCache(response, "universities/1", "6", new byte[] {'2'});
+        responseBytes.reset();
+        Assertions.assertTrue(cache.writeCached(response, "universities/1", "6"));
+        Assertions.assertFalse(cache.writeCached(response, "universities/1", "5"));
+        Assertions.assertEquals("2", responseBytes.toString(StandardCharsets.UTF_8));
+
+        statistics = cache.getStatistics();
+        Assertions.assertEquals(1, statistics.getSize());
+        Assertions.assertEquals(1, statistics.getHits());
+        Assertions.assertEquals(3, statistics.getMisses());
+    }
+
+    @Test
+    void testNoVersion() throws IOException {
+        cache.writeAndCache(response, "universities?after=0&limit=10", null, new byte[] {'1'});
+        Assertions.assertEquals(0, cache.getStatistics().getSize());
+        Assertions.assertEquals("1", responseBytes.toString(StandardCharsets.UTF_8));
+    }
+
+    ResponseCache cache;
+    HttpServletResponse response;
+    ByteArrayOutputStream responseBytes;
+}
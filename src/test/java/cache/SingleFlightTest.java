@@ -0,0 +1,128 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SingleFlightTest {
+    @Test
+    void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<Integer, Object> flight;
+        ExecutorService executor;
+        CountDownLatch started, release;
+        AtomicInteger loads;
+        List<Future<Object>> results;
+        Object value;
+
+        flight = new SingleFlight<>();
+        executor = Executors.newFixedThreadPool(THREADS);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        loads = new AtomicInteger();
+        value = new Object();
+        results = new ArrayList<>();
+        try {
+            results.add(executor.submit(() -> flight.run(1, () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return value;
+            })));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < THREADS; i++) {
+                results.add(executor.submit(() -> flight.run(1, () -> {
+                    loads.incrementAndGet();
+                    return new Object();
+                })));
+            }
+            // Дать остальным потокам дойти до ожидания общей загрузки
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Object> result : results) {
+                Assertions.assertSame(value, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testErrorIsShared() throws Exception {
+        SingleFlight<Integer, Object> flight;
+        ExecutorService executor;
+        CountDownLatch started, release;
+        Future<Object> leader, follower;
+
+        flight = new SingleFlight<>();
+        executor = Executors.newFixedThreadPool(2);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        try {
+            leader = executor.submit(() -> flight.run(1, () -> {
+                started.countDown();
+                await(release);
+                throw new SQLException("Test error");
+            }));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            follower = executor.submit(() -> flight.run(1, () -> null));
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<Object> result : new Future[] {leader, follower}) {
+                Assertions.assertEquals("Test error",
+                        Assertions.assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS)).getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testForgetAllStartsNewLoad() throws Exception {
+        SingleFlight<Integer, Object> flight;
+        ExecutorService executor;
+        CountDownLatch started, release;
+        Future<Object> leader;
+        Object stale, fresh;
+
+        flight = new SingleFlight<>();
+        executor = Executors.newSingleThreadExecutor();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        stale = new Object();
+        fresh = new Object();
+        try {
+            leader = executor.submit(() -> flight.run(1, () -> {
+                started.countDown();
+                await(release);
+                return stale;
+            }));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            flight.forgetAll();
+            Assertions.assertSame(fresh, flight.run(1, () -> fresh));
+            release.countDown();
+            Assertions.assertSame(stale, leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final int THREADS = 8;
+}
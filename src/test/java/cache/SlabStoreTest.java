@@ -0,0 +1,67 @@
+package cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+class SlabStoreTest {
+    @Test
+    void testPutGetRemove() {
+        SlabStore store;
+
+        store = new SlabStore("test", 1024, 256, Duration.ofMinutes(5));
+        store.put(1, new byte[] {1, 2, 3});
+        store.put(5000, new byte[] {4});
+        store.put(Integer.MAX_VALUE, new byte[] {9});
+        Assertions.assertEquals(3, store.get(1, ByteBuffer::remaining));
+        Assertions.assertEquals(9, (int) store.get(Integer.MAX_VALUE, ByteBuffer::get));
+        store.remove(Integer.MAX_VALUE);
+        Assertions.assertEquals(4, (int) store.get(5000, ByteBuffer::get));
+        store.put(1, new byte[] {7});
+        Assertions.assertEquals(7, (int) store.get(1, ByteBuffer::get));
+        store.remove(1);
+        Assertions.assertNull(store.get(1, ByteBuffer::get));
+        store.remove(5000);
+        Assertions.assertNull(store.get(5000, ByteBuffer::get));
+        Assertions.assertNull(store.get(-1, ByteBuffer::get));
+        Assertions.assertEquals(0, store.getStatistics().getSize());
+        Assertions.assertEquals(0, store.getStatistics().getWeight());
+    }
+
+    @Test
+    void testOldestSlabReused() {
+        SlabStore store;
+        CacheStatistics statistics;
+
+        // Четыре слэба по три записи размером 16 + 48 байт
+        store = new SlabStore("test", 4 * 200, 200, Duration.ofMinutes(5));
+        for (int id = 1; id <= 13; id++) {
+            store.put(id, new byte[48]);
+        }
+        Assertions.assertNull(store.get(1, ByteBuffer::remaining));
+        Assertions.assertNull(store.get(3, ByteBuffer::remaining));
+        Assertions.assertEquals(48, store.get(4, ByteBuffer::remaining));
+        Assertions.assertEquals(48, store.get(13, ByteBuffer::remaining));
+        statistics = store.getStatistics();
+        Assertions.assertEquals(10, statistics.getSize());
+        Assertions.assertEquals(3, statistics.getEvictions());
+        Assertions.assertEquals(800, statistics.getMaximumWeight());
+    }
+
+    @Test
+    void testTooLargeAndExpired() {
+        SlabStore store;
+
+        store = new SlabStore("test", 1024, 64, Duration.ofMinutes(5));
+        store.put(1, new byte[64]);
+        Assertions.assertNull(store.get(1, ByteBuffer::remaining));
+        store = new SlabStore("test", 1024, 64, Duration.ofMillis(-1));
+        store.put(1, new byte[1]);
+        Assertions.assertNull(store.get(1, ByteBuffer::remaining));
+        store = new SlabStore("test", 0, 64, Duration.ofMinutes(5));
+        store.put(1, new byte[1]);
+        Assertions.assertNull(store.get(1, ByteBuffer::remaining));
+    }
+}
@@ -0,0 +1,152 @@
+package controllers;
+
+import cache.EntityCache;
+import cache.ResponseCache;
+import com.google.gson.Gson;
+import entities.UniversityFull;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import utils.MimeTypes;
+import utils.ParseUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.BitSet;
+
+class CacheControllerTest {
+    @Test
+    void testGetStatistics() throws IOException, SQLException {
+        EntityCache cache;
+        CacheController controller;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        StringWriter responseStringWriter;
+        UniversityFull university;
+
+        university = new UniversityFull();
+        university.setId(1);
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5), 32, 3L << 20);
+        cache.getUniversity(1, id -> university);
+        cache.getUniversity(1, id -> university);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        responseStringWriter = new StringWriter();
+        Mockito.doReturn(new PrintWriter(responseStringWriter)).when(response).getWriter();
+
+        controller = Mockito.spy(CacheController.class);
+        Mockito.doReturn(cache).when(controller).getEntityCache();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(new ResponseCache(1024)).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(
+                "[{\"name\":\"universities\",\"size\":1,\"weight\":112,\"max_weight\":524288,\"hits\":1,\"misses\":1,\"hit_rate\":0.5,\"evictions\":0},"
+                        + "{\"name\":\"departments\",\"size\":0,\"weight\":0,\"max_weight\":524288,\"hits\":0,\"misses\":0,\"hit_rate\":1.0,\"evictions\":0},"
+                        + "{\"name\":\"professors\",\"size\":0,\"weight\":0,\"max_weight\":524288,\"hits\":0,\"misses\":0,\"hit_rate\":1.0,\"evictions\":0},"
+                        + "{\"name\":\"universities-off-heap\",\"size\":1,\"weight\":36,\"max_weight\":1048576,\"hits\":0,\"misses\":1,\"hit_rate\":0.0,\"evictions\":0},"
+                        + "{\"name\":\"departments-off-heap\",\"size\":0,\"weight\":0,\"max_weight\":1048576,\"hits\":0,\"misses\":0,\"hit_rate\":1.0,\"evictions\":0},"
+                        + "{\"name\":\"professors-off-heap\",\"size\":0,\"weight\":0,\"max_weight\":1048576,\"hits\":0,\"misses\":0,\"hit_rate\":1.0,\"evictions\":0},"
+                        + "{\"name\":\"responses\",\"size\":0,\"weight\":0,\"max_weight\":1024,\"hits\":0,\"misses\":0,\"hit_rate\":1.0,\"evictions\":0}]",
+                responseStringWriter.toString());
+        Mockito.verify(response).setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    @Test
+    void testGetIdFilterStatistics() throws IOException {
+        EntityCache cache;
+        CacheController controller;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        StringWriter responseStringWriter;
+        BitSet existing;
+
+        existing = new BitSet();
+        existing.set(1);
+        existing.set(3);
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        cache.getUniversityIds().rebuild(existing);
+        cache.getUniversityIds().mightContain(1);
+        cache.getUniversityIds().mightContain(2);
+        cache.getUniversityIds().mightContain(3);
+        cache.getUniversityIds().recordFalsePositive();
+
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        responseStringWriter = new StringWriter();
+        Mockito.doReturn("/id-filters").when(request).getPathInfo();
+        Mockito.doReturn(new PrintWriter(responseStringWriter)).when(response).getWriter();
+
+        controller = Mockito.spy(CacheController.class);
+        Mockito.doReturn(cache).when(controller).getEntityCache();
+        Mockito.doReturn(parser).when(controller).getParser();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(
+                "[{\"name\":\"universities\",\"ready\":true,\"size\":2,\"lookups\":3,\"negatives\":1,"
+                        + "\"false_positives\":1,\"false_positive_rate\":0.5},"
+                        + "{\"name\":\"departments\",\"ready\":false,\"size\":0,\"lookups\":0,\"negatives\":0,"
+                        + "\"false_positives\":0,\"false_positive_rate\":0.0},"
+                        + "{\"name\":\"professors\",\"ready\":false,\"size\":0,\"lookups\":0,\"negatives\":0,"
+                        + "\"false_positives\":0,\"false_positive_rate\":0.0}]",
+                responseStringWriter.toString());
+        Mockito.verify(response).setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    @Test
+    void testGetHotKeys() throws IOException {
+        EntityCache cache;
+        CacheController controller;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        StringWriter responseStringWriter;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5), 2);
+        cache.getUniversityKeys().record(1);
+        cache.getUniversityKeys().record(2);
+        cache.getUniversityKeys().record(2);
+        cache.getProfessorKeys().record(7);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        responseStringWriter = new StringWriter();
+        Mockito.doReturn("/hot-keys").when(request).getPathInfo();
+        Mockito.doReturn(new PrintWriter(responseStringWriter)).when(response).getWriter();
+
+        controller = Mockito.spy(CacheController.class);
+        Mockito.doReturn(cache).when(controller).getEntityCache();
+        Mockito.doReturn(parser).when(controller).getParser();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(
+                "[{\"name\":\"universities\",\"id\":2,\"frequency\":2},"
+                        + "{\"name\":\"universities\",\"id\":1,\"frequency\":1},"
+                        + "{\"name\":\"professors\",\"id\":7,\"frequency\":1}]",
+                responseStringWriter.toString());
+        Mockito.verify(response).setContentType(MimeTypes.APPLICATION_JSON);
+    }
+
+    @Test
+    void testGetUnknown() throws IOException {
+        CacheController controller;
+        HttpServletRequest request;
+        HttpServletResponse response;
+
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.doReturn("/unknown").when(request).getPathInfo();
+
+        controller = Mockito.spy(CacheController.class);
+        controller.doGet(request, response);
+
+        Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    static Gson parser = ParseUtils.createParser();
+}
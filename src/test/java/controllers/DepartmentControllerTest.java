@@ -1,9 +1,14 @@
 package controllers;
 
+import cache.ResponseCache;
+import com.google.gson.Gson;
 import entities.Department;
 import entities.DepartmentFull;
+import entities.DepartmentPatch;
 import entities.University;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Assertions;
@@ -11,10 +16,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import services.DepartmentService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
+import utils.ParseUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 class DepartmentControllerTest {
     @BeforeEach
@@ -23,6 +35,14 @@ class DepartmentControllerTest {
         responseStringWriter = new StringWriter();
         responseWriter = new PrintWriter(responseStringWriter);
         Mockito.doReturn(responseWriter).when(response).getWriter();
+        responseBytes = new ByteArrayOutputStream();
+        responseOutputStream = Mockito.mock(ServletOutputStream.class);
+        Mockito.doAnswer(invocation -> {
+            responseBytes.write((byte[]) invocation.getArgument(0));
+            return null;
+        }).when(responseOutputStream).write(Mockito.any(byte[].class));
+        Mockito.doReturn(responseOutputStream).when(response).getOutputStream();
+        responseCache = new ResponseCache(1 << 20);
         Mockito.doAnswer(invocation -> {
             responseContentType = invocation.getArgument(0);
             return null;
@@ -65,13 +85,24 @@ class DepartmentControllerTest {
         departments.add(department);
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(departments).when(service).get();
+        Mockito.doAnswer(invocation -> {
+            Consumer<String> onVersion;
+            Consumer<Department> consumer;
+
+            onVersion = invocation.getArgument(0);
+            consumer = invocation.getArgument(1);
+            onVersion.accept("42");
+            departments.forEach(consumer);
+            return null;
+        }).when(service).forEach(Mockito.any(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn(null).when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -98,18 +129,83 @@ class DepartmentControllerTest {
         department.setUniversity(university);
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(department).when(service).getById(department.getId());
+        department.setVersion("5-7-2");
+        Mockito.doReturn(department).when(service).getById(department.getId(), "5-7-2");
+        Mockito.doReturn("5-7-2").when(service).getVersion(department.getId());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/1").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
-        responseJson = responseStringWriter.toString();
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
 
         Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
         Assertions.assertEquals("{\"id\":1,\"university\":{\"id\":1,\"name\":\"PSTU\",\"city\":\"Perm\"},\"name\":\"MEHMAT\"}", responseJson);
+        Mockito.verify(response).setHeader(ETags.ETAG_HEADER, "\"5-7-2\"");
+    }
+
+    @Test
+    void testGetOneNotModified() throws IOException {
+        DepartmentService service;
+        DepartmentController controller;
+        HttpServletRequest request;
+
+        service = Mockito.mock(DepartmentService.class);
+        Mockito.doReturn("5-7-2").when(service).getVersion(1);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/1").when(request).getPathInfo();
+        Mockito.doReturn("W/\"1-1-1\", \"5-7-2\"").when(request).getHeader(ETags.IF_NONE_MATCH_HEADER);
+
+        controller = Mockito.spy(DepartmentController.class);
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, responseStatus);
+        Assertions.assertEquals("", responseStringWriter.toString());
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    void testGetPage() throws IOException {
+        DepartmentService service;
+        DepartmentController controller;
+        HttpServletRequest request;
+        ArrayList<Department> departments;
+        String responseJson;
+
+        departments = new ArrayList<>(2);
+        for (int id = 7; id <= 8; id++) {
+            Department department;
+
+            department = new Department();
+            department.setId(id);
+            departments.add(department);
+        }
+
+        service = Mockito.mock(DepartmentService.class);
+        Mockito.doReturn(new Versioned<>("3", departments)).when(service).get(5, 2);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(null).when(request).getPathInfo();
+        Mockito.doReturn("1").when(request).getParameter(Pagination.LIMIT_PARAMETER);
+        Mockito.doReturn(Pagination.encodeToken(5)).when(request).getParameter(Pagination.AFTER_PARAMETER);
+
+        controller = Mockito.spy(DepartmentController.class);
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
+        Assertions.assertEquals("{\"items\":[{\"id\":7}],\"next\":\"" + Pagination.encodeToken(7) + "\"}", responseJson);
     }
 
     @Test
@@ -124,7 +220,9 @@ class DepartmentControllerTest {
         Mockito.doReturn("/1a").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -137,13 +235,15 @@ class DepartmentControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(null).when(service).getById(Mockito.anyInt());
+        Mockito.doReturn(null).when(service).getById(Mockito.anyInt(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/1").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
@@ -181,7 +281,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -210,7 +312,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -231,7 +335,9 @@ class DepartmentControllerTest {
         Mockito.doReturn("/aaa").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -258,7 +364,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -282,8 +390,17 @@ class DepartmentControllerTest {
         department.setId(24);
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(department).when(service).getById(department.getId());
-        Mockito.doReturn(true).when(service).update(Mockito.any(Department.class));
+        Mockito.doAnswer(invocation -> {
+            DepartmentPatch patch;
+            University university;
+
+            patch = invocation.getArgument(1);
+            university = new University();
+            university.setId(patch.getUniversityId().orElseThrow());
+            department.setUniversity(university);
+            department.setName(patch.getName().orElseThrow());
+            return department;
+        }).when(service).update(Mockito.eq(department.getId()), Mockito.any(DepartmentPatch.class), Mockito.isNull());
 
         requestJson = "{\"university_id\":1,\"name\":\"MEHMAT\"}";
         requestStringReader = new StringReader(requestJson);
@@ -293,7 +410,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -321,7 +440,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -342,7 +463,9 @@ class DepartmentControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -364,8 +487,7 @@ class DepartmentControllerTest {
         String responseText;
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(new DepartmentFull()).when(service).getById(24);
-        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.any(Department.class));
+        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.eq(24), Mockito.any(DepartmentPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -375,7 +497,9 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -394,7 +518,7 @@ class DepartmentControllerTest {
         BufferedReader requestReader;
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(null).when(service).getById(24);
+        Mockito.doReturn(null).when(service).update(Mockito.eq(24), Mockito.any(DepartmentPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -404,12 +528,47 @@ class DepartmentControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    @Test
+    void testUpdateVersionConflict() throws IOException {
+        DepartmentService service;
+        DepartmentController controller;
+        HttpServletRequest request;
+        String requestJson;
+        StringReader requestStringReader;
+        BufferedReader requestReader;
+        String responseText;
+
+        service = Mockito.mock(DepartmentService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).update(Mockito.eq(24), Mockito.any(DepartmentPatch.class), Mockito.eq(ExpectedVersions.of(7)));
+
+        requestJson = "{}";
+        requestStringReader = new StringReader(requestJson);
+        requestReader = new BufferedReader(requestStringReader);
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/24").when(request).getPathInfo();
+        Mockito.doReturn("\"7-3-1\"").when(request).getHeader(ETags.IF_MATCH_HEADER);
+        Mockito.doReturn(requestReader).when(request).getReader();
+
+        controller = Mockito.spy(DepartmentController.class);
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doPatch(request, response);
+        responseText = responseStringWriter.toString();
+
+        Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        Assertions.assertEquals(MimeTypes.TEXT_PLAIN, responseContentType);
+        Assertions.assertEquals("Test conflict", responseText);
+    }
+
     @Test
     void testDelete() {
         DepartmentService service;
@@ -417,18 +576,48 @@ class DepartmentControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(DepartmentService.class);
-        Mockito.doReturn(true).when(service).delete(24);
+        Mockito.doReturn(true).when(service).delete(24, null);
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/24").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertTrue(responseStatus < 400);
     }
 
+    @Test
+    void testDeleteVersionConflict() {
+        DepartmentService service;
+        DepartmentController controller;
+        HttpServletRequest request;
+        Object[] ifMatchHeaders;
+
+        service = Mockito.mock(DepartmentService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).delete(24, ExpectedVersions.of(7));
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/24").when(request).getPathInfo();
+
+        controller = Mockito.spy(DepartmentController.class);
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+
+        ifMatchHeaders = new Object[] {"\"7-3-1\"", "W/\"7-3-1\"", "7", "W/\"7\", \"abc\""};
+        for (Object ifMatch : ifMatchHeaders) {
+            responseStatus = 0;
+            Mockito.doReturn(ifMatch).when(request).getHeader(ETags.IF_MATCH_HEADER);
+            controller.doDelete(request, response);
+            Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        }
+        Mockito.verify(service, Mockito.times(1)).delete(Mockito.anyInt(), Mockito.any());
+    }
+
     @Test
     void testDeleteBadRequest() {
         DepartmentService service;
@@ -441,7 +630,9 @@ class DepartmentControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -465,15 +656,21 @@ class DepartmentControllerTest {
         Mockito.doReturn("/24").when(request).getPathInfo();
 
         controller = Mockito.spy(DepartmentController.class);
-        Mockito.doReturn(service).when(controller).createDepartmentService();
+        Mockito.doReturn(service).when(controller).getDepartmentService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    static Gson parser = ParseUtils.createParser();
     HttpServletResponse response;
     PrintWriter responseWriter;
     StringWriter responseStringWriter;
+    ServletOutputStream responseOutputStream;
+    ByteArrayOutputStream responseBytes;
+    ResponseCache responseCache;
     String responseContentType;
     int responseStatus;
 }
@@ -1,9 +1,14 @@
 package controllers;
 
+import cache.ResponseCache;
+import com.google.gson.Gson;
 import entities.Department;
 import entities.Professor;
+import entities.ProfessorPatch;
 import entities.University;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Assertions;
@@ -11,11 +16,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import services.ProfessorService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
+import utils.ParseUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.function.Consumer;
 
 class ProfessorControllerTest {
     @BeforeEach
@@ -24,6 +36,14 @@ class ProfessorControllerTest {
         responseStringWriter = new StringWriter();
         responseWriter = new PrintWriter(responseStringWriter);
         Mockito.doReturn(responseWriter).when(response).getWriter();
+        responseBytes = new ByteArrayOutputStream();
+        responseOutputStream = Mockito.mock(ServletOutputStream.class);
+        Mockito.doAnswer(invocation -> {
+            responseBytes.write((byte[]) invocation.getArgument(0));
+            return null;
+        }).when(responseOutputStream).write(Mockito.any(byte[].class));
+        Mockito.doReturn(responseOutputStream).when(response).getOutputStream();
+        responseCache = new ResponseCache(1 << 20);
         Mockito.doAnswer(invocation -> {
             responseContentType = invocation.getArgument(0);
             return null;
@@ -82,13 +102,24 @@ class ProfessorControllerTest {
         professors.add(professor);
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(professors).when(service).get();
+        Mockito.doAnswer(invocation -> {
+            Consumer<String> onVersion;
+            Consumer<Professor> consumer;
+
+            onVersion = invocation.getArgument(0);
+            consumer = invocation.getArgument(1);
+            onVersion.accept("42");
+            professors.forEach(consumer);
+            return null;
+        }).when(service).forEach(Mockito.any(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn(null).when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -126,18 +157,83 @@ class ProfessorControllerTest {
         professor.setDepartment(department);
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(professor).when(service).getById(professor.getId());
+        professor.setVersion("5-7-2");
+        Mockito.doReturn(professor).when(service).getById(professor.getId(), "5-7-2");
+        Mockito.doReturn("5-7-2").when(service).getVersion(professor.getId());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/200").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
-        responseJson = responseStringWriter.toString();
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
 
         Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
         Assertions.assertEquals("{\"id\":200,\"department\":{\"id\":1,\"university\":{\"id\":1,\"name\":\"PSTU\",\"city\":\"Perm\"},\"name\":\"MEHMAT\"},\"name\":\"Petr\",\"phone_number\":\"+79824863265\",\"degree\":\"PhD in Technical Science\",\"birthday\":\"1970-01-03\"}", responseJson);
+        Mockito.verify(response).setHeader(ETags.ETAG_HEADER, "\"5-7-2\"");
+    }
+
+    @Test
+    void testGetOneNotModified() throws IOException {
+        ProfessorService service;
+        ProfessorController controller;
+        HttpServletRequest request;
+
+        service = Mockito.mock(ProfessorService.class);
+        Mockito.doReturn("5-7-2").when(service).getVersion(200);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/200").when(request).getPathInfo();
+        Mockito.doReturn("W/\"1-1-1\", \"5-7-2\"").when(request).getHeader(ETags.IF_NONE_MATCH_HEADER);
+
+        controller = Mockito.spy(ProfessorController.class);
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, responseStatus);
+        Assertions.assertEquals("", responseStringWriter.toString());
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    void testGetPage() throws IOException {
+        ProfessorService service;
+        ProfessorController controller;
+        HttpServletRequest request;
+        ArrayList<Professor> professors;
+        String responseJson;
+
+        professors = new ArrayList<>(2);
+        for (int id = 7; id <= 8; id++) {
+            Professor professor;
+
+            professor = new Professor();
+            professor.setId(id);
+            professors.add(professor);
+        }
+
+        service = Mockito.mock(ProfessorService.class);
+        Mockito.doReturn(new Versioned<>("3", professors)).when(service).get(5, 2);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(null).when(request).getPathInfo();
+        Mockito.doReturn("1").when(request).getParameter(Pagination.LIMIT_PARAMETER);
+        Mockito.doReturn(Pagination.encodeToken(5)).when(request).getParameter(Pagination.AFTER_PARAMETER);
+
+        controller = Mockito.spy(ProfessorController.class);
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
+        Assertions.assertEquals("{\"items\":[{\"id\":7}],\"next\":\"" + Pagination.encodeToken(7) + "\"}", responseJson);
     }
 
     @Test
@@ -152,7 +248,9 @@ class ProfessorControllerTest {
         Mockito.doReturn("/1a").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -165,13 +263,15 @@ class ProfessorControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(null).when(service).getById(Mockito.anyInt());
+        Mockito.doReturn(null).when(service).getById(Mockito.anyInt(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/1").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
@@ -204,7 +304,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -233,7 +335,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -254,7 +358,9 @@ class ProfessorControllerTest {
         Mockito.doReturn("/aaa").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -281,7 +387,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -305,8 +413,20 @@ class ProfessorControllerTest {
         professor.setId(200);
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(professor).when(service).getById(professor.getId());
-        Mockito.doReturn(true).when(service).update(Mockito.any(Professor.class));
+        Mockito.doAnswer(invocation -> {
+            ProfessorPatch patch;
+            Department department;
+
+            patch = invocation.getArgument(1);
+            department = new Department();
+            department.setId(patch.getDepartmentId().orElseThrow());
+            professor.setDepartment(department);
+            professor.setName(patch.getName().orElseThrow());
+            professor.setPhoneNumber(patch.getPhoneNumber().orElseThrow());
+            professor.setDegree(patch.getDegree().orElseThrow());
+            professor.setBirthday(patch.getBirthday().orElseThrow());
+            return professor;
+        }).when(service).update(Mockito.eq(professor.getId()), Mockito.any(ProfessorPatch.class), Mockito.isNull());
 
         requestJson = "{\"department_id\":30,\"name\":\"Petr\",\"phone_number\":\"+79824863265\",\"degree\":\"PhD in Technical Science\",\"birthday\":\"1970-01-03\"}";
         requestStringReader = new StringReader(requestJson);
@@ -316,7 +436,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -344,7 +466,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -365,7 +489,9 @@ class ProfessorControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -387,8 +513,7 @@ class ProfessorControllerTest {
         String responseText;
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(new Professor()).when(service).getById(200);
-        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.any(Professor.class));
+        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.eq(200), Mockito.any(ProfessorPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -398,7 +523,9 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -417,7 +544,7 @@ class ProfessorControllerTest {
         BufferedReader requestReader;
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(null).when(service).getById(200);
+        Mockito.doReturn(null).when(service).update(Mockito.eq(200), Mockito.any(ProfessorPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -427,12 +554,47 @@ class ProfessorControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    @Test
+    void testUpdateVersionConflict() throws IOException {
+        ProfessorService service;
+        ProfessorController controller;
+        HttpServletRequest request;
+        String requestJson;
+        StringReader requestStringReader;
+        BufferedReader requestReader;
+        String responseText;
+
+        service = Mockito.mock(ProfessorService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).update(Mockito.eq(200), Mockito.any(ProfessorPatch.class), Mockito.eq(ExpectedVersions.of(7)));
+
+        requestJson = "{}";
+        requestStringReader = new StringReader(requestJson);
+        requestReader = new BufferedReader(requestStringReader);
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/200").when(request).getPathInfo();
+        Mockito.doReturn("\"7-3-1\"").when(request).getHeader(ETags.IF_MATCH_HEADER);
+        Mockito.doReturn(requestReader).when(request).getReader();
+
+        controller = Mockito.spy(ProfessorController.class);
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doPatch(request, response);
+        responseText = responseStringWriter.toString();
+
+        Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        Assertions.assertEquals(MimeTypes.TEXT_PLAIN, responseContentType);
+        Assertions.assertEquals("Test conflict", responseText);
+    }
+
     @Test
     void testDelete() {
         ProfessorService service;
@@ -440,18 +602,48 @@ class ProfessorControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(ProfessorService.class);
-        Mockito.doReturn(true).when(service).delete(200);
+        Mockito.doReturn(true).when(service).delete(200, null);
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/200").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertTrue(responseStatus < 400);
     }
 
+    @Test
+    void testDeleteVersionConflict() {
+        ProfessorService service;
+        ProfessorController controller;
+        HttpServletRequest request;
+        Object[] ifMatchHeaders;
+
+        service = Mockito.mock(ProfessorService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).delete(200, ExpectedVersions.of(7));
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/200").when(request).getPathInfo();
+
+        controller = Mockito.spy(ProfessorController.class);
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+
+        ifMatchHeaders = new Object[] {"\"7-3-1\"", "W/\"7-3-1\"", "7", "W/\"7\", \"abc\""};
+        for (Object ifMatch : ifMatchHeaders) {
+            responseStatus = 0;
+            Mockito.doReturn(ifMatch).when(request).getHeader(ETags.IF_MATCH_HEADER);
+            controller.doDelete(request, response);
+            Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        }
+        Mockito.verify(service, Mockito.times(1)).delete(Mockito.anyInt(), Mockito.any());
+    }
+
     @Test
     void testDeleteBadRequest() {
         ProfessorService service;
@@ -464,7 +656,9 @@ class ProfessorControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -488,15 +682,21 @@ class ProfessorControllerTest {
         Mockito.doReturn("/200").when(request).getPathInfo();
 
         controller = Mockito.spy(ProfessorController.class);
-        Mockito.doReturn(service).when(controller).createProfessorService();
+        Mockito.doReturn(service).when(controller).getProfessorService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    static Gson parser = ParseUtils.createParser();
     HttpServletResponse response;
     PrintWriter responseWriter;
     StringWriter responseStringWriter;
+    ServletOutputStream responseOutputStream;
+    ByteArrayOutputStream responseBytes;
+    ResponseCache responseCache;
     String responseContentType;
     int responseStatus;
 }
@@ -0,0 +1,78 @@
+package controllers;
+
+import database.RoutingDataSource;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+class ReadYourWritesFilterTest {
+    @Test
+    void testSessionFromCookie() throws IOException, ServletException {
+        RoutingDataSource routing;
+        ReadYourWritesFilter filter;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        FilterChain chain;
+        ArgumentCaptor<LongConsumer> onWrite;
+        ArgumentCaptor<Cookie> cookie;
+
+        routing = Mockito.mock(RoutingDataSource.class);
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(new Cookie[] {new Cookie("other", "1"), new Cookie(ReadYourWritesFilter.COOKIE_NAME, "42")})
+                .when(request).getCookies();
+        Mockito.doReturn("").when(request).getContextPath();
+        response = Mockito.mock(HttpServletResponse.class);
+        chain = Mockito.mock(FilterChain.class);
+        filter = Mockito.spy(ReadYourWritesFilter.class);
+        Mockito.doReturn(routing).when(filter).getRouting();
+
+        filter.doFilter(request, response, chain);
+        onWrite = ArgumentCaptor.forClass(LongConsumer.class);
+        Mockito.verify(routing).openSession(Mockito.eq(42L), onWrite.capture());
+        Mockito.verify(chain).doFilter(request, response);
+        Mockito.verify(routing).closeSession();
+
+        onWrite.getValue().accept(100);
+        cookie = ArgumentCaptor.forClass(Cookie.class);
+        Mockito.verify(response).addCookie(cookie.capture());
+        Assertions.assertEquals(ReadYourWritesFilter.COOKIE_NAME, cookie.getValue().getName());
+        Assertions.assertEquals("100", cookie.getValue().getValue());
+        Assertions.assertEquals("/", cookie.getValue().getPath());
+    }
+
+    @Test
+    void testMalformedCookieIgnored() {
+        HttpServletRequest request;
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Assertions.assertEquals(0, ReadYourWritesFilter.requiredLsn(request));
+        Mockito.doReturn(new Cookie[] {new Cookie(ReadYourWritesFilter.COOKIE_NAME, "0/16B3748")}).when(request).getCookies();
+        Assertions.assertEquals(0, ReadYourWritesFilter.requiredLsn(request));
+    }
+
+    @Test
+    void testWithoutReplicas() throws IOException, ServletException {
+        ReadYourWritesFilter filter;
+        HttpServletRequest request;
+        HttpServletResponse response;
+        FilterChain chain;
+
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        chain = Mockito.mock(FilterChain.class);
+        filter = Mockito.spy(ReadYourWritesFilter.class);
+        Mockito.doReturn(null).when(filter).getRouting();
+
+        filter.doFilter(request, response, chain);
+        Mockito.verify(chain).doFilter(request, response);
+    }
+}
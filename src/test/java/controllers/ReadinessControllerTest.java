@@ -0,0 +1,45 @@
+package controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import listeners.Warmup;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class ReadinessControllerTest {
+    @Test
+    void testNotReady() {
+        ReadinessController controller;
+        HttpServletResponse response;
+        Warmup warmup;
+
+        warmup = Mockito.mock(Warmup.class);
+        response = Mockito.mock(HttpServletResponse.class);
+
+        controller = Mockito.spy(ReadinessController.class);
+        Mockito.doReturn(warmup).when(controller).getWarmup();
+        controller.doGet(Mockito.mock(HttpServletRequest.class), response);
+
+        Mockito.verify(warmup, Mockito.never()).start(Mockito.anyString());
+        Mockito.verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        Mockito.verify(response).setHeader("Retry-After", "1");
+    }
+
+    @Test
+    void testReady() {
+        ReadinessController controller;
+        HttpServletResponse response;
+        Warmup warmup;
+
+        warmup = Mockito.mock(Warmup.class);
+        Mockito.doReturn(true).when(warmup).isReady();
+        response = Mockito.mock(HttpServletResponse.class);
+
+        controller = Mockito.spy(ReadinessController.class);
+        Mockito.doReturn(warmup).when(controller).getWarmup();
+        controller.doGet(Mockito.mock(HttpServletRequest.class), response);
+
+        Mockito.verify(warmup, Mockito.never()).start(Mockito.anyString());
+        Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
+    }
+}
@@ -1,9 +1,14 @@
 package controllers;
 
+import cache.ResponseCache;
+import com.google.gson.Gson;
 import entities.Department;
 import entities.University;
 import entities.UniversityFull;
+import entities.UniversityPatch;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Assertions;
@@ -11,10 +16,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import services.UniversityService;
+import services.Versioned;
+import utils.ETags;
+import utils.ExpectedVersions;
 import utils.MimeTypes;
+import utils.Pagination;
+import utils.ParseUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 class UniversityControllerTest {
     @BeforeEach
@@ -23,6 +35,14 @@ class UniversityControllerTest {
         responseStringWriter = new StringWriter();
         responseWriter = new PrintWriter(responseStringWriter);
         Mockito.doReturn(responseWriter).when(response).getWriter();
+        responseBytes = new ByteArrayOutputStream();
+        responseOutputStream = Mockito.mock(ServletOutputStream.class);
+        Mockito.doAnswer(invocation -> {
+            responseBytes.write((byte[]) invocation.getArgument(0));
+            return null;
+        }).when(responseOutputStream).write(Mockito.any(byte[].class));
+        Mockito.doReturn(responseOutputStream).when(response).getOutputStream();
+        responseCache = new ResponseCache(1 << 20);
         Mockito.doAnswer(invocation -> {
             responseContentType = invocation.getArgument(0);
             return null;
@@ -56,13 +76,24 @@ class UniversityControllerTest {
         universities.add(university);
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(universities).when(service).get();
+        Mockito.doAnswer(invocation -> {
+            Consumer<String> onVersion;
+            Consumer<University> consumer;
+
+            onVersion = invocation.getArgument(0);
+            consumer = invocation.getArgument(1);
+            onVersion.accept("42");
+            universities.forEach(consumer);
+            return null;
+        }).when(service).forEach(Mockito.any(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn(null).when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -70,6 +101,29 @@ class UniversityControllerTest {
         Assertions.assertEquals("[{\"id\":1,\"name\":\"PSTU\",\"city\":\"PERM\"},{\"id\":2,\"name\":\"SPBSU\",\"city\":\"SPB\"}]", responseJson);
     }
 
+    @Test
+    void testGetAllNotModified() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doReturn("42").when(service).getVersion();
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(null).when(request).getPathInfo();
+        Mockito.doReturn("\"42\"").when(request).getHeader(ETags.IF_NONE_MATCH_HEADER);
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, responseStatus);
+        Mockito.verify(service, Mockito.never()).forEach(Mockito.any(), Mockito.any());
+    }
+
     @Test
     void testGetOne() throws IOException {
         UniversityService service;
@@ -98,18 +152,196 @@ class UniversityControllerTest {
         university.setDepartments(departments);
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(university).when(service).getById(university.getId());
+        university.setVersion("5-7-2");
+        Mockito.doReturn(university).when(service).getById(university.getId(), "5-7-2");
+        Mockito.doReturn("5-7-2").when(service).getVersion(university.getId());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/1").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
-        responseJson = responseStringWriter.toString();
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
 
         Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
         Assertions.assertEquals("{\"departments\":[{\"id\":1,\"name\":\"ITAS\"},{\"id\":2,\"name\":\"AT\"}],\"id\":1,\"name\":\"PSTU\",\"city\":\"PERM\"}", responseJson);
+        Mockito.verify(response).setHeader(ETags.ETAG_HEADER, "\"5-7-2\"");
+        Mockito.verify(service).recordAccess(1);
+    }
+
+    @Test
+    void testGetOneCached() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        UniversityFull university;
+        String expectedJson;
+
+        university = new UniversityFull();
+        university.setId(1);
+        university.setName("PSTU");
+        university.setCity("PERM");
+        expectedJson = "{\"id\":1,\"name\":\"PSTU\",\"city\":\"PERM\"}";
+
+        service = Mockito.mock(UniversityService.class);
+        university.setVersion("5-7-2");
+        Mockito.doReturn(university).when(service).getById(university.getId(), "5-7-2");
+        Mockito.doReturn("5-7-2").when(service).getVersion(university.getId());
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/1").when(request).getPathInfo();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+        responseBytes.reset();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(expectedJson, responseBytes.toString(StandardCharsets.UTF_8));
+        Mockito.verify(service, Mockito.times(1)).getById(university.getId(), "5-7-2");
+        Mockito.verify(response, Mockito.times(2)).setContentLength(expectedJson.length());
+
+        university.setVersion("6-7-2");
+        Mockito.doReturn(university).when(service).getById(university.getId(), "6-7-2");
+        Mockito.doReturn("6-7-2").when(service).getVersion(university.getId());
+        controller.doGet(request, response);
+        Mockito.verify(service, Mockito.times(1)).getById(university.getId(), "6-7-2");
+    }
+
+    @Test
+    void testGetOneOutdatedEntity() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        UniversityFull university;
+
+        // Версия уже изменилась, а сущность загружена до изменения
+        university = new UniversityFull();
+        university.setId(1);
+        university.setName("PSTU");
+        university.setCity("PERM");
+        university.setVersion("5-7-2");
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doReturn(university).when(service).getById(university.getId(), "6-7-2");
+        Mockito.doReturn("6-7-2").when(service).getVersion(university.getId());
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/1").when(request).getPathInfo();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        // ETag соответствует телу, а тело не кэшируется под новой версией
+        Mockito.verify(response).setHeader(ETags.ETAG_HEADER, "\"6-7-2\"");
+        Mockito.verify(response).setHeader(ETags.ETAG_HEADER, "\"5-7-2\"");
+        controller.doGet(request, response);
+        Mockito.verify(service, Mockito.times(2)).getById(university.getId(), "6-7-2");
+    }
+
+    @Test
+    void testGetOneNotModified() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doReturn("5-7-2").when(service).getVersion(1);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/1").when(request).getPathInfo();
+        Mockito.doReturn("W/\"1-1-1\", \"5-7-2\"").when(request).getHeader(ETags.IF_NONE_MATCH_HEADER);
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+
+        Assertions.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, responseStatus);
+        Assertions.assertEquals("", responseStringWriter.toString());
+        Mockito.verify(service, Mockito.never()).getById(Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    void testGetPage() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        ArrayList<University> universities;
+        String responseJson;
+
+        universities = new ArrayList<>(3);
+        for (int id = 1; id <= 3; id++) {
+            University university;
+
+            university = new University();
+            university.setId(id);
+            university.setName("U" + id);
+            university.setCity("C" + id);
+            universities.add(university);
+        }
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doReturn(new Versioned<>("3", universities)).when(service).get(0, 3);
+        Mockito.doReturn(new Versioned<>("3", universities.subList(2, 3))).when(service).get(2, 3);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(null).when(request).getPathInfo();
+        Mockito.doReturn("2").when(request).getParameter(Pagination.LIMIT_PARAMETER);
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doGet(request, response);
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(MimeTypes.APPLICATION_JSON, responseContentType);
+        Assertions.assertEquals("{\"items\":[{\"id\":1,\"name\":\"U1\",\"city\":\"C1\"},{\"id\":2,\"name\":\"U2\",\"city\":\"C2\"}]," +
+                "\"next\":\"" + Pagination.encodeToken(2) + "\"}", responseJson);
+
+        responseBytes.reset();
+        Mockito.doReturn(Pagination.encodeToken(2)).when(request).getParameter(Pagination.AFTER_PARAMETER);
+        controller.doGet(request, response);
+        responseJson = responseBytes.toString(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals("{\"items\":[{\"id\":3,\"name\":\"U3\",\"city\":\"C3\"}]}", responseJson);
+    }
+
+    @Test
+    void testGetPageBadRequest() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        String[][] parameters;
+
+        service = Mockito.mock(UniversityService.class);
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(null).when(request).getPathInfo();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+
+        parameters = new String[][]{{"0", null}, {"abc", null}, {"10", "garbage!"}, {null, Pagination.encodeToken(-5)}};
+        for (String[] parameter : parameters) {
+            responseStatus = 0;
+            Mockito.doReturn(parameter[0]).when(request).getParameter(Pagination.LIMIT_PARAMETER);
+            Mockito.doReturn(parameter[1]).when(request).getParameter(Pagination.AFTER_PARAMETER);
+            controller.doGet(request, response);
+            Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
+        }
     }
 
     @Test
@@ -124,7 +356,9 @@ class UniversityControllerTest {
         Mockito.doReturn("/1a").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -137,13 +371,15 @@ class UniversityControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(null).when(service).getById(Mockito.anyInt());
+        Mockito.doReturn(null).when(service).getById(Mockito.anyInt(), Mockito.any());
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/1").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doGet(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
@@ -181,7 +417,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -210,7 +448,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -231,7 +471,9 @@ class UniversityControllerTest {
         Mockito.doReturn("/aaa").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_BAD_REQUEST, responseStatus);
@@ -258,7 +500,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPost(request, response);
         responseText = responseStringWriter.toString();
 
@@ -281,10 +525,15 @@ class UniversityControllerTest {
         university = new UniversityFull();
         university.setId(12);
 
-
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(university).when(service).getById(university.getId());
-        Mockito.doReturn(true).when(service).update(Mockito.any(University.class));
+        Mockito.doAnswer(invocation -> {
+            UniversityPatch patch;
+
+            patch = invocation.getArgument(1);
+            university.setName(patch.getName().orElseThrow());
+            university.setCity(patch.getCity().orElseThrow());
+            return university;
+        }).when(service).update(Mockito.eq(university.getId()), Mockito.any(UniversityPatch.class), Mockito.isNull());
 
         requestJson = "{\"name\":\"SPBSU\",\"city\":\"SPB\"}";
         requestStringReader = new StringReader(requestJson);
@@ -294,7 +543,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseJson = responseStringWriter.toString();
 
@@ -322,7 +573,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -343,7 +596,9 @@ class UniversityControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -365,8 +620,7 @@ class UniversityControllerTest {
         String responseText;
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(new UniversityFull()).when(service).getById(12);
-        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.any(University.class));
+        Mockito.doThrow(new ValidationException("Test error")).when(service).update(Mockito.eq(12), Mockito.any(UniversityPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -376,7 +630,9 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
         responseText = responseStringWriter.toString();
 
@@ -395,7 +651,7 @@ class UniversityControllerTest {
         BufferedReader requestReader;
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(null).when(service).getById(12);
+        Mockito.doReturn(null).when(service).update(Mockito.eq(12), Mockito.any(UniversityPatch.class), Mockito.isNull());
 
         requestJson = "{}";
         requestStringReader = new StringReader(requestJson);
@@ -405,12 +661,47 @@ class UniversityControllerTest {
         Mockito.doReturn(requestReader).when(request).getReader();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doPatch(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    @Test
+    void testUpdateVersionConflict() throws IOException {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        String requestJson;
+        StringReader requestStringReader;
+        BufferedReader requestReader;
+        String responseText;
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).update(Mockito.eq(12), Mockito.any(UniversityPatch.class), Mockito.eq(ExpectedVersions.of(7)));
+
+        requestJson = "{}";
+        requestStringReader = new StringReader(requestJson);
+        requestReader = new BufferedReader(requestStringReader);
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/12").when(request).getPathInfo();
+        Mockito.doReturn("\"7-3-1\"").when(request).getHeader(ETags.IF_MATCH_HEADER);
+        Mockito.doReturn(requestReader).when(request).getReader();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+        controller.doPatch(request, response);
+        responseText = responseStringWriter.toString();
+
+        Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        Assertions.assertEquals(MimeTypes.TEXT_PLAIN, responseContentType);
+        Assertions.assertEquals("Test conflict", responseText);
+    }
+
     @Test
     void testDelete() {
         UniversityService service;
@@ -418,18 +709,77 @@ class UniversityControllerTest {
         HttpServletRequest request;
 
         service = Mockito.mock(UniversityService.class);
-        Mockito.doReturn(true).when(service).delete(12);
+        Mockito.doReturn(true).when(service).delete(12, null);
 
         request = Mockito.mock(HttpServletRequest.class);
         Mockito.doReturn("/12").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertTrue(responseStatus < 400);
     }
 
+    @Test
+    void testDeleteVersionConflict() {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+        Object[] ifMatchHeaders;
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).delete(12, ExpectedVersions.of(7));
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/12").when(request).getPathInfo();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+
+        ifMatchHeaders = new Object[] {"\"7-3-1\"", "W/\"7-3-1\"", "7", "W/\"7\", \"abc\""};
+        for (Object ifMatch : ifMatchHeaders) {
+            responseStatus = 0;
+            Mockito.doReturn(ifMatch).when(request).getHeader(ETags.IF_MATCH_HEADER);
+            controller.doDelete(request, response);
+            Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+        }
+        Mockito.verify(service, Mockito.times(1)).delete(Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    void testDeleteIfMatchList() {
+        UniversityService service;
+        UniversityController controller;
+        HttpServletRequest request;
+
+        service = Mockito.mock(UniversityService.class);
+        Mockito.doReturn(true).when(service).delete(12, ExpectedVersions.of(5, 7));
+        Mockito.doThrow(new VersionConflictException("Test conflict")).when(service).delete(12, ExpectedVersions.any());
+
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("/12").when(request).getPathInfo();
+
+        controller = Mockito.spy(UniversityController.class);
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
+
+        responseStatus = 0;
+        Mockito.doReturn("W/\"3\", \"5-1\", \"abc\",\"7-3-1\"").when(request).getHeader(ETags.IF_MATCH_HEADER);
+        controller.doDelete(request, response);
+        Assertions.assertTrue(responseStatus < 400);
+
+        // Для * университет должен существовать
+        Mockito.doReturn(" * ").when(request).getHeader(ETags.IF_MATCH_HEADER);
+        controller.doDelete(request, response);
+        Assertions.assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, responseStatus);
+    }
+
     @Test
     void testDeleteBadRequest() {
         UniversityService service;
@@ -442,7 +792,9 @@ class UniversityControllerTest {
         request = Mockito.mock(HttpServletRequest.class);
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
 
         pathInfos = new Object[2];
         pathInfos[0] = "/aaa";
@@ -466,15 +818,21 @@ class UniversityControllerTest {
         Mockito.doReturn("/12").when(request).getPathInfo();
 
         controller = Mockito.spy(UniversityController.class);
-        Mockito.doReturn(service).when(controller).createUniversityService();
+        Mockito.doReturn(service).when(controller).getUniversityService();
+        Mockito.doReturn(parser).when(controller).getParser();
+        Mockito.doReturn(responseCache).when(controller).getResponseCache();
         controller.doDelete(request, response);
 
         Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, responseStatus);
     }
 
+    static Gson parser = ParseUtils.createParser();
     HttpServletResponse response;
     PrintWriter responseWriter;
     StringWriter responseStringWriter;
+    ServletOutputStream responseOutputStream;
+    ByteArrayOutputStream responseBytes;
+    ResponseCache responseCache;
     String responseContentType;
     int responseStatus;
 }
@@ -0,0 +1,206 @@
+package database;
+
+import cache.EntityCache;
+import com.zaxxer.hikari.HikariDataSource;
+import entities.University;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import repositories.UniversityRepository;
+import services.UniversityService;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выбор сервера для чтения. Роль реплик играют отдельные пулы соединений с тем же сервером,
+ * различаемые по имени приложения.
+ */
+class RoutingDataSourceTest {
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        primary = ConnectionPool.create();
+        MigrationRunner.migrate(primary);
+    }
+
+    @AfterAll
+    static void afterAll() {
+        primary.close();
+        postgres.stop();
+    }
+
+    @Test
+    void testReadYourWrites() throws SQLException {
+        try (RoutingDataSource routing = routing(RoutingDataSource.Balancing.ROUND_ROBIN, Long.MAX_VALUE, "replica")) {
+            AtomicLong written;
+
+            written = new AtomicLong();
+            // Состояние реплики ещё не проверено
+            Assertions.assertEquals(PRIMARY, applicationName(routing.getReadConnection()));
+            routing.check();
+            Assertions.assertEquals("replica", applicationName(routing.getReadConnection()));
+
+            routing.openSession(0, written::set);
+            try {
+                write(routing);
+                Assertions.assertTrue(written.get() > 0);
+                Assertions.assertEquals(PRIMARY, applicationName(routing.getReadConnection()));
+            } finally {
+                routing.closeSession();
+            }
+            // Чтение других клиентов записи не ждёт
+            Assertions.assertEquals("replica", applicationName(routing.getReadConnection()));
+
+            // Следующий запрос клиента приходит с позицией его записи
+            routing.openSession(written.get(), lsn -> Assertions.fail());
+            try {
+                Assertions.assertEquals(PRIMARY, applicationName(routing.getReadConnection()));
+                routing.check();
+                Assertions.assertEquals("replica", applicationName(routing.getReadConnection()));
+            } finally {
+                routing.closeSession();
+            }
+        }
+    }
+
+    @Test
+    void testReadCreated() throws SQLException {
+        try (RoutingDataSource routing = routing(RoutingDataSource.Balancing.ROUND_ROBIN, Long.MAX_VALUE, "replica")) {
+            TransactionManager transactions;
+            UniversityService service;
+            University university;
+            AtomicLong written;
+
+            transactions = new TransactionManager(routing);
+            service = new UniversityService(new UniversityRepository(transactions),
+                    new EntityCache(3L << 20, Duration.ofMinutes(5)), transactions);
+            written = new AtomicLong();
+            university = new University();
+            university.setName("PSTU");
+            university.setCity("Perm");
+            routing.check();
+
+            routing.openSession(0, written::set);
+            try {
+                service.add(university);
+                Assertions.assertTrue(written.get() > 0);
+                Assertions.assertEquals(PRIMARY, applicationName(routing.getReadConnection()));
+                Assertions.assertNotNull(service.getById(university.getId()));
+            } finally {
+                routing.closeSession();
+            }
+        }
+    }
+
+    @Test
+    void testLaggingReplicaDropped() throws SQLException {
+        try (RoutingDataSource routing = routing(RoutingDataSource.Balancing.ROUND_ROBIN, -1, "replica")) {
+            routing.check();
+            Assertions.assertEquals(PRIMARY, applicationName(routing.getReadConnection()));
+        }
+    }
+
+    @Test
+    void testLeastLoaded() throws SQLException {
+        try (RoutingDataSource routing = routing(RoutingDataSource.Balancing.LEAST_LOADED, Long.MAX_VALUE,
+                "replica-1", "replica-2")) {
+            Connection busy;
+            String busyName;
+
+            routing.check();
+            busy = routing.getReadConnection();
+            try {
+                busyName = poolName(busy);
+                for (int i = 0; i < 4; i++) {
+                    Assertions.assertNotEquals(busyName, applicationName(routing.getReadConnection()));
+                }
+            } finally {
+                busy.close();
+            }
+        }
+    }
+
+    @Test
+    void testReadTransaction() throws SQLException {
+        try (RoutingDataSource routing = routing(RoutingDataSource.Balancing.ROUND_ROBIN, Long.MAX_VALUE, "replica")) {
+            TransactionManager transactions;
+
+            transactions = new TransactionManager(routing);
+            routing.check();
+            Assertions.assertEquals("replica", transactions.read(() -> applicationName(transactions.getReadConnection())));
+            // Чтение внутри изменяющей транзакции идёт через её соединение
+            Assertions.assertEquals(PRIMARY, transactions.write(() -> applicationName(transactions.getReadConnection())));
+
+            // Записанное в транзакции сеанс читает с основного сервера
+            routing.openSession(0, lsn -> { });
+            try {
+                transactions.write(() -> {
+                    write(transactions.getConnection());
+                    return null;
+                });
+                Assertions.assertEquals(PRIMARY, transactions.read(() -> applicationName(transactions.getReadConnection())));
+            } finally {
+                routing.closeSession();
+            }
+        }
+    }
+
+    private static void write(RoutingDataSource routing) throws SQLException {
+        try (Connection connection = routing.getConnection()) {
+            connection.setAutoCommit(false);
+            write(connection);
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void write(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS routing_writes (id integer)");
+            statement.execute("INSERT INTO routing_writes VALUES (1)");
+        }
+    }
+
+    private static RoutingDataSource routing(RoutingDataSource.Balancing balancing, long maxLagBytes, String... names) {
+        HikariDataSource[] replicas;
+
+        replicas = new HikariDataSource[names.length];
+        for (int i = 0; i < names.length; i++) {
+            replicas[i] = ConnectionPool.create(postgres.getJdbcUrl(), names[i]);
+        }
+        return new RoutingDataSource(primary, Arrays.asList(replicas), balancing, maxLagBytes);
+    }
+
+    /**
+     * Имя приложения соединения, то есть имя пула, выдавшего его. Соединение закрывается.
+     */
+    private static String applicationName(Connection connection) throws SQLException {
+        try (Connection closing = connection) {
+            return poolName(closing);
+        }
+    }
+
+    private static String poolName(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT current_setting('application_name')")) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private static final String PRIMARY = "University";
+
+    static HikariDataSource primary;
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            "postgres:16-alpine"
+    );
+}
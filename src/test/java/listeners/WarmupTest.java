@@ -0,0 +1,155 @@
+package listeners;
+
+import cache.EntityCache;
+import com.sun.net.httpserver.HttpServer;
+import entities.Department;
+import entities.DepartmentFull;
+import entities.University;
+import entities.UniversityFull;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import services.DepartmentService;
+import services.UniversityService;
+import services.Versioned;
+import utils.WarmupSettings;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class WarmupTest {
+    @Test
+    void testPreloadsFirstEntitiesWithoutSnapshot() {
+        EntityCache cache;
+        UniversityService universityService;
+        DepartmentService departmentService;
+        University university;
+        Department department;
+        Warmup warmup;
+        long timeout;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        university = new University();
+        university.setId(1);
+        department = new Department();
+        department.setId(2);
+        universityService = Mockito.mock(UniversityService.class);
+        Mockito.doReturn(new Versioned<>("1", Collections.singletonList(university))).when(universityService).get(Mockito.eq(0), Mockito.anyInt());
+        Mockito.doReturn(new UniversityFull()).when(universityService).getById(1);
+        departmentService = Mockito.mock(DepartmentService.class);
+        Mockito.doReturn(new Versioned<>("1", Collections.singletonList(department))).when(departmentService).get(Mockito.eq(0), Mockito.anyInt());
+        Mockito.doReturn(new DepartmentFull()).when(departmentService).getById(2);
+
+        warmup = new Warmup(null, cache, universityService, departmentService);
+        Assertions.assertFalse(warmup.isReady());
+        // На этом порту никто не слушает: синтетические запросы не проходят, но готовность наступает
+        timeout = WarmupSettings.SERVER_START_TIMEOUT_MS;
+        WarmupSettings.SERVER_START_TIMEOUT_MS = 0;
+        try {
+            Assertions.assertEquals(0, warmup.run("http://127.0.0.1:1"));
+        } finally {
+            WarmupSettings.SERVER_START_TIMEOUT_MS = timeout;
+        }
+        Assertions.assertTrue(warmup.isReady());
+        Mockito.verify(universityService).getById(1);
+        Mockito.verify(departmentService).getById(2);
+    }
+
+    @Test
+    void testPreloadsHottestCachedEntities() throws Exception {
+        EntityCache cache;
+        UniversityService universityService;
+        DepartmentService departmentService;
+        UniversityFull university;
+        long timeout;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        university = new UniversityFull();
+        university.setId(7);
+        cache.getUniversity(7, id -> university);
+        universityService = Mockito.mock(UniversityService.class);
+        departmentService = Mockito.mock(DepartmentService.class);
+        Mockito.doReturn(new Versioned<>("0", Collections.emptyList())).when(departmentService).get(Mockito.eq(0), Mockito.anyInt());
+
+        timeout = WarmupSettings.SERVER_START_TIMEOUT_MS;
+        WarmupSettings.SERVER_START_TIMEOUT_MS = 0;
+        try {
+            new Warmup(null, cache, universityService, departmentService).run("http://127.0.0.1:1");
+        } finally {
+            WarmupSettings.SERVER_START_TIMEOUT_MS = timeout;
+        }
+        Mockito.verify(universityService, Mockito.never()).get(Mockito.anyInt(), Mockito.anyInt());
+        Mockito.verify(universityService).getById(7);
+    }
+
+    @Test
+    void testWaitsForServer() throws Exception {
+        EntityCache cache;
+        UniversityService universityService;
+        DepartmentService departmentService;
+        HttpServer server;
+        AtomicInteger refused;
+        int requests;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        universityService = Mockito.mock(UniversityService.class);
+        Mockito.doReturn(new Versioned<>("0", Collections.emptyList())).when(universityService).get(Mockito.eq(0), Mockito.anyInt());
+        departmentService = Mockito.mock(DepartmentService.class);
+        Mockito.doReturn(new Versioned<>("0", Collections.emptyList())).when(departmentService).get(Mockito.eq(0), Mockito.anyInt());
+
+        // Первые запросы обрываются без ответа, как до запуска контейнера
+        refused = new AtomicInteger(3);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (refused.getAndDecrement() <= 0) {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        requests = WarmupSettings.SYNTHETIC_REQUESTS;
+        WarmupSettings.SYNTHETIC_REQUESTS = 5;
+        try {
+            Assertions.assertEquals(5, new Warmup(null, cache, universityService, departmentService)
+                    .run("http://127.0.0.1:" + server.getAddress().getPort()));
+        } finally {
+            WarmupSettings.SYNTHETIC_REQUESTS = requests;
+            server.stop(0);
+        }
+        Assertions.assertTrue(refused.get() < 0);
+    }
+
+    @Test
+    void testSyntheticRequestsMarked() throws Exception {
+        HttpServer server;
+        AtomicReference<String> header;
+        HttpServletRequest synthetic;
+        HttpServletRequest forged;
+
+        header = new AtomicReference<>();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            header.set(exchange.getRequestHeaders().getFirst(Warmup.SYNTHETIC_HEADER));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            Assertions.assertTrue(Warmup.request("http://127.0.0.1:" + server.getAddress().getPort() + "/universities/1"));
+        } finally {
+            server.stop(0);
+        }
+
+        synthetic = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn(header.get()).when(synthetic).getHeader(Warmup.SYNTHETIC_HEADER);
+        forged = Mockito.mock(HttpServletRequest.class);
+        Mockito.doReturn("true").when(forged).getHeader(Warmup.SYNTHETIC_HEADER);
+        Assertions.assertTrue(Warmup.isSynthetic(synthetic));
+        Assertions.assertFalse(Warmup.isSynthetic(forged));
+        Assertions.assertFalse(Warmup.isSynthetic(Mockito.mock(HttpServletRequest.class)));
+    }
+}
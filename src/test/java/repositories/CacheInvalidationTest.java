@@ -0,0 +1,141 @@
+package repositories;
+
+import cache.CacheInvalidationListener;
+import cache.EntityCache;
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import entities.Department;
+import entities.DepartmentPatch;
+import entities.University;
+import entities.UniversityPatch;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import utils.DatabaseSettings;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Сброс кэша по уведомлениям об изменениях, сделанных в обход сервисов этого узла.
+ */
+class CacheInvalidationTest {
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
+    }
+
+    @AfterAll
+    static void afterAll() {
+        dataSource.close();
+        postgres.stop();
+    }
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        universityRepository = new UniversityRepository(dataSource);
+        departmentRepository = new DepartmentRepository(dataSource);
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        listener = new CacheInvalidationListener(cache);
+        listener.start();
+        for (int i = 0; i < 100 && !listener.isListening(); i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertTrue(listener.isListening());
+    }
+
+    @AfterEach
+    void cleanUp() throws SQLException {
+        listener.close();
+        dataSource.getConnection().createStatement().execute("DELETE FROM universities");
+    }
+
+    @Test
+    void testUpdateEvicts() throws SQLException, InterruptedException {
+        University university;
+        Department department;
+        UniversityPatch universityPatch;
+        DepartmentPatch departmentPatch;
+
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        universityRepository.add(university);
+        department = new Department();
+        department.setName("ITAS");
+        department.setUniversity(university);
+        departmentRepository.add(department);
+
+        cacheUniversity(university.getId());
+        cache.getDepartment(department.getId(), departmentRepository::getById);
+        departmentPatch = new DepartmentPatch();
+        departmentPatch.setName(Optional.of("AT"));
+        departmentRepository.update(department.getId(), departmentPatch, null);
+        Assertions.assertTrue(awaitEviction(university.getId()));
+
+        cacheUniversity(university.getId());
+        universityPatch = new UniversityPatch();
+        universityPatch.setCity(Optional.of("Perm"));
+        universityRepository.update(university.getId(), universityPatch, null);
+        Assertions.assertFalse(awaitEviction(university.getId()));
+
+        universityRepository.delete(university.getId(), null);
+        Assertions.assertTrue(awaitEviction(university.getId()));
+        Assertions.assertNull(cache.getDepartment(department.getId(), departmentRepository::getById));
+    }
+
+    @Test
+    void testIdFilterFollowsInserts() throws SQLException, InterruptedException {
+        University university;
+        int size;
+
+        Assertions.assertTrue(cache.getUniversityIds().getStatistics().isReady());
+        size = cache.getUniversityIds().getStatistics().getSize();
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        universityRepository.add(university);
+        // Уведомление добавляет идентификатор в карту
+        for (int i = 0; i < 20 && cache.getUniversityIds().getStatistics().getSize() == size; i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(size + 1, cache.getUniversityIds().getStatistics().getSize());
+        Assertions.assertTrue(cache.getUniversityIds().mightContain(university.getId()));
+        Assertions.assertFalse(cache.getUniversityIds().mightContain(-1));
+
+        listener.close();
+        Assertions.assertTrue(cache.getUniversityIds().mightContain(-1));
+    }
+
+    private void cacheUniversity(int id) throws SQLException {
+        Assertions.assertNotNull(cache.getUniversity(id, universityRepository::getById));
+    }
+
+    /**
+     * Дождаться, пока университет пропадёт из кэша.
+     */
+    private boolean awaitEviction(int id) throws SQLException, InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            if (cache.getUniversity(id, key -> null) == null) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    static HikariDataSource dataSource;
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            "postgres:16-alpine"
+    );
+    UniversityRepository universityRepository;
+    DepartmentRepository departmentRepository;
+    EntityCache cache;
+    CacheInvalidationListener listener;
+}
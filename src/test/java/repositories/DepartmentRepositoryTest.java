@@ -1,6 +1,11 @@
 package repositories;
 
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
 import entities.Department;
+import entities.DepartmentFull;
+import entities.DepartmentPatch;
 import entities.University;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
@@ -10,17 +15,26 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
 
 class DepartmentRepositoryTest {
 
     @BeforeAll
-    static void beforeAll() {
+    static void beforeAll() throws SQLException {
         postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
     }
 
     @AfterAll
     static void afterAll() {
+        dataSource.close();
         postgres.stop();
     }
 
@@ -29,11 +43,8 @@ class DepartmentRepositoryTest {
         try {
             UniversityRepository universityRepository;
 
-            DatabaseSettings.URL = postgres.getJdbcUrl();
-            DatabaseSettings.USERNAME = postgres.getUsername();
-            DatabaseSettings.PASSWORD = postgres.getPassword();
-            universityRepository = new UniversityRepository();
-            repository = new DepartmentRepository();
+            universityRepository = new UniversityRepository(dataSource);
+            repository = new DepartmentRepository(dataSource);
             university = new University();
             university.setName("PSTU");
             university.setCity("Perm");
@@ -71,9 +82,70 @@ class DepartmentRepositoryTest {
         Assertions.assertEquals(2, departments.size());
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        Department first;
+        Department second;
+        Collection<Department> page;
+
+        first = new Department();
+        first.setName("ITAS");
+        first.setUniversity(university);
+        second = new Department();
+        second.setName("AT");
+        second.setUniversity(university);
+        repository.add(first);
+        repository.add(second);
+        page = repository.get(0, 1);
+        Assertions.assertEquals(1, page.size());
+        Assertions.assertEquals(first.getId(), page.iterator().next().getId());
+        page = repository.get(first.getId(), 10);
+        Assertions.assertEquals(1, page.size());
+        Assertions.assertEquals(second.getId(), page.iterator().next().getId());
+        Assertions.assertEquals(university.getName(), page.iterator().next().getUniversity().getName());
+    }
+
+    @Test
+    void testForEach() throws SQLException {
+        ArrayList<Department> streamed;
+        Department department;
+
+        department = new Department();
+        department.setName("ITAS");
+        department.setUniversity(university);
+        repository.add(department);
+        streamed = new ArrayList<>();
+        repository.forEach(streamed::add);
+        Assertions.assertEquals(repository.get().size(), streamed.size());
+        Assertions.assertEquals(department.getId(), streamed.get(streamed.size() - 1).getId());
+        Assertions.assertEquals(university.getName(), streamed.get(streamed.size() - 1).getUniversity().getName());
+    }
+
+    @Test
+    void testGetVersions() throws SQLException {
+        Department department;
+        Map<Integer, String> versions;
+
+        department = new Department();
+        department.setUniversity(university);
+        department.setName("ITAS");
+        repository.add(department);
+        versions = repository.getVersions(new int[] {department.getId(), Integer.MAX_VALUE});
+        Assertions.assertEquals(1, versions.size());
+        Assertions.assertEquals(repository.getVersion(department.getId()), versions.get(department.getId()));
+    }
+
+    @Test
+    void testPrepareStatements() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            Assertions.assertDoesNotThrow(() -> repository.prepareStatements(connection));
+        }
+    }
+
     @Test
     void testGetById() throws SQLException {
-        Department department, dbDepartment;
+        Department department;
+        DepartmentFull dbDepartment;
         int id;
 
         department = new Department();
@@ -85,16 +157,21 @@ class DepartmentRepositoryTest {
         Assertions.assertEquals(department.getId(), dbDepartment.getId());
         Assertions.assertEquals(department.getName(), dbDepartment.getName());
         Assertions.assertEquals(department.getUniversity().getId(), dbDepartment.getUniversity().getId());
+        Assertions.assertEquals(repository.getVersion(id), dbDepartment.getVersion());
     }
 
     @Test
     void testAdd() throws SQLException {
         Department department;
+        DepartmentFull created;
         Collection<Department> departments;
         department = new Department();
         department.setName("ITAS");
         department.setUniversity(university);
-        repository.add(department);
+        created = repository.add(department);
+        Assertions.assertEquals(department.getId(), created.getId());
+        Assertions.assertEquals(university.getName(), created.getUniversity().getName());
+        Assertions.assertTrue(created.getProfessors().isEmpty());
         departments = repository.get();
         Assertions.assertFalse(departments.isEmpty());
     }
@@ -102,15 +179,20 @@ class DepartmentRepositoryTest {
     @Test
     void testUpdate() throws SQLException {
         Department department;
-        boolean updated;
+        DepartmentPatch patch;
+        DepartmentFull updated;
 
         department = new Department();
         department.setName("ITAS");
         department.setUniversity(university);
         repository.add(department);
-        department.setName("AT");
-        updated = repository.update(department);
-        Assertions.assertTrue(updated);
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("AT"));
+        updated = repository.update(department.getId(), patch, null);
+        Assertions.assertEquals("AT", updated.getName());
+        Assertions.assertEquals(university.getName(), updated.getUniversity().getName());
+        Assertions.assertTrue(updated.getProfessors().isEmpty());
+        Assertions.assertNull(repository.update(Integer.MAX_VALUE, patch, null));
     }
 
     @Test
@@ -122,10 +204,11 @@ class DepartmentRepositoryTest {
         department.setName("ITAS");
         department.setUniversity(university);
         repository.add(department);
-        deleted = repository.delete(department.getId());
+        deleted = repository.delete(department.getId(), null);
         Assertions.assertTrue(deleted);
     }
 
+    static HikariDataSource dataSource;
     static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
             "postgres:16-alpine"
     );
@@ -0,0 +1,222 @@
+package repositories;
+
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Замер эффекта индексов по внешним ключам на большом наборе данных.
+ * Одни и те же запросы выполняются с индексами из миграции V2 и без них.
+ * Запуск: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class ForeignKeyIndexBenchmarkTest {
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        Connection connection;
+        Statement statement;
+
+        postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
+
+        connection = dataSource.getConnection();
+        try {
+            statement = connection.createStatement();
+            statement.execute("INSERT INTO universities (name, city) "
+                    + "SELECT 'University ' || g, 'City ' || g FROM generate_series(1, " + UNIVERSITIES + ") g");
+            statement.execute("INSERT INTO departments (university_id, name) "
+                    + "SELECT u.id, 'Department ' || g FROM universities u, generate_series(1, " + DEPARTMENTS_PER_UNIVERSITY + ") g");
+            statement.execute("INSERT INTO professors (department_id, name, phone_number, degree, birthday) "
+                    + "SELECT d.id, 'Professor ' || g, '+7999000' || g, 'PhD', DATE '1970-01-01' + g "
+                    + "FROM departments d, generate_series(1, " + PROFESSORS_PER_DEPARTMENT + ") g");
+            statement.execute("ANALYZE universities, departments, professors");
+            universityIds = readIds(statement, "SELECT id FROM universities");
+            departmentIds = readIds(statement, "SELECT id FROM departments");
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        Connection connection;
+
+        connection = dataSource.getConnection();
+        try {
+            connection.createStatement().execute("DELETE FROM universities");
+        } finally {
+            connection.close();
+        }
+        dataSource.close();
+        postgres.stop();
+    }
+
+    @Test
+    void benchmarkGetById() throws SQLException {
+        UniversityRepository universityRepository;
+        DepartmentRepository departmentRepository;
+        long universityIndexed, universityScanned;
+        long departmentIndexed, departmentScanned;
+
+        universityRepository = new UniversityRepository(dataSource);
+        departmentRepository = new DepartmentRepository(dataSource);
+        Assertions.assertTrue(explain("SELECT id, name FROM departments WHERE university_id = " + universityIds.get(0)).contains("departments_university_id_idx"));
+        Assertions.assertTrue(explain("SELECT id FROM professors WHERE department_id = " + departmentIds.get(0)).contains("professors_department_id_idx"));
+
+        universityIndexed = measure(universityIds, universityRepository::getById);
+        departmentIndexed = measure(departmentIds, departmentRepository::getById);
+        execute("DROP INDEX departments_university_id_idx");
+        execute("DROP INDEX professors_department_id_idx");
+        try {
+            universityScanned = measure(universityIds, universityRepository::getById);
+            departmentScanned = measure(departmentIds, departmentRepository::getById);
+        } finally {
+            execute("CREATE INDEX IF NOT EXISTS departments_university_id_idx ON departments (university_id)");
+            execute("CREATE INDEX IF NOT EXISTS professors_department_id_idx ON professors (department_id)");
+        }
+
+        report("UniversityRepository.getById", universityIndexed, universityScanned);
+        report("DepartmentRepository.getById", departmentIndexed, departmentScanned);
+        Assertions.assertTrue(universityIndexed < universityScanned);
+        Assertions.assertTrue(departmentIndexed < departmentScanned);
+    }
+
+    @Test
+    void benchmarkCascadeDelete() throws SQLException {
+        long indexed, scanned;
+
+        indexed = measureCascadeDelete(false);
+        scanned = measureCascadeDelete(true);
+        report("DELETE FROM universities (ON DELETE CASCADE)", indexed, scanned);
+        Assertions.assertTrue(indexed < scanned);
+    }
+
+    /**
+     * Удалить несколько университетов в транзакции и откатить её.
+     * DROP INDEX в PostgreSQL транзакционен, поэтому откат возвращает и индексы.
+     */
+    private long measureCascadeDelete(boolean dropIndexes) throws SQLException {
+        Connection connection;
+        PreparedStatement statement;
+        long start;
+        long elapsed;
+
+        connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            if (dropIndexes) {
+                connection.createStatement().execute("DROP INDEX departments_university_id_idx");
+                connection.createStatement().execute("DROP INDEX professors_department_id_idx");
+            }
+            statement = connection.prepareStatement("DELETE FROM universities WHERE id = ?");
+            start = System.nanoTime();
+            for (int i = 0; i < DELETES; i++) {
+                statement.setInt(1, universityIds.get(i));
+                statement.executeUpdate();
+            }
+            elapsed = (System.nanoTime() - start) / DELETES;
+            connection.rollback();
+        } finally {
+            connection.setAutoCommit(true);
+            connection.close();
+        }
+        return elapsed;
+    }
+
+    private static long measure(List<Integer> ids, Lookup lookup) throws SQLException {
+        Random random;
+        long start;
+
+        random = new Random(SEED);
+        for (int i = 0; i < WARMUP; i++) {
+            lookup.get(ids.get(random.nextInt(ids.size())));
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookup.get(ids.get(random.nextInt(ids.size())));
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static String explain(String sql) throws SQLException {
+        Connection connection;
+        ResultSet resultSet;
+        StringBuilder plan;
+
+        plan = new StringBuilder();
+        connection = dataSource.getConnection();
+        try {
+            resultSet = connection.createStatement().executeQuery("EXPLAIN " + sql);
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1)).append('\n');
+            }
+        } finally {
+            connection.close();
+        }
+        return plan.toString();
+    }
+
+    private static void execute(String sql) throws SQLException {
+        Connection connection;
+
+        connection = dataSource.getConnection();
+        try {
+            connection.createStatement().execute(sql);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static List<Integer> readIds(Statement statement, String sql) throws SQLException {
+        ResultSet resultSet;
+        ArrayList<Integer> ids;
+
+        ids = new ArrayList<>();
+        resultSet = statement.executeQuery(sql);
+        while (resultSet.next()) {
+            ids.add(resultSet.getInt(1));
+        }
+        return ids;
+    }
+
+    private static void report(String name, long indexed, long scanned) {
+        System.out.printf("%s: %d us with index, %d us without (x%.1f)%n",
+                name, indexed / 1000, scanned / 1000, (double) scanned / indexed);
+    }
+
+    @FunctionalInterface
+    private interface Lookup {
+        Object get(int id) throws SQLException;
+    }
+
+    private static final int UNIVERSITIES = 2_000;
+    private static final int DEPARTMENTS_PER_UNIVERSITY = 50;
+    private static final int PROFESSORS_PER_DEPARTMENT = 5;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 200;
+    private static final int DELETES = 5;
+    private static final long SEED = 42;
+
+    static HikariDataSource dataSource;
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            "postgres:16-alpine"
+    );
+    static List<Integer> universityIds;
+    static List<Integer> departmentIds;
+}
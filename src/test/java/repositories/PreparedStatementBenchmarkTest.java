@@ -0,0 +1,193 @@
+package repositories;
+
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Замер эффекта кэша подготовленных запросов на соединении трёх таблиц из ProfessorRepository.getById.
+ * Одни и те же запросы выполняются через пул с настройками по умолчанию и через пул, в котором запросы
+ * никогда не становятся серверными (prepareThreshold = 0) и каждый раз разбираются и планируются заново.
+ * Запуск: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class PreparedStatementBenchmarkTest {
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        Connection connection;
+        Statement statement;
+        int threshold;
+
+        postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
+        threshold = DatabaseSettings.PREPARE_THRESHOLD;
+        DatabaseSettings.PREPARE_THRESHOLD = 0;
+        try {
+            unpreparedDataSource = ConnectionPool.create();
+        } finally {
+            DatabaseSettings.PREPARE_THRESHOLD = threshold;
+        }
+
+        connection = dataSource.getConnection();
+        try {
+            statement = connection.createStatement();
+            statement.execute("INSERT INTO universities (name, city) "
+                    + "SELECT 'University ' || g, 'City ' || g FROM generate_series(1, " + UNIVERSITIES + ") g");
+            statement.execute("INSERT INTO departments (university_id, name) "
+                    + "SELECT u.id, 'Department ' || g FROM universities u, generate_series(1, " + DEPARTMENTS_PER_UNIVERSITY + ") g");
+            statement.execute("INSERT INTO professors (department_id, name, phone_number, degree, birthday) "
+                    + "SELECT d.id, 'Professor ' || g, '+7999000' || g, 'PhD', DATE '1970-01-01' + g "
+                    + "FROM departments d, generate_series(1, " + PROFESSORS_PER_DEPARTMENT + ") g");
+            statement.execute("ANALYZE universities, departments, professors");
+            professorIds = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT id FROM professors")) {
+                while (resultSet.next()) {
+                    professorIds.add(resultSet.getInt(1));
+                }
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @AfterAll
+    static void afterAll() throws SQLException {
+        Connection connection;
+
+        connection = dataSource.getConnection();
+        try {
+            connection.createStatement().execute("DELETE FROM universities");
+        } finally {
+            connection.close();
+        }
+        unpreparedDataSource.close();
+        dataSource.close();
+        postgres.stop();
+    }
+
+    @Test
+    void benchmarkGetById() throws SQLException {
+        ProfessorRepository prepared, unprepared;
+        long preparedTime, unpreparedTime;
+
+        prepared = new ProfessorRepository(dataSource);
+        unprepared = new ProfessorRepository(unpreparedDataSource);
+        unpreparedTime = measure(unprepared);
+        preparedTime = measure(prepared);
+        unpreparedTime = Math.min(unpreparedTime, measure(unprepared));
+        preparedTime = Math.min(preparedTime, measure(prepared));
+
+        report("ProfessorRepository.getById", "us", preparedTime / 1000.0, unpreparedTime / 1000.0);
+        Assertions.assertTrue(preparedTime < unpreparedTime);
+    }
+
+    /**
+     * Время планирования по EXPLAIN ANALYZE: для текста запроса план строится при каждом выполнении,
+     * для подготовленного после нескольких выполнений берётся общий план из кэша сервера.
+     */
+    @Test
+    void benchmarkPlanningTime() throws SQLException {
+        Connection connection;
+        Statement statement;
+        Random random;
+        double prepared, unprepared;
+
+        random = new Random(SEED);
+        prepared = 0;
+        unprepared = 0;
+        connection = dataSource.getConnection();
+        try {
+            statement = connection.createStatement();
+            statement.execute("PREPARE professor(int) AS " + SELECT_PROFESSOR.replace("?", "$1"));
+            for (int i = 0; i < WARMUP; i++) {
+                statement.execute("EXECUTE professor(" + randomId(random) + ")");
+            }
+            for (int i = 0; i < PLANS; i++) {
+                unprepared += planningTime(statement, SELECT_PROFESSOR.replace("?", String.valueOf(randomId(random))));
+                prepared += planningTime(statement, "EXECUTE professor(" + randomId(random) + ")");
+            }
+            statement.execute("DEALLOCATE professor");
+        } finally {
+            connection.close();
+        }
+
+        report("Planning time of ProfessorRepository.getById", "ms", prepared / PLANS, unprepared / PLANS);
+        Assertions.assertTrue(prepared < unprepared);
+    }
+
+    private static long measure(ProfessorRepository repository) throws SQLException {
+        Random random;
+        long start;
+
+        random = new Random(SEED);
+        for (int i = 0; i < WARMUP; i++) {
+            repository.getById(randomId(random));
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            repository.getById(randomId(random));
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static double planningTime(Statement statement, String sql) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("EXPLAIN (ANALYZE) " + sql)) {
+            while (resultSet.next()) {
+                Matcher matcher;
+
+                matcher = PLANNING_TIME.matcher(resultSet.getString(1));
+                if (matcher.find()) {
+                    return Double.parseDouble(matcher.group(1));
+                }
+            }
+        }
+        throw new IllegalStateException("No planning time in EXPLAIN output");
+    }
+
+    private static int randomId(Random random) {
+        return professorIds.get(random.nextInt(professorIds.size()));
+    }
+
+    private static void report(String name, String unit, double prepared, double unprepared) {
+        System.out.printf("%s: %.3f %s prepared, %.3f %s unprepared (x%.1f)%n",
+                name, prepared, unit, unprepared, unit, unprepared / prepared);
+    }
+
+    // Тот же запрос, что выполняет ProfessorRepository.getById
+    private static final String SELECT_PROFESSOR = "SELECT p.name, p.phone_number," +
+            " p.degree, p.birthday, d.id, d.name, u.id, u.name, u.city, p.version, d.version, u.version" +
+            " FROM professors p INNER JOIN departments d ON p.department_id = d.id" +
+            " INNER JOIN universities u ON d.university_id = u.id WHERE p.id = ?";
+    private static final Pattern PLANNING_TIME = Pattern.compile("Planning Time: ([0-9.]+) ms");
+    private static final int UNIVERSITIES = 200;
+    private static final int DEPARTMENTS_PER_UNIVERSITY = 20;
+    private static final int PROFESSORS_PER_DEPARTMENT = 10;
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2_000;
+    private static final int PLANS = 200;
+    private static final long SEED = 42;
+
+    static HikariDataSource dataSource;
+    static HikariDataSource unpreparedDataSource;
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            "postgres:16-alpine"
+    );
+    static List<Integer> professorIds;
+}
@@ -1,7 +1,11 @@
 package repositories;
 
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
 import entities.Department;
 import entities.Professor;
+import entities.ProfessorPatch;
 import entities.University;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
@@ -13,27 +17,31 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Optional;
 
 class ProfessorRepositoryTest {
     @BeforeAll
-    static void beforeAll() {
+    static void beforeAll() throws SQLException {
         postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
     }
 
     @AfterAll
     static void afterAll() {
+        dataSource.close();
         postgres.stop();
     }
 
     @BeforeEach
     void setUp() {
         try {
-            DatabaseSettings.URL = postgres.getJdbcUrl();
-            DatabaseSettings.USERNAME = postgres.getUsername();
-            DatabaseSettings.PASSWORD = postgres.getPassword();
-            universityRepository = new UniversityRepository();
-            departmentRepository = new DepartmentRepository();
-            repository = new ProfessorRepository();
+            universityRepository = new UniversityRepository(dataSource);
+            departmentRepository = new DepartmentRepository(dataSource);
+            repository = new ProfessorRepository(dataSource);
             university = new University();
             university.setName("PSTU");
             university.setCity("Perm");
@@ -87,6 +95,56 @@ class ProfessorRepositoryTest {
         Assertions.assertEquals(2, professors.size());
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        Professor[] professors;
+        Collection<Professor> page;
+        Professor professor;
+
+        professors = new Professor[3];
+        for (int i = 0; i < professors.length; i++) {
+            professors[i] = new Professor();
+            professors[i].setName("Professor " + i);
+            professors[i].setPhoneNumber("+7999888433" + i);
+            professors[i].setDegree("PhD");
+            professors[i].setBirthday(new Date(0));
+            professors[i].setDepartment(department);
+            repository.add(professors[i]);
+        }
+        page = repository.get(professors[0].getId(), 1);
+        Assertions.assertEquals(1, page.size());
+        professor = page.iterator().next();
+        Assertions.assertEquals(professors[1].getId(), professor.getId());
+        Assertions.assertEquals(department.getId(), professor.getDepartment().getId());
+        Assertions.assertEquals(university.getId(), professor.getDepartment().getUniversity().getId());
+        Assertions.assertTrue(repository.get(professors[2].getId(), 1).isEmpty());
+    }
+
+    @Test
+    void testAddMissingDepartment() {
+        Professor professor;
+        Department missing;
+        SQLException exception;
+
+        missing = new Department();
+        missing.setId(Integer.MAX_VALUE);
+        professor = new Professor();
+        professor.setName("Ivan");
+        professor.setPhoneNumber("+79998884334");
+        professor.setDegree("PhD");
+        professor.setBirthday(new Date(0));
+        professor.setDepartment(missing);
+        exception = Assertions.assertThrows(SQLException.class, () -> repository.add(professor));
+        Assertions.assertTrue(Repository.isForeignKeyViolation(exception));
+    }
+
+    @Test
+    void testPrepareStatements() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            Assertions.assertDoesNotThrow(() -> repository.prepareStatements(connection));
+        }
+    }
+
     @Test
     void testGetById() throws SQLException {
         Professor professor, dbProfessor;
@@ -109,11 +167,12 @@ class ProfessorRepositoryTest {
         Assertions.assertEquals(professor.getName(), dbProfessor.getName());
         Assertions.assertEquals(professor.getPhoneNumber(), dbProfessor.getPhoneNumber());
         Assertions.assertEquals(professor.getDegree(), dbProfessor.getDegree());
+        Assertions.assertEquals(repository.getVersion(id), dbProfessor.getVersion());
     }
 
     @Test
     void testAdd() throws SQLException {
-        Professor professor;
+        Professor professor, created;
         Date birthdate;
         Collection<Professor> professors;
 
@@ -126,16 +185,19 @@ class ProfessorRepositoryTest {
         professor.setBirthday(birthdate);
         professor.setDepartment(department);
 
-        repository.add(professor);
+        created = repository.add(professor);
+        Assertions.assertEquals(professor.getId(), created.getId());
+        Assertions.assertEquals(department.getName(), created.getDepartment().getName());
+        Assertions.assertEquals(university.getCity(), created.getDepartment().getUniversity().getCity());
         professors = repository.get();
         Assertions.assertFalse(professors.isEmpty());
     }
 
     @Test
     void testUpdate() throws SQLException {
-        Professor professor;
+        Professor professor, updated;
+        ProfessorPatch patch;
         Date birthdate;
-        boolean updated;
 
         professor = new Professor();
         professor.setName("Ivan");
@@ -147,9 +209,15 @@ class ProfessorRepositoryTest {
         professor.setDepartment(department);
 
         repository.add(professor);
-        professor.setName("Alex");
-        updated = repository.update(professor);
-        Assertions.assertTrue(updated);
+        patch = new ProfessorPatch();
+        patch.setName(Optional.of("Alex"));
+        patch.setBirthday(Optional.of(new Date(86_400_000L * 365)));
+        updated = repository.update(professor.getId(), patch, null);
+        Assertions.assertEquals("Alex", updated.getName());
+        Assertions.assertEquals(professor.getPhoneNumber(), updated.getPhoneNumber());
+        Assertions.assertEquals(department.getName(), updated.getDepartment().getName());
+        Assertions.assertEquals(university.getName(), updated.getDepartment().getUniversity().getName());
+        Assertions.assertNull(repository.update(Integer.MAX_VALUE, patch, null));
     }
 
     @Test
@@ -168,10 +236,11 @@ class ProfessorRepositoryTest {
         professor.setDepartment(department);
 
         repository.add(professor);
-        deleted = repository.delete(professor.getId());
+        deleted = repository.delete(professor.getId(), null);
         Assertions.assertTrue(deleted);
     }
 
+    static HikariDataSource dataSource;
     static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
             "postgres:16-alpine"
     );
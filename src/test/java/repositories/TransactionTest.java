@@ -0,0 +1,117 @@
+package repositories;
+
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import database.TransactionManager;
+import entities.Department;
+import entities.University;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import utils.DatabaseSettings;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Присоединение репозиториев к транзакциям {@link TransactionManager}.
+ */
+class TransactionTest {
+    @BeforeAll
+    static void beforeAll() throws SQLException {
+        postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
+    }
+
+    @AfterAll
+    static void afterAll() {
+        dataSource.close();
+        postgres.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        transactions = new TransactionManager(dataSource);
+        universityRepository = new UniversityRepository(transactions);
+        departmentRepository = new DepartmentRepository(transactions);
+    }
+
+    @AfterEach
+    void cleanUp() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("DELETE FROM universities");
+        }
+    }
+
+    @Test
+    void testRollback() throws SQLException {
+        University university;
+
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        Assertions.assertThrows(IllegalStateException.class, () -> transactions.write(() -> {
+            Department department;
+
+            universityRepository.add(university);
+            department = new Department();
+            department.setName("ITAS");
+            department.setUniversity(university);
+            departmentRepository.add(department);
+            throw new IllegalStateException("Failure after both inserts");
+        }));
+        Assertions.assertFalse(transactions.inTransaction());
+        Assertions.assertNull(universityRepository.getVersion(university.getId()));
+        Assertions.assertEquals(0, universityRepository.get(0, 10).size());
+    }
+
+    @Test
+    void testSingleConnection() throws SQLException {
+        int[] pids;
+
+        pids = transactions.write(() -> new int[] {backendPid(), transactions.read(TransactionTest::backendPid)});
+        Assertions.assertEquals(pids[0], pids[1]);
+        Assertions.assertFalse(transactions.inTransaction());
+    }
+
+    @Test
+    void testReadOnly() throws SQLException {
+        University university;
+
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        Assertions.assertThrows(SQLException.class, () -> transactions.read(() -> {
+            universityRepository.add(university);
+            return null;
+        }));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> transactions.read(() -> transactions.write(() -> null)));
+        // Соединение вернулось в пул в обычном режиме
+        universityRepository.add(university);
+        Assertions.assertNotNull(universityRepository.getVersion(university.getId()));
+    }
+
+    private static int backendPid() throws SQLException {
+        try (Connection connection = transactions.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT pg_backend_pid()")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    static HikariDataSource dataSource;
+    static TransactionManager transactions;
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+            "postgres:16-alpine"
+    );
+    private UniversityRepository universityRepository;
+    private DepartmentRepository departmentRepository;
+}
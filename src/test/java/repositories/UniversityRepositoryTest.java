@@ -1,34 +1,50 @@
 package repositories;
 
+import com.zaxxer.hikari.HikariDataSource;
+import database.ConnectionPool;
+import database.MigrationRunner;
+import entities.Department;
+import entities.DepartmentPatch;
 import entities.University;
+import entities.UniversityFull;
+import entities.UniversityPatch;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.PostgreSQLContainer;
 import utils.DatabaseSettings;
+import utils.ExpectedVersions;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
 
 class UniversityRepositoryTest {
     @BeforeAll
-    static void beforeAll() {
+    static void beforeAll() throws SQLException {
         postgres.start();
+        DatabaseSettings.URL = postgres.getJdbcUrl();
+        DatabaseSettings.USERNAME = postgres.getUsername();
+        DatabaseSettings.PASSWORD = postgres.getPassword();
+        dataSource = ConnectionPool.create();
+        MigrationRunner.migrate(dataSource);
     }
 
     @AfterAll
     static void afterAll() {
+        dataSource.close();
         postgres.stop();
     }
 
     @BeforeEach
     void setUp() {
         try {
-            DatabaseSettings.URL = postgres.getJdbcUrl();
-            DatabaseSettings.USERNAME = postgres.getUsername();
-            DatabaseSettings.PASSWORD = postgres.getPassword();
-            repository = new UniversityRepository();
+            repository = new UniversityRepository(dataSource);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -62,9 +78,239 @@ class UniversityRepositoryTest {
         Assertions.assertEquals(2, universities.size());
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        University[] universities;
+        Collection<University> page;
+        int lastId;
+
+        universities = new University[3];
+        for (int i = 0; i < universities.length; i++) {
+            universities[i] = new University();
+            universities[i].setName("University " + i);
+            universities[i].setCity("Perm");
+            repository.add(universities[i]);
+        }
+        page = repository.get(0, 2);
+        Assertions.assertEquals(2, page.size());
+        lastId = 0;
+        for (University university : page) {
+            Assertions.assertTrue(university.getId() > lastId);
+            lastId = university.getId();
+        }
+        Assertions.assertEquals(universities[1].getId(), lastId);
+        page = repository.get(lastId, 2);
+        Assertions.assertEquals(1, page.size());
+        Assertions.assertEquals(universities[2].getId(), page.iterator().next().getId());
+    }
+
+    @Test
+    void testForEach() throws SQLException {
+        ArrayList<University> streamed;
+        int fetchSize;
+
+        for (int i = 0; i < 5; i++) {
+            University university;
+
+            university = new University();
+            university.setName("University " + i);
+            university.setCity("Perm");
+            repository.add(university);
+        }
+        streamed = new ArrayList<>();
+        fetchSize = DatabaseSettings.STREAM_FETCH_SIZE;
+        DatabaseSettings.STREAM_FETCH_SIZE = 2;
+        try {
+            repository.forEach(streamed::add);
+        } finally {
+            DatabaseSettings.STREAM_FETCH_SIZE = fetchSize;
+        }
+        Assertions.assertEquals(repository.get().size(), streamed.size());
+        for (int i = 1; i < streamed.size(); i++) {
+            Assertions.assertTrue(streamed.get(i).getId() > streamed.get(i - 1).getId());
+        }
+    }
+
+    @Test
+    void testForEachFailure() throws SQLException {
+        University university;
+        IllegalStateException thrown;
+
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        repository.add(university);
+        thrown = Assertions.assertThrows(IllegalStateException.class, () -> repository.forEach(streamed -> {
+            throw new IllegalStateException("Handler failure");
+        }));
+        Assertions.assertEquals("Handler failure", thrown.getMessage());
+        // Соединение вернулось в пул в режиме автокоммита, без открытой транзакции
+        try (Connection connection = dataSource.getConnection()) {
+            Assertions.assertTrue(connection.getAutoCommit());
+            Assertions.assertFalse(connection.isReadOnly());
+        }
+        Assertions.assertEquals(1, repository.get().size());
+    }
+
+    @Test
+    void testGetVersion() throws SQLException {
+        DepartmentRepository departmentRepository;
+        University university;
+        Department department;
+        DepartmentPatch patch;
+        String listVersion, version, changed;
+
+        listVersion = repository.getVersion();
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        repository.add(university);
+        Assertions.assertNotEquals(listVersion, repository.getVersion());
+        Assertions.assertNull(repository.getVersion(Integer.MAX_VALUE));
+
+        version = repository.getVersion(university.getId());
+        Assertions.assertEquals(version, repository.getVersion(university.getId()));
+        departmentRepository = new DepartmentRepository(dataSource);
+        department = new Department();
+        department.setName("ITAS");
+        department.setUniversity(university);
+        departmentRepository.add(department);
+        changed = repository.getVersion(university.getId());
+        Assertions.assertNotEquals(version, changed);
+
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("AT"));
+        departmentRepository.update(department.getId(), patch, null);
+        version = changed;
+        changed = repository.getVersion(university.getId());
+        Assertions.assertNotEquals(version, changed);
+
+        departmentRepository.delete(department.getId(), null);
+        Assertions.assertNotEquals(changed, repository.getVersion(university.getId()));
+    }
+
+    /**
+     * Вставки в одну таблицу не ждут друг друга, а версия списка меняется, даже если транзакция
+     * с меньшей версией строки зафиксирована позже транзакции с большей.
+     */
+    @Test
+    void testListVersionConcurrentWriters() throws SQLException {
+        Connection first, second;
+        String beforeCommit;
+
+        first = dataSource.getConnection();
+        second = dataSource.getConnection();
+        try {
+            first.setAutoCommit(false);
+            second.setAutoCommit(false);
+            first.createStatement().execute("INSERT INTO universities (name, city) VALUES ('PSTU', 'Perm')");
+            second.createStatement().execute("SET LOCAL lock_timeout = '1s'");
+            second.createStatement().execute("INSERT INTO universities (name, city) VALUES ('ITMO', 'Saint-Petersburg')");
+            second.commit();
+            beforeCommit = repository.getVersion();
+            first.commit();
+            Assertions.assertNotEquals(beforeCommit, repository.getVersion());
+            Assertions.assertEquals(repository.getVersion(), repository.getVersion());
+        } finally {
+            first.setAutoCommit(true);
+            second.setAutoCommit(true);
+            first.close();
+            second.close();
+        }
+        beforeCommit = repository.getVersion();
+        repository.delete(repository.get().iterator().next().getId(), null);
+        Assertions.assertNotEquals(beforeCommit, repository.getVersion());
+    }
+
+    @Test
+    void testListVersionOtherTables() throws SQLException {
+        University university;
+        Connection writer;
+        String listVersion;
+
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        repository.add(university);
+        listVersion = repository.getVersion();
+        writer = dataSource.getConnection();
+        try {
+            writer.setAutoCommit(false);
+            writer.createStatement().execute("INSERT INTO departments (name, university_id) VALUES ('ITAS', "
+                    + university.getId() + ")");
+            Assertions.assertEquals(listVersion, repository.getVersion());
+            writer.commit();
+            Assertions.assertEquals(listVersion, repository.getVersion());
+        } finally {
+            writer.setAutoCommit(true);
+            writer.close();
+        }
+    }
+
+    @Test
+    void testGetVersions() throws SQLException {
+        University first, second;
+        Map<Integer, String> versions;
+
+        first = new University();
+        first.setName("PSTU");
+        first.setCity("Perm");
+        repository.add(first);
+        second = new University();
+        second.setName("PSU");
+        second.setCity("Perm");
+        repository.add(second);
+        versions = repository.getVersions(new int[] {first.getId(), second.getId(), Integer.MAX_VALUE});
+        Assertions.assertEquals(2, versions.size());
+        Assertions.assertEquals(repository.getVersion(first.getId()), versions.get(first.getId()));
+        Assertions.assertEquals(repository.getVersion(second.getId()), versions.get(second.getId()));
+        Assertions.assertTrue(repository.getVersions(new int[0]).isEmpty());
+    }
+
+    @Test
+    void testPrepareStatements() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            repository.prepareStatements(connection);
+            Assertions.assertTrue(connection.getAutoCommit());
+            Assertions.assertFalse(connection.isReadOnly());
+            for (String sql : repository.getReadStatements()) {
+                Assertions.assertTrue(isPrepared(connection, sql), sql);
+            }
+        }
+    }
+
+    /**
+     * Подготовлен ли запрос на сервере: драйвер отправляет его с параметрами $1, $2, ...
+     */
+    private static boolean isPrepared(Connection connection, String sql) throws SQLException {
+        StringBuilder text;
+        int parameter;
+
+        text = new StringBuilder();
+        parameter = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                text.append('$').append(++parameter);
+            } else {
+                text.append(c);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT count(*) FROM pg_prepared_statements WHERE statement = ?")) {
+            ResultSet resultSet;
+
+            statement.setString(1, text.toString());
+            resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1) > 0;
+        }
+    }
+
     @Test
     void testGetById() throws SQLException {
-        University university, dbUniversity;
+        University university;
+        UniversityFull dbUniversity;
+        Department department;
         int id;
 
         university = new University();
@@ -72,10 +318,15 @@ class UniversityRepositoryTest {
         university.setCity("Perm");
         repository.add(university);
         id = university.getId();
+        department = new Department();
+        department.setName("ITAS");
+        department.setUniversity(university);
+        new DepartmentRepository(dataSource).add(department);
         dbUniversity = repository.getById(id);
         Assertions.assertEquals(university.getId(), dbUniversity.getId());
         Assertions.assertEquals(university.getName(), dbUniversity.getName());
         Assertions.assertEquals(university.getCity(), dbUniversity.getCity());
+        Assertions.assertEquals(repository.getVersion(id), dbUniversity.getVersion());
     }
 
     @Test
@@ -94,15 +345,53 @@ class UniversityRepositoryTest {
     @Test
     void testUpdate() throws SQLException {
         University university;
-        boolean updated;
+        UniversityPatch patch;
+        UniversityFull updated;
 
         university = new University();
         university.setName("ITMO");
         university.setCity("Saint-Petersburg");
         repository.add(university);
-        university.setName("SpbSU");
-        updated = repository.update(university);
-        Assertions.assertTrue(updated);
+        patch = new UniversityPatch();
+        patch.setName(Optional.of("SpbSU"));
+        updated = repository.update(university.getId(), patch, null);
+        Assertions.assertEquals("SpbSU", updated.getName());
+        Assertions.assertEquals("Saint-Petersburg", updated.getCity());
+        Assertions.assertTrue(updated.getDepartments().isEmpty());
+        Assertions.assertNull(repository.update(Integer.MAX_VALUE, patch, null));
+    }
+
+    @Test
+    void testUpdateWithVersion() throws SQLException {
+        University university;
+        UniversityPatch patch;
+        String version;
+        long rowVersion;
+
+        university = new University();
+        university.setName("ITMO");
+        university.setCity("Saint-Petersburg");
+        repository.add(university);
+        version = repository.getVersion(university.getId());
+        rowVersion = Long.parseLong(version.split("-")[0]);
+
+        patch = new UniversityPatch();
+        Assertions.assertNotNull(repository.update(university.getId(), patch, ExpectedVersions.of(rowVersion)));
+        Assertions.assertEquals(version, repository.getVersion(university.getId()));
+        patch.setName(Optional.of("ITMO"));
+        Assertions.assertNotNull(repository.update(university.getId(), patch, ExpectedVersions.of(rowVersion)));
+        Assertions.assertEquals(version, repository.getVersion(university.getId()));
+
+        patch.setName(Optional.of("SpbSU"));
+        Assertions.assertNotNull(repository.update(university.getId(), patch, ExpectedVersions.of(rowVersion)));
+        Assertions.assertNotEquals(version, repository.getVersion(university.getId()));
+        Assertions.assertNull(repository.update(university.getId(), patch, ExpectedVersions.of(rowVersion)));
+        Assertions.assertFalse(repository.delete(university.getId(), ExpectedVersions.of(rowVersion)));
+        version = repository.getVersion(university.getId());
+        Assertions.assertNotNull(repository.update(university.getId(), patch,
+                ExpectedVersions.of(rowVersion, Long.parseLong(version.split("-")[0]))));
+        Assertions.assertNotNull(repository.update(university.getId(), patch, ExpectedVersions.any()));
+        Assertions.assertTrue(repository.delete(university.getId(), null));
     }
 
     @Test
@@ -114,10 +403,11 @@ class UniversityRepositoryTest {
         university.setName("ITMO");
         university.setCity("Saint-Petersburg");
         repository.add(university);
-        deleted = repository.delete(university.getId());
+        deleted = repository.delete(university.getId(), null);
         Assertions.assertTrue(deleted);
     }
 
+    static HikariDataSource dataSource;
     static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
             "postgres:16-alpine"
     );
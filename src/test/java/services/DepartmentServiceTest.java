@@ -1,54 +1,90 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.Department;
 import entities.DepartmentFull;
+import entities.DepartmentPatch;
+import entities.University;
 import entities.UniversityFull;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import repositories.DepartmentRepository;
-import repositories.UniversityRepository;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.OptionalInt;
 
 class DepartmentServiceTest {
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        dataSource = Mockito.mock(DataSource.class);
+        Mockito.doAnswer(invocation -> Mockito.mock(Connection.class, Mockito.RETURNS_MOCKS)).when(dataSource).getConnection();
+        transactions = new TransactionManager(dataSource);
+    }
+
     @Test
     void testGet() throws SQLException {
         ArrayList<Department> departments;
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
         departments = new ArrayList<>();
         departments.add(new Department());
         departments.add(new Department());
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
         Mockito.when(repository.get()).thenReturn(departments);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertIterableEquals(departments, service.get());
     }
 
     @Test
     void testErrorGet() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).get();
         Assertions.assertThrows(RuntimeException.class, service::get);
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        ArrayList<Department> departments;
+        DepartmentRepository repository;
+        DepartmentService service;
+        Versioned<Collection<Department>> page;
+
+        departments = new ArrayList<>();
+        departments.add(new Department());
+        departments.add(new Department());
+        repository = Mockito.mock(DepartmentRepository.class);
+        Mockito.when(repository.get(10, 2)).thenReturn(departments);
+        Mockito.when(repository.getVersion()).thenReturn("7");
+        service = new DepartmentService(repository, cache, transactions);
+        page = service.get(10, 2);
+        Assertions.assertIterableEquals(departments, page.getValue());
+        Assertions.assertEquals("7", page.getVersion());
+    }
+
     @Test
     void testGetById() throws SQLException {
         DepartmentFull department;
         UniversityFull university;
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
@@ -60,23 +96,53 @@ class DepartmentServiceTest {
         department.setName("PSTU");
         department.setUniversity(university);
         department.setId(1);
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
         Mockito.doReturn(department).when(repository).getById(department.getId());
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertNull(service.getById(department.getId() + 1));
         Assertions.assertEquals(department, service.getById(department.getId()));
     }
 
+    @Test
+    void testGetByIdCached() throws SQLException {
+        University university;
+        DepartmentFull entity;
+        DepartmentRepository repository;
+        DepartmentService service;
+        DepartmentPatch patch;
+
+        university = new University();
+        university.setId(1);
+        entity = new DepartmentFull();
+        entity.setId(10);
+        entity.setName("ITAS");
+        entity.setUniversity(university);
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("ITAS"));
+        repository = Mockito.mock(DepartmentRepository.class);
+        Mockito.doReturn(entity).when(repository).getById(10);
+        Mockito.doReturn(entity).when(repository).update(10, patch, null);
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new DepartmentService(repository, cache, transactions);
+
+        Assertions.assertSame(entity, service.getById(10));
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(1)).getById(10);
+        service.update(10, patch, null);
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(2)).getById(10);
+        service.delete(10, null);
+        service.getById(10);
+        Mockito.verify(repository, Mockito.times(3)).getById(10);
+    }
+
     @Test
     void testErrorGetById() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).getById(10);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.getById(10);
@@ -85,7 +151,6 @@ class DepartmentServiceTest {
 
     @Test
     void testValidAdd() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
         DepartmentFull department;
@@ -98,24 +163,22 @@ class DepartmentServiceTest {
         department = new DepartmentFull();
         department.setName("ITAS");
         department.setUniversity(university);
-        universityRepository = Mockito.mock(UniversityRepository.class);
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
         repository = Mockito.mock(DepartmentRepository.class);
         Mockito.doAnswer(invocation -> {
             Department departmentArg;
 
             departmentArg = invocation.getArgument(0);
             departmentArg.setId(1);
-            return null;
+            return departmentArg;
         }).when(repository).add(department);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         service.add(department);
         Assertions.assertEquals(1, department.getId());
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
     }
 
     @Test
     void testInvalidAdd() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
         DepartmentFull department;
@@ -127,15 +190,13 @@ class DepartmentServiceTest {
         university.setCity("Perm");
         department = new DepartmentFull();
         department.setName("ITAS");
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
             service.add(department);
         });
         department.setName(null);
         department.setUniversity(university);
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
         Assertions.assertThrows(ValidationException.class, () -> {
             service.add(department);
         });
@@ -143,15 +204,13 @@ class DepartmentServiceTest {
 
     @Test
     void testErrorAdd() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
         DepartmentFull department;
         UniversityFull university;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.add(null);
         });
@@ -162,7 +221,6 @@ class DepartmentServiceTest {
         department = new DepartmentFull();
         department.setUniversity(university);
         department.setName("ITAS");
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
         Mockito.doThrow(SQLException.class).when(repository).add(department);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.add(department);
@@ -170,119 +228,146 @@ class DepartmentServiceTest {
     }
 
     @Test
-    void testValidUpdate() throws SQLException {
-        UniversityRepository universityRepository;
+    void testAddMissingUniversity() throws SQLException {
         DepartmentRepository repository;
         DepartmentService service;
         DepartmentFull department;
         UniversityFull university;
 
         university = new UniversityFull();
-        university.setId(1);
-        university.setName("PSTU");
-        university.setCity("Perm");
+        university.setId(404);
         department = new DepartmentFull();
-        department.setName("ITAS");
         department.setUniversity(university);
-        universityRepository = Mockito.mock(UniversityRepository.class);
+        department.setName("ITAS");
         repository = Mockito.mock(DepartmentRepository.class);
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
-        Mockito.doAnswer(invocation -> {
-            Department departmentArg;
+        Mockito.doThrow(new SQLException("foreign key violation", "23503")).when(repository).add(department);
+        service = new DepartmentService(repository, cache, transactions);
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.add(department);
+        });
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
+    }
 
-            departmentArg = invocation.getArgument(0);
-            return departmentArg.getId() == 10;
-        }).when(repository).update(department);
-        service = new DepartmentService(repository, universityRepository);
+    @Test
+    void testValidUpdate() throws SQLException {
+        DepartmentRepository repository;
+        DepartmentService service;
+        DepartmentPatch patch;
+        DepartmentFull department;
+
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("AT"));
+        department = new DepartmentFull();
         department.setId(10);
-        Assertions.assertTrue(service.update(department));
-        department.setId(11);
-        Assertions.assertFalse(service.update(department));
+        department.setName("AT");
+        department.setUniversity(new University());
+        repository = Mockito.mock(DepartmentRepository.class);
+        Mockito.doReturn(department).when(repository).update(10, patch, null);
+        service = new DepartmentService(repository, cache, transactions);
+        Assertions.assertSame(department, service.update(10, patch, null));
+        Assertions.assertNull(service.update(11, patch, null));
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
     }
 
     @Test
     void testInvalidUpdate() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
-        DepartmentFull department;
-        UniversityFull university;
+        DepartmentPatch patch;
 
-        university = new UniversityFull();
-        university.setId(2);
-        university.setName("PSU");
-        university.setCity("Perm");
-        department = new DepartmentFull();
-        department.setName("IT");
-        universityRepository = Mockito.mock(UniversityRepository.class);
+        patch = new DepartmentPatch();
+        patch.setName(Optional.empty());
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(department);
+            service.update(10, patch, null);
         });
-        department.setName(null);
-        department.setUniversity(university);
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
+        patch.setName(Optional.of("AT"));
+        patch.setUniversityId(OptionalInt.empty());
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.update(10, patch, null);
+        });
+        patch.setUniversityId(OptionalInt.of(404));
+        Mockito.doThrow(new SQLException("foreign key violation", "23503")).when(repository).update(10, patch, null);
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(department);
+            service.update(10, patch, null);
         });
     }
 
     @Test
     void testErrorUpdate() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
-        Department department;
-        UniversityFull university;
+        DepartmentPatch patch;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(null);
+            service.update(10, null, null);
         });
-        university = new UniversityFull();
-        university.setId(1);
-        university.setName("PSTU");
-        university.setCity("Perm");
-        department = new Department();
-        department.setUniversity(university);
-        department.setName("ITAS");
-        Mockito.doReturn(university).when(universityRepository).getById(department.getUniversity().getId());
-        Mockito.doThrow(SQLException.class).when(repository).update(department);
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("AT"));
+        Mockito.doThrow(SQLException.class).when(repository).update(10, patch, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(department);
+            service.update(10, patch, null);
+        });
+    }
+
+    @Test
+    void testVersionConflict() throws SQLException {
+        DepartmentRepository repository;
+        DepartmentService service;
+        DepartmentPatch patch;
+
+        patch = new DepartmentPatch();
+        patch.setName(Optional.of("Computer Science"));
+        repository = Mockito.mock(DepartmentRepository.class);
+        Mockito.doReturn("8").when(repository).getVersion(10);
+        service = new DepartmentService(repository, cache, transactions);
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(10, patch, ExpectedVersions.of(7));
         });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(10, ExpectedVersions.of(7));
+        });
+        Assertions.assertNull(service.update(11, patch, ExpectedVersions.of(7)));
+        Assertions.assertFalse(service.delete(11, ExpectedVersions.of(7)));
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(11, patch, ExpectedVersions.any());
+        });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(11, ExpectedVersions.any());
+        });
+        Assertions.assertNull(service.update(10, patch, null));
+        Assertions.assertFalse(service.delete(10, null));
     }
 
     @Test
     void testDelete() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        Mockito.doReturn(true).when(repository).delete(10);
-        service = new DepartmentService(repository, universityRepository);
-        Assertions.assertTrue(service.delete(10));
-        Assertions.assertFalse(service.delete(11));
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new DepartmentService(repository, cache, transactions);
+        Assertions.assertTrue(service.delete(10, null));
+        Assertions.assertFalse(service.delete(11, null));
     }
 
     @Test
     void testErrorDelete() throws SQLException {
-        UniversityRepository universityRepository;
         DepartmentRepository repository;
         DepartmentService service;
 
-        universityRepository = Mockito.mock(UniversityRepository.class);
         repository = Mockito.mock(DepartmentRepository.class);
-        service = new DepartmentService(repository, universityRepository);
+        service = new DepartmentService(repository, cache, transactions);
 
-        Mockito.doThrow(SQLException.class).when(repository).delete(10);
+        Mockito.doThrow(SQLException.class).when(repository).delete(10, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.delete(10);
+            service.delete(10, null);
         });
     }
+
+    EntityCache cache;
+    TransactionManager transactions;
 }
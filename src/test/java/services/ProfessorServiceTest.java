@@ -1,57 +1,92 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.Department;
 import entities.DepartmentFull;
 import entities.Professor;
+import entities.ProfessorPatch;
 import entities.University;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
-import repositories.DepartmentRepository;
 import repositories.ProfessorRepository;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Optional;
+import java.util.OptionalInt;
 
 class ProfessorServiceTest {
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        dataSource = Mockito.mock(DataSource.class);
+        Mockito.doAnswer(invocation -> Mockito.mock(Connection.class, Mockito.RETURNS_MOCKS)).when(dataSource).getConnection();
+        transactions = new TransactionManager(dataSource);
+    }
+
     @Test
     void testGet() throws SQLException {
         ArrayList<Professor> professors;
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
 
         professors = new ArrayList<>();
         professors.add(new Professor());
         professors.add(new Professor());
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
         Mockito.when(repository.get()).thenReturn(professors);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertIterableEquals(professors, service.get());
     }
 
     @Test
     void testErrorGet() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).get();
         Assertions.assertThrows(RuntimeException.class, service::get);
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        ArrayList<Professor> professors;
+        ProfessorRepository repository;
+        ProfessorService service;
+        Versioned<Collection<Professor>> page;
+
+        professors = new ArrayList<>();
+        professors.add(new Professor());
+        professors.add(new Professor());
+        repository = Mockito.mock(ProfessorRepository.class);
+        Mockito.when(repository.get(10, 2)).thenReturn(professors);
+        Mockito.when(repository.getVersion()).thenReturn("7");
+        service = new ProfessorService(repository, cache, transactions);
+        page = service.get(10, 2);
+        Assertions.assertIterableEquals(professors, page.getValue());
+        Assertions.assertEquals("7", page.getVersion());
+    }
+
     @Test
     void testGetById() throws SQLException {
         Professor professor;
         Department department;
         University university;
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
         Date birthdate;
@@ -72,23 +107,57 @@ class ProfessorServiceTest {
         birthdate.setTime(0);
         professor.setBirthday(birthdate);
         professor.setDepartment(department);
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
         Mockito.doReturn(professor).when(repository).getById(professor.getId());
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertNull(service.getById(professor.getId() + 1));
         Assertions.assertEquals(professor, service.getById(professor.getId()));
     }
 
+    @Test
+    void testGetByIdCached() throws SQLException {
+        University university;
+        Department department;
+        Professor entity;
+        ProfessorRepository repository;
+        ProfessorService service;
+        ProfessorPatch patch;
+
+        university = new University();
+        university.setId(1);
+        department = new Department();
+        department.setId(2);
+        department.setUniversity(university);
+        entity = new Professor();
+        entity.setId(10);
+        entity.setName("Ivanov");
+        entity.setDepartment(department);
+        patch = new ProfessorPatch();
+        patch.setName(Optional.of("Ivanov"));
+        repository = Mockito.mock(ProfessorRepository.class);
+        Mockito.doReturn(entity).when(repository).getById(10);
+        Mockito.doReturn(entity).when(repository).update(10, patch, null);
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new ProfessorService(repository, cache, transactions);
+
+        Assertions.assertSame(entity, service.getById(10));
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(1)).getById(10);
+        service.update(10, patch, null);
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(2)).getById(10);
+        service.delete(10, null);
+        service.getById(10);
+        Mockito.verify(repository, Mockito.times(3)).getById(10);
+    }
+
     @Test
     void testErrorGetById() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).getById(10);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.getById(10);
@@ -97,7 +166,6 @@ class ProfessorServiceTest {
 
     @Test
     void testValidAdd() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
         Professor professor;
@@ -121,24 +189,22 @@ class ProfessorServiceTest {
         birthdate.setTime(0);
         professor.setBirthday(birthdate);
         professor.setDepartment(department);
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
         repository = Mockito.mock(ProfessorRepository.class);
         Mockito.doAnswer(invocation -> {
             Professor professorArg;
 
             professorArg = invocation.getArgument(0);
             professorArg.setId(1);
-            return null;
+            return professorArg;
         }).when(repository).add(professor);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         service.add(professor);
         Assertions.assertEquals(1, professor.getId());
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
     }
 
     @Test
     void testInvalidAdd() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
         Professor professor;
@@ -148,9 +214,8 @@ class ProfessorServiceTest {
 
         professor = new Professor();
         professor.setName("Ivan");
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
             service.add(professor);
         });
@@ -169,7 +234,6 @@ class ProfessorServiceTest {
         birthdate.setTime(0);
         professor.setBirthday(birthdate);
         professor.setDepartment(department);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
         Assertions.assertThrows(ValidationException.class, () -> {
             service.add(professor);
         });
@@ -177,7 +241,6 @@ class ProfessorServiceTest {
 
     @Test
     void testErrorAdd() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
         Professor professor;
@@ -185,9 +248,8 @@ class ProfessorServiceTest {
         University university;
         Date birthdate;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.add(null);
         });
@@ -207,7 +269,6 @@ class ProfessorServiceTest {
         birthdate.setTime(0);
         professor.setBirthday(birthdate);
         professor.setDepartment(department);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
         Mockito.doThrow(SQLException.class).when(repository).add(professor);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.add(professor);
@@ -215,154 +276,158 @@ class ProfessorServiceTest {
     }
 
     @Test
-    void testValidUpdate() throws SQLException {
-        DepartmentRepository departmentRepository;
+    void testAddMissingDepartment() throws SQLException {
         ProfessorRepository repository;
         ProfessorService service;
         Professor professor;
-        DepartmentFull department;
-        University university;
-        Date birthdate;
+        Department department;
 
-        university = new University();
-        university.setId(1);
-        university.setName("PSTU");
-        university.setCity("Perm");
-        department = new DepartmentFull();
-        department.setId(1);
-        department.setName("ITAS");
-        department.setUniversity(university);
+        department = new Department();
+        department.setId(404);
         professor = new Professor();
         professor.setName("Ivan");
         professor.setPhoneNumber("+79998884334");
         professor.setDegree("PhD in Computer Science");
-        birthdate = new Date();
-        birthdate.setTime(0);
-        professor.setBirthday(birthdate);
+        professor.setBirthday(new Date(0));
         professor.setDepartment(department);
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
         repository = Mockito.mock(ProfessorRepository.class);
-        Mockito.doAnswer(invocation -> {
-            Professor professorArg;
-
-            professorArg = invocation.getArgument(0);
-            professorArg.setId(1);
-            return null;
-        }).when(repository).update(professor);
-        service = new ProfessorService(repository, departmentRepository);
-        service.update(professor);
-        Assertions.assertEquals(1, professor.getId());
+        Mockito.doThrow(new SQLException("foreign key violation", "23503")).when(repository).add(professor);
+        service = new ProfessorService(repository, cache, transactions);
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.add(professor);
+        });
     }
 
     @Test
-    void testInvalidUpdate() throws SQLException {
-        DepartmentRepository departmentRepository;
+    void testValidUpdate() throws SQLException {
         ProfessorRepository repository;
         ProfessorService service;
+        ProfessorPatch patch;
         Professor professor;
-        DepartmentFull department;
-        University university;
-        Date birthdate;
 
+        patch = new ProfessorPatch();
+        patch.setDegree(Optional.of("PhD in Computer Science"));
         professor = new Professor();
-        professor.setName("Ivan");
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
+        professor.setId(10);
+        professor.setDegree("PhD in Computer Science");
+        professor.setDepartment(new Department());
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
-        Professor finalProfessor = professor;
+        Mockito.doReturn(professor).when(repository).update(10, patch, null);
+        service = new ProfessorService(repository, cache, transactions);
+        Assertions.assertSame(professor, service.update(10, patch, null));
+        Assertions.assertNull(service.update(11, patch, null));
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
+    }
+
+    @Test
+    void testInvalidUpdate() throws SQLException {
+        ProfessorRepository repository;
+        ProfessorService service;
+        ProfessorPatch patch;
+
+        patch = new ProfessorPatch();
+        patch.setName(Optional.empty());
+        repository = Mockito.mock(ProfessorRepository.class);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(finalProfessor);
+            service.update(10, patch, null);
         });
-        university = new University();
-        university.setId(1);
-        university.setName("PSTU");
-        university.setCity("Perm");
-        department = new DepartmentFull();
-        department.setId(1);
-        department.setName("ITAS");
-        department.setUniversity(university);
-        professor = new Professor();
-        professor.setName(null);
-        professor.setPhoneNumber("+79998884334");
-        professor.setDegree("PhD in Computer Science");
-        birthdate = new Date();
-        birthdate.setTime(0);
-        professor.setBirthday(birthdate);
-        professor.setDepartment(department);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
-        Professor finalProfessor1 = professor;
+        patch.setName(Optional.of("Ivan"));
+        patch.setPhoneNumber(Optional.empty());
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(finalProfessor1);
+            service.update(10, patch, null);
+        });
+        patch.setPhoneNumber(null);
+        patch.setDegree(Optional.empty());
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.update(10, patch, null);
+        });
+        patch.setDegree(null);
+        patch.setBirthday(Optional.empty());
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.update(10, patch, null);
+        });
+        patch.setBirthday(null);
+        patch.setDepartmentId(OptionalInt.empty());
+        Assertions.assertThrows(ValidationException.class, () -> {
+            service.update(10, patch, null);
         });
     }
 
     @Test
     void testErrorUpdate() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
-        Professor professor;
-        DepartmentFull department;
-        University university;
-        Date birthdate;
+        ProfessorPatch patch;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(null);
+            service.update(10, null, null);
         });
-        university = new University();
-        university.setId(1);
-        university.setName("PSTU");
-        university.setCity("Perm");
-        department = new DepartmentFull();
-        department.setId(1);
-        department.setName("ITAS");
-        department.setUniversity(university);
-        professor = new Professor();
-        professor.setName("Ivan");
-        professor.setPhoneNumber("+79998884334");
-        professor.setDegree("PhD in Computer Science");
-        birthdate = new Date();
-        birthdate.setTime(0);
-        professor.setBirthday(birthdate);
-        professor.setDepartment(department);
-        Mockito.doReturn(department).when(departmentRepository).getById(professor.getDepartment().getId());
-        Mockito.doThrow(SQLException.class).when(repository).update(professor);
+        patch = new ProfessorPatch();
+        patch.setName(Optional.of("Ivan"));
+        Mockito.doThrow(SQLException.class).when(repository).update(10, patch, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(professor);
+            service.update(10, patch, null);
         });
     }
 
+    @Test
+    void testVersionConflict() throws SQLException {
+        ProfessorRepository repository;
+        ProfessorService service;
+        ProfessorPatch patch;
+
+        patch = new ProfessorPatch();
+        patch.setName(Optional.of("Ivanov"));
+        repository = Mockito.mock(ProfessorRepository.class);
+        Mockito.doReturn("8").when(repository).getVersion(10);
+        service = new ProfessorService(repository, cache, transactions);
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(10, patch, ExpectedVersions.of(7));
+        });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(10, ExpectedVersions.of(7));
+        });
+        Assertions.assertNull(service.update(11, patch, ExpectedVersions.of(7)));
+        Assertions.assertFalse(service.delete(11, ExpectedVersions.of(7)));
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(11, patch, ExpectedVersions.any());
+        });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(11, ExpectedVersions.any());
+        });
+        Assertions.assertNull(service.update(10, patch, null));
+        Assertions.assertFalse(service.delete(10, null));
+    }
+
     @Test
     void testDelete() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        Mockito.doReturn(true).when(repository).delete(10);
-        service = new ProfessorService(repository, departmentRepository);
-        Assertions.assertTrue(service.delete(10));
-        Assertions.assertFalse(service.delete(11));
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new ProfessorService(repository, cache, transactions);
+        Assertions.assertTrue(service.delete(10, null));
+        Assertions.assertFalse(service.delete(11, null));
     }
 
     @Test
     void testErrorDelete() throws SQLException {
-        DepartmentRepository departmentRepository;
         ProfessorRepository repository;
         ProfessorService service;
 
-        departmentRepository = Mockito.mock(DepartmentRepository.class);
         repository = Mockito.mock(ProfessorRepository.class);
-        service = new ProfessorService(repository, departmentRepository);
+        service = new ProfessorService(repository, cache, transactions);
 
-        Mockito.doThrow(SQLException.class).when(repository).delete(10);
+        Mockito.doThrow(SQLException.class).when(repository).delete(10, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.delete(10);
+            service.delete(10, null);
         });
     }
+
+    EntityCache cache;
+    TransactionManager transactions;
 }
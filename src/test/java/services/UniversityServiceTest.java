@@ -1,17 +1,39 @@
 package services;
 
+import cache.EntityCache;
+import database.TransactionManager;
 import entities.University;
 import entities.UniversityFull;
+import entities.UniversityPatch;
 import exceptions.ValidationException;
+import exceptions.VersionConflictException;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import repositories.UniversityRepository;
+import utils.ExpectedVersions;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Optional;
 
 class UniversityServiceTest {
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource;
+
+        cache = new EntityCache(3L << 20, Duration.ofMinutes(5));
+        dataSource = Mockito.mock(DataSource.class);
+        Mockito.doAnswer(invocation -> Mockito.mock(Connection.class, Mockito.RETURNS_MOCKS)).when(dataSource).getConnection();
+        transactions = new TransactionManager(dataSource);
+    }
+
     @Test
     void testGet() throws SQLException {
         ArrayList<University> universities;
@@ -23,7 +45,7 @@ class UniversityServiceTest {
         universities.add(new University());
         repository = Mockito.mock(UniversityRepository.class);
         Mockito.when(repository.get()).thenReturn(universities);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertIterableEquals(universities, service.get());
     }
 
@@ -33,11 +55,30 @@ class UniversityServiceTest {
         UniversityService service;
 
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).get();
         Assertions.assertThrows(RuntimeException.class, service::get);
     }
 
+    @Test
+    void testGetPage() throws SQLException {
+        ArrayList<University> universities;
+        UniversityRepository repository;
+        UniversityService service;
+        Versioned<Collection<University>> page;
+
+        universities = new ArrayList<>();
+        universities.add(new University());
+        universities.add(new University());
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.when(repository.get(10, 2)).thenReturn(universities);
+        Mockito.when(repository.getVersion()).thenReturn("7");
+        service = new UniversityService(repository, cache, transactions);
+        page = service.get(10, 2);
+        Assertions.assertIterableEquals(universities, page.getValue());
+        Assertions.assertEquals("7", page.getVersion());
+    }
+
     @Test
     void testGetById() throws SQLException {
         UniversityFull university;
@@ -50,18 +91,128 @@ class UniversityServiceTest {
         university.setId(1);
         repository = Mockito.mock(UniversityRepository.class);
         Mockito.doReturn(university).when(repository).getById(university.getId());
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertNull(service.getById(university.getId() + 1));
         Assertions.assertEquals(university, service.getById(university.getId()));
     }
 
+    @Test
+    void testGetByIdCached() throws SQLException {
+        UniversityFull entity;
+        UniversityRepository repository;
+        UniversityService service;
+        UniversityPatch patch;
+
+        entity = new UniversityFull();
+        entity.setId(10);
+        entity.setName("PSTU");
+        entity.setCity("Perm");
+        patch = new UniversityPatch();
+        patch.setName(Optional.of("PSTU"));
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.doReturn(entity).when(repository).getById(10);
+        Mockito.doReturn(entity).when(repository).update(10, patch, null);
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new UniversityService(repository, cache, transactions);
+
+        Assertions.assertSame(entity, service.getById(10));
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(1)).getById(10);
+        service.update(10, patch, null);
+        Assertions.assertSame(entity, service.getById(10));
+        Mockito.verify(repository, Mockito.times(2)).getById(10);
+        service.delete(10, null);
+        service.getById(10);
+        Mockito.verify(repository, Mockito.times(3)).getById(10);
+    }
+
+    @Test
+    void testGetByIdOutdated() throws SQLException {
+        UniversityFull outdated, current;
+        UniversityRepository repository;
+        UniversityService service;
+
+        outdated = new UniversityFull();
+        outdated.setId(10);
+        outdated.setVersion("5-0-0");
+        current = new UniversityFull();
+        current.setId(10);
+        current.setVersion("6-0-0");
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.doReturn(outdated, current).when(repository).getById(10);
+        service = new UniversityService(repository, cache, transactions);
+
+        Assertions.assertSame(outdated, service.getById(10, "5-0-0"));
+        // Изменение сделано другим узлом, уведомление о нём ещё не пришло
+        Assertions.assertSame(current, service.getById(10, "6-0-0"));
+        Assertions.assertSame(current, service.getById(10, "6-0-0"));
+        Mockito.verify(repository, Mockito.times(2)).getById(10);
+    }
+
+    @Test
+    void testGetByIdFiltered() throws SQLException {
+        UniversityFull entity;
+        UniversityRepository repository;
+        UniversityService service;
+        University university;
+        BitSet existing;
+
+        entity = new UniversityFull();
+        entity.setId(11);
+        university = new University();
+        university.setName("PSTU");
+        university.setCity("Perm");
+        existing = new BitSet();
+        existing.set(10);
+        existing.set(12);
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.doReturn(entity).when(repository).add(university);
+        Mockito.doReturn(entity).when(repository).getById(11);
+        service = new UniversityService(repository, cache, transactions);
+        cache.getUniversityIds().rebuild(existing);
+
+        Assertions.assertNull(service.getById(11));
+        Assertions.assertNull(service.getVersion(11));
+        Mockito.verify(repository, Mockito.never()).getById(11);
+        Mockito.verify(repository, Mockito.never()).getVersion(11);
+        service.add(university);
+        Assertions.assertSame(entity, service.getById(11));
+        Assertions.assertNull(service.getById(10));
+        Assertions.assertEquals(1, cache.getUniversityIds().getStatistics().getFalsePositives());
+    }
+
+    @Test
+    void testGetByIdCreatedByAnotherNode() throws SQLException {
+        UniversityFull entity;
+        UniversityRepository repository;
+        UniversityService service;
+        BitSet existing;
+
+        entity = new UniversityFull();
+        entity.setId(11);
+        existing = new BitSet();
+        existing.set(10);
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.doReturn(entity).when(repository).getById(11);
+        Mockito.doReturn("5-0-0").when(repository).getVersion(11);
+        service = new UniversityService(repository, cache, transactions);
+        cache.getUniversityIds().rebuild(existing);
+
+        // Уведомление о вставке ещё не пришло
+        Assertions.assertEquals("5-0-0", service.getVersion(11));
+        Assertions.assertSame(entity, service.getById(11));
+        Assertions.assertEquals(2, cache.getUniversityIds().getStatistics().getSize());
+        Assertions.assertNull(service.getVersion(12));
+        Assertions.assertEquals(1, cache.getUniversityIds().getStatistics().getFalsePositives());
+    }
+
     @Test
     void testErrorGetById() throws SQLException {
         UniversityRepository repository;
         UniversityService service;
 
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Mockito.doThrow(SQLException.class).when(repository).getById(10);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.getById(10);
@@ -80,14 +231,18 @@ class UniversityServiceTest {
         repository = Mockito.mock(UniversityRepository.class);
         Mockito.doAnswer(invocation -> {
             University universityArg;
+            UniversityFull result;
 
             universityArg = invocation.getArgument(0);
             universityArg.setId(1);
-            return null;
+            result = new UniversityFull();
+            result.setId(1);
+            return result;
         }).when(repository).add(university);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         service.add(university);
         Assertions.assertEquals(1, university.getId());
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
     }
 
     @Test
@@ -99,7 +254,7 @@ class UniversityServiceTest {
         university = new University();
         university.setCity("Perm");
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
            service.add(university);
         });
@@ -117,7 +272,7 @@ class UniversityServiceTest {
         University university;
 
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
             service.add(null);
         });
@@ -134,42 +289,40 @@ class UniversityServiceTest {
     void testValidUpdate() throws SQLException {
         UniversityRepository repository;
         UniversityService service;
-        University university;
+        UniversityPatch patch;
+        UniversityFull university;
 
-        university = new University();
+        patch = new UniversityPatch();
+        patch.setName(Optional.of("PSTU"));
+        university = new UniversityFull();
+        university.setId(10);
         university.setName("PSTU");
         university.setCity("Perm");
         repository = Mockito.mock(UniversityRepository.class);
-        Mockito.doAnswer(invocation -> {
-            University universityArg;
-
-            universityArg = invocation.getArgument(0);
-            return universityArg.getId() == 10;
-        }).when(repository).update(university);
-        service = new UniversityService(repository);
-        university.setId(10);
-        Assertions.assertTrue(service.update(university));
-        university.setId(11);
-        Assertions.assertFalse(service.update(university));
+        Mockito.doReturn(university).when(repository).update(10, patch, null);
+        service = new UniversityService(repository, cache, transactions);
+        Assertions.assertSame(university, service.update(10, patch, null));
+        Assertions.assertNull(service.update(11, patch, null));
+        Mockito.verify(repository, Mockito.never()).getById(Mockito.anyInt());
     }
 
     @Test
     void testInvalidUpdate() {
         UniversityRepository repository;
         UniversityService service;
-        University university;
+        UniversityPatch patch;
 
-        university = new University();
-        university.setCity("Perm");
+        patch = new UniversityPatch();
+        patch.setName(Optional.empty());
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(university);
+            service.update(10, patch, null);
         });
-        university.setName("PSTU");
-        university.setCity(null);
+        patch.setName(Optional.of("PSTU"));
+        patch.setCity(Optional.empty());
         Assertions.assertThrows(ValidationException.class, () -> {
-            service.update(university);
+            service.update(10, patch, null);
         });
     }
 
@@ -177,20 +330,48 @@ class UniversityServiceTest {
     void testErrorUpdate() throws SQLException {
         UniversityRepository repository;
         UniversityService service;
-        University university;
+        UniversityPatch patch;
 
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(null);
+            service.update(10, null, null);
         });
-        university = new University();
-        university.setCity("Perm");
-        university.setName("PSTU");
-        Mockito.doThrow(SQLException.class).when(repository).update(university);
+        patch = new UniversityPatch();
+        patch.setCity(Optional.of("Perm"));
+        Mockito.doThrow(SQLException.class).when(repository).update(10, patch, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.update(university);
+            service.update(10, patch, null);
+        });
+    }
+
+    @Test
+    void testVersionConflict() throws SQLException {
+        UniversityRepository repository;
+        UniversityService service;
+        UniversityPatch patch;
+
+        patch = new UniversityPatch();
+        patch.setName(Optional.of("PSTU"));
+        repository = Mockito.mock(UniversityRepository.class);
+        Mockito.doReturn("8").when(repository).getVersion(10);
+        service = new UniversityService(repository, cache, transactions);
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(10, patch, ExpectedVersions.of(7));
+        });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(10, ExpectedVersions.of(7));
+        });
+        Assertions.assertNull(service.update(11, patch, ExpectedVersions.of(7)));
+        Assertions.assertFalse(service.delete(11, ExpectedVersions.of(7)));
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.update(11, patch, ExpectedVersions.any());
+        });
+        Assertions.assertThrows(VersionConflictException.class, () -> {
+            service.delete(11, ExpectedVersions.any());
         });
+        Assertions.assertNull(service.update(10, patch, null));
+        Assertions.assertFalse(service.delete(10, null));
     }
 
     @Test
@@ -199,10 +380,10 @@ class UniversityServiceTest {
         UniversityService service;
 
         repository = Mockito.mock(UniversityRepository.class);
-        Mockito.doReturn(true).when(repository).delete(10);
-        service = new UniversityService(repository);
-        Assertions.assertTrue(service.delete(10));
-        Assertions.assertFalse(service.delete(11));
+        Mockito.doReturn(true).when(repository).delete(10, null);
+        service = new UniversityService(repository, cache, transactions);
+        Assertions.assertTrue(service.delete(10, null));
+        Assertions.assertFalse(service.delete(11, null));
     }
 
     @Test
@@ -211,12 +392,14 @@ class UniversityServiceTest {
         UniversityService service;
 
         repository = Mockito.mock(UniversityRepository.class);
-        service = new UniversityService(repository);
+        service = new UniversityService(repository, cache, transactions);
 
-        Mockito.doThrow(SQLException.class).when(repository).delete(10);
+        Mockito.doThrow(SQLException.class).when(repository).delete(10, null);
         Assertions.assertThrows(RuntimeException.class, () -> {
-            service.delete(10);
+            service.delete(10, null);
         });
     }
 
+    EntityCache cache;
+    TransactionManager transactions;
 }